@@ -0,0 +1,98 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+/**
+ * 
+ * The default connectivity provider, Wi-Fi is unmetered and mobile networks are metered.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashAndroidConnectivity implements CrashConnectivityProvider {
+	private final Context mContext;
+	
+	public CrashAndroidConnectivity(Context context) {
+		mContext = context.getApplicationContext();
+	}
+	
+	@Override
+	public int getNetworkClass() {
+		ConnectivityManager connectMgr = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo netInfo = connectMgr.getActiveNetworkInfo();
+		if(netInfo == null || !netInfo.isConnected()) {
+			return NETWORK_NONE;
+		}
+		
+		if(netInfo.getType() == ConnectivityManager.TYPE_WIFI) {
+			return NETWORK_WIFI;
+		}
+		if(netInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+			return NETWORK_OTHER;
+		}
+		
+		TelephonyManager telMgr = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
+		return getNetworkClass(telMgr.getNetworkType());
+	}
+	
+	@Override
+	public boolean isMetered() {
+		ConnectivityManager connectMgr = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo netInfo = connectMgr.getActiveNetworkInfo();
+		return netInfo == null || netInfo.getType() != ConnectivityManager.TYPE_WIFI;
+	}
+	
+    /**
+     * Return general class of network type, such as "3G" or "4G". 
+     *
+     */
+    private static int getNetworkClass(int networkType) {
+        switch (networkType) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NETWORK_2G;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return NETWORK_3G;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return NETWORK_4G;
+            default:
+                return NETWORK_OTHER;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 
+ * A fixed-capacity ring of the latest breadcrumbs, written without locks or allocation 
+ * from any thread. Each slot is guarded by the sequence number of its breadcrumb, 
+ * claimed by setting it to -1 before the slot is written, so a reader skips slots being overwritten 
+ * and two writers wrapping onto the same slot never interleave their fields. 
+ * A breadcrumb is lost rather than waited for.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashBreadcrumbs {
+	private static final long WRITING = -1;
+	
+	/**
+	 * Sequence of a slot never written, lower than any sequence.
+	 */
+	private static final long EMPTY = Long.MIN_VALUE;
+	
+	private final int mMask;
+	private final AtomicLong mNext = new AtomicLong();
+	private final AtomicLongArray mSequences;
+	private final AtomicLongArray mTimes;
+	private final AtomicReferenceArray<String> mMessages;
+	private final CrashUploadScheduler.Clock mClock;
+	
+	/**
+	 * @param capacity A power of two.
+	 */
+	public CrashBreadcrumbs(int capacity) {
+		this(capacity, CrashUploadScheduler.SYSTEM_CLOCK);
+	}
+	
+	/**
+	 * @param clock Tells the time of breadcrumbs.
+	 */
+	CrashBreadcrumbs(int capacity, CrashUploadScheduler.Clock clock) {
+		if(Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity is not a power of two: " + capacity);
+		}
+		mMask = capacity - 1;
+		mClock = clock;
+		mSequences = new AtomicLongArray(capacity);
+		mTimes = new AtomicLongArray(capacity);
+		mMessages = new AtomicReferenceArray<String>(capacity);
+		for(int i = 0; i < capacity; i++) {
+			mSequences.set(i, EMPTY);
+		}
+	}
+	
+	/**
+	 * The time is told once the breadcrumb has its sequence, 
+	 * a writer may be preempted there while others wrap the ring.
+	 */
+	public void leave(String message) {
+		long sequence = mNext.getAndIncrement();
+		put(sequence, mClock.now(), message);
+	}
+	
+	void leave(String message, long time) {
+		put(mNext.getAndIncrement(), time, message);
+	}
+	
+	/**
+	 * The slot is claimed only from an older breadcrumb: if it is being written, 
+	 * or a newer breadcrumb already took it, this breadcrumb is lost.
+	 */
+	private void put(long sequence, long time, String message) {
+		int slot = (int) sequence & mMask;
+		while(true) {
+			long current = mSequences.get(slot);
+			if(current == WRITING || current >= sequence) {
+				return;
+			}
+			if(mSequences.compareAndSet(slot, current, WRITING)) {
+				break;
+			}
+		}
+		//Ordered after the claim and before the sequence, as a reader checks the sequence around its reads.
+		mTimes.lazySet(slot, time);
+		mMessages.lazySet(slot, message);
+		mSequences.lazySet(slot, sequence);
+	}
+	
+	/**
+	 * Write the number of breadcrumbs overwritten, then the kept breadcrumbs from latest to oldest 
+	 * by {@link CrashRecordEncoder#writeBreadcrumb(long, String)}, marking the encoder after each.
+	 */
+	public void write(CrashRecordEncoder encoder, long crashTime) throws IOException {
+		long end = mNext.get();
+		long start = Math.max(0, end - mMask - 1);
+		encoder.writeVarInt((int) Math.min(start, Integer.MAX_VALUE));
+		encoder.mark();
+		for(long sequence = end - 1; sequence >= start; sequence--) {
+			int slot = (int) sequence & mMask;
+			if(mSequences.get(slot) != sequence) {
+				continue;
+			}
+			long time = mTimes.get(slot);
+			String message = mMessages.get(slot);
+			if(mSequences.get(slot) != sequence) {
+				continue; //Overwritten while read.
+			}
+			encoder.writeBreadcrumb(crashTime - time, message);
+			encoder.mark();
+		}
+	}
+}
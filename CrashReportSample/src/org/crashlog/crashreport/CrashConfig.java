@@ -47,8 +47,13 @@ final  class CrashConfig {
 	
 	/**
 	 * SDK version number.
+	 * Since version 2 each record starts with the version byte, and stack trace strings 
+	 * are interned in a per-record string table. A version 1 record starts with 0, 
+	 * the high byte of the crash id length.
+	 * Since version 3 the version byte is followed by occurrence count and last crash time.
+	 * Since version 4 the stack trace is followed by tagged sections, ended by tag 0.
 	 */
-	public static final int VERSION = 1;
+	public static final int VERSION = 4;
 	
 	/**
 	 * Platform: 1-Android 2-IOS 3-WP 4-Win8
@@ -73,11 +78,266 @@ final  class CrashConfig {
 	
 	
 	
+	/**
+	 * The preallocated buffer size for encoding a crash record.
+	 */
+	public static final int RECORD_BUFFER_SIZE = 16 * 1024;
+	
+	/**
+	 * Crash id algorithm, {@link CrashFingerprint#ALGORITHM_MD5} for the crash id of earlier SDK versions.
+	 */
+	public static final int FINGERPRINT_ALGORITHM = CrashFingerprint.ALGORITHM_MURMUR3;
+	
+	/**
+	 * Whether crash id includes the detail message. 
+	 * Exclude it if messages have volatile parts, such as indexes or addresses.
+	 */
+	public static final boolean IS_FINGERPRINT_MESSAGE = true;
+	
+	/**
+	 * Whether crash id includes line numbers, exclude them to group crashes across builds.
+	 */
+	public static final boolean IS_FINGERPRINT_LINE_NUMBER = true;
+	
+	/**
+	 * Whether crash id is computed from the root cause instead of the thrown exception, 
+	 * so crashes wrapped differently are grouped together.
+	 */
+	public static final boolean IS_FINGERPRINT_ROOT_CAUSE = false;
+	
+	/**
+	 * Number of slots of the crash dedup index, a power of two.
+	 * Up to 3/4 of it distinct crashes are counted instead of saved repeatedly.
+	 */
+	public static final int DEDUP_INDEX_SIZE = 256;
+	
+	/**
+	 * Number of slots of the string table for interning stack trace strings, a power of two.
+	 */
+	public static final int STRING_TABLE_SIZE = 1024;
+	
+	/**
+	 * Number of slots of the frame table for deduplicating frames shared by threads, a power of two.
+	 */
+	public static final int FRAME_TABLE_SIZE = 1024;
+	
+	/**
+	 * Maximum number of causes and suppressed exceptions recorded, 
+	 * which also bounds the root cause search.
+	 */
+	public static final int CAUSE_MAX_COUNT = 16;
+	
+	/**
+	 * Number of latest breadcrumbs kept for crash records, a power of two.
+	 */
+	public static final int BREADCRUMB_CAPACITY = 64;
+	
+	/**
+	 * Breadcrumb messages are truncated to this many chars in crash records.
+	 */
+	public static final int BREADCRUMB_MAX_LENGTH = 256;
+	
+	/**
+	 * Whether to capture stack traces of all other threads at crash time, 
+	 * for crashes caused by deadlock or contention. Skipped for OutOfMemoryError.
+	 */
+	public static final boolean IS_CAPTURE_ALL_THREADS = false;
+	
+	/**
+	 * Maximum number of other threads captured.
+	 */
+	public static final int THREAD_DUMP_MAX_THREADS = 64;
+	
+	/**
+	 * Maximum number of frames captured of each other thread.
+	 */
+	public static final int THREAD_DUMP_MAX_DEPTH = 32;
+	
+	/**
+	 * The memory reserved at initialization and released when saving an OutOfMemoryError crash.
+	 */
+	public static final int OOM_BALLAST_SIZE = 256 * 1024;
+	
+	/**
+	 * The preopened file for saving an OutOfMemoryError crash, in log files storage directory. 
+	 * Each process has its own file, named by the prefix, process id and extension.
+	 */
+	public static final String RESERVE_FILE_PREFIX = "crash_reserve";
+	
+	public static final String RESERVE_FILE_EXT = ".tmp";
+	
+	/**
+	 * The manifest of stored crash log files, in log files storage directory.
+	 */
+	public static final String MANIFEST_FILE_NAME = "crash_manifest.dat";
+	
+	/**
+	 * The lock file guarding the manifest across processes, in log files storage directory.
+	 */
+	public static final String MANIFEST_LOCK_FILE_NAME = "crash_manifest.lock";
+	
+	/**
+	 * The manifest is compacted when it has at least this many dead entries, 
+	 * and more dead entries than live ones.
+	 */
+	public static final int MANIFEST_COMPACT_THRESHOLD = 64;
+	
+	/**
+	 * Maximum total bytes of crash log files.
+	 */
+	public static final long LOG_QUOTA_MAX_BYTES = 2 * 1024 * 1024;
+	
+	/**
+	 * Maximum number of crash log files.
+	 */
+	public static final int LOG_QUOTA_MAX_COUNT = 256;
+	
+	/**
+	 * Crash log files older than this are evicted.
+	 */
+	public static final long LOG_QUOTA_MAX_AGE = 30 * 24 * 60 * 60 * 1000L; //In msec.
+	
+	/**
+	 * Which crash log files are evicted first when the quota is exceeded.
+	 */
+	public static final int LOG_EVICTION_POLICY = CrashLogQuota.EVICT_DUPLICATES_FIRST;
+	
+	/**
+	 * The SDK metrics file, in log files storage directory. 
+	 * Each process has its own file, named by the prefix, process name and extension, 
+	 * so the next process of the same name reports the metrics.
+	 */
+	public static final String METRICS_FILE_PREFIX = "crash_metrics";
+	
+	public static final String METRICS_FILE_EXT = ".dat";
+	
+	/**
+	 * Whether to store crash logs in the memory-mapped journal instead of one file per crash.
+	 * Crash logs are still saved to files when the journal is unavailable or full.
+	 */
+	public static final boolean USE_CRASH_JOURNAL = false;
+	
+	/**
+	 * The journal file name, in log files storage directory.
+	 */
+	public static final String JOURNAL_FILE_NAME = "crash_journal.dat";
+	
+	/**
+	 * The lock file held by the process using the journal, in log files storage directory. 
+	 * Other processes save crash logs to files.
+	 */
+	public static final String JOURNAL_LOCK_FILE_NAME = "crash_journal.lock";
+	
+	/**
+	 * The journal slot size, a crash log larger than this is saved to file.
+	 */
+	public static final int JOURNAL_SLOT_SIZE = 32 * 1024;
+	
+	/**
+	 * Number of journal slots.
+	 */
+	public static final int JOURNAL_SLOT_COUNT = 32;
+	
 	/**
 	 * When the APP running, how delayed time began to report log files. 
 	 */
 	public static final int REPORT_LOG_DELAY = 0; //In msec.
 	
+	/**
+	 * Maximum number of logs reported in one request, the number is written as one byte.
+	 */
+	public static final int REPORT_BATCH_MAX_COUNT = 128;
+	
+	/**
+	 * Maximum bytes of logs reported in one request, a single larger log is reported alone.
+	 */
+	public static final long REPORT_BATCH_MAX_BYTES = 512 * 1024;
+	
+	/**
+	 * Minimum bytes of logs reported in one request, however slow the network is.
+	 */
+	public static final long REPORT_BATCH_MIN_BYTES = 16 * 1024;
+	
+	/**
+	 * A batch is sized by the estimated network throughput to be sent in about this long.
+	 */
+	public static final long REPORT_TARGET_TIME = 10 * 1000L; //In msec.
+	
+	/**
+	 * On a metered network, only logs of new crashes up to this size are reported.
+	 */
+	public static final long REPORT_NEW_CRASH_MAX_BYTES = 16 * 1024;
+	
+	/**
+	 * Package names whose frames are reported with method signatures, so overloaded methods 
+	 * can be told apart, such as <code>{"org.crashlog.sample"}</code>. Signatures are resolved 
+	 * when logs are reported, never at crash time. Empty to disable.
+	 */
+	public static final String[] SIGNATURE_PACKAGES = {};
+	
+	/**
+	 * Maximum number of classes whose signature tables are cached.
+	 */
+	public static final int SIGNATURE_CACHE_SIZE = 64;
+	
+	/**
+	 * Marks the method signatures block after the records of a report.
+	 */
+	public static final int SIGNATURE_MAGIC = 0x5349474E;
+	
+	/**
+	 * Whether to gzip compress reported logs, the compression level is chosen by network throughput.
+	 * Host may reject compressed request with 415, then logs are reported uncompressed.
+	 */
+	public static final boolean IS_ALLOW_COMPRESS_REPORT = true;
+	
+	/**
+	 * The buffer size for streaming log files to host.
+	 */
+	public static final int REPORT_BUFFER_SIZE = 8192;
+	
+	/**
+	 * Maximum number of tasks waiting for the worker thread.
+	 */
+	public static final int WORKER_QUEUE_SIZE = 8;
+	
+	/**
+	 * How long the idle worker thread is kept alive.
+	 */
+	public static final long WORKER_KEEP_ALIVE = 30 * 1000L; //In msec.
+	
+	/**
+	 * The base delay of retrying a failed report, doubled on each failure.
+	 */
+	public static final long RETRY_BASE_DELAY = 30 * 1000L; //In msec.
+	
+	/**
+	 * The maximum delay of retrying a failed report.
+	 */
+	public static final long RETRY_MAX_DELAY = 6 * 60 * 60 * 1000L; //In msec.
+	
+	/**
+	 * The report retry state file name, in log files storage directory.
+	 */
+	public static final String UPLOAD_STATE_FILE_NAME = "crash_upload.state";
+	
+	/**
+	 * The crash ids reported lately, in log files storage directory. 
+	 * Their next logs are deferred on a metered network, also by the next uploader process.
+	 */
+	public static final String REPORTED_CRASHES_FILE_NAME = "crash_reported.dat";
+	
+	/**
+	 * The lease file electing the process that reports crash logs, in log files storage directory.
+	 */
+	public static final String UPLOADER_LEASE_FILE_NAME = "crash_uploader.lock";
+	
+	/**
+	 * How long the elected process keeps reporting crash logs without renewing, 
+	 * other processes check again after this long.
+	 */
+	public static final long UPLOADER_LEASE_DURATION = 10 * 60 * 1000L; //In msec.
+	
 	/**
 	 * Whether to allow report crash log files.
 	 * Reported files will be deleted. 
@@ -0,0 +1,56 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+/**
+ * 
+ * Tells the network the device is on, for the upload policy to choose what and how to report. 
+ * The default provider asks the Android connectivity services, 
+ * see {@link CrashReport#init(android.app.Application, CrashMetricsListener, CrashConnectivityProvider)}.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public interface CrashConnectivityProvider {
+	public static final int NETWORK_NONE = 0;
+	public static final int NETWORK_2G = 1;
+	public static final int NETWORK_3G = 2;
+	public static final int NETWORK_4G = 3;
+	public static final int NETWORK_WIFI = 4;
+	
+	/**
+	 * Connected, but of unknown class, such as a mobile network of a new type.
+	 */
+	public static final int NETWORK_OTHER = 5;
+	
+	/**
+	 * @return The class of the active network, such as {@link #NETWORK_WIFI}, 
+	 * or {@link #NETWORK_NONE} if not connected.
+	 */
+	int getNetworkClass();
+	
+	/**
+	 * Whether the active network is metered, only new crashes are reported on a metered network.
+	 */
+	boolean isMetered();
+}
@@ -0,0 +1,221 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * 
+ * Index of crash id to the log file that holds the full record of the crash. 
+ * A repeated crash only increases the occurrence count and updates the last crash time 
+ * in the header of the existing record, which are at fixed offsets:
+ * version(1) count(4) lastCrashTime(8) crashId(UTF) ...
+ * 
+ * The index is a preallocated open addressing table, a lookup is O(1). 
+ * A removed crash id is kept as a tombstone for probing, the table is rehashed 
+ * when tombstones fill it. When it is full of crash ids, repeated crashes are saved as new records.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashDedupIndex {
+	private static final int OFFSET_COUNT = 1;
+	
+	private final String[] mCrashIds;
+	private final File[] mFiles;
+	private final int mMask;
+	private final int mMaxSize;
+	private int mSize;
+	private int mTombstones;
+	
+	/**
+	 * @param capacity Number of slots, must be a power of two.
+	 */
+	public CrashDedupIndex(int capacity) {
+		mCrashIds = new String[capacity];
+		mFiles = new File[capacity];
+		mMask = capacity - 1;
+		mMaxSize = capacity * 3 / 4;
+	}
+	
+	/**
+	 * Build the index from the crash ids recorded in the manifest.
+	 */
+	public static CrashDedupIndex load(CrashManifest manifest) {
+		CrashDedupIndex index = new CrashDedupIndex(CrashConfig.DEDUP_INDEX_SIZE);
+		List<CrashManifest.Entry> entries = manifest.getEntries();
+		for(int i = 0; i < entries.size(); i++) {
+			CrashManifest.Entry entry = entries.get(i);
+			if(entry.getCrashId() != null) {
+				index.put(entry.getCrashId(), entry.getFile());
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Return the crash id of the log file, or null if it is not a record of current version.
+	 */
+	static String readCrashId(File logFile) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(logFile));
+			if(in.readUnsignedByte() != CrashConfig.VERSION) {
+				return null;
+			}
+			in.readInt(); //count
+			in.readLong(); //last crash time
+			return in.readUTF(); //Crash id is ASCII, same as modified UTF-8
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Read crash id failed: " + logFile.getName(), e);
+			return null;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+	
+	private int slotOf(String crashId) {
+		int slot = crashId.hashCode() & mMask;
+		String key;
+		while((key = mCrashIds[slot]) != null && !key.equals(crashId)) {
+			slot = (slot + 1) & mMask;
+		}
+		return slot;
+	}
+	
+	public synchronized void put(String crashId, File logFile) {
+		int slot = slotOf(crashId);
+		if(mCrashIds[slot] == null) {
+			if(mSize + mTombstones >= mMaxSize) {
+				if(mSize >= mMaxSize) {
+					return;
+				}
+				rehash();
+				slot = slotOf(crashId);
+			}
+			mCrashIds[slot] = crashId;
+			mSize++;
+		} else if(mFiles[slot] == null) {
+			mTombstones--;
+			mSize++;
+		}
+		mFiles[slot] = logFile;
+	}
+	
+	/**
+	 * Insert the crash ids again without tombstones.
+	 */
+	private void rehash() {
+		String[] crashIds = mCrashIds.clone();
+		File[] files = mFiles.clone();
+		Arrays.fill(mCrashIds, null);
+		Arrays.fill(mFiles, null);
+		mTombstones = 0;
+		for(int i = 0; i < crashIds.length; i++) {
+			if(files[i] != null) {
+				int slot = slotOf(crashIds[i]);
+				mCrashIds[slot] = crashIds[i];
+				mFiles[slot] = files[i];
+			}
+		}
+	}
+	
+	/**
+	 * Number of crash ids with a log file.
+	 */
+	synchronized int size() {
+		return mSize;
+	}
+	
+	/**
+	 * @return The log file that holds the record of the crash, or null.
+	 */
+	public synchronized File get(String crashId) {
+		return mFiles[slotOf(crashId)];
+	}
+	
+	/**
+	 * Remove log files from the index, so that their records are not updated any more, 
+	 * such as while they are being reported.
+	 */
+	public synchronized void remove(List<File> logFiles) {
+		for(int i = 0; i < mFiles.length; i++) {
+			if(mFiles[i] != null && logFiles.contains(mFiles[i])) {
+				mFiles[i] = null; //Keep the crash id for probing.
+				mSize--;
+				mTombstones++;
+			}
+		}
+	}
+	
+	/**
+	 * If the crash has a record, increase its occurrence count and update its last crash time.
+	 * 
+	 * @return false if the crash has no record, it should be saved as a new record.
+	 */
+	public synchronized boolean recordRepeat(String crashId, long crashTime) {
+		File logFile = mFiles[slotOf(crashId)];
+		if(logFile == null || !logFile.exists()) {
+			return false;
+		}
+		
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(logFile, "rw");
+			if(file.readUnsignedByte() != CrashConfig.VERSION) {
+				return false;
+			}
+			int count = file.readInt();
+			file.seek(OFFSET_COUNT);
+			file.writeInt(count + 1);
+			file.writeLong(crashTime);
+			return true;
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Update crash record failed: " + logFile.getName(), e);
+			return false;
+		} finally {
+			if(file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+/**
+ * 
+ * An exclusive lock across processes on a lock file, and across threads of this process. 
+ * Reentrant by the holding thread, only the outermost lock takes the file lock.
+ * 
+ * A process drops all its locks of a file when any descriptor of the file is closed, 
+ * so there is one instance per lock file in a process, see {@link #get(File)}, 
+ * and the lock file is accessed only through {@link #getFile()} while locked.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashFileLock {
+	private static final HashMap<String, CrashFileLock> mLocks = new HashMap<String, CrashFileLock>();
+	
+	private final File mPath;
+	private final ReentrantLock mThreadLock = new ReentrantLock();
+	private RandomAccessFile mFile;
+	private FileLock mLock;
+	
+	private CrashFileLock(File path) {
+		mPath = path;
+	}
+	
+	/**
+	 * The lock of the lock file, shared in this process.
+	 */
+	public static CrashFileLock get(File path) {
+		synchronized (mLocks) {
+			CrashFileLock lock = mLocks.get(path.getPath());
+			if(lock == null) {
+				lock = new CrashFileLock(path);
+				mLocks.put(path.getPath(), lock);
+			}
+			return lock;
+		}
+	}
+	
+	/**
+	 * Wait for the lock.
+	 */
+	public void lock() throws IOException {
+		mThreadLock.lock();
+		if(mThreadLock.getHoldCount() > 1) {
+			return;
+		}
+		try {
+			mFile = new RandomAccessFile(mPath, "rw");
+			mLock = mFile.getChannel().lock();
+		} catch (IOException e) {
+			close();
+			mThreadLock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Take the lock if no other process or thread holds it.
+	 * 
+	 * @return false if the lock is held by others.
+	 */
+	public boolean tryLock() throws IOException {
+		if(!mThreadLock.tryLock()) {
+			return false;
+		}
+		if(mThreadLock.getHoldCount() > 1) {
+			return true;
+		}
+		try {
+			mFile = new RandomAccessFile(mPath, "rw");
+			mLock = mFile.getChannel().tryLock();
+		} catch (IOException e) {
+			close();
+			mThreadLock.unlock();
+			throw e;
+		}
+		if(mLock == null) {
+			close();
+			mThreadLock.unlock();
+			return false;
+		}
+		return true;
+	}
+	
+	public void unlock() {
+		if(mThreadLock.getHoldCount() == 1) {
+			close();
+		}
+		mThreadLock.unlock();
+	}
+	
+	/**
+	 * The lock file, only valid while locked.
+	 */
+	public RandomAccessFile getFile() {
+		return mFile;
+	}
+	
+	private void close() {
+		if(mFile == null) {
+			return;
+		}
+		try {
+			//Closing the file releases the lock.
+			mFile.close();
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Close lock file failed: " + mPath.getName(), e);
+		}
+		mFile = null;
+		mLock = null;
+	}
+}
@@ -0,0 +1,328 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 
+ * Computes crash id by streaming crash components into a reusable hasher, 
+ * no intermediate string is built. A frame is hashed in the format of 
+ * <code>StackTraceElement.toString()</code>, so with MD5 and all components included 
+ * the crash id is the same as MD5 of the concatenated string.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashFingerprint {
+	/**
+	 * 128-bit MurmurHash3 (x64 variant), fast non-cryptographic hash.
+	 */
+	public static final int ALGORITHM_MURMUR3 = 1;
+	
+	/**
+	 * MD5, compatible with the crash id of earlier SDK versions.
+	 */
+	public static final int ALGORITHM_MD5 = 2;
+	
+	private static final char[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8',
+		'9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+	
+	private final int mAlgorithm;
+	private final boolean mIncludeMessage;
+	private final boolean mIncludeLineNumber;
+	private final MessageDigest mDigest;
+	
+	private final byte[] mBytes = new byte[64];
+	private int mCount;
+	private long mLength;
+	private long mH1;
+	private long mH2;
+	
+	/**
+	 * Little-endian words of the Murmur3 block being fed.
+	 */
+	private long mK1;
+	private long mK2;
+	
+	private final char[] mDigits = new char[11];
+	private final char[] mHex = new char[32];
+	
+	/**
+	 * @param includeMessage Whether to include detail message, which may have volatile parts.
+	 * @param includeLineNumber Whether to include line numbers, which change with each build.
+	 */
+	public CrashFingerprint(int algorithm, boolean includeMessage, boolean includeLineNumber) {
+		MessageDigest digest = null;
+		if(algorithm == ALGORITHM_MD5) {
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		mAlgorithm = algorithm;
+		mIncludeMessage = includeMessage;
+		mIncludeLineNumber = includeLineNumber;
+		mDigest = digest;
+	}
+	
+	/**
+	 * Return the crash id as 32 hex digits.
+	 */
+	public String compute(String versionName, String cause, String detailMessage, StackTraceElement[] stList) {
+		reset();
+		update(versionName);
+		update(cause);
+		if(mIncludeMessage) {
+			update(detailMessage);
+		}
+		if(stList != null) {
+			for(int i = 0; i < stList.length; i++) {
+				update(stList[i]);
+			}
+		}
+		return finish();
+	}
+	
+	private void reset() {
+		mCount = 0;
+		mLength = 0;
+		mH1 = 0;
+		mH2 = 0;
+		mK1 = 0;
+		mK2 = 0;
+		if(mDigest != null) {
+			mDigest.reset();
+		}
+	}
+	
+	/**
+	 * Feed a frame as <code>StackTraceElement.toString()</code>, 
+	 * line number is omitted if not included.
+	 */
+	private void update(StackTraceElement st) {
+		update(st.getClassName());
+		update('.');
+		update(st.getMethodName());
+		if(st.isNativeMethod()) {
+			update("(Native Method)");
+			return;
+		}
+		
+		String fileName = st.getFileName();
+		if(fileName == null) {
+			update("(Unknown Source)");
+			return;
+		}
+		update('(');
+		update(fileName);
+		int line = st.getLineNumber();
+		if(mIncludeLineNumber && line >= 0) {
+			update(':');
+			update(line);
+		}
+		update(')');
+	}
+	
+	private void update(int val) {
+		int n = mDigits.length;
+		do {
+			mDigits[--n] = (char) ('0' + val % 10);
+			val /= 10;
+		} while(val > 0);
+		while(n < mDigits.length) {
+			update(mDigits[n++]);
+		}
+	}
+	
+	/**
+	 * Feed UTF-8 bytes of the string, null is fed as "null" like <code>StringBuilder.append</code>.
+	 */
+	private void update(String s) {
+		if(s == null) {
+			s = "null";
+		}
+		int len = s.length();
+		int i = 0;
+		if(mAlgorithm == ALGORITHM_MURMUR3) {
+			i = updateAscii(s);
+		}
+		for(; i < len; i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				update((byte) c);
+			} else if(c < 0x800) {
+				update((byte) (0xc0 | (c >> 6)));
+				update((byte) (0x80 | (c & 0x3f)));
+			} else if(Character.isHighSurrogate(c) && i + 1 < len 
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				update((byte) (0xf0 | (cp >> 18)));
+				update((byte) (0x80 | ((cp >> 12) & 0x3f)));
+				update((byte) (0x80 | ((cp >> 6) & 0x3f)));
+				update((byte) (0x80 | (cp & 0x3f)));
+			} else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				update((byte) '?');
+			} else {
+				update((byte) (0xe0 | (c >> 12)));
+				update((byte) (0x80 | ((c >> 6) & 0x3f)));
+				update((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+	
+	/**
+	 * Feed the leading ASCII chars of the string into the Murmur3 blocks, with the state in locals.
+	 * 
+	 * @return Index of the first char not fed.
+	 */
+	private int updateAscii(String s) {
+		int len = s.length();
+		long k1 = mK1;
+		long k2 = mK2;
+		int count = mCount;
+		int i = 0;
+		for(; i < len; i++) {
+			char c = s.charAt(i);
+			if(c >= 0x80) {
+				break;
+			}
+			if(count < 8) {
+				k1 |= (long) c << (count << 3);
+			} else {
+				k2 |= (long) c << ((count - 8) << 3);
+			}
+			if(++count == 16) {
+				mixBlock(k1, k2);
+				k1 = 0;
+				k2 = 0;
+				count = 0;
+				mLength += 16;
+			}
+		}
+		mK1 = k1;
+		mK2 = k2;
+		mCount = count;
+		return i;
+	}
+	
+	private void update(char c) {
+		update((byte) c);
+	}
+	
+	private void update(byte b) {
+		if(mAlgorithm == ALGORITHM_MD5) {
+			mBytes[mCount++] = b;
+			if(mCount == mBytes.length) {
+				mDigest.update(mBytes, 0, mCount);
+				mCount = 0;
+			}
+			return;
+		}
+		
+		//Shifted into the block words as fed, rather than buffered and read back.
+		long val = (b & 0xffL) << ((mCount & 7) << 3);
+		if(mCount < 8) {
+			mK1 |= val;
+		} else {
+			mK2 |= val;
+		}
+		if(++mCount == 16) {
+			mixBlock(mK1, mK2);
+			mK1 = 0;
+			mK2 = 0;
+			mCount = 0;
+			mLength += 16;
+		}
+	}
+	
+	private void mixBlock(long k1, long k2) {
+		mH1 ^= mixK1(k1);
+		mH1 = Long.rotateLeft(mH1, 27);
+		mH1 += mH2;
+		mH1 = mH1 * 5 + 0x52dce729;
+		
+		mH2 ^= mixK2(k2);
+		mH2 = Long.rotateLeft(mH2, 31);
+		mH2 += mH1;
+		mH2 = mH2 * 5 + 0x38495ab5;
+	}
+	
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		return k1 * C2;
+	}
+	
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		return k2 * C1;
+	}
+	
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+	
+	private String finish() {
+		if(mAlgorithm == ALGORITHM_MD5) {
+			mDigest.update(mBytes, 0, mCount);
+			byte[] digest = mDigest.digest();
+			for (int i = 0; i < 16; i++) {
+				mHex[i * 2] = HEX_DIGITS[digest[i] >>> 4 & 0xf];
+				mHex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+			}
+			return new String(mHex);
+		}
+		
+		//Tail
+		mLength += mCount;
+		mH2 ^= mixK2(mK2);
+		mH1 ^= mixK1(mK1);
+		
+		mH1 ^= mLength;
+		mH2 ^= mLength;
+		mH1 += mH2;
+		mH2 += mH1;
+		mH1 = fmix(mH1);
+		mH2 = fmix(mH2);
+		mH1 += mH2;
+		mH2 += mH1;
+		
+		for(int i = 0; i < 16; i++) {
+			mHex[i] = HEX_DIGITS[(int) (mH1 >>> (60 - i * 4)) & 0xf];
+			mHex[16 + i] = HEX_DIGITS[(int) (mH2 >>> (60 - i * 4)) & 0xf];
+		}
+		return new String(mHex);
+	}
+}
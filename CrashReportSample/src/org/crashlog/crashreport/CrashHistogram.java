@@ -0,0 +1,166 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * A histogram of non-negative values with log-linear buckets, as in HdrHistogram: 
+ * each power of two range is split into 16 buckets, so a percentile is accurate 
+ * to 1/16 of its value. Values are clamped to <code>Integer.MAX_VALUE</code>.
+ * Recording takes a few atomic operations, no locks or allocation, from any thread.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public final class CrashHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (31 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+	
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+	
+	CrashHistogram() { }
+	
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		} else if(value > Integer.MAX_VALUE) {
+			value = Integer.MAX_VALUE;
+		}
+		mCounts.incrementAndGet(getIndex((int) value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max;
+		while(value > (max = mMax.get())) {
+			if(mMax.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Values below 16 have a bucket each, then a value with its highest bit at <code>b</code> 
+	 * falls in the bucket of its next 4 bits in range <code>b</code>.
+	 */
+	private static int getIndex(int value) {
+		if(value < SUB_BUCKET_COUNT) {
+			return value;
+		}
+		int bit = 31 - Integer.numberOfLeadingZeros(value);
+		int shift = bit - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+	
+	/**
+	 * The highest value of a bucket.
+	 */
+	private static long getHighestValue(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long low = (long) (SUB_BUCKET_COUNT | (index & (SUB_BUCKET_COUNT - 1))) << shift;
+		return low + (1L << shift) - 1;
+	}
+	
+	public long getCount() {
+		return mCount.get();
+	}
+	
+	public long getMax() {
+		return mMax.get();
+	}
+	
+	public double getMean() {
+		long count = mCount.get();
+		return count > 0 ? (double) mSum.get() / count : 0;
+	}
+	
+	/**
+	 * @param percentile Such as 50 or 99.9.
+	 * @return The highest value of the bucket containing the percentile, 
+	 * at most the max value, 0 if empty.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = mCount.get();
+		if(count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts.get(i);
+			if(seen >= rank) {
+				return Math.min(getHighestValue(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+	
+	/**
+	 * Write count, sum, max and non-empty buckets.
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeLong(mCount.get());
+		out.writeLong(mSum.get());
+		out.writeLong(mMax.get());
+		int buckets = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			if(mCounts.get(i) != 0) {
+				buckets++;
+			}
+		}
+		out.writeShort(buckets);
+		for(int i = 0; i < BUCKET_COUNT && buckets > 0; i++) {
+			long n = mCounts.get(i);
+			if(n != 0) {
+				out.writeShort(i);
+				out.writeLong(n);
+				buckets--;
+			}
+		}
+	}
+	
+	void readFrom(DataInputStream in) throws IOException {
+		mCount.set(in.readLong());
+		mSum.set(in.readLong());
+		mMax.set(in.readLong());
+		int buckets = in.readUnsignedShort();
+		for(int i = 0; i < buckets; i++) {
+			int index = in.readUnsignedShort();
+			if(index >= BUCKET_COUNT) {
+				throw new IOException("Bad histogram bucket: " + index);
+			}
+			mCounts.set(index, in.readLong());
+		}
+	}
+}
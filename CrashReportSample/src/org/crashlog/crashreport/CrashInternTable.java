@@ -0,0 +1,106 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.util.Arrays;
+
+/**
+ * 
+ * A preallocated open addressing table which assigns each distinct key 
+ * an index in order of first appearance, keys are compared by <code>equals</code>. 
+ * Crash records intern their strings and the stack frames shared by threads with it.
+ * When the table is full, new keys still get indexes but are not remembered, 
+ * so they are written again if they appear again.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashInternTable {
+	private final Object[] mKeys;
+	private final int[] mIndexes;
+	private final int mMask;
+	private final int mMaxRemembered;
+	private int mRemembered;
+	private int mSize;
+	
+	/**
+	 * @param capacity Number of slots, must be a power of two.
+	 */
+	public CrashInternTable(int capacity) {
+		mKeys = new Object[capacity];
+		mIndexes = new int[capacity];
+		mMask = capacity - 1;
+		mMaxRemembered = capacity * 3 / 4;
+	}
+	
+	public void clear() {
+		Arrays.fill(mKeys, null);
+		mRemembered = 0;
+		mSize = 0;
+	}
+	
+	/**
+	 * Number of indexes assigned.
+	 */
+	public int size() {
+		return mSize;
+	}
+	
+	/**
+	 * Forget keys of index <code>size</code> and above, such as when their bytes are rolled back. 
+	 * Removing them does not break probing of earlier keys, which never probe past later ones.
+	 */
+	public void truncate(int size) {
+		for(int i = 0; i < mKeys.length; i++) {
+			if(mKeys[i] != null && mIndexes[i] >= size) {
+				mKeys[i] = null;
+				mRemembered--;
+			}
+		}
+		mSize = size;
+	}
+	
+	/**
+	 * Return the index of the key if it was already added, 
+	 * otherwise add it with the next index and return -1.
+	 */
+	public int add(Object key) {
+		int slot = key.hashCode() & mMask;
+		Object existing;
+		while((existing = mKeys[slot]) != null) {
+			if(existing == key || existing.equals(key)) {
+				return mIndexes[slot];
+			}
+			slot = (slot + 1) & mMask;
+		}
+		
+		if(mRemembered < mMaxRemembered) {
+			mKeys[slot] = key;
+			mIndexes[slot] = mSize;
+			mRemembered++;
+		}
+		mSize++;
+		return -1;
+	}
+}
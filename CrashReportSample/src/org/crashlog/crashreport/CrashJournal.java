@@ -0,0 +1,285 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 
+ * A crash journal on a single preallocated, memory-mapped file with fixed-size slots.
+ * Slots are used as a ring buffer, the record with sequence number <code>seq</code> 
+ * is stored in slot <code>seq % slotCount</code>.
+ * 
+ * Journal header: magic(4) slotSize(4) slotCount(4) reserved(4) committedSeq(8) ackedSeq(8)
+ * Slot: seq(8) length(4) checksum(4) record(length)
+ * 
+ * A record is copied into its slot first, the slot sequence number is written last 
+ * as the commit marker. A slot whose sequence number or checksum does not match is 
+ * a torn write and never reported. A record is never overwritten before it is acknowledged, 
+ * when all slots are unacknowledged the crash is saved to a log file instead.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashJournal {
+	private static final int MAGIC = 0x4352484A;
+	private static final int HEADER_SIZE = 64;
+	private static final int OFFSET_COMMITTED_SEQ = 16;
+	private static final int OFFSET_ACKED_SEQ = 24;
+	private static final int SLOT_HEADER_SIZE = 16;
+	
+	private final MappedByteBuffer mMap;
+	private final int mSlotSize;
+	private final int mSlotCount;
+	private final SlotChannel mSlotChannel = new SlotChannel();
+	
+	private long mCommittedSeq;
+	private long mAckedSeq;
+	private long mWritingSeq;
+	
+	private CrashJournal(MappedByteBuffer map, int slotSize, int slotCount) {
+		mMap = map;
+		mSlotSize = slotSize;
+		mSlotCount = slotCount;
+	}
+	
+	/**
+	 * Map the journal file in the directory, it is created or reset if not valid. 
+	 * The journal is used by one process at a time, which keeps the journal lock until it exits.
+	 * 
+	 * @throws IOException If another process uses the journal.
+	 */
+	public static CrashJournal open(File dir) throws IOException {
+		CrashFileLock lock = CrashFileLock.get(new File(dir, CrashConfig.JOURNAL_LOCK_FILE_NAME));
+		if(!lock.tryLock()) {
+			throw new IOException("Crash journal is used by another process.");
+		}
+		
+		int slotSize = CrashConfig.JOURNAL_SLOT_SIZE;
+		int slotCount = CrashConfig.JOURNAL_SLOT_COUNT;
+		long size = HEADER_SIZE + (long) slotSize * slotCount;
+		
+		RandomAccessFile file = null;
+		MappedByteBuffer map;
+		try {
+			file = new RandomAccessFile(new File(dir, CrashConfig.JOURNAL_FILE_NAME), "rw");
+			boolean valid = file.length() == size;
+			if(valid) {
+				valid = file.readInt() == MAGIC 
+						&& file.readInt() == slotSize 
+						&& file.readInt() == slotCount;
+			}
+			if(!valid) {
+				file.setLength(0);
+				file.setLength(size);
+				file.writeInt(MAGIC);
+				file.writeInt(slotSize);
+				file.writeInt(slotCount);
+			}
+			map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			if(file != null) {
+				file.close();
+			}
+		}
+		
+		CrashJournal journal = new CrashJournal(map, slotSize, slotCount);
+		journal.recover();
+		return journal;
+	}
+	
+	/**
+	 * Committed sequence number in the header may be behind the slots, 
+	 * if the process was killed right after a slot was committed.
+	 */
+	private void recover() {
+		mAckedSeq = mMap.getLong(OFFSET_ACKED_SEQ);
+		mCommittedSeq = Math.max(mAckedSeq, mMap.getLong(OFFSET_COMMITTED_SEQ));
+		for(int i = 0; i < mSlotCount; i++) {
+			long seq = mMap.getLong(slotOffset(i));
+			if(seq > mCommittedSeq && isValid(seq)) {
+				mCommittedSeq = seq;
+			}
+		}
+	}
+	
+	private int slotOffset(long seq) {
+		return HEADER_SIZE + (int) (seq % mSlotCount) * mSlotSize;
+	}
+	
+	private int checksum(int offset, int length) {
+		int hash = 0x811c9dc5; //FNV-1a
+		for(int i = offset; i < offset + length; i++) {
+			hash ^= mMap.get(i) & 0xff;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+	
+	private boolean isValid(long seq) {
+		int base = slotOffset(seq);
+		if(mMap.getLong(base) != seq) {
+			return false;
+		}
+		int length = mMap.getInt(base + 8);
+		if(length <= 0 || length > mSlotSize - SLOT_HEADER_SIZE) {
+			return false;
+		}
+		return mMap.getInt(base + 12) == checksum(base + SLOT_HEADER_SIZE, length);
+	}
+	
+	/**
+	 * Prepare the encoder to write a record into the next slot.
+	 * 
+	 * @throws IOException If the slot still holds an unacknowledged record, 
+	 * the crash should be saved to file.
+	 */
+	public synchronized void begin(CrashRecordEncoder encoder) throws IOException {
+		long seq = mCommittedSeq + 1;
+		if(seq - mSlotCount > mAckedSeq) {
+			throw new IOException("Crash journal is full.");
+		}
+		
+		int base = slotOffset(seq);
+		mMap.putLong(base, 0); //Invalidate the slot before overwriting.
+		mSlotChannel.reset(base + SLOT_HEADER_SIZE, mSlotSize - SLOT_HEADER_SIZE);
+		mWritingSeq = seq;
+		encoder.setOutput(mSlotChannel);
+	}
+	
+	/**
+	 * Flush the encoded record into the slot and commit it.
+	 */
+	public synchronized void commit(CrashRecordEncoder encoder) throws IOException {
+		encoder.flush();
+		encoder.setOutput(null);
+		
+		long seq = mWritingSeq;
+		int base = slotOffset(seq);
+		int length = mSlotChannel.length();
+		mMap.putInt(base + 8, length);
+		mMap.putInt(base + 12, checksum(base + SLOT_HEADER_SIZE, length));
+		mMap.putLong(base, seq);
+		
+		mCommittedSeq = seq;
+		mMap.putLong(OFFSET_COMMITTED_SEQ, seq);
+		mMap.force();
+	}
+	
+	/**
+	 * Return sequence numbers of the unacknowledged records.
+	 */
+	public synchronized long[] getUnacked() {
+		int count = 0;
+		long[] seqs = new long[(int) (mCommittedSeq - mAckedSeq)];
+		for(long seq = mAckedSeq + 1; seq <= mCommittedSeq; seq++) {
+			if(isValid(seq)) {
+				seqs[count++] = seq;
+			}
+		}
+		long[] result = new long[count];
+		System.arraycopy(seqs, 0, result, 0, count);
+		return result;
+	}
+	
+	public synchronized int getRecordLength(long seq) {
+		return mMap.getInt(slotOffset(seq) + 8);
+	}
+	
+	/**
+	 * Write the record from the mapping to the stream through the given buffer.
+	 */
+	public void writeRecord(long seq, OutputStream out, byte[] buffer) throws IOException {
+		ByteBuffer record;
+		synchronized (this) {
+			int base = slotOffset(seq);
+			record = mMap.duplicate();
+			record.limit(base + SLOT_HEADER_SIZE + mMap.getInt(base + 8));
+			record.position(base + SLOT_HEADER_SIZE);
+		}
+		while(record.hasRemaining()) {
+			int n = Math.min(buffer.length, record.remaining());
+			record.get(buffer, 0, n);
+			out.write(buffer, 0, n);
+		}
+	}
+	
+	/**
+	 * Acknowledge the records up to <code>seq</code>, they will be overwritten by new records.
+	 */
+	public synchronized void ack(long seq) {
+		if(seq > mAckedSeq) {
+			mAckedSeq = seq;
+			mMap.putLong(OFFSET_ACKED_SEQ, seq);
+			mMap.force();
+		}
+	}
+	
+	/**
+	 * Channel writes into the slot being written.
+	 */
+	private class SlotChannel implements WritableByteChannel {
+		private int mStart;
+		private int mPosition;
+		private int mLimit;
+		
+		void reset(int start, int capacity) {
+			mStart = start;
+			mPosition = start;
+			mLimit = start + capacity;
+		}
+		
+		int length() {
+			return mPosition - mStart;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int n = src.remaining();
+			if(n > mLimit - mPosition) {
+				throw new IOException("Crash record exceeds journal slot.");
+			}
+			mMap.position(mPosition);
+			mMap.put(src);
+			mPosition += n;
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
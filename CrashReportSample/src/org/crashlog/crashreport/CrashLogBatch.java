@@ -0,0 +1,126 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 
+ * A batch of crash logs reported in one HTTP request. 
+ * Log files and journal records of a batch are deleted or acknowledged 
+ * only after the batch is successfully reported.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashLogBatch {
+	private final List<File> mLogs = new ArrayList<File>();
+	private final List<Long> mLogSizes = new ArrayList<Long>();
+	private final List<String> mCrashIds = new ArrayList<String>();
+	private final List<Long> mRecords = new ArrayList<Long>();
+	private long mBytes;
+	
+	private CrashLogBatch() { }
+	
+	/**
+	 * Split log files and journal records into batches in order, 
+	 * each batch has at most <code>maxCount</code> logs and <code>maxBytes</code> bytes, 
+	 * except a single log larger than <code>maxBytes</code>.
+	 */
+	public static List<CrashLogBatch> plan(List<CrashManifest.Entry> logs, CrashJournal journal, long[] records, int maxCount, long maxBytes) {
+		List<CrashLogBatch> batches = new ArrayList<CrashLogBatch>();
+		CrashLogBatch batch = new CrashLogBatch();
+		for(int i = 0; i < logs.size(); i++) {
+			CrashManifest.Entry log = logs.get(i);
+			long size = log.getSize();
+			if(!batch.canAdd(size, maxCount, maxBytes)) {
+				batches.add(batch);
+				batch = new CrashLogBatch();
+			}
+			batch.mLogs.add(log.getFile());
+			batch.mLogSizes.add(size);
+			batch.mCrashIds.add(log.getCrashId());
+			batch.mBytes += size;
+		}
+		for(int i = 0; i < records.length; i++) {
+			long size = journal.getRecordLength(records[i]);
+			if(!batch.canAdd(size, maxCount, maxBytes)) {
+				batches.add(batch);
+				batch = new CrashLogBatch();
+			}
+			batch.mRecords.add(records[i]);
+			batch.mBytes += size;
+		}
+		if(batch.getCount() > 0) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+	
+	private boolean canAdd(long size, int maxCount, long maxBytes) {
+		int count = getCount();
+		return count == 0 || (count < maxCount && mBytes + size <= maxBytes);
+	}
+	
+	/**
+	 * Number of logs, include log files and journal records.
+	 */
+	public int getCount() {
+		return mLogs.size() + mRecords.size();
+	}
+	
+	/**
+	 * Total bytes of logs.
+	 */
+	public long getBytes() {
+		return mBytes;
+	}
+	
+	public List<File> getLogs() {
+		return mLogs;
+	}
+	
+	/**
+	 * Crash ids of the log files, null for a log without crash id.
+	 */
+	public List<String> getCrashIds() {
+		return mCrashIds;
+	}
+	
+	/**
+	 * Log file size recorded in the manifest, exactly this many bytes are reported.
+	 */
+	public long getLogSize(int index) {
+		return mLogSizes.get(index);
+	}
+	
+	/**
+	 * Sequence numbers of journal records.
+	 */
+	public List<Long> getRecords() {
+		return mRecords;
+	}
+}
@@ -0,0 +1,139 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * Bounds the crash log files by total bytes, file count and age. 
+ * Expired logs are always evicted, then logs are evicted by the policy 
+ * until both size limits are met. Logs being reported are never evicted.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashLogQuota {
+	/**
+	 * Evict the oldest logs first.
+	 */
+	public static final int EVICT_OLDEST_FIRST = 1;
+	
+	/**
+	 * Evict the oldest logs of crashes that have another log first, 
+	 * so every distinct crash keeps one log as long as possible, then the oldest logs.
+	 */
+	public static final int EVICT_DUPLICATES_FIRST = 2;
+	
+	private final long mMaxBytes;
+	private final int mMaxCount;
+	private final long mMaxAge;
+	private final int mPolicy;
+	
+	/**
+	 * @param maxAge In msec.
+	 */
+	public CrashLogQuota(long maxBytes, int maxCount, long maxAge, int policy) {
+		mMaxBytes = maxBytes;
+		mMaxCount = maxCount;
+		mMaxAge = maxAge;
+		mPolicy = policy;
+	}
+	
+	/**
+	 * @param oldestTime Crash time of the oldest log.
+	 */
+	public boolean isExceeded(int count, long bytes, long oldestTime, long now) {
+		return count > mMaxCount || bytes > mMaxBytes || now - oldestTime > mMaxAge;
+	}
+	
+	/**
+	 * Select logs to evict.
+	 * 
+	 * @param entries All logs, oldest first.
+	 * @param bytes Total size of the logs.
+	 */
+	public List<CrashManifest.Entry> selectEvictions(List<CrashManifest.Entry> entries, long bytes, long now) {
+		int size = entries.size();
+		boolean[] evicted = new boolean[size];
+		int count = size;
+		
+		for(int i = 0; i < size; i++) {
+			CrashManifest.Entry entry = entries.get(i);
+			if(now - entry.getCrashTime() > mMaxAge && isEvictable(entry)) {
+				evicted[i] = true;
+				count--;
+				bytes -= entry.getSize();
+			}
+		}
+		
+		if(mPolicy == EVICT_DUPLICATES_FIRST && (count > mMaxCount || bytes > mMaxBytes)) {
+			Map<String, Integer> copies = new HashMap<String, Integer>();
+			for(int i = 0; i < size; i++) {
+				String crashId = entries.get(i).getCrashId();
+				if(!evicted[i] && crashId != null) {
+					Integer n = copies.get(crashId);
+					copies.put(crashId, n == null ? 1 : n + 1);
+				}
+			}
+			for(int i = 0; i < size && (count > mMaxCount || bytes > mMaxBytes); i++) {
+				CrashManifest.Entry entry = entries.get(i);
+				String crashId = entry.getCrashId();
+				if(evicted[i] || crashId == null || !isEvictable(entry)) {
+					continue;
+				}
+				int n = copies.get(crashId);
+				if(n > 1) {
+					copies.put(crashId, n - 1);
+					evicted[i] = true;
+					count--;
+					bytes -= entry.getSize();
+				}
+			}
+		}
+		
+		for(int i = 0; i < size && (count > mMaxCount || bytes > mMaxBytes); i++) {
+			CrashManifest.Entry entry = entries.get(i);
+			if(!evicted[i] && isEvictable(entry)) {
+				evicted[i] = true;
+				count--;
+				bytes -= entry.getSize();
+			}
+		}
+		
+		List<CrashManifest.Entry> result = new ArrayList<CrashManifest.Entry>(size - count);
+		for(int i = 0; i < size; i++) {
+			if(evicted[i]) {
+				result.add(entries.get(i));
+			}
+		}
+		return result;
+	}
+	
+	private static boolean isEvictable(CrashManifest.Entry entry) {
+		return entry.getState() != CrashManifest.STATE_UPLOADING;
+	}
+}
@@ -22,18 +22,20 @@ SOFTWARE. */
 
 package org.crashlog.crashreport;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import android.app.Application;
-import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 
 /**
@@ -46,161 +48,399 @@ import android.util.Log;
  *
  */
 class CrashLogSender {
-    public static final int NETWORK_CLASS_UNKNOWN = 0;
-    public static final int NETWORK_CLASS_2_G = 1;
-    public static final int NETWORK_CLASS_3_G = 2;
-    public static final int NETWORK_CLASS_4_G = 3;
-    
-    
 	private Application mApp;
-	private Thread mReportThread;
+	private DeviceInfoSnapshot mDeviceInfo;
+	private CrashJournal mJournal;
+	private CrashDedupIndex mDedupIndex;
+	private CrashManifest mManifest;
+	private CrashSignatureCollector mSignatures;
+	private CrashMetrics mMetrics;
+	private CrashMetricsListener mMetricsListener;
+	private Executor mWorker;
+	private CrashUploadScheduler mScheduler;
+	private CrashUploaderLease mLease;
+	private CrashConnectivityProvider mConnectivity;
+	private CrashUploadPolicy mPolicy;
+	private boolean mCompressionUnsupported;
 	
-	public CrashLogSender (Application app) {
+	/**
+	 * @param journal The crash journal to report along with log files, may be null.
+	 * @param dedupIndex The crash dedup index, log files are removed from it once reported, may be null.
+	 * @param manifest The manifest of log files to report.
+	 * @param metricsListener Receives the SDK metrics after each report attempt, may be null.
+	 * @param connectivity Tells the network to report on.
+	 * @param worker The worker thread that reports crash logs.
+	 */
+	public CrashLogSender (Application app, DeviceInfoSnapshot deviceInfo, CrashJournal journal, 
+			CrashDedupIndex dedupIndex, CrashManifest manifest, CrashMetricsListener metricsListener, 
+			CrashConnectivityProvider connectivity, Executor worker) {
+		this(app, deviceInfo, journal, dedupIndex, manifest, metricsListener, connectivity, worker, 
+				CrashConfig.SIGNATURE_PACKAGES);
+	}
+	
+	/**
+	 * @param signaturePackages Package name prefixes of frames to resolve method signatures of, 
+	 * empty to report no signatures.
+	 */
+	CrashLogSender (Application app, DeviceInfoSnapshot deviceInfo, CrashJournal journal, 
+			CrashDedupIndex dedupIndex, CrashManifest manifest, CrashMetricsListener metricsListener, 
+			CrashConnectivityProvider connectivity, Executor worker, String[] signaturePackages) {
 		this.mApp = app;
-		
-		mReportThread = new Thread(mReportRunnable);
-		mReportThread.setName("CrashLogReport");
-		mReportThread.setPriority(Thread.MIN_PRIORITY);
+		this.mDeviceInfo = deviceInfo;
+		this.mJournal = journal;
+		this.mDedupIndex = dedupIndex;
+		this.mManifest = manifest;
+		this.mMetrics = CrashLogStore.getMetrics();
+		this.mMetricsListener = metricsListener;
+		this.mConnectivity = connectivity;
+		if(signaturePackages.length > 0) {
+			this.mSignatures = new CrashSignatureCollector(signaturePackages, app.getClassLoader());
+		}
+		this.mWorker = worker;
 	}
 	
 	
-	private Runnable mReportRunnable =  new Runnable() {
+	private CrashUploadScheduler.Task mReportTask = new CrashUploadScheduler.Task() {
 
 		@Override
-		public void run() {
+		public boolean run() throws IOException {
+			int network = mConnectivity.getNetworkClass();
+			if(network == CrashConnectivityProvider.NETWORK_NONE) {
+				return false;
+			}
+			if(!mLease.acquire(System.currentTimeMillis())) {
+				//Another process reports, check again when its lease expires.
+				mScheduler.schedule(CrashConfig.UPLOADER_LEASE_DURATION);
+				return false;
+			}
 			try {
-				Thread.sleep(CrashConfig.REPORT_LOG_DELAY);
-				
-				reportCrashLogs();
-			} catch (Exception ex) {
-				Log.d(CrashConfig.TAG, "Report crash logs failed.", ex);
+				report(network, mConnectivity.isMetered());
+			} finally {
+				mLease.release();
 			}
+			return true;
 		}
 		
 	};
 	
-	private void sendHttpRequest(byte[] data) throws IOException {
+	/**
+	 * Report as the elected process, no other process is reporting now.
+	 */
+	private void report(int network, boolean metered) throws IOException {
+		mMetrics.increment(CrashMetrics.COUNTER_REPORTS);
+		if(mScheduler.getAttempts() > 0) {
+			mMetrics.increment(CrashMetrics.COUNTER_REPORT_RETRIES);
+		}
+		try {
+			//Logs left uploading by a process that is gone, and crashes reported by another uploader.
+			mManifest.resetUploading();
+			mPolicy.loadReported();
+			reportCrashLogs(network, metered);
+		} catch (IOException e) {
+			mMetrics.increment(CrashMetrics.COUNTER_REPORT_FAILURES);
+			throw e;
+		} finally {
+			onReportMetrics();
+		}
+	}
+	
+	/**
+	 * Stream the header and a batch of logs to host. The content length is computed 
+	 * up front, or the body is gzip compressed in chunked mode, so the platform 
+	 * does not buffer the whole request body.
+	 * The connection is left open on success to be reused by the next batch.
+	 * 
+	 * @param signatures The method signatures block after the logs, may be null.
+	 * @param level Compression level, or {@link Deflater#NO_COMPRESSION} to send uncompressed.
+	 * @param network The network class, its throughput estimate is updated by a successful request.
+	 * @return HTTP response code.
+	 */
+	private int sendHttpRequest(CrashLogBatch batch, byte[] signatures, byte[] buffer, int level, 
+			int network) throws IOException {
+		List<File> logs = batch.getLogs();
+		List<Long> records = batch.getRecords();
+		long contentLength = mDeviceInfo.getDataHeader().length + 1 + batch.getBytes() 
+				+ (signatures != null ? signatures.length : 0);
+		boolean compress = level != Deflater.NO_COMPRESSION;
+		
 		HttpURLConnection conn = null;
 		OutputStream out = null;
+		CountingOutputStream counter = null;
+		boolean success = false;
+		long start = System.nanoTime();
 		try{
 			conn = (HttpURLConnection)new URL(CrashConfig.REPORT_URL).openConnection();
 			conn.setDoOutput(true);
 			conn.setDoInput(true);
 			conn.setRequestMethod("POST");
+			if(compress) {
+				conn.setRequestProperty("Content-Encoding", "gzip");
+				conn.setChunkedStreamingMode(0);
+			} else if(contentLength <= Integer.MAX_VALUE) {
+				conn.setFixedLengthStreamingMode((int) contentLength);
+			} else {
+				conn.setChunkedStreamingMode(0);
+			}
 			conn.connect();
 			
-			out = conn.getOutputStream();
-			out.write(data);
+			counter = new CountingOutputStream(conn.getOutputStream(), mMetrics);
+			out = counter;
+			if(compress) {
+				out = new LevelGZIPOutputStream(out, CrashConfig.REPORT_BUFFER_SIZE, level);
+			}
+			
+			//Write header
+			CrashLogStore.writeDataHeader(mDeviceInfo, out);
+			
+			//Write number of logs
+			out.write(batch.getCount());
+			
+			//Write logs data, HttpURLConnection only takes a stream, so through the heap buffer.
+			for(int i = 0; i < logs.size(); i++) {
+				CrashLogStore.writeLogData(out, logs.get(i), batch.getLogSize(i), buffer);
+			}
+			for(int i = 0; i < records.size(); i++) {
+				mJournal.writeRecord(records.get(i), out, buffer);
+			}
+			if(signatures != null) {
+				out.write(signatures);
+			}
 			out.flush();
+			out.close();
+			out = null;
 			
-			if(conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-				throw new IOException("HTTP Response code not is 200 OK.");
+			int code = conn.getResponseCode();
+			if(code != HttpURLConnection.HTTP_OK) {
+				return code;
 			}
+			mPolicy.onSent(network, counter.getCount(), System.nanoTime() - start);
+			
+			//Consume the response, so that the connection can be kept alive.
+			InputStream in = conn.getInputStream();
+			byte[] skip = new byte[256];
+			while(in.read(skip) > 0) {
+				//Discard
+			}
+			in.close();
+			success = true;
+			return code;
 		} finally {
 			if(out != null) {
 				out.close();
 			}
-			if(conn != null) {
+			if(conn != null && !success) {
 				conn.disconnect();
 			}
 		}
 	}
-
-
-    /**
-     * Return general class of network type, such as "3G" or "4G". 
-     *
-     */
-    private static int getNetworkClass(int networkType) {
-        switch (networkType) {
-            case TelephonyManager.NETWORK_TYPE_GPRS:
-            case TelephonyManager.NETWORK_TYPE_EDGE:
-            case TelephonyManager.NETWORK_TYPE_CDMA:
-            case TelephonyManager.NETWORK_TYPE_1xRTT:
-            case TelephonyManager.NETWORK_TYPE_IDEN:
-                return NETWORK_CLASS_2_G;
-            case TelephonyManager.NETWORK_TYPE_UMTS:
-            case TelephonyManager.NETWORK_TYPE_EVDO_0:
-            case TelephonyManager.NETWORK_TYPE_EVDO_A:
-            case TelephonyManager.NETWORK_TYPE_HSDPA:
-            case TelephonyManager.NETWORK_TYPE_HSUPA:
-            case TelephonyManager.NETWORK_TYPE_HSPA:
-            case TelephonyManager.NETWORK_TYPE_EVDO_B:
-            case TelephonyManager.NETWORK_TYPE_EHRPD:
-            case TelephonyManager.NETWORK_TYPE_HSPAP:
-                return NETWORK_CLASS_3_G;
-            case TelephonyManager.NETWORK_TYPE_LTE:
-                return NETWORK_CLASS_4_G;
-            default:
-                return NETWORK_CLASS_UNKNOWN;
-        }
-    }
-	
-	private boolean isAllowConnectNetwork() {
-		ConnectivityManager connectMgr = (ConnectivityManager) mApp.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
-		NetworkInfo netInfo = connectMgr.getActiveNetworkInfo();
-		if(netInfo == null) {
+	
+	/**
+	 * Report a batch, compressed if allowed. If host rejects the compressed request 
+	 * with 415 Unsupported Media Type, report uncompressed from now on.
+	 * 
+	 * @return false if host rejected the batch for good, see {@link #isRejected(int)}.
+	 * @throws IOException If report failed, the batch should be reported again later.
+	 */
+	private boolean reportBatch(CrashLogBatch batch, byte[] buffer, int network) throws IOException {
+		long start = System.nanoTime();
+		int level = getCompressionLevel(network);
+		byte[] signatures = mSignatures != null ? mSignatures.collect(batch.getLogs()) : null;
+		long sendStart = System.nanoTime();
+		mMetrics.record(CrashMetrics.HISTOGRAM_ENCODE_TIME, (sendStart - start) / 1000);
+		mMetrics.record(CrashMetrics.HISTOGRAM_BATCH_SIZE, batch.getCount());
+		int code = sendHttpRequest(batch, signatures, buffer, level, network);
+		mMetrics.record(CrashMetrics.HISTOGRAM_UPLOAD_TIME, (System.nanoTime() - sendStart) / 1000);
+		if(code == HttpURLConnection.HTTP_UNSUPPORTED_TYPE 
+				&& level != Deflater.NO_COMPRESSION) {
+			Log.d(CrashConfig.TAG, "Host does not accept compressed crash logs.");
+			mCompressionUnsupported = true;
+			code = sendHttpRequest(batch, signatures, buffer, Deflater.NO_COMPRESSION, network);
+		}
+		if(isRejected(code)) {
 			return false;
 		}
+		if(code != HttpURLConnection.HTTP_OK) {
+			throw new IOException("HTTP Response code not is 200 OK: " + code);
+		}
+		return true;
+	}
+	
+	/**
+	 * A client error other than 415 and 429 Too Many Requests, such as 400 Bad Request 
+	 * for a malformed log, would be returned again for the same batch.
+	 */
+	private static boolean isRejected(int code) {
+		return code >= 400 && code < 500 
+				&& code != HttpURLConnection.HTTP_UNSUPPORTED_TYPE && code != 429;
+	}
+	
+	/**
+	 * Choose compression level by the estimated throughput of the network, 
+	 * the slower network the more CPU time is worth spending on compression.
+	 */
+	private int getCompressionLevel(int network) {
+		if(!CrashConfig.IS_ALLOW_COMPRESS_REPORT || mCompressionUnsupported) {
+			return Deflater.NO_COMPRESSION;
+		}
+		return mPolicy.getCompressionLevel(network);
+	}
+	
+	/**
+	 * Counts the request body bytes sent, after compression.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private final CrashMetrics mMetrics;
+		private long mCount;
+		
+		public CountingOutputStream(OutputStream out, CrashMetrics metrics) {
+			super(out);
+			mMetrics = metrics;
+		}
 		
-		if(netInfo.getType() == ConnectivityManager.TYPE_WIFI
-				&& netInfo.isConnected()) {
-			return true;
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			mCount++;
+			mMetrics.increment(CrashMetrics.COUNTER_BYTES_SENT);
 		}
 		
-		TelephonyManager telMgr = (TelephonyManager) mApp.getApplicationContext().getSystemService(Context.TELEPHONY_SERVICE);
-		int netClass = getNetworkClass(telMgr.getNetworkType());
-		if(netInfo.getType() == ConnectivityManager.TYPE_MOBILE
-				&& netInfo.isConnected()
-				&&  (netClass == NETWORK_CLASS_3_G || netClass == NETWORK_CLASS_4_G)) {
-			return true;
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			mCount += len;
+			mMetrics.add(CrashMetrics.COUNTER_BYTES_SENT, len);
+		}
+		
+		public long getCount() {
+			return mCount;
 		}
-	
-		return false;
 	}
 	
-	private void reportCrashLogs() throws IOException {
-		String dirPath = mApp.getExternalCacheDir().getPath() + File.separator + CrashConfig.LOG_DIR;
+	/**
+	 * GZIPOutputStream with a given compression level.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
 		
-		File dir = new File(dirPath);
-		File[] logs = dir.listFiles();
-		if(logs == null || logs.length == 0) {
+		public LevelGZIPOutputStream(OutputStream out, int size, int level) throws IOException {
+			super(out, size);
+			def.setLevel(level);
+		}
+	}
+	
+	/**
+	 * On a metered network only logs of new crashes are reported, 
+	 * journal records and the rest wait for an unmetered network.
+	 */
+	private void reportCrashLogs(int network, boolean metered) throws IOException {
+		//Logs are in the order they were saved, no directory scan.
+		List<CrashManifest.Entry> logs = mManifest.getEntries();
+		if(metered) {
+			logs = mPolicy.selectNewCrashes(logs);
+		}
+		long[] records = mJournal != null && !metered ? mJournal.getUnacked() : new long[0];
+		if(logs.size() + records.length == 0) {
 			return;
 		}
 		
-		ByteArrayOutputStream baos = null;
-		try {
-			baos = new ByteArrayOutputStream(102400);
+		List<CrashLogBatch> batches = CrashLogBatch.plan(logs, mJournal, records, 
+				CrashConfig.REPORT_BATCH_MAX_COUNT, mPolicy.getBatchBytes(network));
+		byte[] buffer = new byte[CrashConfig.REPORT_BUFFER_SIZE];
+		for(CrashLogBatch batch : batches) {
+			mLease.renew(System.currentTimeMillis());
 			
-			//Write header
-			CrashLogStore.writeDataHeader(mApp, baos);
-	
-			//Write number of logs , Allowed to report maximum of 128 logs.
-			int len = Math.min(logs.length, 128);
-			baos.write(len);
+			//Records being reported are not updated by repeated crashes.
+			mManifest.setState(batch.getLogs(), CrashManifest.STATE_UPLOADING);
+			boolean accepted = false;
+			boolean responded = false;
+			try {
+				accepted = this.reportBatch(batch, buffer, network);
+				responded = true;
+			} catch (FileNotFoundException e) {
+				//The manifest is out of date, such as log files deleted by user.
+				mManifest.remove(mManifest.findMissing());
+				throw e;
+			} finally {
+				if(!responded) {
+					mManifest.setState(batch.getLogs(), CrashManifest.STATE_PENDING);
+				}
+			}
 			
-			//Write logs data
-			for(int i = 0; i < logs.length; i++) {
-				File logFile = logs[i];
-				CrashLogStore.writeLogData(baos, logFile);
+			//Delete log files and acknowledge journal records after successful reported. 
+			//A rejected batch is dropped too, otherwise it would block newer logs for good.
+			if(accepted) {
+				mPolicy.onReported(batch.getCrashIds());
+			} else {
+				Log.d(CrashConfig.TAG, "Host rejected crash logs, dropped: " + batch.getCount());
+				mMetrics.add(CrashMetrics.COUNTER_LOGS_REJECTED, batch.getCount());
 			}
-		} finally {
-			if(baos != null) {
-				baos.close();
+			CrashLogStore.deleteLogFiles(batch.getLogs());
+			mManifest.remove(batch.getLogs());
+			//Repeated crashes are saved as new records since now.
+			if(mDedupIndex != null) {
+				mDedupIndex.remove(batch.getLogs());
+			}
+			List<Long> batchRecords = batch.getRecords();
+			if(!batchRecords.isEmpty()) {
+				mJournal.ack(batchRecords.get(batchRecords.size() - 1));
 			}
 		}
-		this.sendHttpRequest(baos.toByteArray());
-
-		//Delete log files after successful reported. 
-		CrashLogStore.deleteLogFiles(logs);
 	}
 	
+	/**
+	 * Persist the metrics and pass them to the listener.
+	 */
+	private void onReportMetrics() {
+		File dir = CrashLogStore.getLogDir(mApp);
+		if(dir != null) {
+			mMetrics.save(CrashMetrics.getFile(dir, mDeviceInfo.getProcessName()));
+		}
+		if(mMetricsListener != null) {
+			mMetricsListener.onReportMetrics(mMetrics);
+		}
+	}
+	
+	/**
+	 * Start reporting crash logs, and retry on failure or when network connectivity changes.
+	 * Should be called on the worker thread.
+	 */
 	public void start() {
-		//Check network type, only WIFI,4G or 3G  to HTTP request.
-		if(isAllowConnectNetwork() 
-				&& mReportThread.getState() == Thread.State.NEW) {
-			mReportThread.start();
+		File dir = CrashLogStore.getLogDir(mApp);
+		if(dir == null || mScheduler != null) {
+			return;
 		}
+		if(mDeviceInfo.getDataHeader() == null) {
+			//Every request would go out with a malformed header.
+			Log.d(CrashConfig.TAG, "No report data header, crash logs are not reported.");
+			return;
+		}
+		
+		mPolicy = new CrashUploadPolicy(new File(dir, CrashConfig.REPORTED_CRASHES_FILE_NAME));
+		mLease = new CrashUploaderLease(new File(dir, CrashConfig.UPLOADER_LEASE_FILE_NAME), 
+				mDeviceInfo.getProcessName(), CrashConfig.UPLOADER_LEASE_DURATION);
+		mScheduler = new CrashUploadScheduler(new File(dir, CrashConfig.UPLOAD_STATE_FILE_NAME), 
+				mReportTask, mWorker);
+		mScheduler.schedule(CrashConfig.REPORT_LOG_DELAY);
+		mScheduler.watchConnectivity(mApp.getApplicationContext());
+	}
+	
+	/**
+	 * Report crash logs now regardless of retry backoff, must be called on the worker thread.
+	 * 
+	 * @return false if not started or reporting is not allowed now.
+	 * @throws IOException If report failed.
+	 */
+	public boolean flush() throws IOException {
+		if(mScheduler == null) {
+			return false;
+		}
+		return mScheduler.flush();
+	}
+	
+	/**
+	 * The upload policy, null until started.
+	 */
+	CrashUploadPolicy getPolicy() {
+		return mPolicy;
 	}
 	
 }
@@ -22,27 +22,23 @@ SOFTWARE. */
 
 package org.crashlog.crashreport;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
-import android.app.Activity;
-import android.app.ActivityManager;
-import android.app.ActivityManager.RunningAppProcessInfo;
 import android.app.Application;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Environment;
+import android.os.Process;
 import android.os.StatFs;
 import android.util.Log;
 
@@ -57,21 +53,25 @@ import android.util.Log;
  *
  */
 final class CrashLogStore {
-	private CrashLogStore() { }
+	private static final CrashRecordEncoder mRecordEncoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+	private static final CrashFingerprint mFingerprint = new CrashFingerprint(CrashConfig.FINGERPRINT_ALGORITHM, 
+			CrashConfig.IS_FINGERPRINT_MESSAGE, CrashConfig.IS_FINGERPRINT_LINE_NUMBER);
+	private static final CrashLogQuota mQuota = new CrashLogQuota(CrashConfig.LOG_QUOTA_MAX_BYTES, 
+			CrashConfig.LOG_QUOTA_MAX_COUNT, CrashConfig.LOG_QUOTA_MAX_AGE, CrashConfig.LOG_EVICTION_POLICY);
 	
+	private static final CrashMetrics mMetrics = new CrashMetrics();
+	private static int mLogFileSequence = 1;
+	private static final CrashBreadcrumbs mBreadcrumbs = new CrashBreadcrumbs(CrashConfig.BREADCRUMB_CAPACITY);
+	
+	//Resolved once, not on the crash path.
+	private static final Method mGetSuppressed = findGetSuppressed();
+	
+	//Causes visited by writeCauses, guarded by the class lock of the save methods.
+	private static final Throwable[] mCauses = new Throwable[CrashConfig.CAUSE_MAX_COUNT + 1];
+	private static int mCauseCount;
+	
+	private CrashLogStore() { }
 	
-	private static String getProcessName(Application app, int pid) {
-		ActivityManager am = (ActivityManager) app.getApplicationContext().getSystemService(Activity.ACTIVITY_SERVICE);
-		List<RunningAppProcessInfo> processes = am.getRunningAppProcesses();
-		Iterator<RunningAppProcessInfo> it = processes.iterator();
-		while (it.hasNext()) {
-			RunningAppProcessInfo info = it.next();
-			if (info.pid == pid) {
-				return info.processName;
-			}
-		}
-		return "";
-	}
 	
 	private static long getInternalAvailableSize() {
 		File path = Environment.getDataDirectory();
@@ -106,32 +106,6 @@ final class CrashLogStore {
 		return blockCount * blockSize; 
 	}
 	
-	private static String getVersionName(Application app) {
-        String versionName = "";
-		try {
-			PackageManager pm = app.getPackageManager();  
-	        PackageInfo pi = pm.getPackageInfo(app.getPackageName(), 0);
-	        versionName = pi.versionName;
-		} catch (NameNotFoundException e) {
-			Log.i(CrashConfig.TAG, "Unable to get 'VersionName'.", e);
-		} 
-		return versionName;
-	}
-	
-	private static String getCrashId(String versionName, String cause, String detailMessage, StackTraceElement[] stList) {
-		StringBuilder buff = new StringBuilder();
-		buff.append(versionName);
-		buff.append(cause);
-		buff.append(detailMessage);
-		if(stList != null) {
-			for(int i = 0; i < stList.length; i++) {
-				StackTraceElement st = stList[i];
-				buff.append(st.toString());
-			}
-		}
-		return MD5Util.toMD5(buff.toString());
-	}
-
 	public static void writeBoolean(OutputStream out, boolean val) throws IOException {
 		out.write(val ? 1 : 0);
 	}
@@ -142,26 +116,15 @@ final class CrashLogStore {
 	}
 	
 	public static void writeInt(OutputStream out, int val) throws IOException {
-		byte[] buff = new byte[4];
-        buff[0] = (byte) (val >>> 24);  
-        buff[1] = (byte) (val >>> 16);  
-        buff[2] = (byte) (val >>> 8);  
-        buff[3] = (byte) val;  
-        
-        out.write(buff, 0, 4);  
+        out.write(val >>> 24);  
+        out.write(val >>> 16);  
+        out.write(val >>> 8);  
+        out.write(val);  
 	}
 	
 	public static void writeLong(OutputStream out, long val) throws IOException {
-    	byte[] buff = new byte[8];
-        buff[0] = (byte) (val >>> 56);  
-        buff[1] = (byte) (val >>> 48);  
-        buff[2] = (byte) (val >>> 40);  
-        buff[3] = (byte) (val >>> 32);  
-        buff[4] = (byte) (val >>> 24);  
-        buff[5] = (byte) (val >>> 16);  
-        buff[6] = (byte) (val >>> 8);  
-        buff[7] = (byte) val;  
-        out.write(buff, 0, 8);  
+        writeInt(out, (int) (val >>> 32));  
+        writeInt(out, (int) val);  
     }  
 	
 	
@@ -184,174 +147,415 @@ final class CrashLogStore {
 		}
 	}
 	
-	public static void writeStackTrace(OutputStream out, Throwable ex) throws IOException {
-		StackTraceElement[] elements = ex.getStackTrace();
-		test(elements);
-		
-		int len = elements.length;
-		if (len > 65535) {
-			throw new IOException("StackTrace elements too much: " + len);
+	/**
+	 * Copy exactly <code>length</code> bytes of the log file to the output stream 
+	 * through the given buffer, so that no per-file array is allocated.
+	 * 
+	 * @throws IOException If the log file is shorter than <code>length</code>.
+	 */
+	public static void writeLogData(OutputStream out, File logFile, long length, byte[] buffer)  throws IOException{
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(logFile);
+			long remaining = length;
+			while(remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if(n < 0) {
+					throw new IOException("Log file truncated: " + logFile.getName());
+				}
+				out.write(buffer, 0, n); //Write log data
+				remaining -= n;
+			}
+		} finally {
+			if(in != null) {
+				in.close();
+			}
 		}
-		out.write((len >>> 8) & 0xff);
-		out.write((len >>> 0) & 0xff);
-		
-		for(int i = 0; i < elements.length; i++) {
-			StackTraceElement ste = elements[i];
-			writeUTF(out, ste.getClassName());
-			writeUTF(out, ste.getFileName());
-			writeUTF(out, ste.getMethodName());
-			writeInt(out, ste.getLineNumber());
-			writeBoolean(out, ste.isNativeMethod());
+	}
+	
+	public static void writeDataHeader(DeviceInfoSnapshot info, OutputStream out) throws IOException {
+		out.write(info.getDataHeader());
+	}
+	
+	public static void deleteLogFiles(List<File> logFiles) {
+		for (int i = 0; i < logFiles.size(); i++) {
+			logFiles.get(i).delete();
 		}
 	}
 	
-	public static void test(StackTraceElement[] stackTraceElements) {
-		try {
-			for (StackTraceElement element : stackTraceElements) {
-				Class<?> clazz = Class.forName(element.getClassName());
-				if(!element.getClassName().equals("org.crashlog.sample.ObfuscatedClass")){
-					continue;
-				}
-				
-				Log.d(CrashConfig.TAG, "----------" + element.getClassName() + "------------");
-				Method[] methods = clazz.getDeclaredMethods();
-				for (int i = 0; i < methods.length; i++) {
-					Method method = methods[i];
-//					if (method.getName().equals(element.getMethodName())) {
-						Log.d(CrashConfig.TAG, method.toString());
-//					}
-				}
+	/**
+	 * Evict log files exceeding the configured quota, the manifest should be loaded.
+	 */
+	public static void enforceQuota(CrashManifest manifest, long now) throws IOException {
+		int evicted = manifest.enforce(mQuota, now);
+		if(evicted > 0) {
+			Log.d(CrashConfig.TAG, "Evicted crash log files: " + evicted);
+		}
+	}
+	
+	/**
+	 * Return the crash log directory, or null if the external cache is unavailable.
+	 */
+	public static File getLogDir(Application app) {
+		File cacheDir = app.getExternalCacheDir();
+		if(cacheDir == null) {
+			return null;
+		}
+		return new File(cacheDir, CrashConfig.LOG_DIR);
+	}
+	
+	/**
+	 * Log file names include the process id, so processes never write the same file, 
+	 * and a sequence number, so a name is never used again by the process. Otherwise a log 
+	 * saved under the name of a log just reported could be removed from the manifest with it.
+	 * 
+	 * @param sequence 0 for a log recovered from a reserve slot.
+	 */
+	public static String newLogFileName(long time, int pid, int sequence) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss",
+				Locale.US);
+		return CrashConfig.LOG_FILE_PREFIX
+				+ dateFormat.format(new Date(time)) + "_" + pid 
+				+ "_" + sequence + CrashConfig.LOG_FILE_EXT;
+	}
+	
+	/**
+	 * Create a new empty log file, never an existing one. Called with the class lock held.
+	 */
+	private static File createLogFile(File dir, long time) throws IOException {
+		int pid = Process.myPid();
+		for(int i = 0; i < 100; i++) {
+			File file = new File(dir, newLogFileName(time, pid, mLogFileSequence++));
+			if(file.createNewFile()) {
+				return file;
 			}
-			
-//			HashMap<String, ArrayList<Method>> methodMap = new HashMap<String, ArrayList<Method>>();
-//			for (StackTraceElement element : stackTraceElements) {
-//				Class<?> clazz = Class.forName(element.getClassName());
-//				ArrayList<Method> methods = new ArrayList<Method>(Arrays.asList(clazz.getDeclaredMethods()));
-//				methodMap.put(element.getClassName(), methods);
-//				
-//				Log.d(CrashConfig.TAG, "L:" + element.getLineNumber() + "\t" + element.getClassName() + "." + element.getMethodName());
-//			}
-//
-//			for (StackTraceElement element : stackTraceElements) {
-//				ArrayList<Method> methods = methodMap.get(element.getClassName());
-//				for (Method method : methods) {
-//					if (method.getName().equals(element.getMethodName())) {
-//						Log.d(CrashConfig.TAG, "L:" + element.getLineNumber() + "\t" + method);
-//						methods.remove(method);
-//						break;
-//					}
-//				}
-//
-//			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		throw new IOException("Create crash log file failed: " + dir);
 	}
 	
-	public static void writeLogData(OutputStream out, File logFile)  throws IOException{
-//		if(!logFile.canRead()) {
-//			return;
-//		}
+	/**
+	 * Whether the file is a crash log file, other files in the log directory are ignored.
+	 */
+	public static boolean isLogFile(String name) {
+		return name.startsWith(CrashConfig.LOG_FILE_PREFIX) 
+				&& name.endsWith(CrashConfig.LOG_FILE_EXT);
+	}
+	
+	public static final FilenameFilter LOG_FILE_FILTER = new FilenameFilter() {
+
+		@Override
+		public boolean accept(File dir, String name) {
+			return isLogFile(name);
+		}
 		
-		FileInputStream in = null;
+	};
+	
+	/**
+	 * Save the crash to a new log file, or only count it if the crash already has a record.
+	 * 
+	 * @param index The crash dedup index, may be null.
+	 * @param manifest The manifest of log files, may be null if not loaded yet.
+	 * @throws IOException If there is no storage or the log file can not be written.
+	 */
+	public synchronized static void saveLogToFile(Application app, DeviceInfoSnapshot info, CrashDedupIndex index, 
+			CrashManifest manifest, Throwable throwable, Thread thread) throws IOException{
+		StackTraceElement[] elements = throwable.getStackTrace();
+		String crashId = getCrashId(info, throwable, elements);
+		long crashTime = System.currentTimeMillis();
+		if(index != null && manifest != null && manifest.recordRepeat(index, crashId, crashTime)) {
+			mMetrics.increment(CrashMetrics.COUNTER_CRASHES_REPEATED);
+			return;
+		}
+		
+		File dir = getLogDir(app);
+		if(dir == null) {
+			throw new IOException("No storage for crash logs.");
+		}
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		File file = createLogFile(dir, crashTime);
+
+		FileOutputStream out = null;
+		long size;
 		try {
-			in = new FileInputStream(logFile);
-			byte[] data = new byte[(int) logFile.length()];
-			in.read(data);
-			out.write(data); //Write log data
+			out = new FileOutputStream(file);
+			CrashRecordEncoder encoder = mRecordEncoder;
+			encoder.setOutput(out.getChannel());
+			writeRecord(encoder, info, crashId, crashTime, throwable, elements, thread);
+			encoder.flush();
+			onRecordSaved(encoder.getRecordLength());
+			encoder.setOutput(null);
+			size = out.getChannel().position();
 		} finally {
-			if(in != null) {
-				in.close();
+			if (out != null) {
+				out.close();
 			}
 		}
+		
+		//Appending works before the manifest is loaded.
+		if(manifest == null) {
+			manifest = new CrashManifest(dir);
+		}
+		manifest.add(file, size, crashId, crashTime);
+		try {
+			enforceQuota(manifest, crashTime);
+		} catch (IOException e) {
+			//The crash is saved anyway.
+			Log.d(CrashConfig.TAG, "Evict crash log files failed.", e);
+		}
+		
+		if(index != null) {
+			index.put(crashId, file);
+		}
 	}
 	
-	public static void writeDataHeader(Application app, OutputStream out) throws IOException {
-		writeInt(out, CrashConfig.MAGIC_NUM);
-		writeInt(out, CrashConfig.VERSION);
-		writeUTF(out, getVersionName(app));
-		writeByte(out, CrashConfig.PLATFORM);
-		String model = android.os.Build.MODEL;
-		writeUTF(out, model);
-		int sdkLevel = android.os.Build.VERSION.SDK_INT;
-		writeInt(out, sdkLevel);
-		String sdkRelease = android.os.Build.VERSION.RELEASE;
-		writeUTF(out, sdkRelease);
-		String packageName = app.getPackageName();
-		writeUTF(out, packageName);
-		
+	/**
+	 * Save an OutOfMemoryError crash into the reserved slot, 
+	 * the ballast is released first to make room for the crash path.
+	 */
+	public synchronized static void saveLogToReserve(DeviceInfoSnapshot info, CrashReserve reserve, Throwable throwable, Thread thread) throws IOException{
+		reserve.releaseBallast();
+		CrashRecordEncoder encoder = reserve.begin();
+		StackTraceElement[] elements = throwable.getStackTrace();
+		writeRecord(encoder, info, getCrashId(info, throwable, elements), 
+				System.currentTimeMillis(), throwable, elements, thread);
+		long length = encoder.getRecordLength();
+		reserve.commit();
+		onRecordSaved(length);
 	}
 	
-	public static void deleteLogFiles(File[] logFiles) {
-		for (int i = 0; i < logFiles.length; i++) {
-			logFiles[i].delete();
+	/**
+	 * Save the crash into the journal.
+	 * 
+	 * @return false if the journal is full or the record does not fit in a slot, the crash should be saved to file.
+	 */
+	public synchronized static boolean saveLogToJournal(DeviceInfoSnapshot info, CrashJournal journal, Throwable throwable, Thread thread) {
+		try {
+			journal.begin(mRecordEncoder);
+			StackTraceElement[] elements = throwable.getStackTrace();
+			writeRecord(mRecordEncoder, info, getCrashId(info, throwable, elements), 
+					System.currentTimeMillis(), throwable, elements, thread);
+			long length = mRecordEncoder.getRecordLength();
+			journal.commit(mRecordEncoder);
+			onRecordSaved(length);
+			return true;
+		} catch (IOException e) {
+			mRecordEncoder.setOutput(null);
+			Log.d(CrashConfig.TAG, "Save crash log to journal failed. ", e);
+			return false;
 		}
 	}
 	
-	public synchronized static void saveLogToFile(Application app, Throwable throwable, Thread thread) throws IOException{
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddhhmmss",
-				Locale.getDefault());
-		String fileName = CrashConfig.LOG_FILE_PREFIX
-				+ dateFormat.format(new Date()) + CrashConfig.LOG_FILE_EXT;
-		String dirPath = app.getExternalCacheDir().getPath() + File.separator
-				+ CrashConfig.LOG_DIR;
-
-		File dir = new File(dirPath);
-		if (!dir.exists()) {
-			dir.mkdirs();
+	private static void onRecordSaved(long length) {
+		mMetrics.increment(CrashMetrics.COUNTER_CRASHES_SAVED);
+		mMetrics.record(CrashMetrics.HISTOGRAM_RECORD_BYTES, length);
+	}
+	
+	/**
+	 * The metrics of this process.
+	 */
+	public static CrashMetrics getMetrics() {
+		return mMetrics;
+	}
+	
+	private static String getCrashId(DeviceInfoSnapshot info, Throwable throwable, StackTraceElement[] elements) {
+		if(CrashConfig.IS_FINGERPRINT_ROOT_CAUSE) {
+			Throwable root = getRootCause(throwable);
+			if(root != throwable) {
+				throwable = root;
+				elements = root.getStackTrace();
+			}
 		}
-		File file = new File(dir, fileName);
-		if (!file.exists()) {
-			file.createNewFile();
+		return mFingerprint.compute(info.getVersionName(), throwable.getClass()
+				.getName(), throwable.getLocalizedMessage(), elements);
+	}
+	
+	/**
+	 * The last cause in the chain, searched at most {@link CrashConfig#CAUSE_MAX_COUNT} deep against cycles.
+	 */
+	private static Throwable getRootCause(Throwable throwable) {
+		for(int i = 0; i < CrashConfig.CAUSE_MAX_COUNT; i++) {
+			Throwable cause = throwable.getCause();
+			if(cause == null || cause == throwable) {
+				break;
+			}
+			throwable = cause;
 		}
+		return throwable;
+	}
+	
+	private static void writeRecord(CrashRecordEncoder encoder, DeviceInfoSnapshot info, String crashId, long crashTime, 
+			Throwable throwable, StackTraceElement[] elements, Thread thread) throws IOException{
+		encoder.beginRecord();
+		
+		//occurrence count & last crash time, updated by CrashDedupIndex
+		encoder.writeInt(1);
+		encoder.writeLong(crashTime);
+		
+		//crash id
+		encoder.writeUTF(crashId);
 
-		BufferedOutputStream out = null;
-//		FileOutputStream out = null;
-		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-
-			//crash id
-			String versionName = getVersionName(app);
-			String crashId = getCrashId(versionName, throwable.getClass()
-					.getName(), throwable.getLocalizedMessage(),
-					throwable.getStackTrace());
-			writeUTF(out, crashId);
-
-			// time
-			long crashTime = System.currentTimeMillis();
-			writeLong(out, crashTime);
-
-			// memory
-			Runtime rt = Runtime.getRuntime();
-			long allocMem = rt.totalMemory() - rt.freeMemory();
-			writeLong(out, allocMem);
-			writeLong(out, rt.maxMemory()); // total
-			// Log.d(TAG, "allocMem:" + allocMem + " freeMem:" + (rt.maxMemory()
-			// - allocMem) + " totalMem:" + rt.maxMemory());
+		// time
+		encoder.writeLong(crashTime);
 
-			// storage
-			writeLong(out, getInternalAvailableSize());
-			writeLong(out, getInternalTotalSize());
-			writeLong(out, getExternalAvailableSize());
-			writeLong(out, getExternalTotalSize());
+		// memory
+		Runtime rt = Runtime.getRuntime();
+		long allocMem = rt.totalMemory() - rt.freeMemory();
+		encoder.writeLong(allocMem);
+		encoder.writeLong(rt.maxMemory()); // total
+		// Log.d(TAG, "allocMem:" + allocMem + " freeMem:" + (rt.maxMemory()
+		// - allocMem) + " totalMem:" + rt.maxMemory());
 
-			// thread&process
-			writeUTF(out, thread.getName());
-			writeUTF(out, getProcessName(app, android.os.Process.myPid()));
+		// storage
+		encoder.writeLong(getInternalAvailableSize());
+		encoder.writeLong(getInternalTotalSize());
+		encoder.writeLong(getExternalAvailableSize());
+		encoder.writeLong(getExternalTotalSize());
 
-			//message
-			writeUTF(out, throwable.getClass().getName()); //cause
-			writeUTF(out, throwable.getLocalizedMessage()); // detail message
-			
-			// stack trace
-//			Log.d(CrashConfig.TAG, "crash message:" + throwable.getMessage());
-			writeStackTrace(out, throwable);
-			out.flush();
+		// thread&process
+		encoder.writeUTF(thread.getName());
+		encoder.writeUTF(info.getProcessName());
 
-		} finally {
-			if (out != null) {
-				out.close();
+		//message
+		encoder.writeUTF(throwable.getClass().getName()); //cause
+		encoder.writeUTF(throwable.getLocalizedMessage()); // detail message
+		
+		// stack trace
+		encoder.writeStackTrace(elements);
+		
+		if(throwable.getCause() != null || getSuppressed(throwable) != null) {
+			writeCauses(encoder, throwable, elements);
+		}
+		if(CrashConfig.IS_CAPTURE_ALL_THREADS && !(throwable instanceof OutOfMemoryError)) {
+			writeThreads(encoder, thread);
+		}
+		writeBreadcrumbs(encoder, crashTime);
+		encoder.endRecord();
+	}
+	
+	/**
+	 * Write causes and suppressed exceptions in the order of <code>printStackTrace()</code>, 
+	 * each visited once against cycles, at most {@link CrashConfig#CAUSE_MAX_COUNT}. 
+	 * Entries that do not fit in the record buffer are left out.
+	 */
+	private static void writeCauses(CrashRecordEncoder encoder, Throwable throwable, StackTraceElement[] elements) throws IOException {
+		mCauses[0] = throwable;
+		mCauseCount = 1;
+		encoder.beginSection(CrashRecordEncoder.SECTION_CAUSES);
+		try {
+			writeCauseChildren(encoder, 0, throwable, elements);
+		} catch (CrashRecordEncoder.SectionOverflowException e) {
+			encoder.reset();
+		}
+		encoder.endSection();
+		Arrays.fill(mCauses, null);
+	}
+	
+	/**
+	 * @param parent Index of the parent entry, 0 for the thrown exception.
+	 */
+	private static void writeCauseChildren(CrashRecordEncoder encoder, int parent, Throwable throwable, 
+			StackTraceElement[] elements) throws IOException {
+		Throwable[] suppressed = getSuppressed(throwable);
+		if(suppressed != null) {
+			for(int i = 0; i < suppressed.length; i++) {
+				writeCause(encoder, parent, CrashRecordEncoder.CAUSE_KIND_SUPPRESSED, suppressed[i], elements);
+			}
+		}
+		Throwable cause = throwable.getCause();
+		if(cause != null) {
+			writeCause(encoder, parent, CrashRecordEncoder.CAUSE_KIND_CAUSE, cause, elements);
+		}
+	}
+	
+	private static void writeCause(CrashRecordEncoder encoder, int parent, int kind, Throwable throwable, 
+			StackTraceElement[] parentElements) throws IOException {
+		if(mCauseCount > CrashConfig.CAUSE_MAX_COUNT) {
+			return;
+		}
+		for(int i = 0; i < mCauseCount; i++) {
+			if(mCauses[i] == throwable) {
+				return; //Circular reference
+			}
+		}
+		int index = mCauseCount;
+		mCauses[mCauseCount++] = throwable;
+		
+		StackTraceElement[] elements = throwable.getStackTrace();
+		encoder.writeCause(parent, kind, throwable, elements, parentElements);
+		encoder.mark();
+		writeCauseChildren(encoder, index, throwable, elements);
+	}
+	
+	/**
+	 * <code>Throwable.getSuppressed()</code> is available since API level 19.
+	 * 
+	 * @return null if there is no suppressed exception.
+	 */
+	private static Throwable[] getSuppressed(Throwable throwable) {
+		if(mGetSuppressed == null) {
+			return null;
+		}
+		try {
+			Throwable[] suppressed = (Throwable[]) mGetSuppressed.invoke(throwable);
+			return suppressed != null && suppressed.length > 0 ? suppressed : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	private static Method findGetSuppressed() {
+		try {
+			return Throwable.class.getMethod("getSuppressed");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Called from any thread, see {@link CrashReport#leaveBreadcrumb(String)}.
+	 */
+	public static void leaveBreadcrumb(String message) {
+		mBreadcrumbs.leave(message);
+	}
+	
+	/**
+	 * The oldest breadcrumbs are left out if they do not fit in the record buffer.
+	 */
+	private static void writeBreadcrumbs(CrashRecordEncoder encoder, long crashTime) throws IOException {
+		encoder.beginSection(CrashRecordEncoder.SECTION_BREADCRUMBS);
+		try {
+			mBreadcrumbs.write(encoder, crashTime);
+		} catch (CrashRecordEncoder.SectionOverflowException e) {
+			encoder.reset();
+		}
+		encoder.endSection();
+	}
+	
+	/**
+	 * Write stack traces of other threads, capped by thread count and depth, 
+	 * and by the record buffer: threads that do not fit are left out.
+	 */
+	static void writeThreads(CrashRecordEncoder encoder, Thread crashThread) throws IOException {
+		Map<Thread, StackTraceElement[]> traces = Thread.getAllStackTraces();
+		encoder.beginSection(CrashRecordEncoder.SECTION_THREADS);
+		int count = 0;
+		try {
+			for(Map.Entry<Thread, StackTraceElement[]> trace : traces.entrySet()) {
+				if(count >= CrashConfig.THREAD_DUMP_MAX_THREADS) {
+					break;
+				}
+				if(trace.getKey() == crashThread) {
+					continue;
+				}
+				encoder.writeThread(trace.getKey(), trace.getValue(), CrashConfig.THREAD_DUMP_MAX_DEPTH);
+				encoder.mark();
+				count++;
 			}
+		} catch (CrashRecordEncoder.SectionOverflowException e) {
+			encoder.reset();
 		}
+		encoder.endSection();
 	}
 }
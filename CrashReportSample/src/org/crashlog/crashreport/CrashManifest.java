@@ -0,0 +1,692 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * 
+ * Append-only index of the stored crash log files, so logs can be planned for reporting 
+ * without listing and stating the whole log directory.
+ * 
+ * File format: magic(4) version(1) epoch(4) entry* 
+ * Entry: op(1) length(2) body(length) crc32(4), the checksum covers op, length and body.
+ * Each entry is appended by a single write, a torn entry at the tail is truncated on load. 
+ * The file is compacted by writing a temporary file with a new epoch and renaming it.
+ * 
+ * The manifest is shared by the processes of the APP. Every operation holds the manifest lock file 
+ * and first catches up with the entries appended by other processes since it last read the file, 
+ * or reads the whole file again if another process compacted it.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashManifest {
+	private static final int MAGIC = 0x43524D46;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 9;
+	private static final int ENTRY_OVERHEAD = 7;
+	
+	private static final int OP_ADD = 1;
+	private static final int OP_STATE = 2;
+	private static final int OP_DELETE = 3;
+	
+	/**
+	 * The log is waiting to be reported.
+	 */
+	public static final int STATE_PENDING = 0;
+	
+	/**
+	 * The log is being reported, it is pending again by {@link #resetUploading()}.
+	 */
+	public static final int STATE_UPLOADING = 1;
+	
+	/**
+	 * A stored crash log file.
+	 */
+	public static final class Entry {
+		private final File mFile;
+		private final long mSize;
+		private final String mCrashId;
+		private final long mCrashTime;
+		private int mState;
+		
+		private Entry(File file, long size, String crashId, long crashTime, int state) {
+			mFile = file;
+			mSize = size;
+			mCrashId = crashId;
+			mCrashTime = crashTime;
+			mState = state;
+		}
+		
+		public File getFile() {
+			return mFile;
+		}
+		
+		public long getSize() {
+			return mSize;
+		}
+		
+		/**
+		 * @return The crash id, or null if the log is not a record of current version.
+		 */
+		public String getCrashId() {
+			return mCrashId;
+		}
+		
+		public long getCrashTime() {
+			return mCrashTime;
+		}
+		
+		public int getState() {
+			return mState;
+		}
+	}
+	
+	private final File mDir;
+	private final File mFile;
+	private final CrashFileLock mLock;
+	private final Random mRandom = new Random();
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+	private final CRC32 mCrc = new CRC32();
+	private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+	private final DataOutputStream mBodyOut = new DataOutputStream(mBody);
+	private boolean mLoaded;
+	private int mDeadCount;
+	private long mTotalBytes;
+	private int mEpoch;
+	private long mReadLength;
+	
+	/**
+	 * Does no I/O, entries can be appended before the manifest is loaded.
+	 */
+	public CrashManifest(File dir) {
+		mDir = dir;
+		mFile = new File(dir, CrashConfig.MANIFEST_FILE_NAME);
+		mLock = CrashFileLock.get(new File(dir, CrashConfig.MANIFEST_LOCK_FILE_NAME));
+	}
+	
+	/**
+	 * Load entries from the manifest file, or rebuild it by scanning the log directory 
+	 * if the file is missing or corrupt.
+	 */
+	public synchronized void load() {
+		try {
+			mLock.lock();
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Lock crash manifest failed.", e);
+			return;
+		}
+		try {
+			try {
+				if(read()) {
+					mLoaded = true;
+					return;
+				}
+			} catch (IOException e) {
+				Log.d(CrashConfig.TAG, "Read crash manifest failed.", e);
+			}
+			rebuild();
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	/**
+	 * Take the manifest lock and catch up with changes by other processes, 
+	 * the caller must unlock if it returns.
+	 */
+	private void lockAndSync() throws IOException {
+		mLock.lock();
+		if(!mLoaded) {
+			return;
+		}
+		try {
+			long length = mFile.length();
+			if(length >= mReadLength && length >= HEADER_SIZE && readEpoch() == mEpoch) {
+				if(length == mReadLength || readTail(length)) {
+					return;
+				}
+			}
+			if(!read()) {
+				rebuild();
+			}
+		} catch (IOException e) {
+			mLock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return false if the file is missing or corrupt.
+	 */
+	private boolean read() throws IOException {
+		mEntries.clear();
+		mTotalBytes = 0;
+		mDeadCount = 0;
+		long length = mFile.length();
+		if(length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+			return false;
+		}
+		
+		byte[] data = readBytes(0, (int) length);
+		if(readInt(data, 0) != MAGIC || data[4] != VERSION) {
+			return false;
+		}
+		mEpoch = readInt(data, 5);
+		mReadLength = HEADER_SIZE;
+		return parse(data, HEADER_SIZE);
+	}
+	
+	/**
+	 * Apply the entries appended since last read.
+	 * 
+	 * @return false if the appended entries are corrupt.
+	 */
+	private boolean readTail(long length) throws IOException {
+		if(length - mReadLength > Integer.MAX_VALUE) {
+			return false;
+		}
+		return parse(readBytes(mReadLength, (int) (length - mReadLength)), 0);
+	}
+	
+	private int readEpoch() throws IOException {
+		byte[] header = readBytes(0, HEADER_SIZE);
+		return readInt(header, 5);
+	}
+	
+	private byte[] readBytes(long position, int length) throws IOException {
+		byte[] data = new byte[length];
+		RandomAccessFile in = new RandomAccessFile(mFile, "r");
+		try {
+			in.seek(position);
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+	
+	/**
+	 * Apply the entries in <code>data</code> from <code>offset</code>, 
+	 * which is at file position <code>mReadLength</code>.
+	 * 
+	 * @return false if corrupt in the middle.
+	 */
+	private boolean parse(byte[] data, int offset) throws IOException {
+		while(offset < data.length) {
+			int remaining = data.length - offset;
+			int entryLength = remaining >= 3 
+					? ((data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF)) + ENTRY_OVERHEAD : 0;
+			boolean valid = entryLength > 0 && entryLength <= remaining;
+			if(valid) {
+				mCrc.reset();
+				mCrc.update(data, offset, entryLength - 4);
+				valid = (int) mCrc.getValue() == readInt(data, offset + entryLength - 4);
+			}
+			if(!valid) {
+				if(entryLength > 0 && entryLength < remaining) {
+					//Corrupt in the middle.
+					return false;
+				}
+				//Torn by a crash while appending.
+				truncate(mReadLength);
+				break;
+			}
+			
+			try {
+				apply(data[offset], new DataInputStream(
+						new ByteArrayInputStream(data, offset + 3, entryLength - ENTRY_OVERHEAD)));
+			} catch (EOFException e) {
+				return false;
+			}
+			offset += entryLength;
+			mReadLength += entryLength;
+		}
+		return true;
+	}
+	
+	private void apply(int op, DataInputStream in) throws IOException {
+		String name = in.readUTF();
+		switch(op) {
+		case OP_ADD:
+			long size = in.readLong();
+			String crashId = in.readUTF();
+			long crashTime = in.readLong();
+			int state = in.readUnsignedByte();
+			if(putEntry(new Entry(new File(mDir, name), size, 
+					crashId.length() > 0 ? crashId : null, crashTime, state))) {
+				mDeadCount++;
+			}
+			break;
+		case OP_STATE:
+			Entry entry = mEntries.get(name);
+			int newState = in.readUnsignedByte();
+			if(entry != null) {
+				entry.mState = newState;
+			}
+			mDeadCount++;
+			break;
+		case OP_DELETE:
+			if(removeEntry(name)) {
+				mDeadCount++;
+			}
+			mDeadCount++;
+			break;
+		default:
+			throw new IOException("Unknown manifest entry: " + op);
+		}
+	}
+	
+	/**
+	 * @return true if an entry of the same name is replaced.
+	 */
+	private boolean putEntry(Entry entry) {
+		Entry old = mEntries.put(entry.mFile.getName(), entry);
+		mTotalBytes += entry.mSize;
+		if(old != null) {
+			mTotalBytes -= old.mSize;
+		}
+		return old != null;
+	}
+	
+	private boolean removeEntry(String name) {
+		Entry old = mEntries.remove(name);
+		if(old != null) {
+			mTotalBytes -= old.mSize;
+		}
+		return old != null;
+	}
+	
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 
+				| (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+	}
+	
+	private void truncate(long length) throws IOException {
+		Log.d(CrashConfig.TAG, "Truncate torn crash manifest entry.");
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(length);
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Recover from a missing or corrupt manifest by scanning the log directory, 
+	 * logs are ordered by modified time. Called with the manifest lock held.
+	 */
+	private void rebuild() {
+		mEntries.clear();
+		mTotalBytes = 0;
+		mDeadCount = 0;
+		File[] logs = mDir.listFiles(CrashLogStore.LOG_FILE_FILTER);
+		if(logs == null) {
+			logs = new File[0];
+		}
+		final long[] times = new long[logs.length];
+		Integer[] order = new Integer[logs.length];
+		for(int i = 0; i < logs.length; i++) {
+			times[i] = logs[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				long l = times[lhs];
+				long r = times[rhs];
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+			
+		});
+		for(int i = 0; i < order.length; i++) {
+			File log = logs[order[i]];
+			putEntry(new Entry(log, log.length(), 
+					CrashDedupIndex.readCrashId(log), times[order[i]], STATE_PENDING));
+		}
+		mLoaded = true;
+		
+		try {
+			compact();
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Write crash manifest failed.", e);
+		}
+	}
+	
+	/**
+	 * Rewrite the manifest with live entries only.
+	 */
+	private void compact() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int epoch = newEpoch();
+		writeHeader(out, epoch);
+		for(Entry entry : mEntries.values()) {
+			writeAdd(out, entry);
+		}
+		out.flush();
+		
+		File tmp = new File(mFile.getPath() + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		try {
+			bytes.writeTo(file);
+		} finally {
+			file.close();
+		}
+		if(!tmp.renameTo(mFile)) {
+			throw new IOException("Rename failed: " + tmp.getName());
+		}
+		mDeadCount = 0;
+		mEpoch = epoch;
+		mReadLength = bytes.size();
+	}
+	
+	private int newEpoch() {
+		int epoch;
+		do {
+			epoch = mRandom.nextInt();
+		} while(epoch == mEpoch);
+		return epoch;
+	}
+	
+	/**
+	 * Record a new log file.
+	 * 
+	 * @param crashId The crash id, or null if unknown.
+	 */
+	public synchronized void add(File log, long size, String crashId, long crashTime) throws IOException {
+		Entry entry = new Entry(log, size, crashId, crashTime, STATE_PENDING);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeAdd(out, entry);
+		out.flush();
+		lockAndSync();
+		try {
+			append(bytes);
+			if(mLoaded && putEntry(entry)) {
+				mDeadCount++;
+			}
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	/**
+	 * If the crash has a pending record, count the repeated crash in it. 
+	 * A record being reported is not updated, so the count is never lost.
+	 * 
+	 * @return false if the crash has no pending record, it should be saved as a new record.
+	 */
+	public synchronized boolean recordRepeat(CrashDedupIndex index, String crashId, long crashTime) throws IOException {
+		lockAndSync();
+		try {
+			File log = index.get(crashId);
+			Entry entry = log != null ? mEntries.get(log.getName()) : null;
+			if(entry == null || entry.mState != STATE_PENDING) {
+				return false;
+			}
+			return index.recordRepeat(crashId, crashTime);
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	/**
+	 * Set the upload state of log files.
+	 */
+	public synchronized void setState(List<File> logs, int state) throws IOException {
+		lockAndSync();
+		try {
+			writeState(logs, state);
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	/**
+	 * Set logs being reported by a process that is gone pending again, 
+	 * should be called only by the elected uploader before reporting.
+	 */
+	public synchronized void resetUploading() throws IOException {
+		lockAndSync();
+		try {
+			List<File> logs = new ArrayList<File>();
+			for(Entry entry : mEntries.values()) {
+				if(entry.mState == STATE_UPLOADING) {
+					logs.add(entry.mFile);
+				}
+			}
+			if(!logs.isEmpty()) {
+				writeState(logs, STATE_PENDING);
+			}
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	private void writeState(List<File> logs, int state) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for(int i = 0; i < logs.size(); i++) {
+			String name = logs.get(i).getName();
+			mBodyOut.writeUTF(name);
+			mBodyOut.writeByte(state);
+			writeEntry(out, OP_STATE);
+			
+			Entry entry = mEntries.get(name);
+			if(entry != null) {
+				entry.mState = state;
+			}
+		}
+		out.flush();
+		append(bytes);
+		mDeadCount += logs.size();
+	}
+	
+	/**
+	 * Remove deleted log files, the manifest is compacted when most of its entries are dead.
+	 */
+	public synchronized void remove(List<File> logs) throws IOException {
+		lockAndSync();
+		try {
+			writeRemove(logs);
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	private void writeRemove(List<File> logs) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for(int i = 0; i < logs.size(); i++) {
+			String name = logs.get(i).getName();
+			mBodyOut.writeUTF(name);
+			writeEntry(out, OP_DELETE);
+			
+			if(removeEntry(name)) {
+				mDeadCount++;
+			}
+			mDeadCount++;
+		}
+		out.flush();
+		
+		if(mLoaded && mDeadCount >= CrashConfig.MANIFEST_COMPACT_THRESHOLD 
+				&& mDeadCount > mEntries.size()) {
+			compact();
+		} else {
+			append(bytes);
+		}
+	}
+	
+	/**
+	 * Stored log files in the order they were saved, including those saved by other processes.
+	 */
+	public synchronized List<Entry> getEntries() {
+		try {
+			lockAndSync();
+			mLock.unlock();
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Read crash manifest failed.", e);
+		}
+		return new ArrayList<Entry>(mEntries.values());
+	}
+	
+	/**
+	 * Evict log files exceeding the quota, does nothing if the manifest is not loaded. 
+	 * Within quota it is checked in constant time, no file is stated. Logs being reported 
+	 * are never evicted, so the age is checked on the oldest of the others.
+	 * 
+	 * @return Number of evicted log files.
+	 */
+	public synchronized int enforce(CrashLogQuota quota, long now) throws IOException {
+		if(!mLoaded) {
+			return 0;
+		}
+		lockAndSync();
+		try {
+			//Skips at most a batch, logs left uploading by a process that is gone are reset when reporting.
+			Entry oldest = null;
+			for(Entry entry : mEntries.values()) {
+				if(entry.mState != STATE_UPLOADING) {
+					oldest = entry;
+					break;
+				}
+			}
+			if(oldest == null || !quota.isExceeded(mEntries.size(), mTotalBytes, oldest.mCrashTime, now)) {
+				return 0;
+			}
+			
+			List<Entry> evicted = quota.selectEvictions(
+					new ArrayList<Entry>(mEntries.values()), mTotalBytes, now);
+			List<File> logs = new ArrayList<File>(evicted.size());
+			for(int i = 0; i < evicted.size(); i++) {
+				File log = evicted.get(i).mFile;
+				//Delete first, an entry of missing file is dropped when reporting.
+				log.delete();
+				logs.add(log);
+			}
+			writeRemove(logs);
+			return logs.size();
+		} finally {
+			mLock.unlock();
+		}
+	}
+	
+	/**
+	 * Total size of log files.
+	 */
+	public synchronized long getTotalBytes() {
+		return mTotalBytes;
+	}
+	
+	/**
+	 * Log files in the manifest that do not exist any more, such as deleted by user.
+	 */
+	public synchronized List<File> findMissing() {
+		List<File> missing = new ArrayList<File>();
+		Iterator<Entry> it = mEntries.values().iterator();
+		while(it.hasNext()) {
+			File log = it.next().getFile();
+			if(!log.exists()) {
+				missing.add(log);
+			}
+		}
+		return missing;
+	}
+	
+	/**
+	 * Called with the manifest lock held.
+	 */
+	private void append(ByteArrayOutputStream bytes) throws IOException {
+		boolean isNew = mFile.length() < HEADER_SIZE;
+		FileOutputStream file = new FileOutputStream(mFile, !isNew);
+		try {
+			if(isNew) {
+				DataOutputStream header = new DataOutputStream(file);
+				mEpoch = newEpoch();
+				writeHeader(header, mEpoch);
+				header.flush();
+			}
+			bytes.writeTo(file);
+		} finally {
+			file.close();
+		}
+		if(mLoaded) {
+			mReadLength = mFile.length();
+		}
+	}
+	
+	private static void writeHeader(DataOutputStream out, int epoch) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(epoch);
+	}
+	
+	private void writeAdd(DataOutputStream out, Entry entry) throws IOException {
+		mBodyOut.writeUTF(entry.mFile.getName());
+		mBodyOut.writeLong(entry.mSize);
+		mBodyOut.writeUTF(entry.mCrashId != null ? entry.mCrashId : "");
+		mBodyOut.writeLong(entry.mCrashTime);
+		mBodyOut.writeByte(entry.mState);
+		writeEntry(out, OP_ADD);
+	}
+	
+	/**
+	 * Write an entry with the body in <code>mBody</code>, and reset the body.
+	 */
+	private void writeEntry(DataOutputStream out, int op) throws IOException {
+		mBodyOut.flush();
+		byte[] body = mBody.toByteArray();
+		mBody.reset();
+		mCrc.reset();
+		mCrc.update(op);
+		mCrc.update(body.length >>> 8);
+		mCrc.update(body.length & 0xFF);
+		mCrc.update(body);
+		
+		out.writeByte(op);
+		out.writeShort(body.length);
+		out.write(body);
+		out.writeInt((int) mCrc.getValue());
+	}
+}
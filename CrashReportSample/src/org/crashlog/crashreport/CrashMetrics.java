@@ -0,0 +1,245 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.util.Log;
+
+/**
+ * 
+ * Counters and latency histograms of the SDK itself, such as how long saving a crash takes 
+ * and how many bytes are reported. They are persisted in log files storage directory 
+ * after a crash is saved and after each report attempt, so the next process can 
+ * report them, see {@link CrashMetricsListener}.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public final class CrashMetrics {
+	/**
+	 * Crashes saved as new records.
+	 */
+	public static final int COUNTER_CRASHES_SAVED = 0;
+	
+	/**
+	 * Repeated crashes counted in their existing records.
+	 */
+	public static final int COUNTER_CRASHES_REPEATED = 1;
+	
+	/**
+	 * Report attempts, each reports all batches.
+	 */
+	public static final int COUNTER_REPORTS = 2;
+	
+	/**
+	 * Report attempts after a failed one.
+	 */
+	public static final int COUNTER_REPORT_RETRIES = 3;
+	
+	/**
+	 * Failed report attempts.
+	 */
+	public static final int COUNTER_REPORT_FAILURES = 4;
+	
+	/**
+	 * Request body bytes sent to host, after compression.
+	 */
+	public static final int COUNTER_BYTES_SENT = 5;
+	
+	/**
+	 * Logs dropped because host rejected their batch, such as 400 Bad Request for a malformed log.
+	 */
+	public static final int COUNTER_LOGS_REJECTED = 6;
+	
+	private static final int COUNTER_COUNT = 7;
+	
+	/**
+	 * Microseconds from the uncaught exception to the crash saved.
+	 */
+	public static final int HISTOGRAM_SAVE_TIME = 0;
+	
+	/**
+	 * Bytes of a saved crash record.
+	 */
+	public static final int HISTOGRAM_RECORD_BYTES = 1;
+	
+	/**
+	 * Number of logs in a reported batch.
+	 */
+	public static final int HISTOGRAM_BATCH_SIZE = 2;
+	
+	/**
+	 * Microseconds spent before a batch request, planning batches and collecting method signatures.
+	 */
+	public static final int HISTOGRAM_ENCODE_TIME = 3;
+	
+	/**
+	 * Microseconds from opening a batch request to its response, 
+	 * including reading and compressing logs streamed into the request.
+	 */
+	public static final int HISTOGRAM_UPLOAD_TIME = 4;
+	
+	private static final int HISTOGRAM_COUNT = 5;
+	
+	/**
+	 * Version 2 records {@link #HISTOGRAM_UPLOAD_TIME} in microseconds instead of milliseconds.
+	 */
+	private static final int FILE_VERSION = 2;
+	
+	private final AtomicLongArray mCounters = new AtomicLongArray(COUNTER_COUNT);
+	private final CrashHistogram[] mHistograms = new CrashHistogram[HISTOGRAM_COUNT];
+	
+	CrashMetrics() {
+		for(int i = 0; i < HISTOGRAM_COUNT; i++) {
+			mHistograms[i] = new CrashHistogram();
+		}
+	}
+	
+	void increment(int counter) {
+		mCounters.incrementAndGet(counter);
+	}
+	
+	void add(int counter, long delta) {
+		mCounters.addAndGet(counter, delta);
+	}
+	
+	void record(int histogram, long value) {
+		mHistograms[histogram].record(value);
+	}
+	
+	/**
+	 * @param counter Such as {@link #COUNTER_CRASHES_SAVED}.
+	 */
+	public long getCounter(int counter) {
+		return mCounters.get(counter);
+	}
+	
+	/**
+	 * @param histogram Such as {@link #HISTOGRAM_SAVE_TIME}.
+	 */
+	public CrashHistogram getHistogram(int histogram) {
+		return mHistograms[histogram];
+	}
+	
+	/**
+	 * The metrics file of a process, other processes never read or replace it.
+	 * 
+	 * @param processName Characters other than letters, digits, '.', '_' and '-' are replaced by '_'.
+	 */
+	static File getFile(File dir, String processName) {
+		StringBuilder name = new StringBuilder(CrashConfig.METRICS_FILE_PREFIX).append('_');
+		for(int i = 0; i < processName.length(); i++) {
+			char c = processName.charAt(i);
+			boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') 
+					|| c == '.' || c == '_' || c == '-';
+			name.append(safe ? c : '_');
+		}
+		return new File(dir, name.append(CrashConfig.METRICS_FILE_EXT).toString());
+	}
+	
+	/**
+	 * Write to a temporary file and rename, so the metrics file is never partially written. 
+	 * The file is of this process, see {@link #getFile(File, String)}, so is the temporary file.
+	 */
+	synchronized void save(File file) {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(tmp));
+			out.writeInt(FILE_VERSION);
+			out.writeByte(COUNTER_COUNT);
+			for(int i = 0; i < COUNTER_COUNT; i++) {
+				out.writeLong(mCounters.get(i));
+			}
+			out.writeByte(HISTOGRAM_COUNT);
+			for(int i = 0; i < HISTOGRAM_COUNT; i++) {
+				mHistograms[i].writeTo(out);
+			}
+			out.close();
+			out = null;
+			if(!tmp.renameTo(file)) {
+				throw new IOException("Rename failed: " + tmp.getName());
+			}
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Save crash metrics failed.", e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Load the metrics saved by a previous process of the same name.
+	 * 
+	 * @return null if there is no metrics file or it can not be read.
+	 */
+	static CrashMetrics load(File file) {
+		if(!file.exists()) {
+			return null;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			if(in.readInt() != FILE_VERSION) {
+				return null;
+			}
+			CrashMetrics metrics = new CrashMetrics();
+			int counters = in.readUnsignedByte();
+			for(int i = 0; i < counters; i++) {
+				long value = in.readLong();
+				if(i < COUNTER_COUNT) {
+					metrics.mCounters.set(i, value);
+				}
+			}
+			int histograms = Math.min(in.readUnsignedByte(), HISTOGRAM_COUNT);
+			for(int i = 0; i < histograms; i++) {
+				metrics.mHistograms[i].readFrom(in);
+			}
+			return metrics;
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Load crash metrics failed.", e);
+			return null;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+}
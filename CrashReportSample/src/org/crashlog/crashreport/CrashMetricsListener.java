@@ -22,35 +22,23 @@ SOFTWARE. */
 
 package org.crashlog.crashreport;
 
-import java.security.MessageDigest;
-
-import android.util.Log;
-
-public final class MD5Util {
-	private MD5Util(){}
+/**
+ * 
+ * Receives the SDK metrics, see {@link CrashReport#init(android.app.Application, CrashMetricsListener)}. 
+ * Called on the worker thread.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public interface CrashMetricsListener {
+	/**
+	 * Metrics of the previous process, including the timings of its crash if it crashed. 
+	 * Called once after initialization.
+	 */
+	void onPreviousMetrics(CrashMetrics metrics);
 	
-	public static String toMD5(String input) {
-		try {
-			char hexDigits[] = { '0', '1', '2', '3', '4', '5', '6', '7', '8',
-					'9', 'a', 'b', 'c', 'd', 'e', 'f' };
-
-			byte[] btInput = input.getBytes();
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			md.update(btInput);
-			byte[] digest = md.digest();
-
-			char str[] = new char[16 * 2];
-			int k = 0;
-			for (int i = 0; i < 16; i++) {
-				byte byte0 = digest[i];
-				str[k++] = hexDigits[byte0 >>> 4 & 0xf];
-				str[k++] = hexDigits[byte0 & 0xf];
-			}
-			return new String(str);
-		} catch (Exception ex) {
-			Log.d(CrashConfig.TAG, "MD5 failed.", ex);
-		}
-
-		return null;
-	}
+	/**
+	 * Metrics of this process, called after each report attempt.
+	 */
+	void onReportMetrics(CrashMetrics metrics);
 }
@@ -0,0 +1,430 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 
+ * Encodes crash records into a preallocated buffer, with the same wire format 
+ * as {@link CrashLogStore#writeInt(java.io.OutputStream, int)}, 
+ * {@link CrashLogStore#writeLong(java.io.OutputStream, long)} and 
+ * {@link CrashLogStore#writeUTF(java.io.OutputStream, String)}. 
+ * When the buffer is full, it is drained to the output channel, 
+ * so an encoder can be reused for any number of records without allocation.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashRecordEncoder {
+	/**
+	 * Ends the sections of a record.
+	 */
+	public static final int SECTION_END = 0;
+	
+	/**
+	 * Stack traces of other threads.
+	 */
+	public static final int SECTION_THREADS = 1;
+	
+	/**
+	 * Causes and suppressed exceptions.
+	 */
+	public static final int SECTION_CAUSES = 2;
+	
+	/**
+	 * Breadcrumbs left before the crash.
+	 */
+	public static final int SECTION_BREADCRUMBS = 3;
+	
+	/**
+	 * A cause entry is the cause of its parent.
+	 */
+	public static final int CAUSE_KIND_CAUSE = 0;
+	
+	/**
+	 * A cause entry is suppressed by its parent.
+	 */
+	public static final int CAUSE_KIND_SUPPRESSED = 1;
+	
+	/**
+	 * Thrown when a write does not fit in the buffer while a section is open, 
+	 * the section should be reset to its last mark and ended.
+	 */
+	public static final class SectionOverflowException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		SectionOverflowException() {
+			super("Crash record section overflow.");
+		}
+	}
+	
+	private final ByteBuffer mBuffer;
+	private final CrashInternTable mStrings = new CrashInternTable(CrashConfig.STRING_TABLE_SIZE);
+	private final CrashInternTable mFrames = new CrashInternTable(CrashConfig.FRAME_TABLE_SIZE);
+	private WritableByteChannel mOut;
+	private long mDrained;
+	private long mRecordStart;
+	private int mSectionStart = -1;
+	private int mMarkPosition;
+	private int mMarkStrings;
+	private int mMarkFrames;
+	
+	public CrashRecordEncoder(int capacity) {
+		mBuffer = ByteBuffer.allocate(capacity); //Big-endian
+	}
+	
+	/**
+	 * Set the channel that the encoded bytes are drained to, and reset the buffer.
+	 */
+	public void setOutput(WritableByteChannel out) {
+		mOut = out;
+		mBuffer.clear();
+	}
+	
+	/**
+	 * Number of bytes encoded but not yet drained.
+	 */
+	public int position() {
+		return mBuffer.position();
+	}
+	
+	/**
+	 * Drain the encoded bytes to the output channel.
+	 */
+	public void flush() throws IOException {
+		if(mOut == null) {
+			throw new IOException("Crash record buffer overflow.");
+		}
+		mBuffer.flip();
+		while(mBuffer.hasRemaining()) {
+			mDrained += mOut.write(mBuffer);
+		}
+		mBuffer.clear();
+	}
+	
+	private void ensure(int n) throws IOException {
+		if(mBuffer.remaining() < n) {
+			if(mSectionStart >= 0) {
+				throw new SectionOverflowException();
+			}
+			flush();
+		}
+	}
+	
+	public void writeBoolean(boolean val) throws IOException {
+		ensure(1);
+		mBuffer.put((byte) (val ? 1 : 0));
+	}
+	
+	public void writeByte(byte val) throws IOException {
+		ensure(1);
+		mBuffer.put(val);
+	}
+	
+	public void writeShort(int val) throws IOException {
+		ensure(2);
+		mBuffer.putShort((short) val);
+	}
+	
+	public void writeInt(int val) throws IOException {
+		ensure(4);
+		mBuffer.putInt(val);
+	}
+	
+	public void writeLong(long val) throws IOException {
+		ensure(8);
+		mBuffer.putLong(val);
+	}
+	
+	/**
+	 * Length of the string encoded by <code>String.getBytes("UTF-8")</code>, 
+	 * unpaired surrogates are replaced by '?'.
+	 */
+	public static int utfLength(String s) {
+		int utflen = 0;
+		int len = s.length();
+		for(int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				utflen += 1;
+			} else if(c < 0x800) {
+				utflen += 2;
+			} else if(Character.isHighSurrogate(c) && i + 1 < len 
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				utflen += 4;
+				i++;
+			} else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				utflen += 1;
+			} else {
+				utflen += 3;
+			}
+		}
+		return utflen;
+	}
+	
+	/**
+	 * Write a 2 bytes length and the UTF-8 bytes of the string, 
+	 * a null string is written as an empty string.
+	 */
+	public void writeUTF(String s) throws IOException {
+		int utflen = 0;
+		if(s != null && s.length() > 0) {
+			utflen = utfLength(s);
+			if (utflen > 65535) {
+				throw new IOException("encoded string too long: " + utflen
+						+ " bytes");
+			}
+		}
+		
+		writeShort(utflen);
+		if(utflen == 0) {
+			return;
+		}
+		
+		int len = s.length();
+		if(utflen == len && mBuffer.remaining() >= len) {
+			//ASCII, as class, file and method names are: one byte per char.
+			byte[] array = mBuffer.array();
+			int offset = mBuffer.arrayOffset() + mBuffer.position();
+			for(int i = 0; i < len; i++) {
+				array[offset + i] = (byte) s.charAt(i);
+			}
+			mBuffer.position(mBuffer.position() + len);
+			return;
+		}
+		for(int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			ensure(4);
+			if(c < 0x80) {
+				mBuffer.put((byte) c);
+			} else if(c < 0x800) {
+				mBuffer.put((byte) (0xc0 | (c >> 6)));
+				mBuffer.put((byte) (0x80 | (c & 0x3f)));
+			} else if(Character.isHighSurrogate(c) && i + 1 < len 
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				mBuffer.put((byte) (0xf0 | (cp >> 18)));
+				mBuffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+				mBuffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+				mBuffer.put((byte) (0x80 | (cp & 0x3f)));
+			} else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				mBuffer.put((byte) '?');
+			} else {
+				mBuffer.put((byte) (0xe0 | (c >> 12)));
+				mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				mBuffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+	
+	/**
+	 * Write an unsigned LEB128 variable-length integer.
+	 */
+	public void writeVarInt(int val) throws IOException {
+		ensure(5);
+		while((val & ~0x7f) != 0) {
+			mBuffer.put((byte) ((val & 0x7f) | 0x80));
+			val >>>= 7;
+		}
+		mBuffer.put((byte) val);
+	}
+	
+	/**
+	 * Write a string of the record string table: 0 for null, 
+	 * 1 followed by the UTF string for a new string, 
+	 * or <code>index + 2</code> for a string already written in the record.
+	 */
+	public void writeStringRef(String s) throws IOException {
+		if(s == null) {
+			writeVarInt(0);
+			return;
+		}
+		
+		int index = mStrings.add(s);
+		if(index >= 0) {
+			writeVarInt(index + 2);
+		} else {
+			writeVarInt(1);
+			writeUTF(s);
+		}
+	}
+	
+	/**
+	 * Start a new record, write the record version and reset the string table.
+	 */
+	public void beginRecord() throws IOException {
+		mStrings.clear();
+		mFrames.clear();
+		mSectionStart = -1;
+		mRecordStart = mDrained + mBuffer.position();
+		writeByte((byte) CrashConfig.VERSION);
+	}
+	
+	/**
+	 * End the record after its sections.
+	 */
+	public void endRecord() throws IOException {
+		writeByte((byte) SECTION_END);
+	}
+	
+	/**
+	 * Number of bytes encoded since {@link #beginRecord()}, drained or not.
+	 */
+	public long getRecordLength() {
+		return mDrained + mBuffer.position() - mRecordStart;
+	}
+	
+	/**
+	 * Begin a section: tag(1) length(4) payload. The section is kept in the buffer until ended, 
+	 * so its length can be filled in, a write that does not fit throws {@link SectionOverflowException}.
+	 */
+	public void beginSection(int tag) throws IOException {
+		if(mOut != null) {
+			flush();
+		}
+		ensure(5);
+		mBuffer.put((byte) tag);
+		mBuffer.putInt(0);
+		mSectionStart = mBuffer.position();
+		mark();
+	}
+	
+	/**
+	 * Mark the end of a complete entry of the open section.
+	 */
+	public void mark() {
+		mMarkPosition = mBuffer.position();
+		mMarkStrings = mStrings.size();
+		mMarkFrames = mFrames.size();
+	}
+	
+	/**
+	 * Roll back the open section to the last mark, strings and frames written since are forgotten.
+	 */
+	public void reset() {
+		mBuffer.position(mMarkPosition);
+		mStrings.truncate(mMarkStrings);
+		mFrames.truncate(mMarkFrames);
+	}
+	
+	public void endSection() {
+		mBuffer.putInt(mSectionStart - 4, mBuffer.position() - mSectionStart);
+		mSectionStart = -1;
+	}
+	
+	/**
+	 * Write frame count and frames. Each frame is class name, file name and method name 
+	 * of the record string table, and the zigzag encoded line number 
+	 * (-2 for native method, as {@link StackTraceElement#isNativeMethod()}).
+	 */
+	public void writeStackTrace(StackTraceElement[] elements) throws IOException {
+		int len = elements.length;
+		writeVarInt(len);
+		
+		for(int i = 0; i < len; i++) {
+			StackTraceElement ste = elements[i];
+			writeStringRef(ste.getClassName());
+			writeStringRef(ste.getFileName());
+			writeStringRef(ste.getMethodName());
+			int line = ste.isNativeMethod() ? -2 : ste.getLineNumber();
+			writeVarInt((line << 1) ^ (line >> 31));
+		}
+	}
+	
+	/**
+	 * Write a frame of the record frame table: 0 followed by class name, file name, method name 
+	 * and line number as {@link #writeStackTrace(StackTraceElement[])} for a new frame, 
+	 * or <code>index + 1</code> for a frame already written in the record.
+	 */
+	public void writeFrame(StackTraceElement ste) throws IOException {
+		int index = mFrames.add(ste);
+		if(index >= 0) {
+			writeVarInt(index + 1);
+			return;
+		}
+		writeVarInt(0);
+		writeStringRef(ste.getClassName());
+		writeStringRef(ste.getFileName());
+		writeStringRef(ste.getMethodName());
+		int line = ste.isNativeMethod() ? -2 : ste.getLineNumber();
+		writeVarInt((line << 1) ^ (line >> 31));
+	}
+	
+	/**
+	 * Write an entry of {@link #SECTION_CAUSES}: parent entry (0 for the thrown exception, 
+	 * otherwise the 1-based entry index), kind, class name, message, number of frames in common 
+	 * with the parent, unique frame count and unique frames. Frames in common are the 
+	 * trailing frames equal to the trailing frames of the parent.
+	 */
+	public void writeCause(int parent, int kind, Throwable throwable, StackTraceElement[] elements, 
+			StackTraceElement[] parentElements) throws IOException {
+		int m = elements.length - 1;
+		int n = parentElements.length - 1;
+		while(m >= 0 && n >= 0 && elements[m].equals(parentElements[n])) {
+			m--;
+			n--;
+		}
+		int unique = m + 1;
+		
+		writeVarInt(parent);
+		writeByte((byte) kind);
+		writeStringRef(throwable.getClass().getName());
+		writeUTF(throwable.getLocalizedMessage());
+		writeVarInt(elements.length - unique);
+		writeVarInt(unique);
+		for(int i = 0; i < unique; i++) {
+			writeFrame(elements[i]);
+		}
+	}
+	
+	/**
+	 * Write a breadcrumb of {@link #SECTION_BREADCRUMBS}: msec before the crash 
+	 * and the message, at most {@link CrashConfig#BREADCRUMB_MAX_LENGTH} chars.
+	 */
+	public void writeBreadcrumb(long age, String message) throws IOException {
+		writeVarInt((int) Math.max(0, Math.min(age, Integer.MAX_VALUE)));
+		if(message != null && message.length() > CrashConfig.BREADCRUMB_MAX_LENGTH) {
+			message = message.substring(0, CrashConfig.BREADCRUMB_MAX_LENGTH);
+		}
+		writeUTF(message);
+	}
+	
+	/**
+	 * Write a thread of {@link #SECTION_THREADS}: name, state ordinal, 
+	 * total frame count, written frame count and frames, at most <code>maxDepth</code> frames.
+	 */
+	public void writeThread(Thread thread, StackTraceElement[] elements, int maxDepth) throws IOException {
+		writeStringRef(thread.getName());
+		writeByte((byte) thread.getState().ordinal());
+		int depth = Math.min(elements.length, maxDepth);
+		writeVarInt(elements.length);
+		writeVarInt(depth);
+		for(int i = 0; i < depth; i++) {
+			writeFrame(elements[i]);
+		}
+	}
+}
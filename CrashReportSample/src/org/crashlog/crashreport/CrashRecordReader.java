@@ -0,0 +1,125 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 
+ * Reads the stack trace of a stored record of current version, the counterpart of 
+ * {@link CrashRecordEncoder}. Only used when reporting, never on the crash path.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashRecordReader {
+	private static final int FIXED_LONGS = 7; //crash time, memory(2), storage(4)
+	private static final int FIXED_STRINGS = 4; //thread, process, cause, message
+	
+	private final DataInputStream mIn;
+	private final List<String> mStrings = new ArrayList<String>();
+	
+	public CrashRecordReader(InputStream in) {
+		mIn = new DataInputStream(in);
+	}
+	
+	/**
+	 * Read the stack trace of the next record, frames are read with class name, 
+	 * method name and line number only.
+	 * 
+	 * @return null if the record is not of current version.
+	 */
+	public StackTraceElement[] readStackTrace() throws IOException {
+		if(mIn.readUnsignedByte() != CrashConfig.VERSION) {
+			return null;
+		}
+		mIn.readInt(); //count
+		mIn.readLong(); //last crash time
+		skipUTF(); //crash id
+		for(int i = 0; i < FIXED_LONGS; i++) {
+			mIn.readLong();
+		}
+		for(int i = 0; i < FIXED_STRINGS; i++) {
+			skipUTF();
+		}
+		
+		mStrings.clear();
+		int len = readVarInt();
+		StackTraceElement[] elements = new StackTraceElement[len];
+		for(int i = 0; i < len; i++) {
+			String className = readStringRef();
+			String fileName = readStringRef();
+			String methodName = readStringRef();
+			int zigzag = readVarInt();
+			int line = (zigzag >>> 1) ^ -(zigzag & 1);
+			elements[i] = new StackTraceElement(className != null ? className : "", 
+					methodName != null ? methodName : "", fileName, line);
+		}
+		return elements;
+	}
+	
+	private int readVarInt() throws IOException {
+		int val = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = mIn.readUnsignedByte();
+			val |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				return val;
+			}
+		}
+		throw new IOException("Malformed varint.");
+	}
+	
+	private String readStringRef() throws IOException {
+		int ref = readVarInt();
+		if(ref == 0) {
+			return null;
+		}
+		if(ref == 1) {
+			String s = readUTF();
+			mStrings.add(s);
+			return s;
+		}
+		if(ref - 2 >= mStrings.size()) {
+			throw new IOException("Bad string reference: " + ref);
+		}
+		return mStrings.get(ref - 2);
+	}
+	
+	private String readUTF() throws IOException {
+		byte[] bytes = new byte[mIn.readUnsignedShort()];
+		mIn.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	private void skipUTF() throws IOException {
+		int len = mIn.readUnsignedShort();
+		if(mIn.skipBytes(len) != len) {
+			throw new IOException("Record truncated.");
+		}
+	}
+}
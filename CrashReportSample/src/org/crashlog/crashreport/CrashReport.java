@@ -22,8 +22,18 @@ SOFTWARE. */
 
 package org.crashlog.crashreport;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.app.Application;
 import android.util.Log;
@@ -42,18 +52,136 @@ public class CrashReport implements UncaughtExceptionHandler {
 	
 	private UncaughtExceptionHandler mUncaughtExHandler;
 	private Application mApp;
+	private ExecutorService mWorker;
+	private CrashMetricsListener mMetricsListener;
+	private CrashConnectivityProvider mConnectivity;
 	
-	private CrashReport(Application app) {
+	//Prepared by worker, the crash handler works without them.
+	private volatile DeviceInfoSnapshot mDeviceInfo;
+	private volatile CrashReserve mReserve;
+	private volatile CrashJournal mJournal;
+	private volatile CrashDedupIndex mDedupIndex;
+	private volatile CrashManifest mManifest;
+	private volatile CrashLogSender mSender;
+	
+	/**
+	 * Only installs the crash handler, all I/O and system service calls 
+	 * are done by the worker thread.
+	 */
+	private CrashReport(Application app, CrashMetricsListener metricsListener, 
+			CrashConnectivityProvider connectivity) {
 		this.mApp = app;
+		this.mMetricsListener = metricsListener;
+		this.mConnectivity = connectivity;
+		
 		mUncaughtExHandler = Thread.getDefaultUncaughtExceptionHandler();
 		Thread.setDefaultUncaughtExceptionHandler(this);
+		
+		getWorker().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				prepare();
+			}
+		});
+	} 
+	
+	/**
+	 * A single worker thread with a bounded queue, created when first used. 
+	 * The thread exits when idle.
+	 */
+	private synchronized ExecutorService getWorker() {
+		if(mWorker == null) {
+			mWorker = new ThreadPoolExecutor(0, 1, 
+					CrashConfig.WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS, 
+					new ArrayBlockingQueue<Runnable>(CrashConfig.WORKER_QUEUE_SIZE), 
+					new ThreadFactory() {
 
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "CrashLogReport");
+							thread.setPriority(Thread.MIN_PRIORITY);
+							return thread;
+						}
+						
+					});
+		}
+		return mWorker;
+	}
+	
+	private void prepare() {
+		DeviceInfoSnapshot deviceInfo = DeviceInfoSnapshot.capture(mApp);
+		mDeviceInfo = deviceInfo;
+		
+		File dir = CrashLogStore.getLogDir(mApp);
+		if(dir == null) {
+			return;
+		}
+		
+		dir.mkdirs();
+		File metricsFile = CrashMetrics.getFile(dir, deviceInfo.getProcessName());
+		CrashMetrics previousMetrics = CrashMetrics.load(metricsFile);
+		if(previousMetrics != null) {
+			metricsFile.delete();
+			if(mMetricsListener != null) {
+				mMetricsListener.onPreviousMetrics(previousMetrics);
+			}
+		}
+		
+		CrashManifest manifest = loadManifest(dir);
+		
+		//Reserve memory and file for saving OutOfMemoryError crash.
+		try {
+			mReserve = new CrashReserve(dir, manifest);
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Reserve for OutOfMemoryError failed. ", e);
+		}
+		
+		try {
+			CrashLogStore.enforceQuota(manifest, System.currentTimeMillis());
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Evict crash log files failed. ", e);
+		}
+		
+		CrashDedupIndex dedupIndex = mDedupIndex;
+		
+		CrashJournal journal = null;
+		if(CrashConfig.USE_CRASH_JOURNAL) {
+			try {
+				journal = CrashJournal.open(dir);
+				mJournal = journal;
+			} catch (IOException e) {
+				Log.d(CrashConfig.TAG, "Open crash journal failed. ", e);
+			}
+		}
+		
 		//Report crash logs when APP is running.
 		if(CrashConfig.IS_ALLOW_REPORT_TO_HOST) {
-			CrashLogSender cls = new CrashLogSender(app);
+			CrashConnectivityProvider connectivity = mConnectivity;
+			if(connectivity == null) {
+				connectivity = new CrashAndroidConnectivity(mApp);
+			}
+			CrashLogSender cls = new CrashLogSender(mApp, deviceInfo, journal, 
+					dedupIndex, manifest, mMetricsListener, connectivity, getWorker());
 			cls.start();
+			mSender = cls;
 		}
-	} 
+	}
+	
+	/**
+	 * Load the manifest and the dedup index once, by the worker or by a crash before the worker did. 
+	 * Without them every repeated crash is saved as a new record.
+	 */
+	private synchronized CrashManifest loadManifest(File dir) {
+		CrashManifest manifest = mManifest;
+		if(manifest == null) {
+			manifest = new CrashManifest(dir);
+			manifest.load();
+			mDedupIndex = CrashDedupIndex.load(manifest);
+			mManifest = manifest;
+		}
+		return manifest;
+	}
 	
 	/**
 	 * Initializes an instance of CrashReport and listens uncaught exception.
@@ -62,26 +190,143 @@ public class CrashReport implements UncaughtExceptionHandler {
 	 * @return
 	 */
 	public static final CrashReport init(Application app) {
+		return init(app, null);
+	}
+	
+	/**
+	 * Initializes an instance of CrashReport and listens uncaught exception.
+	 * 
+	 * @param metricsListener Receives the SDK metrics of the previous process and of report attempts, may be null.
+	 * @return
+	 */
+	public static final CrashReport init(Application app, CrashMetricsListener metricsListener) {
+		return init(app, metricsListener, null);
+	}
+	
+	/**
+	 * Initializes an instance of CrashReport and listens uncaught exception.
+	 * 
+	 * @param metricsListener Receives the SDK metrics of the previous process and of report attempts, may be null.
+	 * @param connectivity Tells the network class and whether it is metered, 
+	 * null for the one of the system connectivity service.
+	 * @return
+	 */
+	public static final CrashReport init(Application app, CrashMetricsListener metricsListener, 
+			CrashConnectivityProvider connectivity) {
 		if (mInstance == null) {
-			mInstance = new CrashReport(app);
+			mInstance = new CrashReport(app, metricsListener, connectivity);
 		}
 		return mInstance;
 	}
 	
+	/**
+	 * The SDK metrics of this process.
+	 */
+	public static CrashMetrics getMetrics() {
+		return CrashLogStore.getMetrics();
+	}
+	
+	/**
+	 * Report crash logs now on the worker thread, regardless of retry backoff.
+	 * 
+	 * @return A future of whether logs were reported, false if reporting is not allowed 
+	 * or the network is not suitable. It fails with the cause if reporting failed, 
+	 * and is cancelled if the worker is busy.
+	 */
+	public Future<Boolean> flushAsync() {
+		FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() throws Exception {
+				CrashLogSender sender = mSender;
+				return sender != null && sender.flush();
+			}
+			
+		});
+		try {
+			getWorker().execute(task);
+		} catch (RejectedExecutionException e) {
+			Log.d(CrashConfig.TAG, "Crash report worker is busy. ", e);
+			task.cancel(false);
+		}
+		return task;
+	}
+	
+	/**
+	 * Record what the APP was doing, the latest {@link CrashConfig#BREADCRUMB_CAPACITY} breadcrumbs 
+	 * are saved with a crash. It can be called from any thread, even before {@link #init(Application)}, 
+	 * and neither locks nor allocates.
+	 * 
+	 * @param message Better be a constant or an existing string.
+	 */
+	public static void leaveBreadcrumb(String message) {
+		CrashLogStore.leaveBreadcrumb(message);
+	}
+	
+	private void saveLog(Thread thread, Throwable ex) throws IOException {
+		DeviceInfoSnapshot deviceInfo = mDeviceInfo;
+		if(deviceInfo == null) {
+			//Crashed before prepared.
+			deviceInfo = DeviceInfoSnapshot.capture(mApp);
+		}
+		
+		CrashReserve reserve = mReserve;
+		CrashJournal journal = mJournal;
+		boolean isOutOfMemory = ex instanceof OutOfMemoryError;
+		if(isOutOfMemory && reserve != null) {
+			reserve.releaseBallast();
+		}
+		
+		if(journal != null 
+				&& CrashLogStore.saveLogToJournal(deviceInfo, journal, ex, thread)) {
+			return;
+		}
+		
+		if(isOutOfMemory && reserve != null && reserve.isReady()) {
+			CrashLogStore.saveLogToReserve(deviceInfo, reserve, ex, thread);
+		} else {
+			CrashManifest manifest = mManifest;
+			File dir = CrashLogStore.getLogDir(mApp);
+			if(manifest == null && dir != null) {
+				//Crashed before prepared, such as in a startup crash loop.
+				dir.mkdirs();
+				manifest = loadManifest(dir);
+			}
+			CrashLogStore.saveLogToFile(mApp, deviceInfo, mDedupIndex, manifest, ex, thread);
+		}
+	}
 
 	@Override
 	public void uncaughtException(Thread thread, Throwable ex) {
-		Log.d(CrashConfig.TAG, ex.getLocalizedMessage() + "\n" + ex.getMessage());
-		
 		try {
-			CrashLogStore.saveLogToFile(mApp, ex, thread);
+			long start = System.nanoTime();
+			saveLog(thread, ex);
+			CrashMetrics metrics = CrashLogStore.getMetrics();
+			metrics.record(CrashMetrics.HISTOGRAM_SAVE_TIME, (System.nanoTime() - start) / 1000);
+			
+			//Timings of this crash are reported by the next process.
+			File dir = CrashLogStore.getLogDir(mApp);
+			if(dir != null) {
+				DeviceInfoSnapshot deviceInfo = mDeviceInfo;
+				if(deviceInfo == null) {
+					//Crashed before prepared.
+					deviceInfo = DeviceInfoSnapshot.capture(mApp);
+				}
+				metrics.save(CrashMetrics.getFile(dir, deviceInfo.getProcessName()));
+			}
+			Log.d(CrashConfig.TAG, ex.getLocalizedMessage() + "\n" + ex.getMessage());
+//			Log.d(TAG, this.getProcessName(android.os.Process.myPid()) + "/" + thread.getName() + "-" + thread.getId());
 		} catch (IOException e) {
 			Log.d(CrashConfig.TAG, "Save crash log failed. ", e);
-		}
-//		Log.d(TAG, this.getProcessName(android.os.Process.myPid()) + "/" + thread.getName() + "-" + thread.getId());
-		
-		if (mUncaughtExHandler != null) {
-			mUncaughtExHandler.uncaughtException(thread, ex);
+		} catch (OutOfMemoryError e) {
+			Log.d(CrashConfig.TAG, "Save crash log failed, out of memory. ");
+		} catch (Throwable e) {
+			//Such as a runtime exception of file locking or of the APP, the process must still be killed.
+			Log.d(CrashConfig.TAG, "Save crash log failed. ", e);
+		} finally {
+			if (mUncaughtExHandler != null) {
+				mUncaughtExHandler.uncaughtException(thread, ex);
+			}
 		}
 	}
 }
@@ -0,0 +1,224 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * 
+ * Memory and file reserved at initialization for saving an OutOfMemoryError crash.
+ * The ballast block is released on OOM to give the crash path some heap, and the 
+ * record is encoded through a preallocated buffer into an already opened slot file.
+ * 
+ * The slot file layout is a 4 bytes record length followed by the record, 
+ * the length is written last, a zero length means no committed record.
+ * A committed record is moved to a regular log file on next initialization.
+ * 
+ * Each process has its own slot file and holds a lock on it while alive, so the slots 
+ * of processes that are gone can be recovered while other processes keep running.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashReserve {
+	private static final int SLOT_HEADER_SIZE = 4;
+	
+	private byte[] mBallast;
+	private final CrashRecordEncoder mEncoder;
+	private final ByteBuffer mLengthBuffer;
+	private final File mSlotFile;
+	private RandomAccessFile mSlot;
+	private boolean mCommitted;
+	
+	/**
+	 * @param manifest The manifest to record the recovered log file, may be null.
+	 */
+	public CrashReserve(File dir, CrashManifest manifest) throws IOException {
+		recoverAll(dir, manifest);
+		
+		int pid = Process.myPid();
+		mSlotFile = new File(dir, CrashConfig.RESERVE_FILE_PREFIX + "_" + pid + CrashConfig.RESERVE_FILE_EXT);
+		mSlot = new RandomAccessFile(mSlotFile, "rw");
+		if(mSlot.getChannel().tryLock() == null) {
+			mSlot.close();
+			throw new IOException("Reserve slot is locked: " + mSlotFile.getName());
+		}
+		mSlot.setLength(0);
+		mSlot.writeInt(0);
+		
+		mEncoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+		mLengthBuffer = ByteBuffer.allocate(SLOT_HEADER_SIZE);
+		mBallast = new byte[CrashConfig.OOM_BALLAST_SIZE];
+	}
+	
+	/**
+	 * Recover the slots of processes that are gone, a slot is unlocked when its process is gone.
+	 */
+	static void recoverAll(File dir, CrashManifest manifest) {
+		File[] files = dir.listFiles();
+		if(files == null) {
+			return;
+		}
+		for(int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if(!name.startsWith(CrashConfig.RESERVE_FILE_PREFIX) 
+					|| !name.endsWith(CrashConfig.RESERVE_FILE_EXT)) {
+				continue;
+			}
+			
+			RandomAccessFile slot = null;
+			try {
+				slot = new RandomAccessFile(files[i], "rw");
+				if(slot.getChannel().tryLock() == null) {
+					continue;
+				}
+				recover(files[i], slot, dir, manifest);
+				files[i].delete();
+			} catch (OverlappingFileLockException e) {
+				//The slot of this process.
+			} catch (IOException e) {
+				Log.d(CrashConfig.TAG, "Recover reserved crash log failed: " + name, e);
+			} finally {
+				if(slot != null) {
+					try {
+						slot.close();
+					} catch (IOException e) {
+						//Ignore
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Move a record committed by a process that is gone to a regular log file. The log file is named 
+	 * after the slot, so a slot recovered again after a crash during recovery is not duplicated.
+	 */
+	private static void recover(File slotFile, RandomAccessFile slot, File dir, CrashManifest manifest) throws IOException {
+		if(slot.length() <= SLOT_HEADER_SIZE) {
+			return;
+		}
+		
+		FileOutputStream out = null;
+		try {
+			int len = slot.readInt();
+			if(len <= 0 || len > slot.length() - SLOT_HEADER_SIZE) {
+				Log.d(CrashConfig.TAG, "Discard uncommitted reserved crash log.");
+				return;
+			}
+			
+			long crashTime = slotFile.lastModified();
+			File file = new File(dir, CrashLogStore.newLogFileName(crashTime, getPid(slotFile), 0));
+			if(!file.exists() || file.length() != len) {
+				out = new FileOutputStream(file);
+				FileChannel src = slot.getChannel();
+				long position = SLOT_HEADER_SIZE;
+				long end = SLOT_HEADER_SIZE + len;
+				while(position < end) {
+					position += src.transferTo(position, end - position, out.getChannel());
+				}
+				out.close();
+				out = null;
+			}
+			
+			//Adding the same log file again replaces its entry.
+			
+			if(manifest != null) {
+				manifest.add(file, len, CrashDedupIndex.readCrashId(file), crashTime);
+			}
+		} finally {
+			if(out != null) {
+				out.close();
+			}
+		}
+	}
+	
+	/**
+	 * @return The process id in the slot file name, or 0 for a slot of earlier SDK versions.
+	 */
+	private static int getPid(File slotFile) {
+		String name = slotFile.getName();
+		int start = CrashConfig.RESERVE_FILE_PREFIX.length() + 1;
+		int end = name.length() - CrashConfig.RESERVE_FILE_EXT.length();
+		if(start >= end) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(name.substring(start, end));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Whether the slot is open and has not been used yet.
+	 */
+	public boolean isReady() {
+		return mSlot != null && !mCommitted;
+	}
+	
+	public void releaseBallast() {
+		mBallast = null;
+	}
+	
+	/**
+	 * Prepare the encoder to write a record into the slot.
+	 */
+	public CrashRecordEncoder begin() throws IOException {
+		FileChannel channel = mSlot.getChannel();
+		channel.position(SLOT_HEADER_SIZE);
+		mEncoder.setOutput(channel);
+		return mEncoder;
+	}
+	
+	/**
+	 * Flush the encoded record and write its length, which commits the record.
+	 */
+	public void commit() throws IOException {
+		mEncoder.flush();
+		mEncoder.setOutput(null);
+		
+		FileChannel channel = mSlot.getChannel();
+		long len = channel.position() - SLOT_HEADER_SIZE;
+		channel.force(false);
+		
+		mLengthBuffer.clear();
+		mLengthBuffer.putInt((int) len);
+		mLengthBuffer.flip();
+		while(mLengthBuffer.hasRemaining()) {
+			channel.write(mLengthBuffer, SLOT_HEADER_SIZE - mLengthBuffer.remaining());
+		}
+		channel.force(false);
+		mCommitted = true;
+	}
+}
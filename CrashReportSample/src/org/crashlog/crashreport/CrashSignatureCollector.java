@@ -0,0 +1,218 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * 
+ * Resolves method signatures of frames in configured packages when logs are reported, 
+ * so overloaded methods in a stack trace can be told apart. Classes are looked up 
+ * without initialization, and signatures are cached per class.
+ * 
+ * The signatures block follows the records of a report:
+ * magic(4) classCount(varint) { className(UTF) methodCount(varint) { methodName(UTF) signatureCount(varint) signature(UTF)* }* }*
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashSignatureCollector {
+	private static final String CONSTRUCTOR_NAME = "<init>";
+	
+	private final String[] mPackages;
+	private final ClassLoader mClassLoader;
+	private final Map<String, Map<String, List<String>>> mCache;
+	
+	/**
+	 * @param packages Package name prefixes of frames to resolve.
+	 */
+	public CrashSignatureCollector(String[] packages, ClassLoader classLoader) {
+		mPackages = packages;
+		mClassLoader = classLoader;
+		mCache = new LinkedHashMap<String, Map<String, List<String>>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, List<String>>> eldest) {
+				return size() > CrashConfig.SIGNATURE_CACHE_SIZE;
+			}
+			
+		};
+	}
+	
+	/**
+	 * Collect the signatures block of log files.
+	 * 
+	 * @return null if no frame is in the configured packages.
+	 */
+	public byte[] collect(List<File> logs) {
+		//class -> method names, in order of first seen
+		Map<String, List<String>> frames = new LinkedHashMap<String, List<String>>();
+		for(int i = 0; i < logs.size(); i++) {
+			InputStream in = null;
+			try {
+				in = new BufferedInputStream(new FileInputStream(logs.get(i)));
+				StackTraceElement[] elements = new CrashRecordReader(in).readStackTrace();
+				if(elements != null) {
+					addFrames(elements, frames);
+				}
+			} catch (IOException e) {
+				Log.d(CrashConfig.TAG, "Read stack trace failed: " + logs.get(i).getName(), e);
+			} finally {
+				if(in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+						//Ignore
+					}
+				}
+			}
+		}
+		if(frames.isEmpty()) {
+			return null;
+		}
+		
+		try {
+			return encode(frames);
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Encode method signatures failed.", e);
+			return null;
+		}
+	}
+	
+	private void addFrames(StackTraceElement[] elements, Map<String, List<String>> frames) {
+		for(int i = 0; i < elements.length; i++) {
+			String className = elements[i].getClassName();
+			if(!isIncluded(className)) {
+				continue;
+			}
+			List<String> methods = frames.get(className);
+			if(methods == null) {
+				methods = new ArrayList<String>();
+				frames.put(className, methods);
+			}
+			if(!methods.contains(elements[i].getMethodName())) {
+				methods.add(elements[i].getMethodName());
+			}
+		}
+	}
+	
+	private boolean isIncluded(String className) {
+		for(int i = 0; i < mPackages.length; i++) {
+			if(className.startsWith(mPackages[i]) 
+					&& className.length() > mPackages[i].length() 
+					&& className.charAt(mPackages[i].length()) == '.') {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private byte[] encode(Map<String, List<String>> frames) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(CrashConfig.SIGNATURE_MAGIC);
+		writeVarInt(out, frames.size());
+		for(Map.Entry<String, List<String>> frame : frames.entrySet()) {
+			Map<String, List<String>> table = getSignatureTable(frame.getKey());
+			out.writeUTF(frame.getKey());
+			List<String> methods = frame.getValue();
+			writeVarInt(out, methods.size());
+			for(int i = 0; i < methods.size(); i++) {
+				List<String> signatures = table.get(methods.get(i));
+				out.writeUTF(methods.get(i));
+				if(signatures == null) {
+					writeVarInt(out, 0);
+					continue;
+				}
+				writeVarInt(out, signatures.size());
+				for(int j = 0; j < signatures.size(); j++) {
+					out.writeUTF(signatures.get(j));
+				}
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Method name to signatures of the class, empty if the class is not found.
+	 */
+	private Map<String, List<String>> getSignatureTable(String className) {
+		Map<String, List<String>> table = mCache.get(className);
+		if(table != null) {
+			return table;
+		}
+		
+		table = new HashMap<String, List<String>>();
+		try {
+			Class<?> clazz = Class.forName(className, false, mClassLoader);
+			Method[] methods = clazz.getDeclaredMethods();
+			for(int i = 0; i < methods.length; i++) {
+				addSignature(table, methods[i].getName(), methods[i].toString());
+			}
+			Constructor<?>[] constructors = clazz.getDeclaredConstructors();
+			for(int i = 0; i < constructors.length; i++) {
+				addSignature(table, CONSTRUCTOR_NAME, constructors[i].toString());
+			}
+		} catch (ClassNotFoundException e) {
+			Log.d(CrashConfig.TAG, "Class not found: " + className);
+		} catch (LinkageError e) {
+			Log.d(CrashConfig.TAG, "Class not loaded: " + className, e);
+		}
+		mCache.put(className, table);
+		return table;
+	}
+	
+	private static void addSignature(Map<String, List<String>> table, String name, String signature) {
+		List<String> signatures = table.get(name);
+		if(signatures == null) {
+			signatures = new ArrayList<String>(1);
+			table.put(name, signatures);
+		}
+		signatures.add(signature);
+	}
+	
+	private static void writeVarInt(DataOutputStream out, int val) throws IOException {
+		while((val & ~0x7f) != 0) {
+			out.writeByte((val & 0x7f) | 0x80);
+			val >>>= 7;
+		}
+		out.writeByte(val);
+	}
+}
@@ -0,0 +1,251 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import android.util.Log;
+
+/**
+ * 
+ * Decides what and how to report by the network. Throughput of each network class is estimated 
+ * from the timings of past requests, a batch is sized to be sent in about 
+ * {@link CrashConfig#REPORT_TARGET_TIME}, and the slower the network the higher the compression level.
+ * 
+ * On a metered network only logs of new crashes are reported, small logs of crash ids 
+ * not reported yet, and the rest is deferred to an unmetered network. The crash ids reported 
+ * are persisted, and loaded by each report attempt as the uploader process may have changed.
+ * 
+ * Reported crash ids file format: count(4) crashId(UTF)*, least recently reported first.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashUploadPolicy {
+	/**
+	 * Bytes per second assumed of each network class before it is measured.
+	 */
+	private static final long[] INITIAL_THROUGHPUT = {
+		0, //NETWORK_NONE
+		8 * 1024, //NETWORK_2G
+		64 * 1024, //NETWORK_3G
+		512 * 1024, //NETWORK_4G
+		1024 * 1024, //NETWORK_WIFI
+		32 * 1024, //NETWORK_OTHER
+	};
+	
+	/**
+	 * A request of this many bytes moves the estimate by {@link #MAX_WEIGHT}, smaller requests 
+	 * are dominated by latency and move it less.
+	 */
+	private static final long SAMPLE_BYTES = 64 * 1024;
+	private static final double MAX_WEIGHT = 0.5;
+	
+	private static final long FAST_THROUGHPUT = 1024 * 1024;
+	private static final long MEDIUM_THROUGHPUT = 128 * 1024;
+	
+	private final long[] mThroughput = INITIAL_THROUGHPUT.clone();
+	private final Map<String, Boolean> mReported;
+	private final File mReportedFile;
+	
+	/**
+	 * @param reportedFile Where the crash ids reported are persisted.
+	 */
+	public CrashUploadPolicy(File reportedFile) {
+		mReportedFile = reportedFile;
+		mReported = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > CrashConfig.DEDUP_INDEX_SIZE;
+			}
+		};
+	}
+	
+	/**
+	 * The estimate index of a network class, a class unknown to the SDK, 
+	 * such as returned by a {@link CrashConnectivityProvider} of the APP, is {@link CrashConnectivityProvider#NETWORK_OTHER}.
+	 */
+	private static int index(int network) {
+		return network >= 0 && network < INITIAL_THROUGHPUT.length 
+				? network : CrashConnectivityProvider.NETWORK_OTHER;
+	}
+	
+	/**
+	 * Estimated bytes per second of the network class.
+	 */
+	public synchronized long getThroughput(int network) {
+		return mThroughput[index(network)];
+	}
+	
+	/**
+	 * Update the estimate by a request, as an exponentially weighted moving average.
+	 * 
+	 * @param bytes Bytes sent, after compression.
+	 * @param nanos From opening the request to the response.
+	 */
+	public synchronized void onSent(int network, long bytes, long nanos) {
+		if(network == CrashConnectivityProvider.NETWORK_NONE || bytes <= 0 || nanos <= 0) {
+			return;
+		}
+		int i = index(network);
+		double sample = bytes * 1e9 / nanos;
+		double weight = MAX_WEIGHT * Math.min(1.0, (double) bytes / SAMPLE_BYTES);
+		mThroughput[i] = Math.max(1, (long) (mThroughput[i] * (1 - weight) + sample * weight));
+	}
+	
+	/**
+	 * Bytes of logs in a batch, sent in about {@link CrashConfig#REPORT_TARGET_TIME}.
+	 */
+	public synchronized long getBatchBytes(int network) {
+		long bytes = mThroughput[index(network)] * CrashConfig.REPORT_TARGET_TIME / 1000;
+		return Math.max(CrashConfig.REPORT_BATCH_MIN_BYTES, Math.min(bytes, CrashConfig.REPORT_BATCH_MAX_BYTES));
+	}
+	
+	/**
+	 * Spend CPU time on compression as much as the network is slow.
+	 */
+	public synchronized int getCompressionLevel(int network) {
+		long throughput = mThroughput[index(network)];
+		if(throughput >= FAST_THROUGHPUT) {
+			return Deflater.BEST_SPEED;
+		}
+		if(throughput >= MEDIUM_THROUGHPUT) {
+			return 6; //Default level of zlib
+		}
+		return Deflater.BEST_COMPRESSION;
+	}
+	
+	/**
+	 * Logs reported on a metered network: one small log of each crash id not reported yet.
+	 */
+	public synchronized List<CrashManifest.Entry> selectNewCrashes(List<CrashManifest.Entry> logs) {
+		List<CrashManifest.Entry> selected = new ArrayList<CrashManifest.Entry>();
+		Set<String> crashIds = new HashSet<String>();
+		for(int i = 0; i < logs.size(); i++) {
+			CrashManifest.Entry log = logs.get(i);
+			String crashId = log.getCrashId();
+			if(crashId != null && log.getSize() <= CrashConfig.REPORT_NEW_CRASH_MAX_BYTES 
+					&& !mReported.containsKey(crashId) && crashIds.add(crashId)) {
+				selected.add(log);
+			}
+		}
+		return selected;
+	}
+	
+	/**
+	 * Remember the crash ids reported, their next logs are deferred on a metered network. 
+	 * Called by the uploader process only, holding the uploader lease.
+	 * 
+	 * @param crashIds May contain null for logs without crash id.
+	 */
+	public synchronized void onReported(List<String> crashIds) {
+		for(int i = 0; i < crashIds.size(); i++) {
+			if(crashIds.get(i) != null) {
+				mReported.put(crashIds.get(i), Boolean.TRUE);
+			}
+		}
+		saveReported();
+	}
+	
+	/**
+	 * Replace the crash ids in memory by those persisted, reported by any process. 
+	 * Called holding the uploader lease.
+	 */
+	public synchronized void loadReported() {
+		if(!mReportedFile.exists()) {
+			return;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(mReportedFile));
+			int count = in.readInt();
+			if(count < 0 || count > CrashConfig.DEDUP_INDEX_SIZE) {
+				throw new IOException("Bad reported crash count: " + count);
+			}
+			List<String> crashIds = new ArrayList<String>(count);
+			for(int i = 0; i < count; i++) {
+				crashIds.add(in.readUTF());
+			}
+			mReported.clear();
+			for(int i = 0; i < count; i++) {
+				mReported.put(crashIds.get(i), Boolean.TRUE);
+			}
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Load reported crashes failed.", e);
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Write to a temporary file and rename, so the file is never partially written. 
+	 * Only the process holding the uploader lease writes it, so the temporary file is not shared.
+	 */
+	private void saveReported() {
+		File tmp = new File(mReportedFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(tmp));
+			out.writeInt(mReported.size());
+			for(String crashId : mReported.keySet()) {
+				out.writeUTF(crashId);
+			}
+			out.close();
+			out = null;
+			if(!tmp.renameTo(mReportedFile)) {
+				throw new IOException("Rename failed: " + tmp.getName());
+			}
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Save reported crashes failed.", e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * 
+ * Schedules upload attempts on the shared worker thread. Delays are kept by a 
+ * {@link Handler} instead of a dedicated timer thread, and at most one attempt is 
+ * waiting at a time, so the worker queue stays bounded. A failed attempt is retried 
+ * with exponential backoff and jitter, the retry state (attempt count and next eligible time) 
+ * is persisted, so it survives process restarts. The state file is shared by the processes of the APP, 
+ * it is updated holding a lock file and reloaded first, so a process never writes back a stale state. 
+ * An attempt is also triggered when network connectivity changes, not earlier than the next eligible time.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashUploadScheduler {
+	
+	/**
+	 * The upload task.
+	 */
+	public interface Task {
+		/**
+		 * @return false if upload is not allowed now, such as on a slow network, 
+		 * it will be attempted again when connectivity changes.
+		 * @throws IOException If upload failed, it will be retried after backoff.
+		 */
+		boolean run() throws IOException;
+	}
+	
+	/**
+	 * Tells the current time in milliseconds, the next eligible time is persisted in this clock.
+	 */
+	public interface Clock {
+		long now();
+	}
+	
+	static final Clock SYSTEM_CLOCK = new Clock() {
+		
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+	};
+	
+	private final File mStateFile;
+	private final CrashFileLock mStateLock;
+	private final Task mTask;
+	private final Clock mClock;
+	private final Random mRandom;
+	private final Executor mExecutor;
+	private final Handler mHandler;
+	
+	private int mAttempts;
+	private long mNextTime;
+	private boolean mScheduled;
+	
+	/**
+	 * Reads the persisted retry state, so it should be created on the worker thread.
+	 */
+	public CrashUploadScheduler(File stateFile, Task task, Executor executor) {
+		this(stateFile, task, executor, SYSTEM_CLOCK, new Random());
+	}
+	
+	/**
+	 * @param clock Tells the time of retry backoff.
+	 * @param random Chooses the jitter of retry backoff.
+	 */
+	CrashUploadScheduler(File stateFile, Task task, Executor executor, Clock clock, Random random) {
+		mStateFile = stateFile;
+		mStateLock = CrashFileLock.get(new File(stateFile.getPath() + ".lock"));
+		mTask = task;
+		mExecutor = executor;
+		mClock = clock;
+		mRandom = random;
+		mHandler = new Handler(Looper.getMainLooper());
+		loadState();
+	}
+	
+	/**
+	 * Schedule an attempt at the next eligible time, but not earlier than <code>minDelay</code>.
+	 * Does nothing if an attempt is already scheduled.
+	 */
+	public synchronized void schedule(long minDelay) {
+		if(mScheduled) {
+			return;
+		}
+		mScheduled = true;
+		long delay = Math.max(minDelay, mNextTime - mClock.now());
+		mHandler.postDelayed(mSubmitRunnable, delay);
+	}
+	
+	/**
+	 * Attempt upload now regardless of the retry backoff, must be called on the worker thread.
+	 * 
+	 * @return The task result.
+	 * @throws IOException If upload failed, it will be retried after backoff.
+	 */
+	public boolean flush() throws IOException {
+		return attempt();
+	}
+	
+	/**
+	 * Attempt upload when network is connected.
+	 */
+	public void watchConnectivity(Context context) {
+		context.registerReceiver(mConnectivityReceiver, 
+				new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+	
+	private BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if(!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+				schedule(0);
+			}
+		}
+		
+	};
+	
+	/**
+	 * Runs on the main thread when the delay expires.
+	 */
+	private Runnable mSubmitRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			try {
+				mExecutor.execute(mAttemptRunnable);
+			} catch (RejectedExecutionException ex) {
+				//Worker is busy, attempt again when connectivity changes.
+				Log.d(CrashConfig.TAG, "Crash report worker is busy.", ex);
+				synchronized (CrashUploadScheduler.this) {
+					mScheduled = false;
+				}
+			}
+		}
+		
+	};
+	
+	private Runnable mAttemptRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			synchronized (CrashUploadScheduler.this) {
+				mScheduled = false;
+			}
+			try {
+				attempt();
+			} catch (Exception ex) {
+				Log.d(CrashConfig.TAG, "Report crash logs failed.", ex);
+			}
+		}
+		
+	};
+	
+	private boolean attempt() throws IOException {
+		try {
+			boolean done = mTask.run();
+			if(done) {
+				onSuccess();
+			}
+			return done;
+		} catch (IOException ex) {
+			onFailure();
+			throw ex;
+		} catch (RuntimeException ex) {
+			onFailure();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Number of failed attempts since the last successful one, including those of previous processes.
+	 */
+	public synchronized int getAttempts() {
+		return mAttempts;
+	}
+	
+	/**
+	 * The time of the next eligible attempt in milliseconds, 0 if not backing off.
+	 */
+	synchronized long getNextTime() {
+		return mNextTime;
+	}
+	
+	private synchronized void onSuccess() {
+		boolean locked = lockState();
+		try {
+			if(locked) {
+				loadState();
+			}
+			if(mAttempts == 0 && mNextTime == 0) {
+				return;
+			}
+			mAttempts = 0;
+			mNextTime = 0;
+			if(locked) {
+				saveState();
+			}
+		} finally {
+			if(locked) {
+				mStateLock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Backoff is <code>RETRY_BASE_DELAY * 2^(attempts - 1)</code> capped by <code>RETRY_MAX_DELAY</code>, 
+	 * the actual delay is chosen randomly between half and full backoff.
+	 */
+	private synchronized void onFailure() {
+		long delay;
+		boolean locked = lockState();
+		try {
+			if(locked) {
+				loadState();
+			}
+			mAttempts++;
+			long backoff = CrashConfig.RETRY_MAX_DELAY;
+			if(mAttempts < 32) {
+				backoff = Math.min(backoff, CrashConfig.RETRY_BASE_DELAY << (mAttempts - 1));
+			}
+			delay = backoff / 2 + (long) (mRandom.nextDouble() * (backoff / 2));
+			mNextTime = mClock.now() + delay;
+			if(locked) {
+				saveState();
+			}
+		} finally {
+			if(locked) {
+				mStateLock.unlock();
+			}
+		}
+		
+		schedule(delay);
+	}
+	
+	/**
+	 * @return false if the lock file can not be locked, the state is then kept in memory only.
+	 */
+	private boolean lockState() {
+		try {
+			mStateLock.lock();
+			return true;
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Lock upload state failed.", e);
+			return false;
+		}
+	}
+	
+	private void loadState() {
+		if(!mStateFile.exists()) {
+			mAttempts = 0;
+			mNextTime = 0;
+			return;
+		}
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(mStateFile));
+			mAttempts = in.readInt();
+			mNextTime = in.readLong();
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Load upload state failed.", e);
+			mAttempts = 0;
+			mNextTime = 0;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Write to a temporary file and rename, so the state file is never partially written. 
+	 * Called holding the state lock, so no other process writes the temporary file.
+	 */
+	private void saveState() {
+		File tmp = new File(mStateFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(tmp));
+			out.writeInt(mAttempts);
+			out.writeLong(mNextTime);
+			out.close();
+			out = null;
+			if(!tmp.renameTo(mStateFile)) {
+				throw new IOException("Rename failed: " + tmp.getName());
+			}
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Save upload state failed.", e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+}
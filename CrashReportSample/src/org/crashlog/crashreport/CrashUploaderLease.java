@@ -0,0 +1,123 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+
+import android.util.Log;
+
+/**
+ * 
+ * Elects a single process of the APP to report crash logs. The lease file holds 
+ * the owner process name and the lease expiry time, and is locked while the owner reports, 
+ * so no two processes report at the same time. Other processes do not take over 
+ * until the lease expires, which the owner renews on every report attempt. 
+ * The owner is named by the process name, so it keeps the lease across restarts.
+ * 
+ * Lease file format: owner(UTF) expiry(8). A lease file that can not be read, 
+ * such as left truncated by a process killed while writing it, is an expired lease.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashUploaderLease {
+	private final CrashFileLock mLock;
+	private final String mOwner;
+	private final long mDuration;
+	
+	/**
+	 * @param owner The process name.
+	 * @param duration In msec.
+	 */
+	public CrashUploaderLease(File file, String owner, long duration) {
+		mLock = CrashFileLock.get(file);
+		mOwner = owner != null ? owner : "";
+		mDuration = duration;
+	}
+	
+	/**
+	 * Take or renew the lease, and hold the lease file lock until {@link #release()}.
+	 * 
+	 * @return false if another process holds the lease or is reporting.
+	 */
+	public boolean acquire(long now) throws IOException {
+		if(!mLock.tryLock()) {
+			return false;
+		}
+		try {
+			RandomAccessFile file = mLock.getFile();
+			if(file.length() > 0) {
+				String owner = null;
+				long expiry = 0;
+				file.seek(0);
+				try {
+					owner = file.readUTF();
+					expiry = file.readLong();
+				} catch (EOFException e) {
+					Log.d(CrashConfig.TAG, "Uploader lease truncated, taken over.");
+				} catch (UTFDataFormatException e) {
+					Log.d(CrashConfig.TAG, "Uploader lease malformed, taken over.");
+				}
+				//An expiry too far ahead is left by a clock set back.
+				if(owner != null && !owner.equals(mOwner) && expiry > now && expiry <= now + mDuration) {
+					mLock.unlock();
+					return false;
+				}
+			}
+			renew(now);
+			return true;
+		} catch (IOException e) {
+			mLock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Extend the lease held, such as between batches of a long report. The lease is written 
+	 * over the previous one in a single write, then the file is cut to its length.
+	 */
+	public void renew(long now) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(mOwner);
+		out.writeLong(now + mDuration);
+		
+		RandomAccessFile file = mLock.getFile();
+		file.seek(0);
+		file.write(bytes.toByteArray());
+		file.setLength(bytes.size());
+	}
+	
+	/**
+	 * Unlock the lease file, the lease is kept until it expires.
+	 */
+	public void release() {
+		mLock.unlock();
+	}
+}
@@ -0,0 +1,160 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.ActivityManager.RunningAppProcessInfo;
+import android.app.Application;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.util.Log;
+
+/**
+ * 
+ * Device and APP information which does not change while the process is running.
+ * It is captured once, and the report data header is encoded in advance.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class DeviceInfoSnapshot {
+	private final String mVersionName;
+	private final String mProcessName;
+	private final byte[] mDataHeader;
+	
+	private DeviceInfoSnapshot(String versionName, String processName, byte[] dataHeader) {
+		mVersionName = versionName;
+		mProcessName = processName;
+		mDataHeader = dataHeader;
+	}
+	
+	public static DeviceInfoSnapshot capture(Application app) {
+		String versionName = getVersionName(app);
+		String processName = readProcessName();
+		if(processName == null) {
+			processName = getProcessName(app, android.os.Process.myPid());
+		}
+		
+		byte[] dataHeader = null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		try {
+			CrashLogStore.writeInt(out, CrashConfig.MAGIC_NUM);
+			CrashLogStore.writeInt(out, CrashConfig.VERSION);
+			CrashLogStore.writeUTF(out, versionName);
+			CrashLogStore.writeByte(out, CrashConfig.PLATFORM);
+			CrashLogStore.writeUTF(out, android.os.Build.MODEL);
+			CrashLogStore.writeInt(out, android.os.Build.VERSION.SDK_INT);
+			CrashLogStore.writeUTF(out, android.os.Build.VERSION.RELEASE);
+			CrashLogStore.writeUTF(out, app.getPackageName());
+			dataHeader = out.toByteArray();
+		} catch (IOException e) {
+			//Never happens on ByteArrayOutputStream, except a too long string.
+			Log.d(CrashConfig.TAG, "Encode data header failed, crash logs are saved but not reported.", e);
+		}
+		return new DeviceInfoSnapshot(versionName, processName, dataHeader);
+	}
+	
+	public String getVersionName() {
+		return mVersionName;
+	}
+	
+	public String getProcessName() {
+		return mProcessName;
+	}
+	
+	/**
+	 * The encoded report data header: magic number, SDK version, APP version name, platform, 
+	 * device model, SDK level, SDK release and package name.
+	 * 
+	 * @return null if it could not be encoded, logs must not be reported without it.
+	 */
+	public byte[] getDataHeader() {
+		return mDataHeader;
+	}
+	
+	private static String getVersionName(Application app) {
+        String versionName = "";
+		try {
+			PackageManager pm = app.getPackageManager();  
+	        PackageInfo pi = pm.getPackageInfo(app.getPackageName(), 0);
+	        versionName = pi.versionName;
+		} catch (NameNotFoundException e) {
+			Log.i(CrashConfig.TAG, "Unable to get 'VersionName'.", e);
+		} 
+		return versionName;
+	}
+	
+	/**
+	 * Read the process name from /proc/self/cmdline, return null if failed.
+	 */
+	private static String readProcessName() {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream("/proc/self/cmdline");
+			byte[] buff = new byte[256];
+			int len = 0;
+			int n;
+			while(len < buff.length && (n = in.read(buff, len, buff.length - len)) > 0) {
+				len += n;
+			}
+			int end = 0;
+			while(end < len && buff[end] != 0) {
+				end++;
+			}
+			return end > 0 ? new String(buff, 0, end, "UTF-8") : null;
+		} catch (IOException e) {
+			Log.d(CrashConfig.TAG, "Unable to read process name.", e);
+			return null;
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//Ignore
+				}
+			}
+		}
+	}
+	
+	private static String getProcessName(Application app, int pid) {
+		ActivityManager am = (ActivityManager) app.getApplicationContext().getSystemService(Activity.ACTIVITY_SERVICE);
+		List<RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+		Iterator<RunningAppProcessInfo> it = processes.iterator();
+		while (it.hasNext()) {
+			RunningAppProcessInfo info = it.next();
+			if (info.pid == pid) {
+				return info.processName;
+			}
+		}
+		return "";
+	}
+}
@@ -0,0 +1,134 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Cost of {@link CrashBreadcrumbs#leave(String)} with 1, 2 and 8 threads leaving breadcrumbs 
+ * into one ring of {@link CrashConfig#BREADCRUMB_CAPACITY}, against the same ring guarded by a lock. 
+ * Messages are preallocated, so only the ring is measured.
+ * 
+ * Run as a Java application, prints CPU nanoseconds per call of each ring, contention included.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashBreadcrumbsBenchmark {
+	private static final int[] THREAD_COUNTS = {1, 2, 8};
+	private static final int LEAVES_PER_THREAD = 2000000;
+	private static final int ROUNDS = 3;
+	
+	private interface Ring {
+		void leave(String message);
+	}
+	
+	/**
+	 * The ring of breadcrumbs guarded by a lock.
+	 */
+	private static final class LockedRing implements Ring {
+		private final long[] mTimes;
+		private final String[] mMessages;
+		private long mNext;
+		
+		LockedRing(int capacity) {
+			mTimes = new long[capacity];
+			mMessages = new String[capacity];
+		}
+		
+		@Override
+		public synchronized void leave(String message) {
+			int slot = (int) (mNext++ % mTimes.length);
+			mTimes[slot] = System.currentTimeMillis();
+			mMessages[slot] = message;
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		final String[] messages = new String[256];
+		for(int i = 0; i < messages.length; i++) {
+			messages[i] = "Clicked button " + i;
+		}
+		
+		for(int threads : THREAD_COUNTS) {
+			double[] nanos = new double[2];
+			for(int round = -ROUNDS; round < ROUNDS; round++) { //Negative rounds warm up.
+				final CrashBreadcrumbs breadcrumbs = new CrashBreadcrumbs(CrashConfig.BREADCRUMB_CAPACITY);
+				double lockFree = run(new Ring() {
+					
+					@Override
+					public void leave(String message) {
+						breadcrumbs.leave(message);
+					}
+				}, threads, messages);
+				double locked = run(new LockedRing(CrashConfig.BREADCRUMB_CAPACITY), threads, messages);
+				if(round >= 0) {
+					nanos[0] += lockFree / ROUNDS;
+					nanos[1] += locked / ROUNDS;
+				}
+			}
+			System.out.printf("%2d threads  lock-free %6.1f ns  locked %6.1f ns%n", threads, nanos[0], nanos[1]);
+		}
+	}
+	
+	/**
+	 * @return CPU nanoseconds per call, of the CPU time of all threads.
+	 */
+	private static double run(final Ring ring, int threadCount, final String[] messages) throws InterruptedException {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong cpuNanos = new AtomicLong();
+		Thread[] threads = new Thread[threadCount];
+		for(int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long cpuStart = bean.getCurrentThreadCpuTime();
+					int mask = messages.length - 1;
+					for(int i = 0; i < LEAVES_PER_THREAD; i++) {
+						ring.leave(messages[i & mask]);
+					}
+					cpuNanos.addAndGet(bean.getCurrentThreadCpuTime() - cpuStart);
+				}
+				
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		return (double) cpuNanos.get() / ((long) LEAVES_PER_THREAD * threadCount);
+	}
+}
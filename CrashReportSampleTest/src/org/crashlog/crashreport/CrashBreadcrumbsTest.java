@@ -0,0 +1,193 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.crashlog.server.CrashBreadcrumb;
+import org.crashlog.server.CrashLogDecoder;
+import org.junit.Test;
+
+/**
+ * 
+ * The ring keeps the latest breadcrumbs, and writers wrapping onto the same slot 
+ * never leave the time of one breadcrumb with the message of another.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashBreadcrumbsTest {
+	private static final long CRASH_TIME = 1000000000L;
+	private static final int WRITERS = 4;
+	private static final int LEAVES = 200000;
+	
+	@Test
+	public void testLatestKept() throws Exception {
+		CrashBreadcrumbs breadcrumbs = new CrashBreadcrumbs(4);
+		for(int i = 0; i < 10; i++) {
+			breadcrumbs.leave(String.valueOf(i), i);
+		}
+		List<CrashBreadcrumb> read = read(breadcrumbs);
+		assertEquals(4, read.size());
+		for(int i = 0; i < 4; i++) {
+			assertEquals(String.valueOf(6 + i), read.get(i).getMessage());
+			assertEquals(6 + i, read.get(i).getTime());
+		}
+	}
+	
+	/**
+	 * A writer is stalled after taking sequence 0 while another wraps the ring of 2 onto its slot. 
+	 * When it resumes, it finds a newer breadcrumb in the slot and drops its own, 
+	 * rather than moving the slot back to sequence 0 and losing the newest breadcrumb.
+	 */
+	@Test
+	public void testStalledWriterDoesNotOverwriteNewer() throws Exception {
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final CountDownLatch resume = new CountDownLatch(1);
+		final CrashBreadcrumbs breadcrumbs = new CrashBreadcrumbs(2, new CrashUploadScheduler.Clock() {
+			
+			@Override
+			public long now() {
+				stalled.countDown();
+				try {
+					resume.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return 1;
+			}
+		});
+		Thread writer = new Thread() {
+			
+			@Override
+			public void run() {
+				breadcrumbs.leave("1");
+			}
+			
+		};
+		writer.start();
+		stalled.await();
+		
+		breadcrumbs.leave("2", 2);
+		breadcrumbs.leave("3", 3);
+		resume.countDown();
+		writer.join();
+		
+		List<CrashBreadcrumb> read = read(breadcrumbs);
+		assertEquals(2, read.size());
+		assertEquals("2", read.get(0).getMessage());
+		assertEquals("3", read.get(1).getMessage());
+		assertConsistent(read);
+		
+		//The ring goes on from the newest breadcrumb.
+		breadcrumbs.leave("4", 4);
+		read = read(breadcrumbs);
+		assertEquals("3", read.get(0).getMessage());
+		assertEquals("4", read.get(1).getMessage());
+	}
+	
+	/**
+	 * Each breadcrumb message is its time, the writers wrap the small ring many times while it is read.
+	 */
+	@Test
+	public void testConcurrentWritersNeverTear() throws Exception {
+		final CrashBreadcrumbs breadcrumbs = new CrashBreadcrumbs(2);
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread[] writers = new Thread[WRITERS];
+		for(int t = 0; t < WRITERS; t++) {
+			final long base = t * 10L * LEAVES;
+			writers[t] = new Thread() {
+				
+				@Override
+				public void run() {
+					for(long i = 1; i <= LEAVES; i++) {
+						breadcrumbs.leave(String.valueOf(base + i), base + i);
+					}
+				}
+				
+			};
+			writers[t].start();
+		}
+		
+		int read = 0;
+		while(!done.get()) {
+			done.set(true);
+			for(Thread writer : writers) {
+				if(writer.isAlive()) {
+					done.set(false);
+				}
+			}
+			read += assertConsistent(read(breadcrumbs));
+		}
+		for(Thread writer : writers) {
+			writer.join();
+		}
+		assertTrue(assertConsistent(read(breadcrumbs)) > 0);
+		assertTrue(read > 0);
+	}
+	
+	private static int assertConsistent(List<CrashBreadcrumb> breadcrumbs) {
+		for(CrashBreadcrumb breadcrumb : breadcrumbs) {
+			assertEquals(breadcrumb.getMessage(), String.valueOf(breadcrumb.getTime()));
+		}
+		return breadcrumbs.size();
+	}
+	
+	/**
+	 * Write the breadcrumbs into a minimal record and decode it, oldest first.
+	 */
+	private static List<CrashBreadcrumb> read(CrashBreadcrumbs breadcrumbs) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CrashRecordEncoder encoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+		encoder.setOutput(Channels.newChannel(out));
+		encoder.beginRecord();
+		encoder.writeInt(1);
+		encoder.writeLong(CRASH_TIME);
+		encoder.writeUTF("id");
+		encoder.writeLong(CRASH_TIME);
+		for(int i = 1; i < 7; i++) {
+			encoder.writeLong(i);
+		}
+		encoder.writeUTF("main");
+		encoder.writeUTF("process");
+		encoder.writeUTF(Error.class.getName());
+		encoder.writeUTF("");
+		encoder.writeStackTrace(new StackTraceElement[0]);
+		encoder.beginSection(CrashRecordEncoder.SECTION_BREADCRUMBS);
+		breadcrumbs.write(encoder, CRASH_TIME);
+		encoder.endSection();
+		encoder.endRecord();
+		encoder.flush();
+		return new CrashLogDecoder(ByteBuffer.wrap(out.toByteArray())).readRecord().getBreadcrumbs();
+	}
+}
@@ -0,0 +1,88 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * 
+ * The dedup index keeps accepting crash ids over a process lifetime, however many are reported.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashDedupIndexTest {
+	private static final int CRASHES = 10000;
+	
+	@Test
+	public void testRemovedCrashIdsMakeRoom() {
+		CrashDedupIndex index = new CrashDedupIndex(CrashConfig.DEDUP_INDEX_SIZE);
+		for(int i = 0; i < CRASHES; i++) {
+			File log = new File("crash-" + i);
+			index.put("id-" + i, log);
+			assertSame(log, index.get("id-" + i));
+			index.remove(Collections.singletonList(log));
+			assertNull(index.get("id-" + i));
+			assertEquals(0, index.size());
+		}
+	}
+	
+	@Test
+	public void testCrashIdReusedAfterRemove() {
+		CrashDedupIndex index = new CrashDedupIndex(CrashConfig.DEDUP_INDEX_SIZE);
+		File first = new File("first");
+		File second = new File("second");
+		index.put("id", first);
+		index.remove(Collections.singletonList(first));
+		index.put("id", second);
+		assertSame(second, index.get("id"));
+		assertEquals(1, index.size());
+	}
+	
+	@Test
+	public void testFullIndexRefusesNewCrashIds() {
+		CrashDedupIndex index = new CrashDedupIndex(CrashConfig.DEDUP_INDEX_SIZE);
+		int maxSize = CrashConfig.DEDUP_INDEX_SIZE * 3 / 4;
+		for(int i = 0; i < maxSize + 10; i++) {
+			index.put("id-" + i, new File("crash-" + i));
+		}
+		assertEquals(maxSize, index.size());
+		assertNull(index.get("id-" + maxSize));
+		
+		//Live crash ids survive the rehash.
+		index.remove(Collections.singletonList(new File("crash-0")));
+		index.put("id-new", new File("crash-new"));
+		for(int i = 1; i < maxSize; i++) {
+			assertEquals(new File("crash-" + i), index.get("id-" + i));
+		}
+		assertEquals(new File("crash-new"), index.get("id-new"));
+	}
+}
@@ -0,0 +1,111 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+
+/**
+ * 
+ * Compares computing a crash id over stack traces of 10 to 500 frames:
+ * <ul>
+ * <li>string: MD5 of the concatenated string, a new <code>MessageDigest</code> each time, as before the fingerprint.</li>
+ * <li>md5: {@link CrashFingerprint#ALGORITHM_MD5} streaming into a reused digest.</li>
+ * <li>murmur3: {@link CrashFingerprint#ALGORITHM_MURMUR3}.</li>
+ * </ul>
+ * 
+ * Run as a Java application, prints microseconds and bytes allocated per crash id of each.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashFingerprintBenchmark {
+	private static final int[] FRAME_COUNTS = {10, 100, 500};
+	private static final int FRAMES_PER_ROUND = 5000000;
+	private static final String[] NAMES = {"string", "md5", "murmur3"};
+	
+	public static void main(String[] args) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		CrashFingerprint md5 = new CrashFingerprint(CrashFingerprint.ALGORITHM_MD5, true, true);
+		CrashFingerprint murmur3 = new CrashFingerprint(CrashFingerprint.ALGORITHM_MURMUR3, true, true);
+		
+		for(int frameCount : FRAME_COUNTS) {
+			StackTraceElement[] elements = createStackTrace(frameCount);
+			int rounds = FRAMES_PER_ROUND / frameCount;
+			long[] nanos = new long[NAMES.length];
+			long[] bytes = new long[NAMES.length];
+			int sink = 0;
+			for(int round = -rounds; round < rounds; round += rounds / 10) { //Negative rounds warm up.
+				for(int path = 0; path < NAMES.length; path++) {
+					long allocated = threads.getThreadAllocatedBytes(id);
+					long start = System.nanoTime();
+					for(int i = 0; i < rounds / 10; i++) {
+						String crashId;
+						if(path == 0) {
+							crashId = concatenatedMD5(elements);
+						} else if(path == 1) {
+							crashId = md5.compute("1.2.0", "java.lang.IllegalStateException", "bad state", elements);
+						} else {
+							crashId = murmur3.compute("1.2.0", "java.lang.IllegalStateException", "bad state", elements);
+						}
+						sink += crashId.charAt(0);
+					}
+					if(round >= 0) {
+						nanos[path] += System.nanoTime() - start;
+						bytes[path] += threads.getThreadAllocatedBytes(id) - allocated;
+					}
+				}
+			}
+			StringBuilder line = new StringBuilder(String.format("%3d frames", frameCount));
+			for(int path = 0; path < NAMES.length; path++) {
+				line.append(String.format("  %s %7.1f us %7d B", NAMES[path], 
+						nanos[path] / 1e3 / rounds, bytes[path] / rounds));
+			}
+			System.out.println(sink == 0 ? "" : line);
+		}
+	}
+	
+	private static String concatenatedMD5(StackTraceElement[] elements) throws Exception {
+		StringBuilder sb = new StringBuilder("1.2.0").append("java.lang.IllegalStateException").append("bad state");
+		for(StackTraceElement element : elements) {
+			sb.append(element.toString());
+		}
+		byte[] digest = MessageDigest.getInstance("MD5").digest(sb.toString().getBytes("UTF-8"));
+		StringBuilder hex = new StringBuilder(32);
+		for(byte b : digest) {
+			hex.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+	
+	private static StackTraceElement[] createStackTrace(int frameCount) {
+		StackTraceElement[] elements = new StackTraceElement[frameCount];
+		for(int i = 0; i < frameCount; i++) {
+			elements[i] = new StackTraceElement("org.crashlog.sample.module" + (i % 8) + ".Activity" + i, 
+					"method" + i, "Activity" + i + ".java", 10 + i * 7);
+		}
+		return elements;
+	}
+}
@@ -0,0 +1,150 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+/**
+ * 
+ * Crash ids are MurmurHash3 x64 128 (seed 0) or MD5 of the crash components as one string, 
+ * and crashes differing only in a left out message or line numbers get the same id.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashFingerprintTest {
+	private static final StackTraceElement[] FRAMES = {
+		new StackTraceElement("org.crashlog.sample.Activity", "onClick", "Activity.java", 42), 
+		new StackTraceElement("org.crashlog.sample.Parser", "parse", "Parser.java", 7), 
+		new StackTraceElement("java.lang.Thread", "sleep", null, -2), 
+		new StackTraceElement("org.crashlog.sample.Generated", "run", null, -1), 
+		new StackTraceElement("android.os.Looper", "loop", "Looper.java", -1), 
+	};
+	
+	/**
+	 * The id of a string alone, the version name, with an empty cause and no message nor frames.
+	 */
+	private static String hash(int algorithm, String s) {
+		return new CrashFingerprint(algorithm, false, true).compute(s, "", "ignored", null);
+	}
+	
+	private static StackTraceElement[] withLineOffset(int offset) {
+		StackTraceElement[] frames = new StackTraceElement[FRAMES.length];
+		for(int i = 0; i < FRAMES.length; i++) {
+			StackTraceElement frame = FRAMES[i];
+			int line = frame.getLineNumber() >= 0 ? frame.getLineNumber() + offset : frame.getLineNumber();
+			frames[i] = new StackTraceElement(frame.getClassName(), frame.getMethodName(), frame.getFileName(), line);
+		}
+		return frames;
+	}
+	
+	/**
+	 * Vectors of the reference implementation and Guava, as h1 then h2 in hex.
+	 */
+	@Test
+	public void testMurmur3KnownVectors() {
+		int murmur3 = CrashFingerprint.ALGORITHM_MURMUR3;
+		assertEquals("00000000000000000000000000000000", hash(murmur3, ""));
+		assertEquals("629942693e10f86792db0b82baeb5347", hash(murmur3, "hell"));
+		assertEquals("4be06d94cf4ad1a787c35b5c63a708da", hash(murmur3, "0123456789abcdef"));
+		assertEquals("e34bbc7bbc071b6c7a433ca9c49a9347", 
+				hash(murmur3, "The quick brown fox jumps over the lazy dog"));
+		assertEquals("658ca970ff85269a43fee3eaa68e5c3e", 
+				hash(murmur3, "The quick brown fox jumps over the lazy cog"));
+		assertEquals("c8b4fb8a94da53acd1bf06bf753097ab", 
+				hash(murmur3, "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef0123456789"));
+		//UTF-8 of 2, 3 and 4 bytes.
+		assertEquals("1f4d6a3f5b94ba9eb7abda8d7739055d", hash(murmur3, "caf\u00e9 \u4e2d\ud83d\ude00"));
+	}
+	
+	/**
+	 * With every component, a crash id is the hash of the components and <code>toString()</code> 
+	 * of the frames as one string, MD5 is the crash id of earlier SDK versions.
+	 */
+	@Test
+	public void testSameAsConcatenatedString() throws Exception {
+		StringBuilder concatenated = new StringBuilder("1.2.0java.lang.IllegalStateExceptionbad state");
+		for(StackTraceElement frame : FRAMES) {
+			concatenated.append(frame.toString());
+		}
+		for(int algorithm : new int[] {CrashFingerprint.ALGORITHM_MURMUR3, CrashFingerprint.ALGORITHM_MD5}) {
+			assertEquals(hash(algorithm, concatenated.toString()), new CrashFingerprint(algorithm, true, true)
+					.compute("1.2.0", "java.lang.IllegalStateException", "bad state", FRAMES));
+		}
+		
+		byte[] md5 = MessageDigest.getInstance("MD5").digest(concatenated.toString().getBytes("UTF-8"));
+		StringBuilder hex = new StringBuilder();
+		for(byte b : md5) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		assertEquals(hex.toString(), new CrashFingerprint(CrashFingerprint.ALGORITHM_MD5, true, true)
+				.compute("1.2.0", "java.lang.IllegalStateException", "bad state", FRAMES));
+	}
+	
+	@Test
+	public void testMessageLeftOut() {
+		for(int algorithm : new int[] {CrashFingerprint.ALGORITHM_MURMUR3, CrashFingerprint.ALGORITHM_MD5}) {
+			CrashFingerprint fingerprint = new CrashFingerprint(algorithm, false, true);
+			String id = fingerprint.compute("1.2.0", "java.lang.IndexOutOfBoundsException", "Index: 3, Size: 2", FRAMES);
+			assertEquals(id, fingerprint.compute("1.2.0", "java.lang.IndexOutOfBoundsException", "Index: 9, Size: 5", FRAMES));
+			assertEquals(id, fingerprint.compute("1.2.0", "java.lang.IndexOutOfBoundsException", null, FRAMES));
+			//Still a different crash.
+			assertFalse(id.equals(fingerprint.compute("1.2.0", "java.lang.IllegalStateException", "Index: 3, Size: 2", FRAMES)));
+			
+			CrashFingerprint withMessage = new CrashFingerprint(algorithm, true, true);
+			assertFalse(withMessage.compute("1.2.0", "java.lang.IndexOutOfBoundsException", "Index: 3, Size: 2", FRAMES)
+					.equals(withMessage.compute("1.2.0", "java.lang.IndexOutOfBoundsException", "Index: 9, Size: 5", FRAMES)));
+		}
+	}
+	
+	@Test
+	public void testLineNumbersLeftOut() {
+		for(int algorithm : new int[] {CrashFingerprint.ALGORITHM_MURMUR3, CrashFingerprint.ALGORITHM_MD5}) {
+			CrashFingerprint fingerprint = new CrashFingerprint(algorithm, true, false);
+			String id = fingerprint.compute("1.2.0", "java.lang.IllegalStateException", "bad state", FRAMES);
+			assertEquals(id, fingerprint.compute("1.2.0", "java.lang.IllegalStateException", "bad state", withLineOffset(10)));
+			
+			//Frames of toString() without line numbers.
+			StringBuilder concatenated = new StringBuilder("1.2.0java.lang.IllegalStateExceptionbad state");
+			for(StackTraceElement frame : FRAMES) {
+				concatenated.append(frame.toString().replaceFirst(":\\d+\\)$", ")"));
+			}
+			assertEquals(hash(algorithm, concatenated.toString()), id);
+			
+			//Still a different crash.
+			StackTraceElement[] otherMethod = FRAMES.clone();
+			otherMethod[1] = new StackTraceElement("org.crashlog.sample.Parser", "parseAll", "Parser.java", 7);
+			assertFalse(id.equals(fingerprint.compute("1.2.0", "java.lang.IllegalStateException", "bad state", otherMethod)));
+			
+			CrashFingerprint withLines = new CrashFingerprint(algorithm, true, true);
+			assertFalse(withLines.compute("1.2.0", "java.lang.IllegalStateException", "bad state", FRAMES)
+					.equals(withLines.compute("1.2.0", "java.lang.IllegalStateException", "bad state", withLineOffset(10))));
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.crashlog.server.CrashLogDecoder;
+import org.crashlog.server.CrashRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * The journal never overwrites unacknowledged records, and a writer killed at any point 
+ * leaves only whole records: every record committed before the kill is read back and decodes.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashJournalTest {
+	private static final int KILL_ROUNDS = 5;
+	
+	private File mCacheDir;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("journal");
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	@Test
+	public void testFullJournalRefusesRecords() throws Exception {
+		File dir = new File(mCacheDir, CrashConfig.LOG_DIR);
+		dir.mkdirs();
+		CrashJournal journal = CrashJournal.open(dir);
+		DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(new CrashTestSupport.TestApplication(mCacheDir));
+		
+		for(int i = 0; i < CrashConfig.JOURNAL_SLOT_COUNT; i++) {
+			assertTrue(CrashLogStore.saveLogToJournal(info, journal, new IllegalStateException("crash-" + i), Thread.currentThread()));
+		}
+		assertFalse(CrashLogStore.saveLogToJournal(info, journal, new IllegalStateException("overflow"), Thread.currentThread()));
+		
+		long[] records = journal.getUnacked();
+		assertEquals(CrashConfig.JOURNAL_SLOT_COUNT, records.length);
+		assertEquals("crash-0", readRecord(journal, records[0]).getMessage());
+		
+		journal.ack(records[0]);
+		assertTrue(CrashLogStore.saveLogToJournal(info, journal, new IllegalStateException("after-ack"), Thread.currentThread()));
+		records = journal.getUnacked();
+		assertEquals(CrashConfig.JOURNAL_SLOT_COUNT, records.length);
+		assertEquals("crash-1", readRecord(journal, records[0]).getMessage());
+		assertEquals("after-ack", readRecord(journal, records[records.length - 1]).getMessage());
+	}
+	
+	/**
+	 * A writer JVM prints each sequence number after it is committed, and the sequence number 
+	 * it is going to acknowledge before acknowledging it. It is killed with SIGKILL at random points.
+	 */
+	@Test
+	public void testKilledWriterLeavesNoTornRecords() throws Exception {
+		Random random = new Random(5);
+		for(int round = 0; round < KILL_ROUNDS; round++) {
+			File dir = new File(mCacheDir, "round" + round);
+			Process child = CrashTestSupport.fork(new String[0], CrashJournalTest.class, dir.getPath());
+			BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream(), "UTF-8"));
+			
+			String pid = in.readLine();
+			int target = 50 + random.nextInt(200);
+			int lines = 0;
+			long committed = 0;
+			long acking = 0;
+			String line;
+			while((line = in.readLine()) != null) {
+				if(++lines == target) {
+					//The output up to the kill is still read from the pipe.
+					kill(pid);
+				}
+				if(line.startsWith("ack ")) {
+					acking = Long.parseLong(line.substring(4));
+				} else {
+					committed = Long.parseLong(line);
+				}
+			}
+			child.waitFor();
+			
+			CrashJournal journal = CrashJournal.open(dir);
+			long[] records = journal.getUnacked();
+			assertTrue("round " + round, records.length > 0);
+			long first = records[0];
+			long last = records[records.length - 1];
+			assertTrue("lost records before " + first + ", acking " + acking, first <= acking + 1);
+			assertTrue("lost records after " + last + ", committed " + committed, last >= committed);
+			for(int i = 0; i < records.length; i++) {
+				assertEquals(first + i, records[i]);
+				CrashRecord record = readRecord(journal, records[i]);
+				assertEquals("crash-" + records[i], record.getMessage());
+				assertTrue(record.getStackTrace().length > 0);
+			}
+		}
+	}
+	
+	private static void kill(String pid) throws Exception {
+		Process kill = new ProcessBuilder("kill", "-9", pid).start();
+		assertEquals(0, kill.waitFor());
+	}
+	
+	private static CrashRecord readRecord(CrashJournal journal, long seq) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		journal.writeRecord(seq, out, new byte[256]);
+		return new CrashLogDecoder(ByteBuffer.wrap(out.toByteArray())).readRecord();
+	}
+	
+	/**
+	 * The forked writer: save crashes to the journal until killed, 
+	 * and acknowledge half of the records when it is full.
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args[0]);
+		dir.mkdirs();
+		CrashJournal journal = CrashJournal.open(dir);
+		DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(new CrashTestSupport.TestApplication(dir));
+		System.out.println(android.os.Process.myPid());
+		
+		long seq = 1;
+		while(true) {
+			if(CrashLogStore.saveLogToJournal(info, journal, new IllegalStateException("crash-" + seq), Thread.currentThread())) {
+				System.out.println(seq++);
+			} else {
+				long[] records = journal.getUnacked();
+				long ack = records[records.length / 2];
+				System.out.println("ack " + ack);
+				journal.ack(ack);
+			}
+		}
+	}
+}
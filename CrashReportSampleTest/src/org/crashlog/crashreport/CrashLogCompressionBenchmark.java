@@ -0,0 +1,215 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 
+ * Bytes on the wire and CPU time of a report request body, written as {@link CrashLogSender} does: 
+ * the data header, the log count and the saved logs, uncompressed or through gzip at levels 1, 6 and 9, 
+ * for batches of 1, 16 and 128 logs. The logs are saved from crashes with traces of app frames 
+ * over Android framework frames, some with a cause.
+ * 
+ * Run as a Java application, prints bytes per batch, the compression ratio and CPU microseconds per batch.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashLogCompressionBenchmark {
+	private static final int LOGS = 128;
+	private static final int[] BATCH_SIZES = {1, 16, 128};
+	private static final int[] LEVELS = {Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, 
+		6, Deflater.BEST_COMPRESSION};
+	private static final long BYTES_PER_LEVEL = 64L * 1024 * 1024;
+	
+	private static final String[][] MAIN_LOOPER = {
+		{"android.view.View", "performClick", "View.java", "7448"}, 
+		{"android.view.View$PerformClick", "run", "View.java", "28305"}, 
+		{"android.os.Handler", "handleCallback", "Handler.java", "938"}, 
+		{"android.os.Handler", "dispatchMessage", "Handler.java", "99"}, 
+		{"android.os.Looper", "loop", "Looper.java", "223"}, 
+		{"android.app.ActivityThread", "main", "ActivityThread.java", "7656"}, 
+		{"java.lang.reflect.Method", "invoke", "Method.java", "-2"}, 
+		{"com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run", "RuntimeInit.java", "592"}, 
+		{"com.android.internal.os.ZygoteInit", "main", "ZygoteInit.java", "947"}, 
+	};
+	
+	private static final String[][] OKHTTP_WORKER = {
+		{"okhttp3.internal.connection.RealCall$AsyncCall", "run", "RealCall.kt", "519"}, 
+		{"java.util.concurrent.ThreadPoolExecutor", "runWorker", "ThreadPoolExecutor.java", "1167"}, 
+		{"java.util.concurrent.ThreadPoolExecutor$Worker", "run", "ThreadPoolExecutor.java", "641"}, 
+		{"java.lang.Thread", "run", "Thread.java", "923"}, 
+	};
+	
+	private static final String[] APP_CLASSES = {
+		"com.example.shop.ui.cart.CartFragment", "com.example.shop.ui.cart.CartAdapter", 
+		"com.example.shop.ui.product.ProductActivity", "com.example.shop.ui.product.ProductViewModel", 
+		"com.example.shop.data.ProductRepository", "com.example.shop.data.remote.ApiClient", 
+		"com.example.shop.checkout.CheckoutPresenter", "com.example.shop.checkout.PaymentValidator", 
+	};
+	
+	private static final String[] APP_METHODS = {
+		"onBindViewHolder", "onClick", "onCreate", "load", "parse", "format", "validate", "lambda$load$0", 
+		"onResponse", "getTotal", 
+	};
+	
+	private static final String[] MESSAGES = {
+		"Attempt to invoke virtual method 'int java.lang.String.length()' on a null object reference", 
+		"Index: 3, Size: 3", 
+		"Fragment CartFragment not attached to a context.", 
+		"Unable to parse price: ", 
+	};
+	
+	public static void main(String[] args) throws IOException {
+		File cacheDir = CrashTestSupport.newCacheDir("compression");
+		try {
+			CrashTestSupport.TestApplication app = new CrashTestSupport.TestApplication(cacheDir);
+			File dir = CrashLogStore.getLogDir(app);
+			dir.mkdirs();
+			CrashManifest manifest = new CrashManifest(dir);
+			manifest.load();
+			DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(app);
+			Random random = new Random(8);
+			for(int i = 0; i < LOGS; i++) {
+				CrashLogStore.saveLogToFile(app, info, null, manifest, createCrash(random), Thread.currentThread());
+			}
+			List<File> logs = new ArrayList<File>();
+			long logBytes = 0;
+			for(CrashManifest.Entry entry : manifest.getEntries()) {
+				logs.add(entry.getFile());
+				logBytes += entry.getSize();
+			}
+			System.out.printf("%d logs, %.1f KB per log%n", logs.size(), logBytes / 1024.0 / logs.size());
+			
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			byte[] buffer = new byte[CrashConfig.REPORT_BUFFER_SIZE];
+			for(int batchSize : BATCH_SIZES) {
+				List<File> batch = logs.subList(0, Math.min(batchSize, logs.size()));
+				StringBuilder line = new StringBuilder(String.format("%3d logs", batch.size()));
+				long raw = 0;
+				for(int level : LEVELS) {
+					CountingOutputStream out = new CountingOutputStream();
+					writeBody(out, info, batch, level, buffer);
+					long bytes = out.mCount;
+					if(level == Deflater.NO_COMPRESSION) {
+						raw = bytes;
+					}
+					int rounds = (int) Math.max(20, Math.min(20000, BYTES_PER_LEVEL / raw));
+					long cpu = 0;
+					for(int round = -rounds; round < rounds; round++) { //Negative rounds warm up.
+						long start = threads.getCurrentThreadCpuTime();
+						writeBody(new CountingOutputStream(), info, batch, level, buffer);
+						if(round >= 0) {
+							cpu += threads.getCurrentThreadCpuTime() - start;
+						}
+					}
+					line.append(String.format("  level %2d %8d B %5.1f%% %8.1f us", level, bytes, 
+							bytes * 100.0 / raw, cpu / 1e3 / rounds));
+				}
+				System.out.println(line);
+			}
+		} finally {
+			CrashTestSupport.deleteDir(cacheDir);
+		}
+	}
+	
+	private static void writeBody(OutputStream out, DeviceInfoSnapshot info, List<File> logs, int level, 
+			byte[] buffer) throws IOException {
+		if(level != Deflater.NO_COMPRESSION) {
+			out = new LevelGZIPOutputStream(out, CrashConfig.REPORT_BUFFER_SIZE, level);
+		}
+		CrashLogStore.writeDataHeader(info, out);
+		out.write(logs.size());
+		for(File log : logs) {
+			CrashLogStore.writeLogData(out, log, log.length(), buffer);
+		}
+		out.close();
+	}
+	
+	/**
+	 * A crash of app frames over the main looper or a network worker, 1 in 4 with a cause.
+	 */
+	private static Throwable createCrash(Random random) {
+		Throwable crash = new IllegalStateException(MESSAGES[random.nextInt(MESSAGES.length)] 
+				+ random.nextInt(1000));
+		crash.setStackTrace(createTrace(random));
+		if(random.nextInt(4) == 0) {
+			Throwable cause = new NullPointerException(MESSAGES[0]);
+			cause.setStackTrace(createTrace(random));
+			crash.initCause(cause);
+		}
+		return crash;
+	}
+	
+	private static StackTraceElement[] createTrace(Random random) {
+		List<StackTraceElement> trace = new ArrayList<StackTraceElement>();
+		int appFrames = 2 + random.nextInt(12);
+		for(int i = 0; i < appFrames; i++) {
+			String className = APP_CLASSES[random.nextInt(APP_CLASSES.length)];
+			trace.add(new StackTraceElement(className, APP_METHODS[random.nextInt(APP_METHODS.length)], 
+					className.substring(className.lastIndexOf('.') + 1) + ".java", 20 + random.nextInt(400)));
+		}
+		for(String[] frame : random.nextBoolean() ? MAIN_LOOPER : OKHTTP_WORKER) {
+			trace.add(new StackTraceElement(frame[0], frame[1], frame[2], Integer.parseInt(frame[3])));
+		}
+		return trace.toArray(new StackTraceElement[trace.size()]);
+	}
+	
+	/**
+	 * GZIPOutputStream with a given compression level, as the sender's.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+		
+		public LevelGZIPOutputStream(OutputStream out, int size, int level) throws IOException {
+			super(out, size);
+			def.setLevel(level);
+		}
+	}
+	
+	/**
+	 * Discards the bytes, counting them as the bytes on the wire.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private long mCount;
+		
+		@Override
+		public void write(int b) {
+			mCount++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			mCount += len;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Filled past the quota, the manifest keeps the logs the eviction policy prefers: 
+ * the newest, or one log of each distinct crash. Expired logs are evicted, logs being reported never.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashLogQuotaTest {
+	private static final long NOW = 1400000000000L;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	private static final long UNLIMITED_BYTES = Long.MAX_VALUE;
+	private static final int UNLIMITED_COUNT = Integer.MAX_VALUE;
+	
+	private File mCacheDir;
+	private CrashTestSupport.TestApplication mApp;
+	private File mDir;
+	private CrashManifest mManifest;
+	private int mSaved;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("quota");
+		mApp = new CrashTestSupport.TestApplication(mCacheDir);
+		mDir = CrashLogStore.getLogDir(mApp);
+		mDir.mkdirs();
+		mManifest = new CrashManifest(mDir);
+		mManifest.load();
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	/**
+	 * Add a log file of 100 bytes per crash id, saved a minute after the previous one.
+	 * The log is named by its crash id and order.
+	 */
+	private void add(String... crashIds) throws IOException {
+		for(String crashId : crashIds) {
+			add(crashId + mSaved, crashId, 100, NOW - DAY + mSaved * 60 * 1000L);
+		}
+	}
+	
+	private File add(String name, String crashId, long size, long crashTime) throws IOException {
+		File log = new File(mDir, name);
+		assertTrue(log.createNewFile());
+		mManifest.add(log, size, crashId, crashTime);
+		mSaved++;
+		return log;
+	}
+	
+	private List<String> enforce(long maxBytes, int maxCount, long maxAge, int policy) throws IOException {
+		mManifest.enforce(new CrashLogQuota(maxBytes, maxCount, maxAge, policy), NOW);
+		List<String> kept = new ArrayList<String>();
+		for(CrashManifest.Entry entry : mManifest.getEntries()) {
+			kept.add(entry.getFile().getName());
+			assertTrue(entry.getFile().exists());
+		}
+		//Evicted files are deleted.
+		assertEquals(kept.size(), mDir.list(new java.io.FilenameFilter() {
+			
+			@Override
+			public boolean accept(File dir, String name) {
+				return !name.startsWith("crash_manifest");
+			}
+		}).length);
+		return kept;
+	}
+	
+	@Test
+	public void testWithinQuota() throws Exception {
+		add("x", "y", "x");
+		assertEquals(Arrays.asList("x0", "y1", "x2"), 
+				enforce(300, 3, 2 * DAY, CrashLogQuota.EVICT_OLDEST_FIRST));
+	}
+	
+	@Test
+	public void testOldestFirstByCount() throws Exception {
+		add("x", "y", "z", "x", "x");
+		assertEquals(Arrays.asList("z2", "x3", "x4"), 
+				enforce(UNLIMITED_BYTES, 3, 2 * DAY, CrashLogQuota.EVICT_OLDEST_FIRST));
+	}
+	
+	@Test
+	public void testOldestFirstByBytes() throws Exception {
+		add("x", "y", "z", "x", "x");
+		assertEquals(Arrays.asList("x3", "x4"), 
+				enforce(250, UNLIMITED_COUNT, 2 * DAY, CrashLogQuota.EVICT_OLDEST_FIRST));
+	}
+	
+	@Test
+	public void testDuplicatesFirstByCount() throws Exception {
+		add("x", "y", "z", "x", "x");
+		assertEquals(Arrays.asList("y1", "z2", "x4"), 
+				enforce(UNLIMITED_BYTES, 3, 2 * DAY, CrashLogQuota.EVICT_DUPLICATES_FIRST));
+	}
+	
+	/**
+	 * Once every crash is down to one log, the oldest logs are evicted.
+	 */
+	@Test
+	public void testDuplicatesFirstByBytes() throws Exception {
+		add("x", "y", "x", "z", "y");
+		assertEquals(Arrays.asList("x2", "z3", "y4"), 
+				enforce(300, UNLIMITED_COUNT, 2 * DAY, CrashLogQuota.EVICT_DUPLICATES_FIRST));
+		assertEquals(Arrays.asList("y4"), 
+				enforce(100, UNLIMITED_COUNT, 2 * DAY, CrashLogQuota.EVICT_DUPLICATES_FIRST));
+	}
+	
+	/**
+	 * Logs without a crash id, such as recovered from a reserve slot, are evicted as the oldest only.
+	 */
+	@Test
+	public void testDuplicatesFirstWithoutCrashId() throws Exception {
+		add("r0", null, 100, NOW - DAY);
+		add("x", "x", "y");
+		assertEquals(Arrays.asList("r0", "x2", "y3"), 
+				enforce(UNLIMITED_BYTES, 3, 2 * DAY, CrashLogQuota.EVICT_DUPLICATES_FIRST));
+		assertEquals(Arrays.asList("x2", "y3"), 
+				enforce(UNLIMITED_BYTES, 2, 2 * DAY, CrashLogQuota.EVICT_DUPLICATES_FIRST));
+	}
+	
+	@Test
+	public void testExpiredEvicted() throws Exception {
+		add("old0", "x", 100, NOW - 3 * DAY);
+		add("old1", "y", 100, NOW - 2 * DAY - 1);
+		add("new2", "x", 100, NOW - 2 * DAY);
+		add("new3", "z", 100, NOW);
+		for(int policy : new int[] {CrashLogQuota.EVICT_OLDEST_FIRST, CrashLogQuota.EVICT_DUPLICATES_FIRST}) {
+			assertEquals(Arrays.asList("new2", "new3"), 
+					enforce(UNLIMITED_BYTES, UNLIMITED_COUNT, 2 * DAY, policy));
+		}
+	}
+	
+	@Test
+	public void testUploadingNeverEvicted() throws Exception {
+		File expired = add("old0", "x", 100, NOW - 3 * DAY);
+		add("x", "x", "y");
+		File duplicate = new File(mDir, "x1");
+		mManifest.setState(Arrays.asList(expired, duplicate), CrashManifest.STATE_UPLOADING);
+		
+		assertEquals(Arrays.asList("old0", "x1", "y3"), 
+				enforce(UNLIMITED_BYTES, 3, 2 * DAY, CrashLogQuota.EVICT_DUPLICATES_FIRST));
+		assertEquals(Arrays.asList("old0", "x1"), 
+				enforce(100, 1, 2 * DAY, CrashLogQuota.EVICT_OLDEST_FIRST));
+		
+		//Reported, or failed and pending again.
+		mManifest.setState(Arrays.asList(expired, duplicate), CrashManifest.STATE_PENDING);
+		assertEquals(Arrays.asList("x1"), 
+				enforce(100, 1, 2 * DAY, CrashLogQuota.EVICT_OLDEST_FIRST));
+	}
+	
+	/**
+	 * Saving a crash enforces the configured quota: an expired log and logs past the size limit 
+	 * are evicted, the new log is kept.
+	 */
+	@Test
+	public void testSaveEnforcesQuota() throws Exception {
+		File expired = add("expired", "x", 100, System.currentTimeMillis() - CrashConfig.LOG_QUOTA_MAX_AGE - DAY);
+		File large = add("large", "y", CrashConfig.LOG_QUOTA_MAX_BYTES, System.currentTimeMillis());
+		
+		DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(mApp);
+		CrashLogStore.saveLogToFile(mApp, info, null, mManifest, new IllegalStateException("crash"), Thread.currentThread());
+		
+		assertFalse(expired.exists());
+		assertFalse(large.exists());
+		List<CrashManifest.Entry> entries = mManifest.getEntries();
+		assertEquals(1, entries.size());
+		assertEquals("crash", CrashTestSupport.readLogFile(entries.get(0).getFile()).getMessage());
+	}
+}
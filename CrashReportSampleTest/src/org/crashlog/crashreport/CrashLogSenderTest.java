@@ -0,0 +1,469 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+import org.crashlog.server.CrashRecord;
+import org.crashlog.server.CrashSignatures;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Reports to a stub server that fails every Nth request or rejects a batch: 
+ * every log is delivered exactly once, and a rejected batch does not block newer logs.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashLogSenderTest {
+	private static final int FAIL_EVERY = 3;
+	private static final int MAX_FLUSHES = 50;
+	private static final int REPEATED_CRASHES = 10000;
+	
+	/**
+	 * Logs of a throttled round, about 80 KB compressed, so each request moves the estimate half way.
+	 */
+	private static final int THROTTLED_LOGS = 10;
+	private static final int THROTTLED_MESSAGE_LENGTH = 10 * 1024;
+	private static final int MAX_THROTTLED_ROUNDS = 6;
+	
+	private static final int BACKLOG_LOGS = 128;
+	
+	private File mCacheDir;
+	private CrashTestSupport.TestApplication mApp;
+	private DeviceInfoSnapshot mInfo;
+	private CrashManifest mManifest;
+	private CrashDedupIndex mIndex;
+	private ExecutorService mWorker;
+	private CrashLogSender mSender;
+	private CrashStubServer mServer;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("sender");
+		mApp = new CrashTestSupport.TestApplication(mCacheDir);
+		mInfo = DeviceInfoSnapshot.capture(mApp);
+		File dir = CrashLogStore.getLogDir(mApp);
+		dir.mkdirs();
+		mManifest = new CrashManifest(dir);
+		mManifest.load();
+		mIndex = CrashDedupIndex.load(mManifest);
+		mServer = new CrashStubServer();
+		mWorker = Executors.newSingleThreadExecutor();
+		mSender = new CrashLogSender(mApp, mInfo, null, mIndex, mManifest, null, 
+				CrashTestSupport.UNMETERED_WIFI, mWorker);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		mWorker.shutdown();
+		mServer.stop();
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	/**
+	 * Start the sender once logs are saved, its first attempt may run any time after.
+	 */
+	private void startSender() throws Exception {
+		mWorker.submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				mSender.start();
+			}
+		}).get();
+	}
+	
+	private List<String> saveLogs(String prefix, int count) throws IOException {
+		List<String> messages = new ArrayList<String>();
+		for(int i = 0; i < count; i++) {
+			String message = prefix + i;
+			CrashLogStore.saveLogToFile(mApp, mInfo, mIndex, mManifest, 
+					new IllegalStateException(message), Thread.currentThread());
+			messages.add(message);
+		}
+		return messages;
+	}
+	
+	/**
+	 * Flush on the worker until an attempt succeeds.
+	 * 
+	 * @return Number of failed attempts.
+	 */
+	private int flushUntilDone() throws Exception {
+		for(int i = 0; i < MAX_FLUSHES; i++) {
+			try {
+				assertTrue(mWorker.submit(new Callable<Boolean>() {
+					
+					@Override
+					public Boolean call() throws Exception {
+						return mSender.flush();
+					}
+				}).get());
+				return i;
+			} catch (ExecutionException e) {
+				if(!(e.getCause() instanceof IOException)) {
+					throw e;
+				}
+			}
+		}
+		fail("Reporting never succeeded.");
+		return -1;
+	}
+	
+	private int countLogFiles() {
+		String[] names = CrashLogStore.getLogDir(mApp).list(CrashLogStore.LOG_FILE_FILTER);
+		return names == null ? 0 : names.length;
+	}
+	
+	@Test
+	public void testEveryLogDeliveredOnceDespiteFailures() throws Exception {
+		mServer.setFailEvery(FAIL_EVERY);
+		List<String> expected = new ArrayList<String>();
+		int failures = 0;
+		for(int round = 0; round < 4; round++) {
+			expected.addAll(saveLogs("crash-" + round + "-", 100));
+			if(round == 0) {
+				startSender();
+			}
+			failures += flushUntilDone();
+		}
+		
+		assertTrue("The stub server never failed a request.", failures > 0);
+		List<String> delivered = mServer.getMessages();
+		assertEquals(expected.size(), delivered.size());
+		assertEquals(new HashSet<String>(expected), new HashSet<String>(delivered));
+		assertEquals(0, countLogFiles());
+		assertTrue(mManifest.getEntries().isEmpty());
+	}
+	
+	@Test
+	public void testRejectedBatchIsDropped() throws Exception {
+		long rejected = CrashLogStore.getMetrics().getCounter(CrashMetrics.COUNTER_LOGS_REJECTED);
+		mServer.setRejectMessage("poison0");
+		List<String> dropped = saveLogs("dropped-", 3);
+		saveLogs("poison", 1);
+		dropped.add("poison0");
+		startSender();
+		
+		assertEquals(0, flushUntilDone());
+		assertEquals(0, countLogFiles());
+		assertTrue(mServer.getMessages().toString(), mServer.getMessages().isEmpty());
+		assertEquals(rejected + dropped.size(), 
+				CrashLogStore.getMetrics().getCounter(CrashMetrics.COUNTER_LOGS_REJECTED));
+		
+		//Newer logs are not blocked by the rejected batch.
+		List<String> expected = saveLogs("newer-", 5);
+		assertEquals(0, flushUntilDone());
+		assertEquals(expected, mServer.getMessages());
+		assertEquals(0, countLogFiles());
+		assertFalse(mServer.getMessages().contains("poison0"));
+	}
+	
+	private void saveRepeatedCrashes() throws IOException {
+		for(int i = 0; i < REPEATED_CRASHES; i++) {
+			CrashLogStore.saveLogToFile(mApp, mInfo, mIndex, mManifest, 
+					new IllegalStateException("repeated"), Thread.currentThread());
+		}
+	}
+	
+	@Test
+	public void testRepeatedCrashesReportedAsOneRecord() throws Exception {
+		saveRepeatedCrashes();
+		//Storage does not grow with repeated crashes.
+		assertEquals(1, countLogFiles());
+		assertEquals(1, mManifest.getEntries().size());
+		
+		startSender();
+		assertEquals(0, flushUntilDone());
+		assertEquals(0, countLogFiles());
+		List<CrashRecord> records = mServer.getRecords();
+		assertEquals(1, records.size());
+		assertEquals(REPEATED_CRASHES, records.get(0).getCount());
+		
+		//Crashes after the report start a new record. The sender may report it 
+		//while crashes are still counted, a count is never lost nor counted twice.
+		saveRepeatedCrashes();
+		assertEquals(0, flushUntilDone());
+		assertEquals(0, countLogFiles());
+		records = mServer.getRecords();
+		String crashId = records.get(1).getCrashId();
+		int count = 0;
+		for(CrashRecord record : records.subList(1, records.size())) {
+			assertEquals(crashId, record.getCrashId());
+			count += record.getCount();
+		}
+		assertEquals(REPEATED_CRASHES, count);
+		assertEquals(0, mIndex.size());
+	}
+	
+	/**
+	 * Messages of random characters, which compress to about 3/4.
+	 */
+	private List<String> saveRandomLogs(Random random, int count) throws IOException {
+		return saveRandomLogs(random, count, THROTTLED_MESSAGE_LENGTH);
+	}
+	
+	private List<String> saveRandomLogs(Random random, int count, int length) throws IOException {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		List<String> messages = new ArrayList<String>();
+		for(int i = 0; i < count; i++) {
+			StringBuilder message = new StringBuilder(length);
+			for(int j = 0; j < length; j++) {
+				message.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			CrashLogStore.saveLogToFile(mApp, mInfo, mIndex, mManifest, 
+					new IllegalStateException(message.toString()), Thread.currentThread());
+			messages.add(message.toString());
+		}
+		return messages;
+	}
+	
+	/**
+	 * Report rounds of logs until the compression level of Wi-Fi is the expected one.
+	 * 
+	 * @return Number of rounds.
+	 */
+	private int reportUntilLevel(Random random, int level, List<String> expected) throws Exception {
+		CrashUploadPolicy policy = mSender.getPolicy();
+		for(int round = 1; round <= MAX_THROTTLED_ROUNDS; round++) {
+			expected.addAll(saveRandomLogs(random, THROTTLED_LOGS));
+			assertEquals(0, flushUntilDone());
+			if(policy.getCompressionLevel(CrashConnectivityProvider.NETWORK_WIFI) == level) {
+				return round;
+			}
+		}
+		fail("Compression level " + level + " never chosen, estimate " 
+				+ policy.getThroughput(CrashConnectivityProvider.NETWORK_WIFI) + " bytes/s");
+		return -1;
+	}
+	
+	/**
+	 * The Wi-Fi estimate starts at 1 MB/s. Over a 32 KB/s link it falls below 128 KB/s in 4 requests 
+	 * and the best compression is chosen, back at 4 MB/s the fastest compression is chosen again.
+	 */
+	@Test
+	public void testCompressionFollowsThroughput() throws Exception {
+		Random random = new Random(32);
+		List<String> expected = new ArrayList<String>();
+		startSender();
+		CrashUploadPolicy policy = mSender.getPolicy();
+		assertEquals(Deflater.BEST_SPEED, policy.getCompressionLevel(CrashConnectivityProvider.NETWORK_WIFI));
+		
+		mServer.setBytesPerSecond(32 * 1024);
+		int rounds = reportUntilLevel(random, Deflater.BEST_COMPRESSION, expected);
+		assertTrue("rounds " + rounds, rounds >= 3);
+		long estimate = policy.getThroughput(CrashConnectivityProvider.NETWORK_WIFI);
+		assertTrue("estimate " + estimate, estimate > 32 * 1024 && estimate < 128 * 1024);
+		
+		mServer.setBytesPerSecond(4 * 1024 * 1024);
+		reportUntilLevel(random, Deflater.BEST_SPEED, expected);
+		assertTrue(policy.getThroughput(CrashConnectivityProvider.NETWORK_WIFI) >= 1024 * 1024);
+		
+		assertEquals(expected, mServer.getMessages());
+		assertEquals(0, countLogFiles());
+	}
+	
+	@Test
+	public void testCompressedBatchDecoded() throws Exception {
+		List<String> expected = saveLogs("gzip", 5);
+		startSender();
+		assertEquals(0, flushUntilDone());
+		
+		List<String> encodings = mServer.getEncodings();
+		assertFalse(encodings.isEmpty());
+		for(String encoding : encodings) {
+			assertEquals("gzip", encoding);
+		}
+		assertEquals(expected, mServer.getMessages());
+		assertEquals(0, countLogFiles());
+	}
+	
+	/**
+	 * A host answering 415 to the first compressed batch gets it again uncompressed 
+	 * in the same attempt, and every later batch uncompressed.
+	 */
+	@Test
+	public void testUncompressedRetryAfterUnsupportedMediaType() throws Exception {
+		mServer.setGzipSupported(false);
+		List<String> expected = saveLogs("first", 5);
+		startSender();
+		assertEquals(0, flushUntilDone());
+		assertEquals(expected, mServer.getMessages());
+		
+		expected.addAll(saveLogs("second", 5));
+		assertEquals(0, flushUntilDone());
+		assertEquals(expected, mServer.getMessages());
+		assertEquals(0, countLogFiles());
+		
+		List<String> encodings = mServer.getEncodings();
+		assertEquals("gzip", encodings.get(0));
+		assertTrue(encodings.toString(), encodings.size() >= 3);
+		for(String encoding : encodings.subList(1, encodings.size())) {
+			assertEquals(encodings.toString(), null, encoding);
+		}
+	}
+	
+	/**
+	 * Records the classes looked up through it.
+	 */
+	private static final class RecordingClassLoader extends ClassLoader {
+		private final List<String> mLoaded = new ArrayList<String>();
+		
+		RecordingClassLoader() {
+			super(RecordingClassLoader.class.getClassLoader());
+		}
+		
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			mLoaded.add(name);
+			return super.loadClass(name, resolve);
+		}
+		
+		synchronized List<String> getLoaded() {
+			return new ArrayList<String>(mLoaded);
+		}
+	}
+	
+	/**
+	 * Nothing is looked up when the crash is saved. When it is reported, only the class of the frame 
+	 * in the configured package is, and the overloads of its method are sent after the records.
+	 */
+	@Test
+	public void testSignaturesCollectedAtUploadForConfiguredPackages() throws Exception {
+		final RecordingClassLoader loader = new RecordingClassLoader();
+		mApp = new CrashTestSupport.TestApplication(mCacheDir) {
+			
+			@Override
+			public ClassLoader getClassLoader() {
+				return loader;
+			}
+		};
+		mSender = new CrashLogSender(mApp, mInfo, null, mIndex, mManifest, null, 
+				CrashTestSupport.UNMETERED_WIFI, mWorker, new String[] {"java.util"});
+		
+		Throwable crash = new IllegalStateException("signatures");
+		crash.setStackTrace(new StackTraceElement[] {
+				new StackTraceElement("java.util.ArrayList", "add", "ArrayList.java", 467), 
+				new StackTraceElement("java.lang.String", "valueOf", "String.java", 2994), 
+				new StackTraceElement("java.io.BufferedReader", "readLine", "BufferedReader.java", 392), 
+		});
+		CrashLogStore.saveLogToFile(mApp, mInfo, mIndex, mManifest, crash, Thread.currentThread());
+		assertEquals(new ArrayList<String>(), loader.getLoaded());
+		
+		startSender();
+		assertEquals(0, flushUntilDone());
+		assertEquals(Arrays.asList("signatures"), mServer.getMessages());
+		assertEquals(Arrays.asList("java.util.ArrayList"), loader.getLoaded());
+		
+		CrashSignatures signatures = mServer.getSignatures().get(0);
+		//Private helpers of the overloads differ by JDK.
+		List<String> add = signatures.getSignatures("java.util.ArrayList", "add");
+		assertTrue(add.toString(), add.containsAll(Arrays.asList(
+				"public boolean java.util.ArrayList.add(java.lang.Object)", 
+				"public void java.util.ArrayList.add(int,java.lang.Object)")));
+		assertTrue(signatures.getSignatures("java.lang.String", "valueOf").isEmpty());
+	}
+	
+	private long getLogBytes() {
+		long bytes = 0;
+		for(CrashManifest.Entry entry : mManifest.getEntries()) {
+			bytes += entry.getFile().length();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Flush on the worker until an attempt succeeds.
+	 * 
+	 * @return Bytes allocated by the worker thread while reporting.
+	 */
+	private long flushCountingAllocation(final com.sun.management.ThreadMXBean threads) throws Exception {
+		return mWorker.submit(new Callable<Long>() {
+			
+			@Override
+			public Long call() throws Exception {
+				long id = Thread.currentThread().getId();
+				long start = threads.getThreadAllocatedBytes(id);
+				assertTrue(mSender.flush());
+				return threads.getThreadAllocatedBytes(id) - start;
+			}
+		}).get();
+	}
+	
+	/**
+	 * Logs are streamed to the connection through one buffer, so the heap a report takes 
+	 * does not grow with the backlog: the 127 more logs of the second report allocate 
+	 * less than half their bytes, a report buffered in memory would allocate all of them at least once. 
+	 * Bytes allocated by the worker are counted, unlike the heap used they do not depend on when GC runs.
+	 */
+	@Test
+	public void testHeapFlatWithBacklog() throws Exception {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		Random random = new Random(128);
+		List<String> expected = new ArrayList<String>();
+		startSender();
+		
+		//Warm up connections and classes.
+		expected.addAll(saveRandomLogs(random, 1));
+		assertEquals(0, flushUntilDone());
+		
+		expected.addAll(saveRandomLogs(random, 1));
+		long oneLog = flushCountingAllocation(threads);
+		expected.addAll(saveRandomLogs(random, BACKLOG_LOGS));
+		long backlogBytes = getLogBytes();
+		assertEquals(BACKLOG_LOGS, mManifest.getEntries().size());
+		long backlog = flushCountingAllocation(threads);
+		
+		assertEquals(expected, mServer.getMessages());
+		assertEquals(0, countLogFiles());
+		assertTrue("1 log allocated " + oneLog + " bytes, " + BACKLOG_LOGS + " logs of " + backlogBytes 
+				+ " bytes allocated " + backlog + " bytes", backlog - oneLog < backlogBytes / 2);
+	}
+}
@@ -0,0 +1,167 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+/**
+ * 
+ * Compares copying log files to a request body stream, over 1 to 128 files of 1 KB to 512 KB:
+ * <ul>
+ * <li>array: a new array of the file size for each file, as before the streaming report.</li>
+ * <li>stream: {@link CrashLogStore#writeLogData(OutputStream, File, long, byte[])} through one heap buffer.</li>
+ * <li>channel: a direct buffer written through <code>Channels.newChannel(out)</code>, which copies 
+ * it once more into the heap array of the wrapper, as <code>HttpURLConnection</code> only takes a stream.</li>
+ * </ul>
+ * 
+ * Run as a Java application, prints milliseconds per round and MB/s of each path.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashLogTransferBenchmark {
+	private static final int[] FILE_COUNTS = {1, 16, 128};
+	private static final int[] FILE_SIZES = {1024, 64 * 1024, 512 * 1024};
+	private static final long BYTES_PER_ROUND_SET = 256L * 1024 * 1024;
+	
+	public static void main(String[] args) throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "crash_transfer_benchmark");
+		dir.mkdirs();
+		byte[] buffer = new byte[CrashConfig.REPORT_BUFFER_SIZE];
+		ByteBuffer direct = ByteBuffer.allocateDirect(CrashConfig.REPORT_BUFFER_SIZE);
+		
+		for(int size : FILE_SIZES) {
+			for(int count : FILE_COUNTS) {
+				File[] files = createFiles(dir, count, size);
+				NullOutputStream out = new NullOutputStream();
+				long[] nanos = new long[3];
+				int rounds = (int) Math.max(10, Math.min(5000, BYTES_PER_ROUND_SET / ((long) count * size)));
+				for(int round = -rounds; round < rounds; round++) { //Negative rounds warm up.
+					for(int path = 0; path < 3; path++) {
+						long start = System.nanoTime();
+						for(File file : files) {
+							copy(path, out, file, size, buffer, direct);
+						}
+						if(round >= 0) {
+							nanos[path] += System.nanoTime() - start;
+						}
+					}
+				}
+				double mb = (double) count * size * rounds / (1024 * 1024);
+				System.out.printf("%4d x %4d KB  array %8.3f ms %7.0f MB/s  stream %8.3f ms %7.0f MB/s  channel %8.3f ms %7.0f MB/s%n", 
+						count, size / 1024, 
+						nanos[0] / 1e6 / rounds, mb / (nanos[0] / 1e9), 
+						nanos[1] / 1e6 / rounds, mb / (nanos[1] / 1e9), 
+						nanos[2] / 1e6 / rounds, mb / (nanos[2] / 1e9));
+				for(File file : files) {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+	
+	private static void copy(int path, OutputStream out, File file, long length, byte[] buffer, ByteBuffer direct) throws IOException {
+		if(path == 0) {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				byte[] data = new byte[(int) length];
+				int n = 0;
+				while(n < data.length) {
+					n += in.read(data, n, data.length - n);
+				}
+				out.write(data);
+			} finally {
+				in.close();
+			}
+		} else if(path == 1) {
+			CrashLogStore.writeLogData(out, file, length, buffer);
+		} else {
+			WritableByteChannel channel = Channels.newChannel(out);
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel src = in.getChannel();
+				long position = 0;
+				while(position < length) {
+					direct.clear();
+					position += src.read(direct, position);
+					direct.flip();
+					while(direct.hasRemaining()) {
+						channel.write(direct);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+	
+	private static File[] createFiles(File dir, int count, int size) throws IOException {
+		Random random = new Random(size);
+		byte[] data = new byte[size];
+		File[] files = new File[count];
+		for(int i = 0; i < count; i++) {
+			random.nextBytes(data);
+			files[i] = new File(dir, "log" + i + CrashConfig.LOG_FILE_EXT);
+			FileOutputStream out = new FileOutputStream(files[i]);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+		return files;
+	}
+	
+	/**
+	 * Discards the bytes, like a socket stream the data has to be copied into.
+	 */
+	private static class NullOutputStream extends OutputStream {
+		private final byte[] mSink = new byte[CrashConfig.REPORT_BUFFER_SIZE];
+		
+		@Override
+		public void write(int b) {
+			mSink[0] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			while(len > 0) {
+				int n = Math.min(len, mSink.length);
+				System.arraycopy(b, off, mSink, 0, n);
+				off += n;
+				len -= n;
+			}
+		}
+	}
+}
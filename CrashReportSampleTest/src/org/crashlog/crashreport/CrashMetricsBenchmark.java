@@ -0,0 +1,119 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Cost of the instrumentation with 1 and 4 threads on one {@link CrashMetrics}:
+ * <ul>
+ * <li>increment: {@link CrashMetrics#increment(int)} of one counter.</li>
+ * <li>record: {@link CrashMetrics#record(int, long)} of values spread over microseconds to seconds.</li>
+ * <li>timed: an event timed by two <code>System.nanoTime()</code> and recorded, as the SDK times a save.</li>
+ * </ul>
+ * 
+ * Run as a Java application, prints CPU nanoseconds per call of each, contention included, 
+ * well under a microsecond is expected.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashMetricsBenchmark {
+	private static final int[] THREAD_COUNTS = {1, 4};
+	private static final int CALLS_PER_THREAD = 5000000;
+	private static final int ROUNDS = 3;
+	private static final String[] NAMES = {"increment", "record", "timed"};
+	
+	public static void main(String[] args) throws InterruptedException {
+		long[] values = new long[4096];
+		Random random = new Random(23);
+		for(int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.pow(10, 6 * random.nextDouble());
+		}
+		
+		for(int threads : THREAD_COUNTS) {
+			StringBuilder line = new StringBuilder(String.format("%2d threads", threads));
+			for(int op = 0; op < NAMES.length; op++) {
+				double nanos = 0;
+				for(int round = -ROUNDS; round < ROUNDS; round++) { //Negative rounds warm up.
+					double n = run(new CrashMetrics(), op, threads, values);
+					if(round >= 0) {
+						nanos += n / ROUNDS;
+					}
+				}
+				line.append(String.format("  %s %6.1f ns", NAMES[op], nanos));
+			}
+			System.out.println(line);
+		}
+	}
+	
+	/**
+	 * @return CPU nanoseconds per call, of the CPU time of all threads.
+	 */
+	private static double run(final CrashMetrics metrics, final int op, int threadCount, 
+			final long[] values) throws InterruptedException {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong cpuNanos = new AtomicLong();
+		Thread[] threads = new Thread[threadCount];
+		for(int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long cpuStart = bean.getCurrentThreadCpuTime();
+					int mask = values.length - 1;
+					for(int i = 0; i < CALLS_PER_THREAD; i++) {
+						if(op == 0) {
+							metrics.increment(CrashMetrics.COUNTER_CRASHES_SAVED);
+						} else if(op == 1) {
+							metrics.record(CrashMetrics.HISTOGRAM_RECORD_BYTES, values[i & mask]);
+						} else {
+							long begin = System.nanoTime();
+							metrics.record(CrashMetrics.HISTOGRAM_SAVE_TIME, (System.nanoTime() - begin) / 1000);
+						}
+					}
+					cpuNanos.addAndGet(bean.getCurrentThreadCpuTime() - cpuStart);
+				}
+				
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		return (double) cpuNanos.get() / ((long) CALLS_PER_THREAD * threadCount);
+	}
+}
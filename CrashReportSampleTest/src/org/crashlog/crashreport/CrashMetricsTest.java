@@ -0,0 +1,102 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Each process saves and loads its own metrics file, and files of an earlier format are ignored.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashMetricsTest {
+	private File mDir;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = CrashTestSupport.newCacheDir("metrics");
+		mDir.mkdirs();
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mDir);
+	}
+	
+	@Test
+	public void testProcessesKeepTheirOwnMetrics() throws Exception {
+		CrashMetrics main = new CrashMetrics();
+		main.increment(CrashMetrics.COUNTER_CRASHES_SAVED);
+		main.record(CrashMetrics.HISTOGRAM_UPLOAD_TIME, 1500);
+		CrashMetrics remote = new CrashMetrics();
+		remote.add(CrashMetrics.COUNTER_BYTES_SENT, 42);
+		
+		File mainFile = CrashMetrics.getFile(mDir, "org.crashlog.sample");
+		File remoteFile = CrashMetrics.getFile(mDir, "org.crashlog.sample:remote");
+		assertFalse(mainFile.equals(remoteFile));
+		assertEquals("crash_metrics_org.crashlog.sample_remote.dat", remoteFile.getName());
+		main.save(mainFile);
+		remote.save(remoteFile);
+		
+		CrashMetrics loaded = CrashMetrics.load(mainFile);
+		assertEquals(1, loaded.getCounter(CrashMetrics.COUNTER_CRASHES_SAVED));
+		assertEquals(0, loaded.getCounter(CrashMetrics.COUNTER_BYTES_SENT));
+		assertEquals(1, loaded.getHistogram(CrashMetrics.HISTOGRAM_UPLOAD_TIME).getCount());
+		loaded = CrashMetrics.load(remoteFile);
+		assertEquals(0, loaded.getCounter(CrashMetrics.COUNTER_CRASHES_SAVED));
+		assertEquals(42, loaded.getCounter(CrashMetrics.COUNTER_BYTES_SENT));
+		
+		String[] names = mDir.list();
+		assertEquals(2, names.length);
+	}
+	
+	/**
+	 * Version 1 recorded upload time in milliseconds.
+	 */
+	@Test
+	public void testEarlierVersionIgnored() throws Exception {
+		File file = CrashMetrics.getFile(mDir, "org.crashlog.sample");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(1);
+			out.writeByte(0);
+			out.writeByte(0);
+		} finally {
+			out.close();
+		}
+		assertNull(CrashMetrics.load(file));
+	}
+}
@@ -0,0 +1,168 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 
+ * Compares encoding the same record fields, a header and a stack trace of 
+ * 16 to 256 frames in the flat layout of int line numbers and UTF strings:
+ * <ul>
+ * <li>stream: {@link CrashLogStore#writeInt(OutputStream, int)}, 
+ * {@link CrashLogStore#writeLong(OutputStream, long)} and {@link CrashLogStore#writeUTF(OutputStream, String)} 
+ * through a buffered stream, as before the encoder.</li>
+ * <li>encoder: {@link CrashRecordEncoder} drained to a channel.</li>
+ * </ul>
+ * Both write the same bytes, the output discards them.
+ * 
+ * Run as a Java application, prints nanoseconds and bytes allocated per record of each path.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashRecordEncoderBenchmark {
+	private static final int[] FRAME_COUNTS = {16, 64, 256};
+	private static final int FRAMES_PER_ROUND = 20000000;
+	
+	public static void main(String[] args) throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		OutputStream out = new BufferedOutputStream(new NullOutputStream(), CrashConfig.RECORD_BUFFER_SIZE);
+		CrashRecordEncoder encoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+		encoder.setOutput(new NullChannel());
+		
+		for(int frameCount : FRAME_COUNTS) {
+			StackTraceElement[] elements = createStackTrace(frameCount);
+			int rounds = FRAMES_PER_ROUND / frameCount;
+			long[] nanos = new long[2];
+			long[] bytes = new long[2];
+			for(int round = -rounds; round < rounds; round += rounds / 10) { //Negative rounds warm up.
+				for(int path = 0; path < 2; path++) {
+					long allocated = threads.getThreadAllocatedBytes(id);
+					long start = System.nanoTime();
+					for(int i = 0; i < rounds / 10; i++) {
+						if(path == 0) {
+							writeRecord(out, elements);
+						} else {
+							writeRecord(encoder, elements);
+						}
+					}
+					if(round >= 0) {
+						nanos[path] += System.nanoTime() - start;
+						bytes[path] += threads.getThreadAllocatedBytes(id) - allocated;
+					}
+				}
+			}
+			System.out.printf("%4d frames  stream %8.0f ns %8.0f B  encoder %8.0f ns %8.0f B%n", 
+					frameCount, 
+					(double) nanos[0] / rounds, (double) bytes[0] / rounds, 
+					(double) nanos[1] / rounds, (double) bytes[1] / rounds);
+		}
+	}
+	
+	private static void writeRecord(OutputStream out, StackTraceElement[] elements) throws IOException {
+		CrashLogStore.writeInt(out, 1);
+		CrashLogStore.writeLong(out, 1000);
+		CrashLogStore.writeUTF(out, "0123456789abcdef0123456789abcdef");
+		for(int i = 0; i < 7; i++) {
+			CrashLogStore.writeLong(out, i);
+		}
+		CrashLogStore.writeUTF(out, "main");
+		CrashLogStore.writeUTF(out, "org.crashlog.sample");
+		CrashLogStore.writeUTF(out, IllegalStateException.class.getName());
+		CrashLogStore.writeUTF(out, "Crash at \u00e9tape \u4e2d");
+		CrashLogStore.writeInt(out, elements.length);
+		for(StackTraceElement ste : elements) {
+			CrashLogStore.writeUTF(out, ste.getClassName());
+			CrashLogStore.writeUTF(out, ste.getFileName());
+			CrashLogStore.writeUTF(out, ste.getMethodName());
+			CrashLogStore.writeInt(out, ste.getLineNumber());
+		}
+	}
+	
+	private static void writeRecord(CrashRecordEncoder encoder, StackTraceElement[] elements) throws IOException {
+		encoder.writeInt(1);
+		encoder.writeLong(1000);
+		encoder.writeUTF("0123456789abcdef0123456789abcdef");
+		for(int i = 0; i < 7; i++) {
+			encoder.writeLong(i);
+		}
+		encoder.writeUTF("main");
+		encoder.writeUTF("org.crashlog.sample");
+		encoder.writeUTF(IllegalStateException.class.getName());
+		encoder.writeUTF("Crash at \u00e9tape \u4e2d");
+		encoder.writeInt(elements.length);
+		for(StackTraceElement ste : elements) {
+			encoder.writeUTF(ste.getClassName());
+			encoder.writeUTF(ste.getFileName());
+			encoder.writeUTF(ste.getMethodName());
+			encoder.writeInt(ste.getLineNumber());
+		}
+	}
+	
+	private static StackTraceElement[] createStackTrace(int frameCount) {
+		StackTraceElement[] elements = new StackTraceElement[frameCount];
+		for(int i = 0; i < frameCount; i++) {
+			elements[i] = new StackTraceElement("org.crashlog.sample.module" + (i % 8) + ".Activity" + i, 
+					"method" + i, "Activity" + i + ".java", 10 + i * 7);
+		}
+		return elements;
+	}
+	
+	private static class NullOutputStream extends OutputStream {
+		
+		@Override
+		public void write(int b) {
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+	
+	private static class NullChannel implements WritableByteChannel {
+		
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.crashlog.server.CrashBreadcrumb;
+import org.crashlog.server.CrashCause;
+import org.crashlog.server.CrashLogDecoder;
+import org.crashlog.server.CrashRecord;
+import org.crashlog.server.CrashThread;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Records written by the SDK encoder decode to what was crashed, with every section, 
+ * and once warmed up the encoder allocates nothing per record. 
+ * Earlier record versions are covered by the server decoder tests.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashRecordEncoderTest {
+	private static final int WARM_UP_RECORDS = 20000;
+	private static final int MEASURED_RECORDS = 10000;
+	
+	private File mCacheDir;
+	private CrashTestSupport.TestApplication mApp;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("encoder");
+		mApp = new CrashTestSupport.TestApplication(mCacheDir);
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	/**
+	 * Frames of the running JVM also have module and class loader names, which are not recorded.
+	 */
+	private static void assertFrames(StackTraceElement[] expected, StackTraceElement[] actual) {
+		assertEquals(expected.length, actual.length);
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].toString().replaceFirst("^[^(]*/", ""), actual[i].toString());
+		}
+	}
+	
+	private static void assertCause(Throwable expected, CrashCause actual) {
+		assertEquals(expected.getClass().getName(), actual.getClassName());
+		assertEquals(expected.getMessage(), actual.getMessage());
+		assertFrames(expected.getStackTrace(), actual.getStackTrace());
+	}
+	
+	@Test
+	public void testRecordRoundTrip() throws Exception {
+		DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(mApp);
+		CrashReport.leaveBreadcrumb("opened");
+		CrashReport.leaveBreadcrumb("clicked");
+		Exception root = new java.io.IOException("disk");
+		Exception cause = new IllegalArgumentException("bad", root);
+		RuntimeException crash = new IllegalStateException("crash", cause);
+		Exception suppressed = new UnsupportedOperationException("close");
+		crash.addSuppressed(suppressed);
+		
+		CrashLogStore.saveLogToFile(mApp, info, null, null, crash, Thread.currentThread());
+		File[] logs = CrashLogStore.getLogDir(mApp).listFiles(CrashLogStore.LOG_FILE_FILTER);
+		assertEquals(1, logs.length);
+		CrashRecord record = CrashTestSupport.readLogFile(logs[0]);
+		
+		assertEquals(CrashConfig.VERSION, record.getVersion());
+		assertEquals(1, record.getCount());
+		assertEquals(Thread.currentThread().getName(), record.getThreadName());
+		assertEquals(info.getProcessName(), record.getProcessName());
+		assertEquals(IllegalStateException.class.getName(), record.getCause());
+		assertEquals("crash", record.getMessage());
+		assertFrames(crash.getStackTrace(), record.getStackTrace());
+		
+		assertCause(cause, record.getCausedBy());
+		assertCause(root, record.getCausedBy().getCause());
+		assertNull(record.getCausedBy().getCause().getCause());
+		assertEquals(1, record.getSuppressed().size());
+		assertCause(suppressed, record.getSuppressed().get(0));
+		
+		List<CrashBreadcrumb> breadcrumbs = record.getBreadcrumbs();
+		assertEquals("clicked", breadcrumbs.get(breadcrumbs.size() - 1).getMessage());
+		assertEquals("opened", breadcrumbs.get(breadcrumbs.size() - 2).getMessage());
+	}
+	
+	@Test
+	public void testThreadsRoundTrip() throws Exception {
+		Thread thread = Thread.currentThread();
+		StackTraceElement[] elements = thread.getStackTrace();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CrashRecordEncoder encoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+		encoder.setOutput(Channels.newChannel(out));
+		encoder.beginRecord();
+		encoder.writeInt(1);
+		encoder.writeLong(1000);
+		encoder.writeUTF("id");
+		for(int i = 0; i < 7; i++) {
+			encoder.writeLong(i);
+		}
+		encoder.writeUTF("main");
+		encoder.writeUTF("process");
+		encoder.writeUTF(Error.class.getName());
+		encoder.writeUTF("");
+		encoder.writeStackTrace(elements);
+		encoder.beginSection(CrashRecordEncoder.SECTION_THREADS);
+		encoder.writeThread(thread, elements, elements.length);
+		encoder.writeThread(thread, elements, 2);
+		encoder.endSection();
+		encoder.endRecord();
+		encoder.flush();
+		
+		CrashRecord record = new CrashLogDecoder(ByteBuffer.wrap(out.toByteArray())).readRecord();
+		assertFrames(elements, record.getStackTrace());
+		List<CrashThread> threads = record.getThreads();
+		assertEquals(2, threads.size());
+		assertEquals(thread.getName(), threads.get(0).getName());
+		assertEquals(thread.getState(), threads.get(0).getState());
+		assertFrames(elements, threads.get(0).getStackTrace());
+		assertEquals(elements.length, threads.get(1).getDepth());
+		assertEquals(2, threads.get(1).getStackTrace().length);
+		assertEquals(elements[1].getMethodName(), threads.get(1).getStackTrace()[1].getMethodName());
+	}
+	
+	/**
+	 * With more live threads than {@link CrashConfig#THREAD_DUMP_MAX_THREADS}, each deeper than 
+	 * {@link CrashConfig#THREAD_DUMP_MAX_DEPTH}, the dump holds as many threads as the cap 
+	 * and as many frames of each, the crashing thread left out.
+	 */
+	@Test
+	public void testThreadDumpCapped() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Thread[] parked = CrashTestSupport.startParkedThreads(CrashConfig.THREAD_DUMP_MAX_THREADS * 2, 
+				CrashConfig.THREAD_DUMP_MAX_DEPTH * 2, release);
+		try {
+			Thread thread = Thread.currentThread();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			CrashRecordEncoder encoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+			encoder.setOutput(Channels.newChannel(out));
+			encoder.beginRecord();
+			encoder.writeInt(1);
+			encoder.writeLong(1000);
+			encoder.writeUTF("id");
+			for(int i = 0; i < 7; i++) {
+				encoder.writeLong(i);
+			}
+			encoder.writeUTF(thread.getName());
+			encoder.writeUTF("process");
+			encoder.writeUTF(Error.class.getName());
+			encoder.writeUTF("");
+			encoder.writeStackTrace(thread.getStackTrace());
+			CrashLogStore.writeThreads(encoder, thread);
+			encoder.endRecord();
+			encoder.flush();
+			
+			List<CrashThread> threads = new CrashLogDecoder(ByteBuffer.wrap(out.toByteArray())).readRecord().getThreads();
+			assertEquals(CrashConfig.THREAD_DUMP_MAX_THREADS, threads.size());
+			int deep = 0;
+			for(CrashThread dumped : threads) {
+				assertFalse(thread.getName().equals(dumped.getName()));
+				assertEquals(Math.min(dumped.getDepth(), CrashConfig.THREAD_DUMP_MAX_DEPTH), 
+						dumped.getStackTrace().length);
+				if(dumped.getName().startsWith("parked-")) {
+					assertTrue(dumped.getDepth() > CrashConfig.THREAD_DUMP_MAX_DEPTH * 2);
+					deep++;
+				}
+			}
+			assertTrue("parked threads dumped " + deep, deep > 0);
+			assertTrue(out.size() <= CrashConfig.RECORD_BUFFER_SIZE);
+		} finally {
+			release.countDown();
+			for(Thread thread : parked) {
+				thread.join();
+			}
+		}
+	}
+	
+	/**
+	 * Discards the bytes drained to it, without allocation.
+	 */
+	private static final class NullChannel implements WritableByteChannel {
+		
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	/**
+	 * Encode a record with every section, as {@link CrashLogStore} does on the crash path.
+	 */
+	private static void encodeRecord(CrashRecordEncoder encoder, Throwable crash, StackTraceElement[] elements, 
+			StackTraceElement[] causeElements, Thread thread, CrashBreadcrumbs breadcrumbs) throws Exception {
+		encoder.beginRecord();
+		encoder.writeInt(1);
+		encoder.writeLong(1000);
+		encoder.writeUTF("0123456789abcdef0123456789abcdef");
+		for(int i = 0; i < 7; i++) {
+			encoder.writeLong(i);
+		}
+		encoder.writeUTF(thread.getName());
+		encoder.writeUTF("org.crashlog.sample:remote \u00e9\u4e2d");
+		encoder.writeUTF(crash.getClass().getName());
+		encoder.writeUTF(crash.getLocalizedMessage());
+		encoder.writeStackTrace(elements);
+		encoder.beginSection(CrashRecordEncoder.SECTION_CAUSES);
+		encoder.writeCause(0, CrashRecordEncoder.CAUSE_KIND_CAUSE, crash.getCause(), causeElements, elements);
+		encoder.mark();
+		encoder.endSection();
+		encoder.beginSection(CrashRecordEncoder.SECTION_THREADS);
+		encoder.writeThread(thread, elements, CrashConfig.THREAD_DUMP_MAX_DEPTH);
+		encoder.mark();
+		encoder.endSection();
+		encoder.beginSection(CrashRecordEncoder.SECTION_BREADCRUMBS);
+		breadcrumbs.write(encoder, 2000);
+		encoder.endSection();
+		encoder.endRecord();
+	}
+	
+	/**
+	 * Counts bytes allocated by the current thread. The count itself may allocate, 
+	 * so the cost of an empty measurement is subtracted.
+	 */
+	@Test
+	public void testNoAllocationPerRecord() throws Exception {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		
+		Thread thread = Thread.currentThread();
+		long id = thread.getId();
+		Exception crash = new IllegalStateException("crash", new IllegalArgumentException("bad"));
+		StackTraceElement[] elements = crash.getStackTrace();
+		StackTraceElement[] causeElements = crash.getCause().getStackTrace();
+		CrashBreadcrumbs breadcrumbs = new CrashBreadcrumbs(CrashConfig.BREADCRUMB_CAPACITY);
+		for(int i = 0; i < CrashConfig.BREADCRUMB_CAPACITY * 2; i++) {
+			breadcrumbs.leave("breadcrumb " + i, 1000 + i);
+		}
+		CrashRecordEncoder encoder = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+		encoder.setOutput(new NullChannel());
+		
+		for(int i = 0; i < WARM_UP_RECORDS; i++) {
+			encodeRecord(encoder, crash, elements, causeElements, thread, breadcrumbs);
+		}
+		long start = threads.getThreadAllocatedBytes(id);
+		long overhead = threads.getThreadAllocatedBytes(id) - start;
+		
+		start = threads.getThreadAllocatedBytes(id);
+		for(int i = 0; i < MEASURED_RECORDS; i++) {
+			encodeRecord(encoder, crash, elements, causeElements, thread, breadcrumbs);
+		}
+		long allocated = threads.getThreadAllocatedBytes(id) - start - overhead;
+		assertTrue(encoder.getRecordLength() > CrashConfig.THREAD_DUMP_MAX_DEPTH);
+		//Less than a byte per record: no record allocates.
+		assertTrue("Allocated " + allocated + " bytes for " + MEASURED_RECORDS + " records", 
+				allocated < MEASURED_RECORDS);
+	}
+}
@@ -0,0 +1,128 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * 
+ * Startup cost of {@link CrashReport#init(Application, CrashMetricsListener, CrashConnectivityProvider)}, 
+ * which only installs the crash handler, against the preparation moved to the worker: 
+ * device info, storage, manifest, reserve and journal. <code>init</code> is once per process, 
+ * so each sample is the first call in a new JVM, as on a cold start, then again in a new JVM 
+ * with the classes <code>init</code> loads already loaded, which leaves the work of <code>init</code> itself. 
+ * The worker is ready when a flush queued behind its preparation is done, no logs are reported.
+ * 
+ * Run as a Java application, prints median, min and max microseconds of <code>init</code> 
+ * on the calling thread, cold and with classes loaded, and until the worker is ready.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashReportInitBenchmark {
+	private static final int SAMPLES = 15;
+	private static final String COLD = "cold";
+	private static final String LOADED = "loaded";
+	private static final String[] INIT_CLASSES = {
+		"org.crashlog.crashreport.CrashReport", 
+		"java.util.concurrent.ThreadPoolExecutor", 
+		"java.util.concurrent.ThreadPoolExecutor$Worker", 
+		"java.util.concurrent.ArrayBlockingQueue", 
+		"java.util.concurrent.FutureTask", 
+	};
+	
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0) {
+			measure(LOADED.equals(args[0]), new File(args[1]));
+			return;
+		}
+		
+		long[] cold = new long[SAMPLES];
+		long[] loaded = new long[SAMPLES];
+		long[] ready = new long[SAMPLES];
+		for(int i = 0; i < SAMPLES; i++) {
+			long[] sample = sample(COLD);
+			cold[i] = sample[0];
+			ready[i] = sample[1];
+			loaded[i] = sample(LOADED)[0];
+		}
+		print("init cold", cold);
+		print("init loaded", loaded);
+		print("worker ready", ready);
+	}
+	
+	/**
+	 * @return Microseconds of <code>init</code> and until the worker is ready, in a new JVM.
+	 */
+	private static long[] sample(String mode) throws Exception {
+		File cacheDir = CrashTestSupport.newCacheDir("init");
+		try {
+			Process child = CrashTestSupport.fork(new String[0], CrashReportInitBenchmark.class, mode, cacheDir.getPath());
+			BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream(), "UTF-8"));
+			String line = in.readLine();
+			while(in.readLine() != null) {
+				//Discard
+			}
+			if(child.waitFor() != 0 || line == null) {
+				throw new IOException("Sample failed: " + line);
+			}
+			String[] fields = line.split(" ");
+			return new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])};
+		} finally {
+			CrashTestSupport.deleteDir(cacheDir);
+		}
+	}
+	
+	private static void print(String name, long[] micros) {
+		Arrays.sort(micros);
+		System.out.printf("%-13s median %7d us  min %7d us  max %7d us%n", 
+				name, micros[micros.length / 2], micros[0], micros[micros.length - 1]);
+	}
+	
+	/**
+	 * The forked JVM: print microseconds of <code>init</code> and until the worker is ready.
+	 * 
+	 * @param loaded Load the classes of <code>init</code> before.
+	 */
+	private static void measure(boolean loaded, File cacheDir) throws Exception {
+		if(loaded) {
+			for(String name : INIT_CLASSES) {
+				Class.forName(name);
+			}
+		}
+		CrashTestSupport.TestApplication app = new CrashTestSupport.TestApplication(cacheDir);
+		long start = System.nanoTime();
+		CrashReport report = CrashReport.init(app, null, CrashTestSupport.UNMETERED_WIFI);
+		long init = System.nanoTime() - start;
+		report.flushAsync().get();
+		long ready = System.nanoTime() - start;
+		System.out.println(init / 1000 + " " + ready / 1000);
+		System.out.flush();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,165 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.crashlog.server.CrashRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.pm.PackageManager;
+
+/**
+ * 
+ * Crashes before the worker prepared the SDK, as in a startup crash loop, 
+ * are still counted in a single record, and the previous crash handler is always called.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashReportTest {
+	private static final int CRASHES = 100;
+	private static final String CHAINED = "chained";
+	
+	private File mCacheDir;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("report");
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	@Test
+	public void testCrashesBeforePreparedAreDeduplicated() throws Exception {
+		Process child = CrashTestSupport.fork(new String[0], CrashReportTest.class, mCacheDir.getPath());
+		assertEquals(0, CrashTestSupport.waitFor(child));
+		
+		File dir = new File(mCacheDir, CrashConfig.LOG_DIR);
+		File[] logs = dir.listFiles(CrashLogStore.LOG_FILE_FILTER);
+		assertEquals(1, logs.length);
+		CrashRecord record = CrashTestSupport.readLogFile(logs[0]);
+		assertEquals(CRASHES, record.getCount());
+		assertEquals("startup", record.getMessage());
+		
+		CrashManifest manifest = new CrashManifest(dir);
+		manifest.load();
+		assertEquals(1, manifest.getEntries().size());
+	}
+	
+	/**
+	 * Saving the crash fails with a runtime exception, the previous handler still kills the process.
+	 */
+	@Test
+	public void testPreviousHandlerCalledWhenSaveFails() throws Exception {
+		Process child = CrashTestSupport.fork(new String[0], CrashReportTest.class, mCacheDir.getPath(), CHAINED);
+		BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream(), "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while((line = in.readLine()) != null) {
+			lines.add(line);
+		}
+		assertEquals(lines.toString(), 0, child.waitFor());
+		assertTrue(lines.toString(), lines.contains(CHAINED + " broken storage"));
+	}
+	
+	/**
+	 * An APP whose storage fails on the main thread, where it crashes.
+	 */
+	private static class BrokenStorageApplication extends CrashTestSupport.TestApplication {
+		
+		BrokenStorageApplication(File cacheDir) {
+			super(cacheDir);
+		}
+		
+		@Override
+		public File getExternalCacheDir() {
+			if("main".equals(Thread.currentThread().getName())) {
+				throw new IllegalStateException("storage");
+			}
+			return super.getExternalCacheDir();
+		}
+	}
+	
+	/**
+	 * An APP whose worker thread is stuck at the start of prepare.
+	 */
+	private static class BlockedApplication extends CrashTestSupport.TestApplication {
+		private final CountDownLatch mPrepared = new CountDownLatch(1);
+		
+		BlockedApplication(File cacheDir) {
+			super(cacheDir);
+		}
+		
+		@Override
+		public PackageManager getPackageManager() {
+			if("CrashLogReport".equals(Thread.currentThread().getName())) {
+				try {
+					mPrepared.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return super.getPackageManager();
+		}
+	}
+	
+	/**
+	 * The forked JVM: crash repeatedly while the worker is blocked before prepared, 
+	 * or with a second argument crash once with broken storage and print what the previous handler got.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length > 1) {
+			Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+				
+				@Override
+				public void uncaughtException(Thread thread, Throwable ex) {
+					System.out.println(CHAINED + " " + ex.getMessage());
+				}
+			});
+			CrashReport report = CrashReport.init(new BrokenStorageApplication(new File(args[0])));
+			report.uncaughtException(Thread.currentThread(), new IllegalStateException("broken storage"));
+			System.exit(0);
+		}
+		
+		CrashReport report = CrashReport.init(new BlockedApplication(new File(args[0])));
+		for(int i = 0; i < CRASHES; i++) {
+			report.uncaughtException(Thread.currentThread(), new IllegalStateException("startup"));
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,163 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.crashlog.server.CrashRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * OutOfMemoryError crashes are saved through the reserve: a JVM with a small heap 
+ * runs out of memory with the heap still full, and the recovered log decodes.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashReserveTest {
+	private static final String OOM_HEAP = "-Xmx32m";
+	
+	//Keeps the heap full while the crash handler runs.
+	private static List<long[]> mHog;
+	
+	private File mCacheDir;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("reserve");
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	@Test
+	public void testOutOfMemoryCrashIsRecovered() throws Exception {
+		Process child = CrashTestSupport.fork(new String[] {OOM_HEAP}, CrashReserveTest.class, mCacheDir.getPath());
+		assertEquals(0, CrashTestSupport.waitFor(child));
+		
+		File dir = new File(mCacheDir, CrashConfig.LOG_DIR);
+		CrashManifest manifest = new CrashManifest(dir);
+		manifest.load();
+		assertEquals(0, manifest.getEntries().size());
+		
+		CrashReserve.recoverAll(dir, manifest);
+		List<CrashManifest.Entry> entries = manifest.getEntries();
+		assertEquals(1, entries.size());
+		CrashRecord record = CrashTestSupport.readLogFile(entries.get(0).getFile());
+		assertEquals(OutOfMemoryError.class.getName(), record.getCause());
+		assertEquals("oom", record.getThreadName());
+		assertTrue(record.getStackTrace().length > 0);
+		assertEquals(entries.get(0).getCrashId(), record.getCrashId());
+	}
+	
+	/**
+	 * A process killed after the log file is written but before the slot is deleted 
+	 * recovers the slot again, without a duplicate.
+	 */
+	@Test
+	public void testRecoveryIsIdempotent() throws Exception {
+		Process child = CrashTestSupport.fork(new String[] {OOM_HEAP}, CrashReserveTest.class, mCacheDir.getPath());
+		assertEquals(0, CrashTestSupport.waitFor(child));
+		
+		File dir = new File(mCacheDir, CrashConfig.LOG_DIR);
+		File[] slots = dir.listFiles(new FilenameFilter() {
+			
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(CrashConfig.RESERVE_FILE_PREFIX);
+			}
+			
+		});
+		assertEquals(1, slots.length);
+		byte[] slot = readFile(slots[0]);
+		long slotTime = slots[0].lastModified();
+		
+		CrashManifest manifest = new CrashManifest(dir);
+		manifest.load();
+		CrashReserve.recoverAll(dir, manifest);
+		assertFalse(slots[0].exists());
+		
+		FileOutputStream out = new FileOutputStream(slots[0]);
+		out.write(slot);
+		out.close();
+		slots[0].setLastModified(slotTime);
+		
+		CrashReserve.recoverAll(dir, manifest);
+		assertFalse(slots[0].exists());
+		assertEquals(1, manifest.getEntries().size());
+		assertEquals(1, dir.listFiles(CrashLogStore.LOG_FILE_FILTER).length);
+	}
+	
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+	
+	/**
+	 * The forked JVM: run out of memory on a thread after the SDK is prepared.
+	 */
+	public static void main(String[] args) throws Exception {
+		CrashReport report = CrashReport.init(new CrashTestSupport.TestApplication(new File(args[0])));
+		//Runs after prepare on the single worker.
+		report.flushAsync().get(10, TimeUnit.SECONDS);
+		
+		Thread thread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				mHog = new ArrayList<long[]>();
+				while(true) {
+					mHog.add(new long[64 * 1024]);
+				}
+			}
+			
+		}, "oom");
+		thread.start();
+		thread.join();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,161 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 
+ * Crash path latency of {@link CrashLogStore#saveLogToFile(android.app.Application, DeviceInfoSnapshot, 
+ * CrashDedupIndex, CrashManifest, Throwable, Thread)} for traces of about 64, 256 and 1024 frames, 
+ * with the reflection the crash path did before, <code>Class.forName</code> and 
+ * <code>getDeclaredMethods</code> of every frame, against the crash path now without it. 
+ * The signatures are now collected by {@link CrashSignatureCollector} when logs are reported, 
+ * its time per log is printed too.
+ * 
+ * Run as a Java application, prints median and p99 microseconds per crash with and without 
+ * the reflection and of the reflection alone, 
+ * and microseconds per log to collect signatures of a report.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashSignatureBenchmark {
+	private static final int[] DEPTHS = {64, 256, 1024};
+	private static final int CRASHES = 500;
+	private static final int REPORTED_LOGS = 16;
+	private static final String[] PACKAGES = {"org.crashlog.crashreport"};
+	
+	public static void main(String[] args) throws Exception {
+		for(int depth : DEPTHS) {
+			Throwable crash = createCrash(depth);
+			File cacheDir = CrashTestSupport.newCacheDir("signatures");
+			try {
+				CrashTestSupport.TestApplication app = new CrashTestSupport.TestApplication(cacheDir);
+				File dir = CrashLogStore.getLogDir(app);
+				dir.mkdirs();
+				CrashManifest manifest = new CrashManifest(dir);
+				manifest.load();
+				DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(app);
+				
+				//The reflection is timed apart from the save of the same crash, so both see the same file system.
+				long[] saveNanos = new long[CRASHES];
+				long[] reflectNanos = new long[CRASHES];
+				long[] beforeNanos = new long[CRASHES];
+				for(int i = -CRASHES; i < CRASHES; i++) { //Negative crashes warm up.
+					long start = System.nanoTime();
+					reflect(crash.getStackTrace(), app.getClassLoader());
+					long reflected = System.nanoTime();
+					CrashLogStore.saveLogToFile(app, info, null, manifest, crash, Thread.currentThread());
+					if(i >= 0) {
+						reflectNanos[i] = reflected - start;
+						saveNanos[i] = System.nanoTime() - reflected;
+						beforeNanos[i] = reflectNanos[i] + saveNanos[i];
+					}
+				}
+				StringBuilder line = new StringBuilder(String.format("%4d frames", crash.getStackTrace().length));
+				line.append(format("with reflection", beforeNanos));
+				line.append(format("without", saveNanos));
+				line.append(format("reflection alone", reflectNanos));
+				
+				List<CrashManifest.Entry> entries = manifest.getEntries();
+				List<File> logs = new ArrayList<File>();
+				for(int i = entries.size() - REPORTED_LOGS; i < entries.size(); i++) {
+					logs.add(entries.get(i).getFile());
+				}
+				long collectNanos = 0;
+				for(int round = -CRASHES / 10; round < CRASHES / 10; round++) { //Negative rounds warm up.
+					long start = System.nanoTime();
+					new CrashSignatureCollector(PACKAGES, app.getClassLoader()).collect(logs);
+					if(round >= 0) {
+						collectNanos += System.nanoTime() - start;
+					}
+				}
+				line.append(String.format("  collect at upload %7.1f us/log", 
+						collectNanos / 1e3 / (CRASHES / 10 * REPORTED_LOGS)));
+				System.out.println(line);
+			} finally {
+				CrashTestSupport.deleteDir(cacheDir);
+			}
+		}
+	}
+	
+	private static String format(String name, long[] nanos) {
+		Arrays.sort(nanos);
+		return String.format("  %s median %7.1f us p99 %7.1f us", name, 
+				nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+	}
+	
+	/**
+	 * The reflection the crash path did for every frame.
+	 */
+	private static int reflect(StackTraceElement[] elements, ClassLoader classLoader) {
+		int methods = 0;
+		for(StackTraceElement element : elements) {
+			try {
+				methods += Class.forName(element.getClassName(), true, classLoader).getDeclaredMethods().length;
+			} catch (ClassNotFoundException e) {
+				//Skipped
+			}
+		}
+		return methods;
+	}
+	
+	/**
+	 * A crash at the bottom of a recursion through two overloads of two classes, a frame per level.
+	 */
+	private static Throwable createCrash(int depth) {
+		try {
+			Outer.call(depth - new Throwable().getStackTrace().length - 3);
+		} catch (IllegalStateException e) {
+			return e;
+		}
+		throw new AssertionError();
+	}
+	
+	private static final class Outer {
+		static void call(int depth) {
+			if(depth <= 0) {
+				throw new IllegalStateException("deep");
+			}
+			Inner.call(depth - 1, "");
+		}
+		
+		static void call(int depth, String tag) {
+			call(depth - 1);
+		}
+	}
+	
+	private static final class Inner {
+		static void call(int depth, String tag) {
+			Outer.call(depth - 1, tag);
+		}
+		
+		static void call(int depth) {
+			Outer.call(depth - 1);
+		}
+	}
+}
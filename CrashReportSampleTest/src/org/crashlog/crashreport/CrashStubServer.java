@@ -0,0 +1,232 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.crashlog.server.CrashLogDecoder;
+import org.crashlog.server.CrashRecord;
+import org.crashlog.server.CrashReportHeader;
+import org.crashlog.server.CrashSignatures;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 
+ * A report endpoint at {@link CrashConfig#REPORT_URL} for the SDK tests. Records of a request 
+ * are kept only if it is answered with 200 OK, so a record kept twice was reported twice.
+ * It can fail every Nth request, reject batches with a given message or compressed batches, 
+ * and throttle the request body.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashStubServer {
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final List<CrashRecord> mRecords = new ArrayList<CrashRecord>();
+	private int mRequests;
+	private int mFailEvery;
+	private String mRejectMessage;
+	private long mBytesPerSecond;
+	private boolean mGzipSupported = true;
+	private final List<String> mEncodings = new ArrayList<String>();
+	private final List<CrashSignatures> mSignatures = new ArrayList<CrashSignatures>();
+	
+	CrashStubServer() throws IOException {
+		URL url = new URL(CrashConfig.REPORT_URL);
+		mServer = HttpServer.create(new InetSocketAddress(url.getHost(), url.getPort()), 0);
+		mServer.createContext(url.getPath(), mHandler);
+		mExecutor = Executors.newSingleThreadExecutor();
+		mServer.setExecutor(mExecutor);
+		mServer.start();
+	}
+	
+	void stop() {
+		mServer.stop(0);
+		mExecutor.shutdown();
+	}
+	
+	/**
+	 * Answer every Nth request with 503 Service Unavailable after reading it, 0 to never fail.
+	 */
+	synchronized void setFailEvery(int n) {
+		mFailEvery = n;
+	}
+	
+	/**
+	 * Answer a request with a record of this message with 400 Bad Request.
+	 */
+	synchronized void setRejectMessage(String message) {
+		mRejectMessage = message;
+	}
+	
+	/**
+	 * Read the request body at this rate, 0 for unthrottled.
+	 */
+	synchronized void setBytesPerSecond(long bytesPerSecond) {
+		mBytesPerSecond = bytesPerSecond;
+	}
+	
+	/**
+	 * Answer a gzip request with 415 Unsupported Media Type after reading it if not supported.
+	 */
+	synchronized void setGzipSupported(boolean supported) {
+		mGzipSupported = supported;
+	}
+	
+	synchronized int getRequests() {
+		return mRequests;
+	}
+	
+	/**
+	 * Content-Encoding of every request, null if not compressed, in the order they were received.
+	 */
+	synchronized List<String> getEncodings() {
+		return new ArrayList<String>(mEncodings);
+	}
+	
+	/**
+	 * Signatures blocks of the kept requests, null for a request without one.
+	 */
+	synchronized List<CrashSignatures> getSignatures() {
+		return new ArrayList<CrashSignatures>(mSignatures);
+	}
+	
+	synchronized List<CrashRecord> getRecords() {
+		return new ArrayList<CrashRecord>(mRecords);
+	}
+	
+	/**
+	 * Messages of the kept records, in the order they were received.
+	 */
+	synchronized List<String> getMessages() {
+		List<String> messages = new ArrayList<String>();
+		for(CrashRecord record : mRecords) {
+			messages.add(record.getMessage());
+		}
+		return messages;
+	}
+	
+	private HttpHandler mHandler = new HttpHandler() {
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				exchange.sendResponseHeaders(receive(exchange), -1);
+			} finally {
+				exchange.close();
+			}
+		}
+		
+	};
+	
+	private int receive(HttpExchange exchange) throws IOException {
+		byte[] body = read(exchange.getRequestBody());
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		boolean gzip = "gzip".equalsIgnoreCase(encoding);
+		int failEvery;
+		String rejectMessage;
+		synchronized (this) {
+			mRequests++;
+			mEncodings.add(encoding);
+			if(gzip && !mGzipSupported) {
+				return HttpURLConnection.HTTP_UNSUPPORTED_TYPE;
+			}
+			if(mFailEvery > 0 && mRequests % mFailEvery == 0) {
+				return HttpURLConnection.HTTP_UNAVAILABLE;
+			}
+			failEvery = mFailEvery;
+			rejectMessage = mRejectMessage;
+		}
+		
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(body));
+		if(gzip) {
+			in = new GZIPInputStream(in);
+		}
+		List<CrashRecord> records = new ArrayList<CrashRecord>();
+		CrashSignatures signatures;
+		try {
+			CrashLogDecoder decoder = new CrashLogDecoder(in);
+			CrashReportHeader header = decoder.readHeader();
+			for(int i = 0; i < header.getRecordCount(); i++) {
+				CrashRecord record = decoder.readRecord();
+				if(record.getMessage() != null && record.getMessage().equals(rejectMessage)) {
+					return HttpURLConnection.HTTP_BAD_REQUEST;
+				}
+				records.add(record);
+			}
+			signatures = decoder.readSignatures();
+		} catch (IOException e) {
+			return HttpURLConnection.HTTP_BAD_REQUEST;
+		}
+		synchronized (this) {
+			if(failEvery != mFailEvery) {
+				return HttpURLConnection.HTTP_UNAVAILABLE;
+			}
+			mRecords.addAll(records);
+			mSignatures.add(signatures);
+		}
+		return HttpURLConnection.HTTP_OK;
+	}
+	
+	private byte[] read(InputStream in) throws IOException {
+		long bytesPerSecond;
+		synchronized (this) {
+			bytesPerSecond = mBytesPerSecond;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		long start = System.nanoTime();
+		int n;
+		while((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+			if(bytesPerSecond > 0) {
+				long wait = start + out.size() * 1000000000L / bytesPerSecond - System.nanoTime();
+				if(wait > 0) {
+					try {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					} catch (InterruptedException e) {
+						throw new IOException(e.toString());
+					}
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,197 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.crashlog.server.CrashLogDecoder;
+import org.crashlog.server.CrashRecord;
+
+import android.app.Application;
+
+/**
+ * 
+ * Shared by the SDK tests: an APP whose external cache is a temporary directory, 
+ * forked test JVMs, decoding saved log files, and parked threads for thread dumps.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashTestSupport {
+	
+	private CrashTestSupport() { }
+	
+	/**
+	 * Always on an unmetered Wi-Fi network, so every log is reported.
+	 */
+	static final CrashConnectivityProvider UNMETERED_WIFI = new CrashConnectivityProvider() {
+		
+		@Override
+		public boolean isMetered() {
+			return false;
+		}
+		
+		@Override
+		public int getNetworkClass() {
+			return NETWORK_WIFI;
+		}
+	};
+	
+	/**
+	 * The APP of the tests, crash logs are stored in <code>cacheDir/crash_report</code>.
+	 */
+	static class TestApplication extends Application {
+		private final File mCacheDir;
+		
+		TestApplication(File cacheDir) {
+			mCacheDir = cacheDir;
+		}
+		
+		@Override
+		public File getExternalCacheDir() {
+			return mCacheDir;
+		}
+	}
+	
+	/**
+	 * An empty temporary directory, deleted on exit.
+	 */
+	static File newCacheDir(String name) throws IOException {
+		File dir = File.createTempFile("crashlog_" + name, "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+	
+	/**
+	 * Start a JVM running the main method of the class, with the class path of this JVM. 
+	 * Its standard error is merged into the output, which should be read or passed to {@link #waitFor(Process)}.
+	 * 
+	 * @param jvmArgs Such as <code>-Xmx32m</code>, may be empty.
+	 */
+	static Process fork(String[] jvmArgs, Class<?> main, String... args) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		for(String arg : jvmArgs) {
+			command.add(arg);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(main.getName());
+		for(String arg : args) {
+			command.add(arg);
+		}
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		return builder.start();
+	}
+	
+	/**
+	 * Copy the output of the forked JVM to this one until it exits.
+	 * 
+	 * @return The exit code.
+	 */
+	static int waitFor(Process process) throws IOException, InterruptedException {
+		InputStream in = process.getInputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while((n = in.read(buffer)) > 0) {
+			System.out.write(buffer, 0, n);
+		}
+		System.out.flush();
+		return process.waitFor();
+	}
+	
+	/**
+	 * Decode the record in a log file.
+	 */
+	static CrashRecord readLogFile(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return new CrashLogDecoder(in).readRecord();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Delete the directory and its files.
+	 */
+	static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				if(file.isDirectory()) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+	
+	/**
+	 * Threads waiting on the latch at the bottom of a recursion of the given depth.
+	 */
+	static Thread[] startParkedThreads(int count, final int depth, final CountDownLatch release) 
+			throws InterruptedException {
+		final CountDownLatch parked = new CountDownLatch(count);
+		Thread[] threads = new Thread[count];
+		for(int i = 0; i < count; i++) {
+			threads[i] = new Thread("parked-" + i) {
+				
+				@Override
+				public void run() {
+					park(depth);
+				}
+				
+				private void park(int remaining) {
+					if(remaining > 0) {
+						park(remaining - 1);
+						return;
+					}
+					parked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						//Exit
+					}
+				}
+			};
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		parked.await();
+		return threads;
+	}
+}
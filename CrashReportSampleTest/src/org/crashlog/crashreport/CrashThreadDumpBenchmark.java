@@ -0,0 +1,133 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.crashreport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 
+ * Thread dump of a crash record with {@link #PARKED_THREADS} live threads parked 8 to 128 frames deep: 
+ * {@link CrashLogStore#writeThreads(CrashRecordEncoder, Thread)} capped at 
+ * {@link CrashConfig#THREAD_DUMP_MAX_THREADS} threads of {@link CrashConfig#THREAD_DUMP_MAX_DEPTH} frames, 
+ * against every thread at full depth into a buffer large enough for it, and 
+ * <code>Thread.getAllStackTraces()</code> alone, which both start with.
+ * 
+ * Run as a Java application, prints median and p99 microseconds per capture and the record size of each.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashThreadDumpBenchmark {
+	private static final int PARKED_THREADS = 200;
+	private static final int[] DEPTHS = {8, 24, 64, 128};
+	private static final int CAPTURES = 1000;
+	private static final int UNCAPPED_BUFFER_SIZE = 4 * 1024 * 1024;
+	private static final String[] NAMES = {"getAllStackTraces", "capped", "uncapped"};
+	
+	public static void main(String[] args) throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		for(int depth : DEPTHS) {
+			CrashTestSupport.startParkedThreads(PARKED_THREADS / DEPTHS.length, depth, release);
+		}
+		try {
+			Thread thread = Thread.currentThread();
+			StackTraceElement[] elements = thread.getStackTrace();
+			CrashRecordEncoder capped = new CrashRecordEncoder(CrashConfig.RECORD_BUFFER_SIZE);
+			capped.setOutput(new NullChannel());
+			CrashRecordEncoder uncapped = new CrashRecordEncoder(UNCAPPED_BUFFER_SIZE);
+			uncapped.setOutput(new NullChannel());
+			System.out.printf("%d live threads%n", Thread.activeCount());
+			
+			for(int path = 0; path < NAMES.length; path++) {
+				CrashRecordEncoder encoder = path == 1 ? capped : uncapped;
+				long[] nanos = new long[CAPTURES];
+				long length = 0;
+				for(int i = -CAPTURES; i < CAPTURES; i++) { //Negative captures warm up.
+					encoder.beginRecord();
+					encoder.writeStackTrace(elements);
+					long start = System.nanoTime();
+					if(path == 0) {
+						Thread.getAllStackTraces();
+					} else if(path == 1) {
+						CrashLogStore.writeThreads(encoder, thread);
+					} else {
+						writeAllThreads(encoder, thread);
+					}
+					long end = System.nanoTime();
+					encoder.endRecord();
+					length = encoder.getRecordLength();
+					encoder.flush();
+					if(i >= 0) {
+						nanos[i] = end - start;
+					}
+				}
+				Arrays.sort(nanos);
+				System.out.printf("%-17s median %8.1f us  p99 %8.1f us  record %7d bytes%n", NAMES[path], 
+						nanos[CAPTURES / 2] / 1e3, nanos[CAPTURES * 99 / 100] / 1e3, length);
+			}
+		} finally {
+			release.countDown();
+		}
+	}
+	
+	/**
+	 * Every other thread at full depth.
+	 */
+	private static void writeAllThreads(CrashRecordEncoder encoder, Thread crashThread) throws IOException {
+		encoder.beginSection(CrashRecordEncoder.SECTION_THREADS);
+		for(Map.Entry<Thread, StackTraceElement[]> trace : Thread.getAllStackTraces().entrySet()) {
+			if(trace.getKey() != crashThread) {
+				encoder.writeThread(trace.getKey(), trace.getValue(), trace.getValue().length);
+				encoder.mark();
+			}
+		}
+		encoder.endSection();
+	}
+	
+	/**
+	 * Discards the bytes drained to it.
+	 */
+	private static final class NullChannel implements WritableByteChannel {
+		
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
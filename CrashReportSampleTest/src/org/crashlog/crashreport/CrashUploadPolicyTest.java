@@ -0,0 +1,239 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * The throughput estimate of each network class follows the requests sent and sizes batches 
+ * and chooses the compression level. On a metered network crashes already reported are deferred, 
+ * also after the uploader process restarts or another process takes over.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashUploadPolicyTest {
+	private static final int WIFI = CrashConnectivityProvider.NETWORK_WIFI;
+	private static final long KB = 1024;
+	private static final long SECOND = 1000000000L;
+	
+	private File mDir;
+	private File mReportedFile;
+	private CrashManifest mManifest;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = CrashTestSupport.newCacheDir("policy");
+		mReportedFile = new File(mDir, CrashConfig.REPORTED_CRASHES_FILE_NAME);
+		mManifest = new CrashManifest(mDir);
+		mManifest.load();
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mDir);
+	}
+	
+	private List<String> selectNewCrashes(CrashUploadPolicy policy) {
+		List<String> crashIds = new ArrayList<String>();
+		for(CrashManifest.Entry log : policy.selectNewCrashes(mManifest.getEntries())) {
+			crashIds.add(log.getCrashId());
+		}
+		return crashIds;
+	}
+	
+	@Test
+	public void testReportedCrashesSurviveRestart() throws Exception {
+		for(String crashId : new String[] {"a", "b", "a", "c"}) {
+			mManifest.add(new File(mDir, "log_" + mManifest.getEntries().size()), 100, crashId, 0);
+		}
+		
+		CrashUploadPolicy uploader = new CrashUploadPolicy(mReportedFile);
+		uploader.loadReported();
+		assertEquals(Arrays.asList("a", "b", "c"), selectNewCrashes(uploader));
+		uploader.onReported(Arrays.asList("a", null, "c"));
+		assertEquals(Arrays.asList("b"), selectNewCrashes(uploader));
+		
+		//The next uploader process.
+		CrashUploadPolicy next = new CrashUploadPolicy(mReportedFile);
+		assertEquals(Arrays.asList("a", "b", "c"), selectNewCrashes(next));
+		next.loadReported();
+		assertEquals(Arrays.asList("b"), selectNewCrashes(next));
+		
+		//Reported by the next uploader, then by this one again.
+		next.onReported(Arrays.asList("b"));
+		uploader.loadReported();
+		assertEquals(new ArrayList<String>(), selectNewCrashes(uploader));
+	}
+	
+	@Test
+	public void testLatestReportedKept() throws Exception {
+		int extra = 10;
+		List<String> crashIds = new ArrayList<String>();
+		for(int i = 0; i < CrashConfig.DEDUP_INDEX_SIZE + extra; i++) {
+			crashIds.add("crash" + i);
+		}
+		new CrashUploadPolicy(mReportedFile).onReported(crashIds);
+		
+		for(int i = 0; i < crashIds.size(); i++) {
+			mManifest.add(new File(mDir, "log_" + i), 100, crashIds.get(i), 0);
+		}
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		policy.loadReported();
+		assertEquals(crashIds.subList(0, extra), selectNewCrashes(policy));
+	}
+	
+	@Test
+	public void testEstimateWeightedBySize() throws Exception {
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		assertEquals(1024 * KB, policy.getThroughput(WIFI));
+		
+		//64 KB at 32 KB/s moves the estimate half way.
+		policy.onSent(WIFI, 64 * KB, 2 * SECOND);
+		assertEquals((1024 * KB + 32 * KB) / 2, policy.getThroughput(WIFI));
+		
+		//A small request is dominated by latency, 6.4 KB moves the estimate by 1/20.
+		long before = policy.getThroughput(WIFI);
+		policy.onSent(WIFI, 64 * KB / 10, SECOND);
+		assertEquals(before * 0.95 + 6.4 * KB * 0.05, policy.getThroughput(WIFI), 4);
+		
+		//Nothing sent, or not connected, is no sample.
+		before = policy.getThroughput(WIFI);
+		policy.onSent(WIFI, 0, SECOND);
+		policy.onSent(WIFI, 64 * KB, 0);
+		policy.onSent(CrashConnectivityProvider.NETWORK_NONE, 64 * KB, SECOND);
+		assertEquals(before, policy.getThroughput(WIFI));
+		assertEquals(0, policy.getThroughput(CrashConnectivityProvider.NETWORK_NONE));
+		
+		//Other network classes keep their estimates.
+		assertEquals(512 * KB, policy.getThroughput(CrashConnectivityProvider.NETWORK_4G));
+	}
+	
+	@Test
+	public void testEstimateConverges() throws Exception {
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		for(int i = 0; i < 20; i++) {
+			policy.onSent(WIFI, 128 * KB, 4 * SECOND);
+		}
+		assertEquals(32 * KB, policy.getThroughput(WIFI), KB);
+		for(int i = 0; i < 20; i++) {
+			policy.onSent(WIFI, 4096 * KB, SECOND);
+		}
+		assertEquals(4096 * KB, policy.getThroughput(WIFI), KB);
+	}
+	
+	@Test
+	public void testBatchBytesClamped() throws Exception {
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		assertEquals(CrashConfig.REPORT_BATCH_MAX_BYTES, policy.getBatchBytes(WIFI));
+		assertEquals(8 * KB * CrashConfig.REPORT_TARGET_TIME / 1000, 
+				policy.getBatchBytes(CrashConnectivityProvider.NETWORK_2G));
+		for(int i = 0; i < 40; i++) {
+			policy.onSent(CrashConnectivityProvider.NETWORK_2G, 64 * KB, 100 * SECOND);
+		}
+		assertTrue(policy.getThroughput(CrashConnectivityProvider.NETWORK_2G) 
+				* CrashConfig.REPORT_TARGET_TIME / 1000 < CrashConfig.REPORT_BATCH_MIN_BYTES);
+		assertEquals(CrashConfig.REPORT_BATCH_MIN_BYTES, policy.getBatchBytes(CrashConnectivityProvider.NETWORK_2G));
+	}
+	
+	@Test
+	public void testCompressionLevelByThroughput() throws Exception {
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		assertEquals(Deflater.BEST_SPEED, policy.getCompressionLevel(WIFI));
+		assertEquals(6, policy.getCompressionLevel(CrashConnectivityProvider.NETWORK_4G));
+		assertEquals(Deflater.BEST_COMPRESSION, policy.getCompressionLevel(CrashConnectivityProvider.NETWORK_3G));
+		assertEquals(Deflater.BEST_COMPRESSION, policy.getCompressionLevel(CrashConnectivityProvider.NETWORK_OTHER));
+		
+		//Across the thresholds of 128 KB/s and 1 MB/s, and back.
+		int network = CrashConnectivityProvider.NETWORK_3G;
+		policy.onSent(network, 64 * KB, SECOND / 4);
+		assertEquals((64 * KB + 256 * KB) / 2, policy.getThroughput(network), 1);
+		assertEquals(6, policy.getCompressionLevel(network));
+		policy.onSent(network, 64 * KB, SECOND / 32);
+		assertEquals((160 * KB + 2048 * KB) / 2, policy.getThroughput(network), 1);
+		assertEquals(Deflater.BEST_SPEED, policy.getCompressionLevel(network));
+		policy.onSent(network, 64 * KB, SECOND * 2);
+		assertEquals((1104 * KB + 32 * KB) / 2, policy.getThroughput(network), 1);
+		assertEquals(6, policy.getCompressionLevel(network));
+		policy.onSent(network, 64 * KB, SECOND * 2);
+		assertEquals((568 * KB + 32 * KB) / 2, policy.getThroughput(network), 1);
+		assertEquals(6, policy.getCompressionLevel(network));
+		policy.onSent(network, 64 * KB, SECOND * 2);
+		policy.onSent(network, 64 * KB, SECOND * 2);
+		assertTrue(policy.getThroughput(network) < 128 * KB);
+		assertEquals(Deflater.BEST_COMPRESSION, policy.getCompressionLevel(network));
+	}
+	
+	/**
+	 * A provider of the APP may return a class the SDK does not know, it is estimated as other.
+	 */
+	@Test
+	public void testUnknownNetworkClass() throws Exception {
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		for(int network : new int[] {-1, 6, Integer.MAX_VALUE}) {
+			policy.onSent(network, 64 * KB, SECOND);
+			assertEquals(policy.getThroughput(CrashConnectivityProvider.NETWORK_OTHER), policy.getThroughput(network));
+			assertEquals(policy.getBatchBytes(CrashConnectivityProvider.NETWORK_OTHER), policy.getBatchBytes(network));
+			assertEquals(policy.getCompressionLevel(CrashConnectivityProvider.NETWORK_OTHER), policy.getCompressionLevel(network));
+		}
+		//Three samples of 64 KB/s from 32 KB/s.
+		assertEquals(60 * KB, policy.getThroughput(CrashConnectivityProvider.NETWORK_OTHER), 1);
+	}
+	
+	/**
+	 * One small log of each crash id not reported yet, in the order saved.
+	 */
+	@Test
+	public void testSelectNewCrashes() throws Exception {
+		long small = CrashConfig.REPORT_NEW_CRASH_MAX_BYTES;
+		mManifest.add(new File(mDir, "log_0"), small + 1, "large", 0);
+		mManifest.add(new File(mDir, "log_1"), 100, null, 0);
+		mManifest.add(new File(mDir, "log_2"), small, "b", 0);
+		mManifest.add(new File(mDir, "log_3"), 100, "large", 0);
+		mManifest.add(new File(mDir, "log_4"), 100, "b", 0);
+		mManifest.add(new File(mDir, "log_5"), 100, "a", 0);
+		
+		CrashUploadPolicy policy = new CrashUploadPolicy(mReportedFile);
+		List<CrashManifest.Entry> selected = policy.selectNewCrashes(mManifest.getEntries());
+		assertEquals(3, selected.size());
+		assertEquals("log_2", selected.get(0).getFile().getName());
+		assertEquals("log_3", selected.get(1).getFile().getName());
+		assertEquals("log_5", selected.get(2).getFile().getName());
+		
+		policy.onReported(Arrays.asList("b"));
+		assertEquals(Arrays.asList("large", "a"), selectNewCrashes(policy));
+	}
+}
@@ -0,0 +1,208 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Retry backoff and jitter on a fake clock and a seeded random: delays grow exponentially 
+ * up to the cap, the retry state survives a restart and is cleared by a successful attempt, 
+ * and processes sharing the state never write back a stale one.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashUploadSchedulerTest {
+	private static final long SEED = 12345;
+	private static final long START_TIME = 1000000L;
+	
+	private File mCacheDir;
+	private File mStateFile;
+	private long mNow;
+	private boolean mFailing;
+	private int mRuns;
+	
+	private CrashUploadScheduler.Clock mClock = new CrashUploadScheduler.Clock() {
+		
+		@Override
+		public long now() {
+			return mNow;
+		}
+	};
+	
+	private CrashUploadScheduler.Task mTask = new CrashUploadScheduler.Task() {
+		
+		@Override
+		public boolean run() throws IOException {
+			mRuns++;
+			if(mFailing) {
+				throw new IOException("Host unreachable.");
+			}
+			return true;
+		}
+	};
+	
+	//Scheduled attempts are never run, the test attempts by flush() only.
+	private Executor mExecutor = new Executor() {
+		
+		@Override
+		public void execute(Runnable command) {
+		}
+	};
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("scheduler");
+		mStateFile = new File(mCacheDir, CrashConfig.UPLOAD_STATE_FILE_NAME);
+		mNow = START_TIME;
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	private CrashUploadScheduler newScheduler(Random random) {
+		return new CrashUploadScheduler(mStateFile, mTask, mExecutor, mClock, random);
+	}
+	
+	private void flushFailing(CrashUploadScheduler scheduler) {
+		try {
+			scheduler.flush();
+			fail("The attempt should fail.");
+		} catch (IOException e) {
+			//Expected
+		}
+	}
+	
+	/**
+	 * The backoff after the given failed attempts, before jitter.
+	 */
+	private static long backoff(int attempts) {
+		if(attempts >= 32) {
+			return CrashConfig.RETRY_MAX_DELAY;
+		}
+		return Math.min(CrashConfig.RETRY_MAX_DELAY, CrashConfig.RETRY_BASE_DELAY << (attempts - 1));
+	}
+	
+	@Test
+	public void testBackoffWithJitter() throws Exception {
+		CrashUploadScheduler scheduler = newScheduler(new Random(SEED));
+		Random expected = new Random(SEED);
+		mFailing = true;
+		for(int attempts = 1; attempts <= 40; attempts++) {
+			mNow += 1000;
+			flushFailing(scheduler);
+			
+			long backoff = backoff(attempts);
+			long delay = backoff / 2 + (long) (expected.nextDouble() * (backoff / 2));
+			assertEquals(attempts, scheduler.getAttempts());
+			assertEquals(mNow + delay, scheduler.getNextTime());
+			assertTrue(delay >= backoff / 2 && delay <= backoff);
+		}
+		assertEquals(CrashConfig.RETRY_MAX_DELAY, backoff(40));
+		assertEquals(40, mRuns);
+	}
+	
+	@Test
+	public void testStateSurvivesRestart() throws Exception {
+		CrashUploadScheduler scheduler = newScheduler(new Random(SEED));
+		mFailing = true;
+		for(int i = 0; i < 3; i++) {
+			flushFailing(scheduler);
+		}
+		long nextTime = scheduler.getNextTime();
+		
+		CrashUploadScheduler restarted = newScheduler(new Random(SEED));
+		assertEquals(3, restarted.getAttempts());
+		assertEquals(nextTime, restarted.getNextTime());
+		
+		//The next failure continues the backoff of the previous process.
+		mNow += 60 * 1000L;
+		flushFailing(restarted);
+		assertEquals(4, restarted.getAttempts());
+		assertTrue(restarted.getNextTime() - mNow >= backoff(4) / 2);
+	}
+	
+	@Test
+	public void testSuccessResetsBackoff() throws Exception {
+		CrashUploadScheduler scheduler = newScheduler(new Random(SEED));
+		mFailing = true;
+		flushFailing(scheduler);
+		flushFailing(scheduler);
+		
+		mFailing = false;
+		assertTrue(scheduler.flush());
+		assertEquals(0, scheduler.getAttempts());
+		assertEquals(0, scheduler.getNextTime());
+		
+		CrashUploadScheduler restarted = newScheduler(new Random(SEED));
+		assertEquals(0, restarted.getAttempts());
+		assertEquals(0, restarted.getNextTime());
+	}
+	
+	/**
+	 * Two schedulers on one state file, as in two processes, each created before the other failed.
+	 */
+	@Test
+	public void testProcessesShareState() throws Exception {
+		CrashUploadScheduler main = newScheduler(new Random(SEED));
+		CrashUploadScheduler remote = newScheduler(new Random(SEED));
+		mFailing = true;
+		flushFailing(main);
+		flushFailing(main);
+		
+		//Continues the backoff of the other process instead of writing back its own.
+		flushFailing(remote);
+		assertEquals(3, remote.getAttempts());
+		assertEquals(3, newScheduler(new Random(SEED)).getAttempts());
+		
+		mFailing = false;
+		assertTrue(remote.flush());
+		CrashUploadScheduler restarted = newScheduler(new Random(SEED));
+		mFailing = true;
+		flushFailing(main);
+		assertEquals(1, main.getAttempts());
+		assertEquals(1, newScheduler(new Random(SEED)).getAttempts());
+		
+		//A success clears the backoff of the other process, though this one had none in memory.
+		flushFailing(main);
+		mFailing = false;
+		assertTrue(restarted.flush());
+		assertEquals(0, newScheduler(new Random(SEED)).getAttempts());
+		assertEquals(0, newScheduler(new Random(SEED)).getNextTime());
+	}
+}
@@ -0,0 +1,219 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * The lease is held by one owner until it expires, a truncated lease file is taken over, 
+ * and processes reporting the same log files deliver every log exactly once.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashUploaderLeaseTest {
+	private static final long DURATION = 60 * 1000L;
+	private static final long NOW = 1400000000000L;
+	private static final int PROCESSES = 4;
+	private static final int LOGS_PER_PROCESS = 40;
+	private static final long REPORT_TIMEOUT = 60 * 1000L;
+	
+	private File mCacheDir;
+	private File mLeaseFile;
+	
+	@Before
+	public void setUp() throws Exception {
+		mCacheDir = CrashTestSupport.newCacheDir("lease");
+		mLeaseFile = new File(mCacheDir, CrashConfig.UPLOADER_LEASE_FILE_NAME);
+	}
+	
+	@After
+	public void tearDown() {
+		CrashTestSupport.deleteDir(mCacheDir);
+	}
+	
+	@Test
+	public void testOwnerKeepsLeaseUntilExpiry() throws Exception {
+		CrashUploaderLease main = new CrashUploaderLease(mLeaseFile, "main", DURATION);
+		CrashUploaderLease remote = new CrashUploaderLease(mLeaseFile, "main:remote", DURATION);
+		assertTrue(main.acquire(NOW));
+		main.release();
+		
+		assertFalse(remote.acquire(NOW + DURATION - 1));
+		assertTrue(main.acquire(NOW + DURATION - 1));
+		main.release();
+		assertTrue(remote.acquire(NOW + 2 * DURATION));
+		remote.release();
+		assertFalse(main.acquire(NOW + 2 * DURATION));
+	}
+	
+	/**
+	 * A process killed while writing the lease leaves it truncated, anywhere in the owner or the expiry.
+	 */
+	@Test
+	public void testTruncatedLeaseIsTakenOver() throws Exception {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(mLeaseFile));
+		try {
+			out.writeUTF("main:remote");
+			out.writeLong(NOW + DURATION);
+		} finally {
+			out.close();
+		}
+		long length = mLeaseFile.length();
+		
+		CrashUploaderLease main = new CrashUploaderLease(mLeaseFile, "main", DURATION);
+		for(long truncated = length - 1; truncated > 0; truncated--) {
+			RandomAccessFile file = new RandomAccessFile(mLeaseFile, "rw");
+			try {
+				file.setLength(truncated);
+			} finally {
+				file.close();
+			}
+			assertTrue("truncated to " + truncated, main.acquire(NOW));
+			main.release();
+			
+			//The lease is rewritten whole, and held.
+			CrashUploaderLease remote = new CrashUploaderLease(mLeaseFile, "main:remote", DURATION);
+			assertFalse(remote.acquire(NOW));
+			truncateTo(length);
+		}
+	}
+	
+	/**
+	 * Restore a lease of main:remote of full length, to be truncated again.
+	 */
+	private void truncateTo(long length) throws Exception {
+		CrashUploaderLease remote = new CrashUploaderLease(mLeaseFile, "main:remote", DURATION);
+		assertTrue(remote.acquire(NOW + 2 * DURATION));
+		remote.release();
+		assertEquals(length, mLeaseFile.length());
+	}
+	
+	/**
+	 * Reporter JVMs share the log files storage, each saves its own logs and reports until 
+	 * no log is left, while the stub server fails every third request. 
+	 * Fewer logs are saved than the quota keeps, so none is evicted.
+	 */
+	@Test
+	public void testProcessesReportEachLogOnce() throws Exception {
+		CrashStubServer server = new CrashStubServer();
+		try {
+			server.setFailEvery(3);
+			List<Process> processes = new ArrayList<Process>();
+			List<String> expected = new ArrayList<String>();
+			for(int i = 0; i < PROCESSES; i++) {
+				String prefix = "process" + i + "-";
+				processes.add(CrashTestSupport.fork(new String[0], CrashUploaderLeaseTest.class, 
+						mCacheDir.getPath(), prefix));
+				for(int j = 0; j < LOGS_PER_PROCESS; j++) {
+					expected.add(prefix + j);
+				}
+			}
+			for(Process process : processes) {
+				assertEquals(0, CrashTestSupport.waitFor(process));
+			}
+			
+			List<String> delivered = server.getMessages();
+			Collections.sort(expected);
+			Collections.sort(delivered);
+			assertEquals(expected, delivered);
+			
+			CrashTestSupport.TestApplication app = new CrashTestSupport.TestApplication(mCacheDir);
+			String[] logs = CrashLogStore.getLogDir(app).list(CrashLogStore.LOG_FILE_FILTER);
+			assertEquals(0, logs.length);
+		} finally {
+			server.stop();
+		}
+	}
+	
+	/**
+	 * The forked reporter: save logs with the message prefix, then report until no log is left.
+	 * 
+	 * @param args cacheDir prefix
+	 */
+	public static void main(String[] args) throws Exception {
+		CrashTestSupport.TestApplication app = new CrashTestSupport.TestApplication(new File(args[0]));
+		DeviceInfoSnapshot info = DeviceInfoSnapshot.capture(app);
+		File dir = CrashLogStore.getLogDir(app);
+		dir.mkdirs();
+		CrashManifest manifest = new CrashManifest(dir);
+		manifest.load();
+		CrashDedupIndex index = CrashDedupIndex.load(manifest);
+		ExecutorService worker = Executors.newSingleThreadExecutor();
+		final CrashLogSender sender = new CrashLogSender(app, info, null, index, manifest, null, 
+				CrashTestSupport.UNMETERED_WIFI, worker);
+		
+		for(int i = 0; i < LOGS_PER_PROCESS; i++) {
+			CrashLogStore.saveLogToFile(app, info, index, manifest, 
+					new IllegalStateException(args[1] + i), Thread.currentThread());
+		}
+		worker.submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				sender.start();
+			}
+		}).get();
+		
+		long deadline = System.currentTimeMillis() + REPORT_TIMEOUT;
+		while(!manifest.getEntries().isEmpty()) {
+			if(System.currentTimeMillis() > deadline) {
+				System.out.println("Logs left: " + manifest.getEntries().size());
+				System.exit(1);
+			}
+			try {
+				worker.submit(new Callable<Boolean>() {
+					
+					@Override
+					public Boolean call() throws Exception {
+						return sender.flush();
+					}
+				}).get();
+			} catch (ExecutionException e) {
+				//Failed by the stub server, try again.
+			}
+			Thread.sleep(20);
+		}
+		System.exit(0);
+	}
+}
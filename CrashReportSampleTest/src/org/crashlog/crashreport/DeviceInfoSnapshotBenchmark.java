@@ -0,0 +1,110 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.crashreport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+/**
+ * 
+ * Crash path latency of {@link CrashLogStore#saveLogToFile(android.app.Application, DeviceInfoSnapshot, 
+ * CrashDedupIndex, CrashManifest, Throwable, Thread)}, with the device info captured at each crash 
+ * as before the snapshot, against the snapshot captured once at init. The package manager of the JVM stubs 
+ * answers at once, so its binder call is given a latency of 0, 100 and 1000 microseconds.
+ * 
+ * Run as a Java application, prints median and p99 microseconds per crash of each.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class DeviceInfoSnapshotBenchmark {
+	private static final long[] BINDER_MICROS = {0, 100, 1000};
+	private static final int CRASHES = 2000;
+	private static final String[] NAMES = {"capture at crash", "captured at init"};
+	
+	/**
+	 * An APP whose package manager takes the latency of a binder call.
+	 */
+	private static final class BinderApplication extends CrashTestSupport.TestApplication {
+		private final long mBinderNanos;
+		
+		BinderApplication(File cacheDir, long binderNanos) {
+			super(cacheDir);
+			mBinderNanos = binderNanos;
+		}
+		
+		@Override
+		public PackageManager getPackageManager() {
+			return new PackageManager() {
+				
+				@Override
+				public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+					long start = System.nanoTime();
+					while(System.nanoTime() - start < mBinderNanos) {
+						//Waiting for the system server
+					}
+					return super.getPackageInfo(packageName, flags);
+				}
+			};
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		Throwable crash = new IllegalStateException("crash");
+		for(long binderMicros : BINDER_MICROS) {
+			File cacheDir = CrashTestSupport.newCacheDir("snapshot");
+			try {
+				BinderApplication app = new BinderApplication(cacheDir, binderMicros * 1000);
+				File dir = CrashLogStore.getLogDir(app);
+				dir.mkdirs();
+				CrashManifest manifest = new CrashManifest(dir);
+				manifest.load();
+				DeviceInfoSnapshot snapshot = DeviceInfoSnapshot.capture(app);
+				
+				StringBuilder line = new StringBuilder(String.format("binder %4d us", binderMicros));
+				for(int path = 0; path < NAMES.length; path++) {
+					long[] nanos = new long[CRASHES];
+					for(int i = -CRASHES; i < CRASHES; i++) { //Negative crashes warm up.
+						long start = System.nanoTime();
+						DeviceInfoSnapshot info = path == 0 ? DeviceInfoSnapshot.capture(app) : snapshot;
+						CrashLogStore.saveLogToFile(app, info, null, manifest, crash, Thread.currentThread());
+						if(i >= 0) {
+							nanos[i] = System.nanoTime() - start;
+						}
+					}
+					Arrays.sort(nanos);
+					line.append(String.format("  %s median %6.1f us p99 %7.1f us", NAMES[path], 
+							nanos[CRASHES / 2] / 1e3, nanos[CRASHES * 99 / 100] / 1e3));
+				}
+				System.out.println(line);
+			} finally {
+				CrashTestSupport.deleteDir(cacheDir);
+			}
+		}
+	}
+}
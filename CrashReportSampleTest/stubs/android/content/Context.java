@@ -0,0 +1,73 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package android.content;
+
+import java.io.File;
+
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.telephony.TelephonyManager;
+
+/**
+ * JVM stand-in for the Android class, only what the SDK uses. 
+ * Broadcast receivers are never called.
+ */
+public abstract class Context {
+	public static final String ACTIVITY_SERVICE = "activity";
+	public static final String CONNECTIVITY_SERVICE = "connectivity";
+	public static final String TELEPHONY_SERVICE = "phone";
+	
+	public Context getApplicationContext() {
+		return this;
+	}
+	
+	public Object getSystemService(String name) {
+		if(CONNECTIVITY_SERVICE.equals(name)) {
+			return new ConnectivityManager();
+		}
+		if(TELEPHONY_SERVICE.equals(name)) {
+			return new TelephonyManager();
+		}
+		return null;
+	}
+	
+	public File getExternalCacheDir() {
+		return null;
+	}
+	
+	public String getPackageName() {
+		return "org.crashlog.sample";
+	}
+	
+	public PackageManager getPackageManager() {
+		return new PackageManager();
+	}
+	
+	public ClassLoader getClassLoader() {
+		return getClass().getClassLoader();
+	}
+	
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+		return null;
+	}
+}
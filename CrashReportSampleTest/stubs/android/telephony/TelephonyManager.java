@@ -0,0 +1,49 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package android.telephony;
+
+/**
+ * JVM stand-in for the Android class, only what the SDK uses.
+ */
+public class TelephonyManager {
+	public static final int NETWORK_TYPE_UNKNOWN = 0;
+	public static final int NETWORK_TYPE_GPRS = 1;
+	public static final int NETWORK_TYPE_EDGE = 2;
+	public static final int NETWORK_TYPE_UMTS = 3;
+	public static final int NETWORK_TYPE_CDMA = 4;
+	public static final int NETWORK_TYPE_EVDO_0 = 5;
+	public static final int NETWORK_TYPE_EVDO_A = 6;
+	public static final int NETWORK_TYPE_1xRTT = 7;
+	public static final int NETWORK_TYPE_HSDPA = 8;
+	public static final int NETWORK_TYPE_HSUPA = 9;
+	public static final int NETWORK_TYPE_HSPA = 10;
+	public static final int NETWORK_TYPE_IDEN = 11;
+	public static final int NETWORK_TYPE_EVDO_B = 12;
+	public static final int NETWORK_TYPE_LTE = 13;
+	public static final int NETWORK_TYPE_EHRPD = 14;
+	public static final int NETWORK_TYPE_HSPAP = 15;
+	
+	public int getNetworkType() {
+		return NETWORK_TYPE_UNKNOWN;
+	}
+}
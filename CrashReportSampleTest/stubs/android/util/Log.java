@@ -0,0 +1,51 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package android.util;
+
+/**
+ * JVM stand-in for the Android class, only what the SDK uses.
+ */
+public final class Log {
+	private static final boolean VERBOSE = Boolean.getBoolean("crashlog.log");
+	
+	private Log() { }
+	
+	public static int d(String tag, String msg) {
+		return d(tag, msg, null);
+	}
+	
+	public static int d(String tag, String msg, Throwable tr) {
+		return println("D", tag, msg, tr);
+	}
+	
+	public static int i(String tag, String msg, Throwable tr) {
+		return println("I", tag, msg, tr);
+	}
+	
+	private static int println(String priority, String tag, String msg, Throwable tr) {
+		if(VERBOSE) {
+			System.out.println(priority + "/" + tag + ": " + msg + (tr != null ? " " + tr : ""));
+		}
+		return 0;
+	}
+}
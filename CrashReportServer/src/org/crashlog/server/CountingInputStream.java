@@ -0,0 +1,106 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 
+ * Counts bytes read, for checking lengths of record sections, 
+ * and fails reading beyond the limit.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+class CountingInputStream extends FilterInputStream {
+	private final long mLimit;
+	private long mCount;
+	
+	/**
+	 * @param limit Maximum number of bytes to read.
+	 */
+	public CountingInputStream(InputStream in, long limit) {
+		super(in);
+		mLimit = limit;
+	}
+	
+	public long getCount() {
+		return mCount;
+	}
+	
+	/**
+	 * Number of bytes that can be read at most.
+	 */
+	public long getRemaining() {
+		return mLimit - mCount;
+	}
+	
+	/**
+	 * Called when the limit is reached, the end of input is still read normally.
+	 */
+	private void checkLimit() throws IOException {
+		if(in.read() >= 0) {
+			throw new IOException("Input exceeds " + mLimit + " bytes.");
+		}
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if(mCount >= mLimit) {
+			checkLimit();
+			return -1;
+		}
+		int b = in.read();
+		if(b >= 0) {
+			mCount++;
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len > 0 && mCount >= mLimit) {
+			checkLimit();
+			return -1;
+		}
+		int n = in.read(b, off, (int) Math.min(len, mLimit - mCount));
+		if(n > 0) {
+			mCount += n;
+		}
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, mLimit - mCount));
+		mCount += skipped;
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
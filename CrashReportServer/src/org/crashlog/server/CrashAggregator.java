@@ -0,0 +1,160 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 
+ * Aggregates received crashes in memory, counted by crash id, APP version, 
+ * device model and SDK level, in total and in a rolling time window. 
+ * Counters are lock-free and the maps are concurrent, so ingestion threads 
+ * do not contend unless they count the same key. 
+ * A record counts as many occurrences as the SDK deduplicated into it.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashAggregator implements CrashReportListener {
+	/**
+	 * SDK levels at and above this are counted together.
+	 */
+	public static final int MAX_SDK_LEVEL = 64;
+	
+	private final long mBucketMillis;
+	private final int mBucketCount;
+	private final ConcurrentHashMap<String, CrashCounter> mByCrashId = new ConcurrentHashMap<String, CrashCounter>();
+	private final ConcurrentHashMap<String, CrashCounter> mByVersion = new ConcurrentHashMap<String, CrashCounter>();
+	private final ConcurrentHashMap<String, CrashCounter> mByModel = new ConcurrentHashMap<String, CrashCounter>();
+	private final CrashCounter[] mBySdkLevel;
+	private final CrashTopList mTopCrashes;
+	
+	/**
+	 * @param bucketMillis Time slice of the rolling window.
+	 * @param bucketCount Number of time slices in the rolling window.
+	 * @param topSize Number of top crashes maintained.
+	 */
+	public CrashAggregator(long bucketMillis, int bucketCount, int topSize) {
+		mBucketMillis = bucketMillis;
+		mBucketCount = bucketCount;
+		mBySdkLevel = new CrashCounter[MAX_SDK_LEVEL + 1];
+		for(int i = 0; i < mBySdkLevel.length; i++) {
+			mBySdkLevel[i] = new CrashCounter(bucketMillis, bucketCount);
+		}
+		mTopCrashes = new CrashTopList(topSize);
+	}
+	
+	/**
+	 * Current time in milliseconds, crashes are counted in the window by time received.
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+	
+	@Override
+	public void onRecord(CrashReportHeader header, CrashRecord record) {
+		long now = now();
+		long n = record.getCount();
+		String crashId = record.getCrashId();
+		
+		long total = counterOf(mByCrashId, crashId).add(now, n);
+		mTopCrashes.offer(crashId, total);
+		counterOf(mByVersion, header.getVersionName()).add(now, n);
+		counterOf(mByModel, header.getModel()).add(now, n);
+		int level = Math.max(0, Math.min(header.getSdkLevel(), MAX_SDK_LEVEL));
+		mBySdkLevel[level].add(now, n);
+	}
+	
+	private CrashCounter counterOf(ConcurrentHashMap<String, CrashCounter> counters, String key) {
+		CrashCounter counter = counters.get(key);
+		if(counter == null) {
+			CrashCounter created = new CrashCounter(mBucketMillis, mBucketCount);
+			counter = counters.putIfAbsent(key, created);
+			if(counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+	
+	/**
+	 * @return The counter of the crash, or null if not received.
+	 */
+	public CrashCounter getCrash(String crashId) {
+		return mByCrashId.get(crashId);
+	}
+	
+	/**
+	 * Top crashes by total occurrences, no scan over all crashes.
+	 */
+	public List<CrashTopList.Entry> getTopCrashes() {
+		return mTopCrashes.getEntries();
+	}
+	
+	/**
+	 * Occurrences by APP version name, in the last <code>windowMillis</code>, 
+	 * or in total if <code>windowMillis</code> is negative.
+	 */
+	public Map<String, Long> getVersionCounts(long windowMillis) {
+		return snapshot(mByVersion, windowMillis);
+	}
+	
+	/**
+	 * Occurrences by device model.
+	 * 
+	 * @see #getVersionCounts(long)
+	 */
+	public Map<String, Long> getModelCounts(long windowMillis) {
+		return snapshot(mByModel, windowMillis);
+	}
+	
+	/**
+	 * Occurrences indexed by SDK level, the last element counts levels at and above {@link #MAX_SDK_LEVEL}.
+	 * 
+	 * @see #getVersionCounts(long)
+	 */
+	public long[] getSdkLevelCounts(long windowMillis) {
+		long now = now();
+		long[] counts = new long[mBySdkLevel.length];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = count(mBySdkLevel[i], now, windowMillis);
+		}
+		return counts;
+	}
+	
+	private Map<String, Long> snapshot(ConcurrentHashMap<String, CrashCounter> counters, long windowMillis) {
+		long now = now();
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for(Map.Entry<String, CrashCounter> entry : counters.entrySet()) {
+			counts.put(entry.getKey(), count(entry.getValue(), now, windowMillis));
+		}
+		return counts;
+	}
+	
+	private static long count(CrashCounter counter, long now, long windowMillis) {
+		return windowMillis < 0 ? counter.getTotal() : counter.getCount(now, windowMillis);
+	}
+}
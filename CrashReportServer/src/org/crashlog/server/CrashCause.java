@@ -0,0 +1,75 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 
+ * A cause or suppressed exception of a crash, with its own causes and suppressed exceptions.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashCause {
+	String mClassName;
+	String mMessage;
+	int mFramesInCommon;
+	StackTraceElement[] mStackTrace;
+	CrashCause mCause;
+	final List<CrashCause> mSuppressed = new ArrayList<CrashCause>();
+	
+	public String getClassName() {
+		return mClassName;
+	}
+	
+	public String getMessage() {
+		return mMessage;
+	}
+	
+	/**
+	 * The full stack trace, including frames in common with the enclosing trace.
+	 */
+	public StackTraceElement[] getStackTrace() {
+		return mStackTrace;
+	}
+	
+	/**
+	 * Number of trailing frames in common with the enclosing trace, printed as "... N more".
+	 */
+	public int getFramesInCommon() {
+		return mFramesInCommon;
+	}
+	
+	/**
+	 * @return null if there is no cause or it was not recorded.
+	 */
+	public CrashCause getCause() {
+		return mCause;
+	}
+	
+	public List<CrashCause> getSuppressed() {
+		return mSuppressed;
+	}
+}
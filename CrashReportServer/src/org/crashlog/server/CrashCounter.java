@@ -0,0 +1,113 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 
+ * A lock-free crash counter with a total and a rolling time window. 
+ * The window is a ring of buckets, each counts the time slice of its epoch. 
+ * A bucket of an old slice is replaced by a new one with a CAS, so its epoch and count 
+ * change together and no count added to the new slice is lost.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashCounter {
+	private final AtomicLong mTotal = new AtomicLong();
+	private final AtomicReferenceArray<Bucket> mBuckets;
+	private final long mBucketMillis;
+	
+	/**
+	 * Count of a time slice.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Bucket extends AtomicLong {
+		final long mEpoch;
+		
+		Bucket(long epoch) {
+			mEpoch = epoch;
+		}
+	}
+	
+	/**
+	 * @param bucketMillis Time slice of a bucket.
+	 * @param bucketCount Number of buckets, the window is <code>bucketMillis * bucketCount</code>.
+	 */
+	public CrashCounter(long bucketMillis, int bucketCount) {
+		mBucketMillis = bucketMillis;
+		mBuckets = new AtomicReferenceArray<Bucket>(bucketCount);
+		Bucket empty = new Bucket(Long.MIN_VALUE);
+		for(int i = 0; i < bucketCount; i++) {
+			mBuckets.set(i, empty);
+		}
+	}
+	
+	/**
+	 * @return The total after added.
+	 */
+	public long add(long time, long n) {
+		long epoch = time / mBucketMillis;
+		int index = (int) (epoch % mBuckets.length());
+		while(true) {
+			Bucket bucket = mBuckets.get(index);
+			if(bucket.mEpoch == epoch) {
+				bucket.addAndGet(n);
+				break;
+			}
+			if(bucket.mEpoch > epoch) {
+				//Too old for the window.
+				break;
+			}
+			Bucket next = new Bucket(epoch);
+			next.set(n);
+			if(mBuckets.compareAndSet(index, bucket, next)) {
+				break;
+			}
+		}
+		return mTotal.addAndGet(n);
+	}
+	
+	public long getTotal() {
+		return mTotal.get();
+	}
+	
+	/**
+	 * Count in the last <code>windowMillis</code> until <code>now</code>, 
+	 * at the granularity of buckets and at most the whole ring.
+	 */
+	public long getCount(long now, long windowMillis) {
+		long epoch = now / mBucketMillis;
+		long oldest = epoch - Math.min(windowMillis / mBucketMillis, mBuckets.length() - 1);
+		long count = 0;
+		for(int i = 0; i < mBuckets.length(); i++) {
+			Bucket bucket = mBuckets.get(i);
+			if(bucket.mEpoch >= oldest && bucket.mEpoch <= epoch) {
+				count += bucket.get();
+			}
+		}
+		return count;
+	}
+}
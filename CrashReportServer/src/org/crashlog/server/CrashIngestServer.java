@@ -0,0 +1,175 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 
+ * Embedded crash report ingestion server on the JDK HTTP server. 
+ * Reports are POSTed to {@link #REPORT_PATH}, optionally gzip compressed, 
+ * and decoded while the request body is read.
+ * 
+ * Response codes: 200 decoded, 400 malformed report, 405 not POST, 
+ * 415 unsupported content encoding (the SDK then reports uncompressed).
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashIngestServer {
+	public static final String REPORT_PATH = "/CrashLog/report";
+	public static final int DEFAULT_PORT = 8080;
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * Decompressed bytes of a report at most, a batch of the SDK is at most 512 KB.
+	 */
+	private static final long MAX_REPORT_BYTES = 4 * 1024 * 1024;
+	
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final CrashReportListener mListener;
+	
+	/**
+	 * @param address The address to bind.
+	 * @param threads Number of threads handling requests.
+	 */
+	public CrashIngestServer(InetSocketAddress address, int threads, CrashReportListener listener) throws IOException {
+		mListener = listener;
+		mServer = HttpServer.create(address, 0);
+		mServer.createContext(REPORT_PATH, mReportHandler);
+		mExecutor = Executors.newFixedThreadPool(threads);
+		mServer.setExecutor(mExecutor);
+	}
+	
+	public void start() {
+		mServer.start();
+	}
+	
+	/**
+	 * Stop accepting reports, wait at most <code>delay</code> seconds for reports being received.
+	 */
+	public void stop(int delay) {
+		mServer.stop(delay);
+		mExecutor.shutdown();
+	}
+	
+	public InetSocketAddress getAddress() {
+		return mServer.getAddress();
+	}
+	
+	private HttpHandler mReportHandler = new HttpHandler() {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				exchange.sendResponseHeaders(receive(exchange), -1);
+			} finally {
+				exchange.close();
+			}
+		}
+		
+	};
+	
+	private int receive(HttpExchange exchange) throws IOException {
+		InputStream body = exchange.getRequestBody();
+		try {
+			if(!"POST".equals(exchange.getRequestMethod())) {
+				return HttpURLConnection.HTTP_BAD_METHOD;
+			}
+			
+			InputStream in = new BufferedInputStream(body, BUFFER_SIZE);
+			String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+			if("gzip".equalsIgnoreCase(encoding)) {
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+			} else if(encoding != null && !"identity".equalsIgnoreCase(encoding)) {
+				return HttpURLConnection.HTTP_UNSUPPORTED_TYPE;
+			}
+			
+			try {
+				new CrashLogDecoder(in, MAX_REPORT_BYTES).decode(mListener);
+			} catch (IOException e) {
+				return HttpURLConnection.HTTP_BAD_REQUEST;
+			} catch (RuntimeException e) {
+				//Malformed input the decoder did not check, it must not escape the handler.
+				return HttpURLConnection.HTTP_BAD_REQUEST;
+			}
+			return HttpURLConnection.HTTP_OK;
+		} finally {
+			//Consume the rest, so the connection can be reused.
+			drain(body);
+		}
+	}
+	
+	private static void drain(InputStream in) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			while(in.read(buffer) >= 0) {
+				//Discard
+			}
+		} catch (IOException e) {
+			//Ignore, the connection is closed.
+		}
+	}
+	
+	/**
+	 * Run a local ingestion server that aggregates received crashes and prints the top crashes periodically.
+	 * 
+	 * @param args [port] [threads]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) 
+				: Runtime.getRuntime().availableProcessors() * 2;
+		final CrashAggregator aggregator = new CrashAggregator(60 * 1000L, 60, 10);
+		CrashIngestServer server = new CrashIngestServer(new InetSocketAddress(port), threads, aggregator);
+		server.start();
+		System.out.println("Listening on " + server.getAddress() + REPORT_PATH);
+		
+		Executors.newSingleThreadScheduledExecutor().scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				List<CrashTopList.Entry> top = aggregator.getTopCrashes();
+				for(int i = 0; i < top.size(); i++) {
+					System.out.println((i + 1) + ". " + top.get(i).getKey() + " x" + top.get(i).getCount());
+				}
+			}
+			
+		}, 10, 10, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,435 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 
+ * Decodes a crash report request incrementally: the header, then records one by one, 
+ * the request body is never held in memory as a whole. The input should be buffered.
+ * 
+ * Record version 1 has no version byte, and stack trace strings are written in full.
+ * Record version 2 starts with the version byte, and stack trace strings are interned 
+ * in a per-record string table.
+ * Record version 3 adds occurrence count and last crash time after the version byte.
+ * Record version 4 adds tagged sections after the stack trace: tag(1) length(4) payload, 
+ * ended by tag 0. Sections of unknown tags are skipped.
+ * Records may be followed by a block of method signatures of frames, see {@link #readSignatures()}.
+ * 
+ * Counts and lengths are checked against the bytes left in their section or in the input 
+ * before anything is allocated, so malformed input fails with an IOException.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashLogDecoder {
+	public static final int MAGIC_NUM = 0x0003125B;
+	public static final int SIGNATURE_MAGIC = 0x5349474E;
+	
+	private static final int SECTION_END = 0;
+	private static final int SECTION_THREADS = 1;
+	private static final int SECTION_CAUSES = 2;
+	private static final int SECTION_BREADCRUMBS = 3;
+	private static final int CAUSE_KIND_SUPPRESSED = 1;
+	private static final Thread.State[] THREAD_STATES = Thread.State.values();
+	private static final int SKIP_BUFFER_SIZE = 4096;
+	
+	private final CountingInputStream mCounter;
+	private final DataInputStream mIn;
+	private final List<String> mStrings = new ArrayList<String>();
+	private final List<StackTraceElement> mFrames = new ArrayList<StackTraceElement>();
+	
+	/**
+	 * Decode trusted input of any length, such as a log file.
+	 */
+	public CrashLogDecoder(InputStream in) {
+		this(in, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * @param maxBytes Bytes of input to read at most, it bounds the memory decoding takes.
+	 */
+	public CrashLogDecoder(InputStream in, long maxBytes) {
+		mCounter = new CountingInputStream(in, maxBytes);
+		mIn = new DataInputStream(mCounter);
+	}
+	
+	/**
+	 * Decode from the remaining bytes of the buffer, the buffer position is advanced.
+	 */
+	public CrashLogDecoder(ByteBuffer buffer) {
+		this(new ByteBufferInputStream(buffer), buffer.remaining());
+	}
+	
+	/**
+	 * Decode the header and all records, records are passed to the listener as soon as decoded.
+	 * 
+	 * @return The header.
+	 * @throws IOException If the report is malformed, records decoded before are already passed.
+	 */
+	public CrashReportHeader decode(CrashReportListener listener) throws IOException {
+		CrashReportHeader header = readHeader();
+		int count = header.getRecordCount();
+		for(int i = 0; i < count; i++) {
+			listener.onRecord(header, readRecord());
+		}
+		return header;
+	}
+	
+	public CrashReportHeader readHeader() throws IOException {
+		int magic = mIn.readInt();
+		if(magic != MAGIC_NUM) {
+			throw new IOException("Bad magic number: " + Integer.toHexString(magic));
+		}
+		
+		CrashReportHeader header = new CrashReportHeader();
+		header.mVersion = mIn.readInt();
+		header.mVersionName = readUTF();
+		header.mPlatform = mIn.readByte();
+		header.mModel = readUTF();
+		header.mSdkLevel = mIn.readInt();
+		header.mSdkRelease = readUTF();
+		header.mPackageName = readUTF();
+		header.mRecordCount = mIn.readUnsignedByte();
+		return header;
+	}
+	
+	public CrashRecord readRecord() throws IOException {
+		CrashRecord record = new CrashRecord();
+		int version = mIn.readUnsignedByte();
+		if(version == 0) {
+			//Version 1, the byte read is the high byte of crash id length.
+			record.mVersion = 1;
+			record.mCrashId = readUTF(version);
+		} else if(version == 2) {
+			record.mVersion = version;
+			record.mCrashId = readUTF();
+		} else if(version == 3 || version == 4) {
+			record.mVersion = version;
+			record.mCount = mIn.readInt();
+			record.mLastCrashTime = mIn.readLong();
+			record.mCrashId = readUTF();
+		} else {
+			throw new IOException("Unsupported record version: " + version);
+		}
+		
+		record.mCrashTime = mIn.readLong();
+		if(record.mVersion < 3) {
+			record.mCount = 1;
+			record.mLastCrashTime = record.mCrashTime;
+		}
+		record.mAllocMemory = mIn.readLong();
+		record.mMaxMemory = mIn.readLong();
+		record.mInternalAvailableSize = mIn.readLong();
+		record.mInternalTotalSize = mIn.readLong();
+		record.mExternalAvailableSize = mIn.readLong();
+		record.mExternalTotalSize = mIn.readLong();
+		record.mThreadName = readUTF();
+		record.mProcessName = readUTF();
+		record.mCause = readUTF();
+		record.mMessage = readUTF();
+		
+		if(record.mVersion == 1) {
+			record.mStackTrace = readStackTraceV1();
+		} else {
+			mStrings.clear();
+			mFrames.clear();
+			record.mStackTrace = readStackTrace();
+		}
+		if(record.mVersion >= 4) {
+			readSections(record);
+		}
+		return record;
+	}
+	
+	private void readSections(CrashRecord record) throws IOException {
+		int tag;
+		while((tag = mIn.readUnsignedByte()) != SECTION_END) {
+			int length = mIn.readInt();
+			if(length < 0 || length > mCounter.getRemaining()) {
+				throw new IOException("Bad section length: " + length);
+			}
+			switch(tag) {
+			case SECTION_THREADS:
+				record.mThreads = readThreads(length);
+				break;
+			case SECTION_CAUSES:
+				readCauses(record, length);
+				break;
+			case SECTION_BREADCRUMBS:
+				readBreadcrumbs(record, length);
+				break;
+			default:
+				//Written by a newer SDK.
+				skip(length);
+				break;
+			}
+		}
+	}
+	
+	private List<CrashThread> readThreads(int length) throws IOException {
+		List<CrashThread> threads = new ArrayList<CrashThread>();
+		long end = mCounter.getCount() + length;
+		while(mCounter.getCount() < end) {
+			CrashThread thread = new CrashThread();
+			thread.mName = readStringRef();
+			int state = mIn.readUnsignedByte();
+			thread.mState = state < THREAD_STATES.length ? THREAD_STATES[state] : null;
+			thread.mDepth = readVarInt();
+			StackTraceElement[] elements = new StackTraceElement[readCount(end - mCounter.getCount(), 1)];
+			for(int i = 0; i < elements.length; i++) {
+				elements[i] = readFrame();
+			}
+			thread.mStackTrace = elements;
+			threads.add(thread);
+		}
+		if(mCounter.getCount() != end) {
+			throw new IOException("Section overrun.");
+		}
+		return threads;
+	}
+	
+	/**
+	 * Rebuild the tree of causes, entries refer to their parent entry by index.
+	 */
+	private void readCauses(CrashRecord record, int length) throws IOException {
+		List<CrashCause> causes = new ArrayList<CrashCause>();
+		List<CrashCause> suppressed = new ArrayList<CrashCause>();
+		long end = mCounter.getCount() + length;
+		while(mCounter.getCount() < end) {
+			int parentIndex = readVarInt();
+			int kind = mIn.readUnsignedByte();
+			if(parentIndex < 0 || parentIndex > causes.size()) {
+				throw new IOException("Bad cause parent: " + parentIndex);
+			}
+			CrashCause parent = parentIndex > 0 ? causes.get(parentIndex - 1) : null;
+			StackTraceElement[] parentTrace = parent != null ? parent.mStackTrace : record.mStackTrace;
+			
+			CrashCause cause = new CrashCause();
+			cause.mClassName = readStringRef();
+			cause.mMessage = readUTF();
+			cause.mFramesInCommon = readVarInt();
+			int unique = readCount(end - mCounter.getCount(), 1);
+			if(cause.mFramesInCommon < 0 || cause.mFramesInCommon > parentTrace.length) {
+				throw new IOException("Bad frames in common: " + cause.mFramesInCommon);
+			}
+			StackTraceElement[] elements = new StackTraceElement[unique + cause.mFramesInCommon];
+			for(int i = 0; i < unique; i++) {
+				elements[i] = readFrame();
+			}
+			System.arraycopy(parentTrace, parentTrace.length - cause.mFramesInCommon, 
+					elements, unique, cause.mFramesInCommon);
+			cause.mStackTrace = elements;
+			causes.add(cause);
+			
+			if(kind == CAUSE_KIND_SUPPRESSED) {
+				if(parent != null) {
+					parent.mSuppressed.add(cause);
+				} else {
+					suppressed.add(cause);
+				}
+			} else if(parent != null) {
+				parent.mCause = cause;
+			} else {
+				record.mCausedBy = cause;
+			}
+		}
+		if(mCounter.getCount() != end) {
+			throw new IOException("Section overrun.");
+		}
+		record.mSuppressed = suppressed;
+	}
+	
+	/**
+	 * Breadcrumbs are written from latest to oldest, with msec before the crash.
+	 */
+	private void readBreadcrumbs(CrashRecord record, int length) throws IOException {
+		List<CrashBreadcrumb> breadcrumbs = new ArrayList<CrashBreadcrumb>();
+		long end = mCounter.getCount() + length;
+		record.mBreadcrumbsDropped = readVarInt();
+		while(mCounter.getCount() < end) {
+			CrashBreadcrumb breadcrumb = new CrashBreadcrumb();
+			breadcrumb.mTime = record.mCrashTime - readVarInt();
+			breadcrumb.mMessage = readUTF();
+			breadcrumbs.add(breadcrumb);
+		}
+		if(mCounter.getCount() != end) {
+			throw new IOException("Section overrun.");
+		}
+		Collections.reverse(breadcrumbs);
+		record.mBreadcrumbs = breadcrumbs;
+	}
+	
+	private StackTraceElement readFrame() throws IOException {
+		int ref = readVarInt();
+		if(ref != 0) {
+			if(ref < 0 || ref - 1 >= mFrames.size()) {
+				throw new IOException("Bad frame reference: " + ref);
+			}
+			return mFrames.get(ref - 1);
+		}
+		String className = readStringRef();
+		String fileName = readStringRef();
+		String methodName = readStringRef();
+		int zigzag = readVarInt();
+		int line = (zigzag >>> 1) ^ -(zigzag & 1);
+		StackTraceElement element = new StackTraceElement(className != null ? className : "", 
+				methodName != null ? methodName : "", fileName, line);
+		mFrames.add(element);
+		return element;
+	}
+	
+	/**
+	 * Read the method signatures block after all records.
+	 * 
+	 * @return null if the report has no signatures block.
+	 */
+	public CrashSignatures readSignatures() throws IOException {
+		int first = mIn.read();
+		if(first < 0) {
+			return null;
+		}
+		int magic = (first << 24) | (mIn.readUnsignedByte() << 16) | mIn.readUnsignedShort();
+		if(magic != SIGNATURE_MAGIC) {
+			throw new IOException("Bad signatures magic: " + Integer.toHexString(magic));
+		}
+		
+		CrashSignatures signatures = new CrashSignatures();
+		int classCount = readVarInt();
+		for(int i = 0; i < classCount; i++) {
+			String className = mIn.readUTF();
+			int methodCount = readVarInt();
+			for(int j = 0; j < methodCount; j++) {
+				String methodName = mIn.readUTF();
+				int count = readCount(mCounter.getRemaining(), 2);
+				List<String> list = new ArrayList<String>(count);
+				for(int k = 0; k < count; k++) {
+					list.add(mIn.readUTF());
+				}
+				signatures.put(className, methodName, list);
+			}
+		}
+		return signatures;
+	}
+	
+	private StackTraceElement[] readStackTraceV1() throws IOException {
+		int len = mIn.readUnsignedShort();
+		StackTraceElement[] elements = new StackTraceElement[len];
+		for(int i = 0; i < len; i++) {
+			String className = readUTF();
+			String fileName = readUTF();
+			String methodName = readUTF();
+			int line = mIn.readInt();
+			boolean isNative = mIn.readBoolean();
+			elements[i] = new StackTraceElement(className, methodName, 
+					fileName.length() > 0 ? fileName : null, isNative ? -2 : line);
+		}
+		return elements;
+	}
+	
+	private StackTraceElement[] readStackTrace() throws IOException {
+		int len = readCount(mCounter.getRemaining(), 4);
+		StackTraceElement[] elements = new StackTraceElement[len];
+		for(int i = 0; i < len; i++) {
+			String className = readStringRef();
+			String fileName = readStringRef();
+			String methodName = readStringRef();
+			int zigzag = readVarInt();
+			int line = (zigzag >>> 1) ^ -(zigzag & 1);
+			elements[i] = new StackTraceElement(className != null ? className : "", 
+					methodName != null ? methodName : "", fileName, line);
+		}
+		return elements;
+	}
+	
+	private int readVarInt() throws IOException {
+		int val = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = mIn.readUnsignedByte();
+			val |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				return val;
+			}
+		}
+		throw new IOException("Malformed varint.");
+	}
+	
+	/**
+	 * Read a count of items which take at least <code>minBytes</code> each, 
+	 * the items must fit in <code>remaining</code> bytes.
+	 */
+	private int readCount(long remaining, int minBytes) throws IOException {
+		int count = readVarInt();
+		if(count < 0 || count > remaining / minBytes) {
+			throw new IOException("Bad count: " + count);
+		}
+		return count;
+	}
+	
+	/**
+	 * Skip bytes without allocating for them.
+	 */
+	private void skip(int length) throws IOException {
+		byte[] buffer = new byte[Math.min(length, SKIP_BUFFER_SIZE)];
+		while(length > 0) {
+			int n = Math.min(length, buffer.length);
+			mIn.readFully(buffer, 0, n);
+			length -= n;
+		}
+	}
+	
+	private String readStringRef() throws IOException {
+		int ref = readVarInt();
+		if(ref == 0) {
+			return null;
+		}
+		if(ref == 1) {
+			String s = readUTF();
+			mStrings.add(s);
+			return s;
+		}
+		if(ref < 0 || ref - 2 >= mStrings.size()) {
+			throw new IOException("Bad string reference: " + ref);
+		}
+		return mStrings.get(ref - 2);
+	}
+	
+	private String readUTF() throws IOException {
+		return readUTF(mIn.readUnsignedByte());
+	}
+	
+	private String readUTF(int highByte) throws IOException {
+		int len = (highByte << 8) | mIn.readUnsignedByte();
+		byte[] bytes = new byte[len];
+		mIn.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
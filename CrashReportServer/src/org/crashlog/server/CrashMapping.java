@@ -0,0 +1,498 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * A ProGuard/R8 mapping file compiled into a compact index, the index file is memory-mapped 
+ * and looked up by binary search, so it is parsed only once and takes little heap. 
+ * Lookups only use absolute reads, an instance can be shared by threads.
+ * 
+ * Index format: header, class table, method table, string pool.
+ * Header: magic(4) version(4) classCount(4) methodCount(4) classOffset(4) methodOffset(4) poolOffset(4) reserved(4)
+ * Class: obfuscatedName(4) originalName(4) firstMethod(4) methodCount(4), sorted by obfuscated name.
+ * Method: obfuscatedName(4) originalName(4) obfuscatedStart(4) obfuscatedEnd(4) originalStart(4) originalEnd(4), 
+ * sorted by obfuscated name and start line within a class, keeping mapping file order otherwise.
+ * String: length(2) UTF-8 bytes, referred to by offset in the pool. 
+ * Names are sorted by UTF-8 bytes, so lookups compare bytes without decoding.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashMapping {
+	private static final int MAGIC = 0x43524D50;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int CLASS_SIZE = 16;
+	private static final int METHOD_SIZE = 24;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/**
+	 * An original method an obfuscated frame maps to.
+	 */
+	public static class Method {
+		private final String mClassName;
+		private final String mMethodName;
+		private final int mLineNumber;
+		private boolean mAlternative;
+		
+		Method(String className, String methodName, int lineNumber) {
+			mClassName = className;
+			mMethodName = methodName;
+			mLineNumber = lineNumber;
+		}
+		
+		public String getClassName() {
+			return mClassName;
+		}
+		
+		public String getMethodName() {
+			return mMethodName;
+		}
+		
+		public int getLineNumber() {
+			return mLineNumber;
+		}
+		
+		/**
+		 * Whether the method is one of alternatives of an ambiguous frame, 
+		 * rather than a method of an inlined chain.
+		 */
+		public boolean isAlternative() {
+			return mAlternative;
+		}
+	}
+	
+	private final MappedByteBuffer mBuffer;
+	private final int mClassCount;
+	private final int mClassOffset;
+	private final int mMethodOffset;
+	private final int mPoolOffset;
+	
+	private CrashMapping(MappedByteBuffer buffer) throws IOException {
+		mBuffer = buffer;
+		mBuffer.order(ByteOrder.BIG_ENDIAN);
+		if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Bad mapping index.");
+		}
+		mClassCount = buffer.getInt(8);
+		mClassOffset = buffer.getInt(16);
+		mMethodOffset = buffer.getInt(20);
+		mPoolOffset = buffer.getInt(24);
+	}
+	
+	/**
+	 * Map an index file.
+	 */
+	public static CrashMapping open(File indexFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try {
+			return new CrashMapping(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+		} finally {
+			//The mapping stays valid after the file is closed.
+			file.close();
+		}
+	}
+	
+	/**
+	 * @return The original class name, or null if the class is not in the mapping.
+	 */
+	public String getOriginalClassName(String className) {
+		int cls = findClass(utf8(className));
+		return cls < 0 ? null : readString(mBuffer.getInt(classAt(cls) + 4));
+	}
+	
+	/**
+	 * Map an obfuscated frame to original methods.
+	 * 
+	 * @param lineNumber The obfuscated line number, or a negative value if unknown.
+	 * @return Methods innermost first if the frame has inlined methods, or alternatives if ambiguous 
+	 * or the line is not mapped, or empty if the class or method is not in the mapping.
+	 */
+	public List<Method> getOriginalMethods(String className, String methodName, int lineNumber) {
+		List<Method> methods = new ArrayList<Method>();
+		int cls = findClass(utf8(className));
+		if(cls < 0) {
+			return methods;
+		}
+		int classEntry = classAt(cls);
+		String originalClass = readString(mBuffer.getInt(classEntry + 4));
+		int first = mBuffer.getInt(classEntry + 8);
+		int end = first + mBuffer.getInt(classEntry + 12);
+		
+		byte[] name = utf8(methodName);
+		int m = lowerBound(name, first, end);
+		int rangeStart = -1;
+		int rangeEnd = -1;
+		List<Method> alternatives = new ArrayList<Method>();
+		for(; m < end && compare(name, mBuffer.getInt(methodAt(m))) == 0; m++) {
+			int entry = methodAt(m);
+			int obfStart = mBuffer.getInt(entry + 8);
+			int obfEnd = mBuffer.getInt(entry + 12);
+			String original = readString(mBuffer.getInt(entry + 4));
+			if(obfEnd == 0) {
+				alternatives.add(newMethod(originalClass, original, lineNumber));
+				continue;
+			}
+			
+			//Entries of the same range are an inlined chain, innermost first.
+			boolean inChain = rangeStart >= 0 ? obfStart == rangeStart && obfEnd == rangeEnd 
+					: lineNumber >= obfStart && lineNumber <= obfEnd;
+			if(inChain) {
+				rangeStart = obfStart;
+				rangeEnd = obfEnd;
+				int origStart = mBuffer.getInt(entry + 16);
+				int origEnd = mBuffer.getInt(entry + 20);
+				int line = origStart == 0 ? lineNumber 
+						: origEnd > origStart ? origStart + lineNumber - obfStart : origStart;
+				methods.add(newMethod(originalClass, original, line));
+			} else {
+				alternatives.add(newMethod(originalClass, original, lineNumber));
+			}
+		}
+		return methods.isEmpty() ? distinct(alternatives) : methods;
+	}
+	
+	/**
+	 * A method inlined from another class has a qualified name.
+	 */
+	private static Method newMethod(String originalClass, String original, int line) {
+		int dot = original.lastIndexOf('.');
+		if(dot > 0) {
+			return new Method(original.substring(0, dot), original.substring(dot + 1), line);
+		}
+		return new Method(originalClass, original, line);
+	}
+	
+	private static List<Method> distinct(List<Method> methods) {
+		List<Method> result = new ArrayList<Method>(methods.size());
+		for(int i = 0; i < methods.size(); i++) {
+			Method method = methods.get(i);
+			boolean found = false;
+			for(int j = 0; j < result.size() && !found; j++) {
+				found = result.get(j).mClassName.equals(method.mClassName) 
+						&& result.get(j).mMethodName.equals(method.mMethodName);
+			}
+			if(!found) {
+				method.mAlternative = true;
+				result.add(method);
+			}
+		}
+		return result;
+	}
+	
+	private int classAt(int index) {
+		return mClassOffset + index * CLASS_SIZE;
+	}
+	
+	private int methodAt(int index) {
+		return mMethodOffset + index * METHOD_SIZE;
+	}
+	
+	private int findClass(byte[] name) {
+		int low = 0;
+		int high = mClassCount - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(name, mBuffer.getInt(classAt(mid)));
+			if(c > 0) {
+				low = mid + 1;
+			} else if(c < 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * The first method in [first, end) whose obfuscated name is not less than <code>name</code>.
+	 */
+	private int lowerBound(byte[] name, int first, int end) {
+		int low = first;
+		int high = end;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compare(name, mBuffer.getInt(methodAt(mid))) > 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Compare bytes with a pooled string as unsigned bytes.
+	 */
+	private int compare(byte[] name, int ref) {
+		int position = mPoolOffset + ref;
+		int len = mBuffer.getShort(position) & 0xFFFF;
+		position += 2;
+		int n = Math.min(len, name.length);
+		for(int i = 0; i < n; i++) {
+			int c = (name[i] & 0xFF) - (mBuffer.get(position + i) & 0xFF);
+			if(c != 0) {
+				return c;
+			}
+		}
+		return name.length - len;
+	}
+	
+	private String readString(int ref) {
+		int position = mPoolOffset + ref;
+		int len = mBuffer.getShort(position) & 0xFFFF;
+		byte[] bytes = new byte[len];
+		for(int i = 0; i < len; i++) {
+			bytes[i] = mBuffer.get(position + 2 + i);
+		}
+		return new String(bytes, UTF_8);
+	}
+	
+	private static byte[] utf8(String s) {
+		return s.getBytes(UTF_8);
+	}
+	
+	private static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++) {
+			int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if(c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+	
+	private static class ClassEntry {
+		byte[] mObfuscated;
+		String mOriginal;
+		final List<MethodEntry> mMethods = new ArrayList<MethodEntry>();
+	}
+	
+	private static class MethodEntry {
+		byte[] mObfuscated;
+		String mOriginal;
+		int mObfStart;
+		int mObfEnd;
+		int mOrigStart;
+		int mOrigEnd;
+	}
+	
+	private static final Comparator<ClassEntry> CLASS_ORDER = new Comparator<ClassEntry>() {
+
+		@Override
+		public int compare(ClassEntry lhs, ClassEntry rhs) {
+			return compareBytes(lhs.mObfuscated, rhs.mObfuscated);
+		}
+		
+	};
+	
+	/**
+	 * Stable, so an inlined chain keeps its order.
+	 */
+	private static final Comparator<MethodEntry> METHOD_ORDER = new Comparator<MethodEntry>() {
+
+		@Override
+		public int compare(MethodEntry lhs, MethodEntry rhs) {
+			int c = compareBytes(lhs.mObfuscated, rhs.mObfuscated);
+			return c != 0 ? c : lhs.mObfStart - rhs.mObfStart;
+		}
+		
+	};
+	
+	/**
+	 * Compile a ProGuard/R8 mapping file into an index file. 
+	 * Fields and comments are skipped.
+	 */
+	public static void compile(File mappingFile, File indexFile) throws IOException {
+		List<ClassEntry> classes = new ArrayList<ClassEntry>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mappingFile), UTF_8), 64 * 1024);
+		try {
+			ClassEntry current = null;
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.length() == 0 || line.trim().startsWith("#")) {
+					continue;
+				}
+				int arrow = line.indexOf(" -> ");
+				if(arrow < 0) {
+					continue;
+				}
+				if(!Character.isWhitespace(line.charAt(0))) {
+					//com.example.Original -> a.b:
+					current = new ClassEntry();
+					current.mOriginal = line.substring(0, arrow).trim();
+					String obfuscated = line.substring(arrow + 4).trim();
+					if(obfuscated.endsWith(":")) {
+						obfuscated = obfuscated.substring(0, obfuscated.length() - 1);
+					}
+					current.mObfuscated = utf8(obfuscated);
+					classes.add(current);
+				} else if(current != null) {
+					MethodEntry method = parseMethod(line.substring(0, arrow).trim(), line.substring(arrow + 4).trim());
+					if(method != null) {
+						current.mMethods.add(method);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		write(classes, indexFile);
+	}
+	
+	/**
+	 * [obfStart:obfEnd:]type name(args)[:origStart[:origEnd]], 
+	 * or null if it is a field.
+	 */
+	private static MethodEntry parseMethod(String original, String obfuscated) {
+		int paren = original.indexOf('(');
+		if(paren < 0) {
+			return null;
+		}
+		MethodEntry method = new MethodEntry();
+		method.mObfuscated = utf8(obfuscated);
+		
+		String head = original.substring(0, paren);
+		int colon = head.lastIndexOf(':');
+		if(colon > 0) {
+			int first = head.indexOf(':');
+			method.mObfStart = Integer.parseInt(head.substring(0, first));
+			method.mObfEnd = Integer.parseInt(head.substring(first + 1, colon));
+			head = head.substring(colon + 1);
+		}
+		method.mOriginal = head.substring(head.lastIndexOf(' ') + 1);
+		
+		String tail = original.substring(original.indexOf(')', paren) + 1);
+		if(tail.startsWith(":")) {
+			int second = tail.indexOf(':', 1);
+			if(second < 0) {
+				method.mOrigStart = Integer.parseInt(tail.substring(1));
+				method.mOrigEnd = method.mOrigStart;
+			} else {
+				method.mOrigStart = Integer.parseInt(tail.substring(1, second));
+				method.mOrigEnd = Integer.parseInt(tail.substring(second + 1));
+			}
+		}
+		return method;
+	}
+	
+	private static void write(List<ClassEntry> classes, File indexFile) throws IOException {
+		Collections.sort(classes, CLASS_ORDER);
+		
+		ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		DataOutputStream poolOut = new DataOutputStream(pool);
+		Map<String, Integer> refs = new HashMap<String, Integer>();
+		
+		int methodCount = 0;
+		for(int i = 0; i < classes.size(); i++) {
+			methodCount += classes.get(i).mMethods.size();
+		}
+		int classOffset = HEADER_SIZE;
+		int methodOffset = classOffset + classes.size() * CLASS_SIZE;
+		int poolOffset = methodOffset + methodCount * METHOD_SIZE;
+		
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(classes.size());
+			out.writeInt(methodCount);
+			out.writeInt(classOffset);
+			out.writeInt(methodOffset);
+			out.writeInt(poolOffset);
+			out.writeInt(0);
+			
+			int firstMethod = 0;
+			for(int i = 0; i < classes.size(); i++) {
+				ClassEntry cls = classes.get(i);
+				out.writeInt(ref(cls.mObfuscated, refs, poolOut));
+				out.writeInt(ref(utf8(cls.mOriginal), refs, poolOut));
+				out.writeInt(firstMethod);
+				out.writeInt(cls.mMethods.size());
+				firstMethod += cls.mMethods.size();
+			}
+			for(int i = 0; i < classes.size(); i++) {
+				List<MethodEntry> methods = classes.get(i).mMethods;
+				Collections.sort(methods, METHOD_ORDER);
+				for(int j = 0; j < methods.size(); j++) {
+					MethodEntry method = methods.get(j);
+					out.writeInt(ref(method.mObfuscated, refs, poolOut));
+					out.writeInt(ref(utf8(method.mOriginal), refs, poolOut));
+					out.writeInt(method.mObfStart);
+					out.writeInt(method.mObfEnd);
+					out.writeInt(method.mOrigStart);
+					out.writeInt(method.mOrigEnd);
+				}
+			}
+			pool.writeTo(out);
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(indexFile)) {
+			throw new IOException("Rename failed: " + tmp.getName());
+		}
+	}
+	
+	/**
+	 * Pool the string once, and return its offset in the pool.
+	 */
+	private static int ref(byte[] bytes, Map<String, Integer> refs, DataOutputStream pool) throws IOException {
+		String key = new String(bytes, UTF_8);
+		Integer ref = refs.get(key);
+		if(ref == null) {
+			if(bytes.length > 0xFFFF) {
+				throw new IOException("Name too long: " + key.substring(0, 64));
+			}
+			ref = pool.size();
+			pool.writeShort(bytes.length);
+			pool.write(bytes);
+			refs.put(key, ref);
+		}
+		return ref;
+	}
+}
@@ -0,0 +1,99 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 
+ * Mapping indexes cached per APP version. Mapping files are put in 
+ * <code>dir/packageName/versionName/mapping.txt</code>, each is compiled once 
+ * into <code>mapping.idx</code> next to it, and recompiled if the mapping file is newer.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashMappingCache {
+	public static final String MAPPING_FILE_NAME = "mapping.txt";
+	public static final String INDEX_FILE_NAME = "mapping.idx";
+	
+	private final File mDir;
+	private final ConcurrentHashMap<String, CrashMapping> mMappings = new ConcurrentHashMap<String, CrashMapping>();
+	
+	public CrashMappingCache(File dir) {
+		mDir = dir;
+	}
+	
+	/**
+	 * @return The mapping of the APP version, or null if there is no mapping file.
+	 */
+	public CrashMapping get(String packageName, String versionName) throws IOException {
+		String key = packageName + '/' + versionName;
+		CrashMapping mapping = mMappings.get(key);
+		if(mapping != null) {
+			return mapping;
+		}
+		
+		File versionDir = new File(new File(mDir, sanitize(packageName)), sanitize(versionName));
+		File mappingFile = new File(versionDir, MAPPING_FILE_NAME);
+		if(!mappingFile.exists()) {
+			return null;
+		}
+		synchronized (this) {
+			mapping = mMappings.get(key);
+			if(mapping == null) {
+				File indexFile = new File(versionDir, INDEX_FILE_NAME);
+				if(!indexFile.exists() || indexFile.lastModified() < mappingFile.lastModified()) {
+					CrashMapping.compile(mappingFile, indexFile);
+				}
+				mapping = CrashMapping.open(indexFile);
+				mMappings.put(key, mapping);
+			}
+		}
+		return mapping;
+	}
+	
+	/**
+	 * Forget the cached mapping, such as when the mapping file is replaced.
+	 */
+	public void evict(String packageName, String versionName) {
+		mMappings.remove(packageName + '/' + versionName);
+	}
+	
+	/**
+	 * Names from reports are used as path components.
+	 */
+	private static String sanitize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for(int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') 
+					|| c == '.' || c == '_' || c == '-';
+			sb.append(safe ? c : '_');
+		}
+		String s = sb.toString();
+		return s.length() == 0 || s.equals(".") || s.equals("..") ? "_" : s;
+	}
+}
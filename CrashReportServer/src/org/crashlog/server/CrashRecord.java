@@ -0,0 +1,183 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 
+ * A decoded crash record.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashRecord {
+	int mVersion;
+	int mCount;
+	long mLastCrashTime;
+	String mCrashId;
+	long mCrashTime;
+	long mAllocMemory;
+	long mMaxMemory;
+	long mInternalAvailableSize;
+	long mInternalTotalSize;
+	long mExternalAvailableSize;
+	long mExternalTotalSize;
+	String mThreadName;
+	String mProcessName;
+	String mCause;
+	String mMessage;
+	StackTraceElement[] mStackTrace;
+	List<CrashThread> mThreads = Collections.emptyList();
+	CrashCause mCausedBy;
+	List<CrashCause> mSuppressed = Collections.emptyList();
+	List<CrashBreadcrumb> mBreadcrumbs = Collections.emptyList();
+	int mBreadcrumbsDropped;
+	
+	/**
+	 * Record format version.
+	 */
+	public int getVersion() {
+		return mVersion;
+	}
+	
+	/**
+	 * Number of occurrences of the crash, repeated crashes are counted in one record.
+	 */
+	public int getCount() {
+		return mCount;
+	}
+	
+	/**
+	 * Time of the last occurrence.
+	 */
+	public long getLastCrashTime() {
+		return mLastCrashTime;
+	}
+	
+	public String getCrashId() {
+		return mCrashId;
+	}
+	
+	/**
+	 * Time of the first occurrence, in milliseconds since epoch.
+	 */
+	public long getCrashTime() {
+		return mCrashTime;
+	}
+	
+	/**
+	 * Allocated heap memory at crash.
+	 */
+	public long getAllocMemory() {
+		return mAllocMemory;
+	}
+	
+	/**
+	 * Maximum heap memory.
+	 */
+	public long getMaxMemory() {
+		return mMaxMemory;
+	}
+	
+	public long getInternalAvailableSize() {
+		return mInternalAvailableSize;
+	}
+	
+	public long getInternalTotalSize() {
+		return mInternalTotalSize;
+	}
+	
+	public long getExternalAvailableSize() {
+		return mExternalAvailableSize;
+	}
+	
+	public long getExternalTotalSize() {
+		return mExternalTotalSize;
+	}
+	
+	public String getThreadName() {
+		return mThreadName;
+	}
+	
+	public String getProcessName() {
+		return mProcessName;
+	}
+	
+	/**
+	 * Class name of the throwable.
+	 */
+	public String getCause() {
+		return mCause;
+	}
+	
+	/**
+	 * Detail message of the throwable.
+	 */
+	public String getMessage() {
+		return mMessage;
+	}
+	
+	public StackTraceElement[] getStackTrace() {
+		return mStackTrace;
+	}
+	
+	/**
+	 * The cause of the thrown exception.
+	 * 
+	 * @return null if there is no cause or it was not recorded.
+	 */
+	public CrashCause getCausedBy() {
+		return mCausedBy;
+	}
+	
+	/**
+	 * Exceptions suppressed by the thrown exception.
+	 */
+	public List<CrashCause> getSuppressed() {
+		return mSuppressed;
+	}
+	
+	/**
+	 * Breadcrumbs left before the crash, from oldest to latest.
+	 */
+	public List<CrashBreadcrumb> getBreadcrumbs() {
+		return mBreadcrumbs;
+	}
+	
+	/**
+	 * Number of breadcrumbs overwritten by later ones before the crash.
+	 */
+	public int getBreadcrumbsDropped() {
+		return mBreadcrumbsDropped;
+	}
+	
+	/**
+	 * Stack traces of other threads, empty if not captured.
+	 */
+	public List<CrashThread> getThreads() {
+		return mThreads;
+	}
+}
@@ -0,0 +1,95 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+/**
+ * 
+ * The header of a crash report request.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashReportHeader {
+	int mVersion;
+	String mVersionName;
+	byte mPlatform;
+	String mModel;
+	int mSdkLevel;
+	String mSdkRelease;
+	String mPackageName;
+	int mRecordCount;
+	
+	/**
+	 * SDK version number.
+	 */
+	public int getVersion() {
+		return mVersion;
+	}
+	
+	/**
+	 * APP version name.
+	 */
+	public String getVersionName() {
+		return mVersionName;
+	}
+	
+	/**
+	 * Platform: 1-Android 2-IOS 3-WP 4-Win8
+	 */
+	public byte getPlatform() {
+		return mPlatform;
+	}
+	
+	/**
+	 * Device model.
+	 */
+	public String getModel() {
+		return mModel;
+	}
+	
+	/**
+	 * Android SDK level.
+	 */
+	public int getSdkLevel() {
+		return mSdkLevel;
+	}
+	
+	/**
+	 * Android release.
+	 */
+	public String getSdkRelease() {
+		return mSdkRelease;
+	}
+	
+	public String getPackageName() {
+		return mPackageName;
+	}
+	
+	/**
+	 * Number of records following the header.
+	 */
+	public int getRecordCount() {
+		return mRecordCount;
+	}
+}
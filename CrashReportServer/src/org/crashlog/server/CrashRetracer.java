@@ -0,0 +1,162 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 
+ * Deobfuscates the stack traces of received records, their causes and suppressed exceptions 
+ * and their thread dumps with the mapping of the APP version, then passes records on. Reports are retraced in parallel by the ingestion threads, 
+ * which share the memory-mapped index.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashRetracer implements CrashReportListener {
+	private final CrashMappingCache mCache;
+	private final CrashReportListener mListener;
+	
+	public CrashRetracer(CrashMappingCache cache, CrashReportListener listener) {
+		mCache = cache;
+		mListener = listener;
+	}
+	
+	@Override
+	public void onRecord(CrashReportHeader header, CrashRecord record) {
+		try {
+			CrashMapping mapping = mCache.get(header.getPackageName(), header.getVersionName());
+			if(mapping != null) {
+				retrace(mapping, record);
+			}
+		} catch (IOException e) {
+			System.err.println("Load mapping failed: " + header.getPackageName() + " " 
+					+ header.getVersionName() + ": " + e);
+		}
+		mListener.onRecord(header, record);
+	}
+	
+	public static void retrace(CrashMapping mapping, CrashRecord record) {
+		if(record.mCause != null) {
+			record.mCause = className(mapping, record.mCause);
+		}
+		if(record.mStackTrace != null) {
+			record.mStackTrace = retrace(mapping, record.mStackTrace);
+		}
+		for(int i = 0; i < record.mThreads.size(); i++) {
+			CrashThread thread = record.mThreads.get(i);
+			thread.mStackTrace = retrace(mapping, thread.mStackTrace);
+		}
+		
+		//Walk the tree of causes without recursion, its depth comes from the network.
+		List<CrashCause> causes = new ArrayList<CrashCause>(record.mSuppressed);
+		if(record.mCausedBy != null) {
+			causes.add(record.mCausedBy);
+		}
+		while(!causes.isEmpty()) {
+			CrashCause cause = causes.remove(causes.size() - 1);
+			retrace(mapping, cause);
+			causes.addAll(cause.mSuppressed);
+			if(cause.mCause != null) {
+				causes.add(cause.mCause);
+			}
+		}
+	}
+	
+	/**
+	 * The frames in common with the enclosing trace are retraced apart, so they are still counted.
+	 */
+	private static void retrace(CrashMapping mapping, CrashCause cause) {
+		if(cause.mClassName != null) {
+			cause.mClassName = className(mapping, cause.mClassName);
+		}
+		StackTraceElement[] elements = cause.mStackTrace;
+		int unique = elements.length - cause.mFramesInCommon;
+		StackTraceElement[] uniqueFrames = new StackTraceElement[unique];
+		StackTraceElement[] commonFrames = new StackTraceElement[cause.mFramesInCommon];
+		System.arraycopy(elements, 0, uniqueFrames, 0, unique);
+		System.arraycopy(elements, unique, commonFrames, 0, commonFrames.length);
+		uniqueFrames = retrace(mapping, uniqueFrames);
+		commonFrames = retrace(mapping, commonFrames);
+		
+		elements = new StackTraceElement[uniqueFrames.length + commonFrames.length];
+		System.arraycopy(uniqueFrames, 0, elements, 0, uniqueFrames.length);
+		System.arraycopy(commonFrames, 0, elements, uniqueFrames.length, commonFrames.length);
+		cause.mStackTrace = elements;
+		cause.mFramesInCommon = commonFrames.length;
+	}
+	
+	private static String className(CrashMapping mapping, String className) {
+		String original = mapping.getOriginalClassName(className);
+		return original != null ? original : className;
+	}
+	
+	/**
+	 * A frame of inlined methods is expanded into a frame per method, 
+	 * alternatives of an ambiguous frame are joined by '|'.
+	 */
+	public static StackTraceElement[] retrace(CrashMapping mapping, StackTraceElement[] elements) {
+		List<StackTraceElement> result = new ArrayList<StackTraceElement>(elements.length);
+		for(int i = 0; i < elements.length; i++) {
+			StackTraceElement element = elements[i];
+			List<CrashMapping.Method> methods = mapping.getOriginalMethods(element.getClassName(), 
+					element.getMethodName(), element.getLineNumber());
+			if(methods.isEmpty()) {
+				String className = mapping.getOriginalClassName(element.getClassName());
+				result.add(className == null ? element : new StackTraceElement(className, 
+						element.getMethodName(), fileName(element, className), element.getLineNumber()));
+			} else if(!methods.get(0).isAlternative()) {
+				for(int j = 0; j < methods.size(); j++) {
+					CrashMapping.Method method = methods.get(j);
+					result.add(new StackTraceElement(method.getClassName(), method.getMethodName(), 
+							fileName(element, method.getClassName()), method.getLineNumber()));
+				}
+			} else {
+				CrashMapping.Method method = methods.get(0);
+				StringBuilder names = new StringBuilder(method.getMethodName());
+				for(int j = 1; j < methods.size(); j++) {
+					names.append('|').append(methods.get(j).getMethodName());
+				}
+				result.add(new StackTraceElement(method.getClassName(), names.toString(), 
+						fileName(element, method.getClassName()), element.getLineNumber()));
+			}
+		}
+		return result.toArray(new StackTraceElement[result.size()]);
+	}
+	
+	/**
+	 * A source file renamed by <code>-renamesourcefileattribute</code> is restored 
+	 * to the source file of the outermost class.
+	 */
+	private static String fileName(StackTraceElement element, String className) {
+		String fileName = element.getFileName();
+		if(fileName == null || fileName.indexOf('.') >= 0) {
+			return fileName;
+		}
+		String simpleName = className.substring(className.lastIndexOf('.') + 1);
+		int inner = simpleName.indexOf('$');
+		return (inner > 0 ? simpleName.substring(0, inner) : simpleName) + ".java";
+	}
+}
@@ -0,0 +1,54 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * Method signatures of frames reported along with records, 
+ * resolved by the SDK for frames in configured packages.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashSignatures {
+	private final Map<String, List<String>> mSignatures = new HashMap<String, List<String>>();
+	
+	void put(String className, String methodName, List<String> signatures) {
+		mSignatures.put(className + '#' + methodName, signatures);
+	}
+	
+	/**
+	 * Signatures of the overloads of the method, constructors are named &lt;init&gt;.
+	 * 
+	 * @return Empty if not reported or the class was not found by the SDK.
+	 */
+	public List<String> getSignatures(String className, String methodName) {
+		List<String> signatures = mSignatures.get(className + '#' + methodName);
+		return signatures != null ? signatures : Collections.<String>emptyList();
+	}
+}
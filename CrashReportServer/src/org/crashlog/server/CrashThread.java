@@ -0,0 +1,56 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+/**
+ * 
+ * Stack trace of another thread captured at crash time.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashThread {
+	String mName;
+	Thread.State mState;
+	int mDepth;
+	StackTraceElement[] mStackTrace;
+	
+	public String getName() {
+		return mName;
+	}
+	
+	public Thread.State getState() {
+		return mState;
+	}
+	
+	/**
+	 * Number of frames of the thread, the stack trace may be truncated to fewer.
+	 */
+	public int getDepth() {
+		return mDepth;
+	}
+	
+	public StackTraceElement[] getStackTrace() {
+		return mStackTrace;
+	}
+}
@@ -0,0 +1,121 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 
+ * The top N keys by count, maintained as counts grow, so a query does not scan all keys. 
+ * A count below the current minimum of a full list is rejected without locking.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashTopList {
+	
+	/**
+	 * A key and its count when last offered.
+	 */
+	public static class Entry {
+		private final String mKey;
+		private final long mCount;
+		
+		Entry(String key, long count) {
+			mKey = key;
+			mCount = count;
+		}
+		
+		public String getKey() {
+			return mKey;
+		}
+		
+		public long getCount() {
+			return mCount;
+		}
+	}
+	
+	private final String[] mKeys;
+	private final long[] mCounts;
+	private int mSize;
+	private volatile long mThreshold;
+	
+	public CrashTopList(int size) {
+		mKeys = new String[size];
+		mCounts = new long[size];
+	}
+	
+	/**
+	 * Offer the new count of a key, counts of a key must not decrease.
+	 */
+	public void offer(String key, long count) {
+		if(count <= mThreshold) {
+			return;
+		}
+		synchronized (this) {
+			int index = -1;
+			for(int i = 0; i < mSize; i++) {
+				if(mKeys[i].equals(key)) {
+					index = i;
+					break;
+				}
+			}
+			if(index < 0) {
+				if(mSize < mKeys.length) {
+					index = mSize++;
+				} else if(count > mCounts[mSize - 1]) {
+					index = mSize - 1;
+				} else {
+					return;
+				}
+			} else if(count <= mCounts[index]) {
+				return;
+			}
+			
+			//Keep sorted by count descending.
+			while(index > 0 && mCounts[index - 1] < count) {
+				mKeys[index] = mKeys[index - 1];
+				mCounts[index] = mCounts[index - 1];
+				index--;
+			}
+			mKeys[index] = key;
+			mCounts[index] = count;
+			
+			if(mSize == mKeys.length) {
+				mThreshold = mCounts[mSize - 1];
+			}
+		}
+	}
+	
+	/**
+	 * Entries by count descending.
+	 */
+	public synchronized List<Entry> getEntries() {
+		List<Entry> entries = new ArrayList<Entry>(mSize);
+		for(int i = 0; i < mSize; i++) {
+			entries.add(new Entry(mKeys[i], mCounts[i]));
+		}
+		return entries;
+	}
+}
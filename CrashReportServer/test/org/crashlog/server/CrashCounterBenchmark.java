@@ -0,0 +1,125 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 
+ * Scaling of {@link CrashCounter#add(long, long)} on one hot counter with 1, 4 and 16 threads, 
+ * against the same ring guarded by a lock. Buckets are 1 ms, so adds also race on bucket reuse.
+ * 
+ * Run as a Java application, prints million adds per second of each counter.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashCounterBenchmark {
+	private static final int[] THREAD_COUNTS = {1, 4, 16};
+	private static final int ADDS_PER_THREAD = 2000000;
+	private static final int ROUNDS = 3;
+	
+	private interface Counter {
+		void add(long time, long n);
+	}
+	
+	/**
+	 * The ring of buckets guarded by a lock.
+	 */
+	private static final class LockedCounter implements Counter {
+		private final long[] mCounts;
+		private final long[] mEpochs;
+		private final long mBucketMillis;
+		private long mTotal;
+		
+		LockedCounter(long bucketMillis, int bucketCount) {
+			mBucketMillis = bucketMillis;
+			mCounts = new long[bucketCount];
+			mEpochs = new long[bucketCount];
+		}
+		
+		@Override
+		public synchronized void add(long time, long n) {
+			long epoch = time / mBucketMillis;
+			int bucket = (int) (epoch % mCounts.length);
+			if(mEpochs[bucket] < epoch) {
+				mEpochs[bucket] = epoch;
+				mCounts[bucket] = 0;
+			}
+			if(mEpochs[bucket] == epoch) {
+				mCounts[bucket] += n;
+			}
+			mTotal += n;
+		}
+	}
+	
+	private static double run(final Counter counter, int threadCount) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for(int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for(int j = 0; j < ADDS_PER_THREAD; j++) {
+						counter.add(System.currentTimeMillis(), 1);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		return (double) threadCount * ADDS_PER_THREAD / seconds / 1e6;
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		System.out.println("threads\tlock-free\tlocked (M adds/s)");
+		for(int threadCount : THREAD_COUNTS) {
+			double lockFree = 0;
+			double locked = 0;
+			for(int round = 0; round < ROUNDS; round++) {
+				final CrashCounter crashCounter = new CrashCounter(1, 60);
+				lockFree = Math.max(lockFree, run(new Counter() {
+					
+					@Override
+					public void add(long time, long n) {
+						crashCounter.add(time, n);
+					}
+				}, threadCount));
+				locked = Math.max(locked, run(new LockedCounter(1, 60), threadCount));
+			}
+			System.out.printf("%d\t%.1f\t\t%.1f%n", threadCount, lockFree, locked);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * 
+ * Concurrent adds give exact totals, and no count of a time slice is lost 
+ * while its bucket is being reused.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashCounterTest {
+	private static final int THREADS = 8;
+	private static final int EPOCHS = 2000;
+	private static final int ADDS_PER_EPOCH = 20;
+	private static final int BUCKETS = 4;
+	
+	@Test
+	public void testWindow() {
+		CrashCounter counter = new CrashCounter(1000, 60);
+		counter.add(0, 1);
+		counter.add(1500, 2);
+		counter.add(59500, 4);
+		assertEquals(7, counter.getCount(59999, 60000));
+		assertEquals(4, counter.getCount(59999, 0));
+		
+		//The first slice is reused.
+		counter.add(60000, 8);
+		assertEquals(14, counter.getCount(60000, 60000));
+		counter.add(0, 16);
+		assertEquals(14, counter.getCount(60000, 60000));
+		assertEquals(31, counter.getTotal());
+	}
+	
+	@Test
+	public void testConcurrentRolloverKeepsCounts() throws Exception {
+		final CrashCounter counter = new CrashCounter(1, BUCKETS);
+		final AtomicLong epoch = new AtomicLong();
+		final AtomicLong lost = new AtomicLong();
+		//All threads count a slice, then the count of the slice is checked before the next one.
+		final CyclicBarrier barrier = new CyclicBarrier(THREADS, new Runnable() {
+			
+			@Override
+			public void run() {
+				long count = counter.getCount(epoch.get(), 0);
+				lost.addAndGet(THREADS * ADDS_PER_EPOCH - count);
+				epoch.incrementAndGet();
+			}
+		});
+		
+		Thread[] threads = new Thread[THREADS];
+		for(int i = 0; i < THREADS; i++) {
+			threads[i] = new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						for(int e = 0; e < EPOCHS; e++) {
+							long time = epoch.get();
+							for(int j = 0; j < ADDS_PER_EPOCH; j++) {
+								counter.add(time, 1);
+							}
+							barrier.await();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (BrokenBarrierException e) {
+						//The test fails on the totals.
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertEquals(0, lost.get());
+		assertEquals((long) THREADS * EPOCHS * ADDS_PER_EPOCH, counter.getTotal());
+		assertEquals(EPOCHS, epoch.get());
+	}
+}
@@ -0,0 +1,202 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 
+ * Load test of {@link CrashIngestServer} with 1, 4 and 16 clients posting gzip reports 
+ * of {@link #RECORDS_PER_REPORT} records of 32 frames over keep-alive connections, 
+ * received into a {@link CrashAggregator}. Each client posts for {@link #WARM_UP_MILLIS} 
+ * before it measures for {@link #MEASURE_MILLIS}.
+ * 
+ * Run as a Java application, <code>[server threads]</code>, prints reports per second 
+ * and p50, p99 and max latency in milliseconds for each client count.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashIngestServerBenchmark {
+	private static final int[] CLIENT_COUNTS = {1, 4, 16};
+	private static final int RECORDS_PER_REPORT = 4;
+	private static final int REPORT_VARIANTS = 64;
+	private static final long WARM_UP_MILLIS = 3000;
+	private static final long MEASURE_MILLIS = 10000;
+	
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) 
+				: Runtime.getRuntime().availableProcessors() * 2;
+		CrashAggregator aggregator = new CrashAggregator(60 * 1000L, 60, 10);
+		CrashIngestServer server = new CrashIngestServer(new InetSocketAddress("127.0.0.1", 0), threads, aggregator);
+		server.start();
+		try {
+			URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), CrashIngestServer.REPORT_PATH);
+			byte[][] reports = new byte[REPORT_VARIANTS][];
+			for(int i = 0; i < reports.length; i++) {
+				reports[i] = createReport(i);
+			}
+			System.out.printf("%d server threads, %d records per report of %d bytes gzip%n", 
+					threads, RECORDS_PER_REPORT, reports[0].length);
+			for(int clients : CLIENT_COUNTS) {
+				run(url, reports, clients);
+			}
+		} finally {
+			server.stop(0);
+		}
+	}
+	
+	private static void run(final URL url, final byte[][] reports, int clientCount) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[][] latencies = new long[clientCount][];
+		final int[] counts = new int[clientCount];
+		final int[] errors = new int[clientCount];
+		Thread[] clients = new Thread[clientCount];
+		for(int i = 0; i < clientCount; i++) {
+			final int client = i;
+			clients[i] = new Thread() {
+				
+				@Override
+				public void run() {
+					long[] nanos = new long[1024];
+					int count = 0;
+					try {
+						start.await();
+						long begin = System.currentTimeMillis();
+						long measureStart = begin + WARM_UP_MILLIS;
+						long end = measureStart + MEASURE_MILLIS;
+						for(int n = client; ; n++) {
+							long now = System.currentTimeMillis();
+							if(now >= end) {
+								break;
+							}
+							long t0 = System.nanoTime();
+							int code = post(url, reports[n % reports.length]);
+							long t1 = System.nanoTime();
+							if(now < measureStart) {
+								continue;
+							}
+							if(code != HttpURLConnection.HTTP_OK) {
+								errors[client]++;
+							}
+							if(count == nanos.length) {
+								nanos = Arrays.copyOf(nanos, count * 2);
+							}
+							nanos[count++] = t1 - t0;
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+					latencies[client] = Arrays.copyOf(nanos, count);
+					counts[client] = count;
+				}
+				
+			};
+			clients[i].start();
+		}
+		start.countDown();
+		for(Thread client : clients) {
+			client.join();
+		}
+		
+		int total = 0;
+		int errorCount = 0;
+		for(int i = 0; i < clientCount; i++) {
+			total += counts[i];
+			errorCount += errors[i];
+		}
+		long[] all = new long[total];
+		int n = 0;
+		for(long[] nanos : latencies) {
+			System.arraycopy(nanos, 0, all, n, nanos.length);
+			n += nanos.length;
+		}
+		Arrays.sort(all);
+		System.out.printf("%3d clients  %7.0f reports/s  p50 %6.2f ms  p99 %6.2f ms  max %7.2f ms  errors %d%n", 
+				clientCount, total * 1000.0 / MEASURE_MILLIS, 
+				percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, 
+				total > 0 ? all[total - 1] / 1e6 : 0, errorCount);
+	}
+	
+	private static long percentile(long[] sorted, double p) {
+		if(sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+	
+	/**
+	 * Post the report on a keep-alive connection, reading the response fully so the connection is reused.
+	 */
+	private static int post(URL url, byte[] body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.setFixedLengthStreamingMode(body.length);
+		conn.setRequestProperty("Content-Encoding", "gzip");
+		OutputStream out = conn.getOutputStream();
+		out.write(body);
+		out.close();
+		int code = conn.getResponseCode();
+		InputStream in = code < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream();
+		if(in != null) {
+			while(in.read() >= 0) {
+				//Discard
+			}
+			in.close();
+		}
+		return code;
+	}
+	
+	/**
+	 * A report of distinct crashes, so the aggregator sees many keys.
+	 */
+	private static byte[] createReport(int variant) throws IOException {
+		CrashLogWriter writer = new CrashLogWriter().header(RECORDS_PER_REPORT);
+		for(int r = 0; r < RECORDS_PER_REPORT; r++) {
+			StackTraceElement[] elements = new StackTraceElement[32];
+			for(int i = 0; i < elements.length; i++) {
+				elements[i] = new StackTraceElement("org.crashlog.sample.module" + (i % 4) + ".Activity" + (i + variant), 
+						"method" + i, "Activity" + i + ".java", 10 + i * 7 + r);
+			}
+			writer.record(4, "crash" + variant + "_" + r, 1, 1400000000000L + r, 
+					"java.lang.IllegalStateException", "Crash " + variant)
+					.stackTrace(elements).endSections();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(writer.toByteArray());
+		out.close();
+		return bytes.toByteArray();
+	}
+}
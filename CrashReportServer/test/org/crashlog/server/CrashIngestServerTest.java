@@ -0,0 +1,131 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Malformed reports are answered with 400 Bad Request and never reach past the handler.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashIngestServerTest {
+	private CrashIngestServer mServer;
+	private final List<CrashRecord> mRecords = Collections.synchronizedList(new ArrayList<CrashRecord>());
+	
+	@Before
+	public void setUp() throws Exception {
+		mServer = new CrashIngestServer(new InetSocketAddress("127.0.0.1", 0), 2, new CrashReportListener() {
+			
+			@Override
+			public void onRecord(CrashReportHeader header, CrashRecord record) {
+				mRecords.add(record);
+			}
+		});
+		mServer.start();
+	}
+	
+	@After
+	public void tearDown() {
+		mServer.stop(0);
+	}
+	
+	private int post(byte[] body, boolean gzip) throws IOException {
+		if(gzip) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+			out.write(body);
+			out.close();
+			body = bytes.toByteArray();
+		}
+		URL url = new URL("http", "127.0.0.1", mServer.getAddress().getPort(), CrashIngestServer.REPORT_PATH);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		try {
+			conn.setDoOutput(true);
+			conn.setRequestMethod("POST");
+			conn.setFixedLengthStreamingMode(body.length);
+			if(gzip) {
+				conn.setRequestProperty("Content-Encoding", "gzip");
+			}
+			OutputStream out = conn.getOutputStream();
+			out.write(body);
+			out.close();
+			return conn.getResponseCode();
+		} finally {
+			conn.disconnect();
+		}
+	}
+	
+	private static CrashLogWriter report(String message) throws IOException {
+		return new CrashLogWriter().header(1)
+				.record(4, "id", 1, 1400000000000L, "java.lang.IllegalStateException", message)
+				.stackTrace(new StackTraceElement[] {new StackTraceElement("A", "b", "A.java", 1)});
+	}
+	
+	@Test
+	public void testReportDecoded() throws Exception {
+		assertEquals(HttpURLConnection.HTTP_OK, post(report("ok").endSections().toByteArray(), true));
+		assertEquals(1, mRecords.size());
+		assertEquals("ok", mRecords.get(0).getMessage());
+	}
+	
+	@Test
+	public void testMalformedReportRejected() throws Exception {
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, post(new byte[] {1, 2, 3}, false));
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, 
+				post(report("huge").writeByte(99).writeInt(Integer.MAX_VALUE).toByteArray(), false));
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, 
+				post(report("negative").beginSection().varInt(-1).endSection(2).toByteArray(), true));
+		
+		//The server still works.
+		assertEquals(HttpURLConnection.HTTP_OK, post(report("ok").endSections().toByteArray(), false));
+		assertEquals(1, mRecords.size());
+	}
+	
+	@Test
+	public void testDecompressionBomb() throws Exception {
+		//Decompresses to more than a report may take.
+		byte[] body = report("bomb").writeByte(99).writeInt(64 * 1024 * 1024).toByteArray();
+		byte[] padded = new byte[body.length + 64 * 1024 * 1024];
+		System.arraycopy(body, 0, padded, 0, body.length);
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, post(padded, true));
+	}
+}
@@ -0,0 +1,247 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 
+ * Decodes every record version, and fails malformed input with an IOException 
+ * without allocating what its counts and lengths claim.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashLogDecoderTest {
+	private static final long CRASH_TIME = 1400000000000L;
+	private static final int TAG_UNKNOWN = 99;
+	
+	private static final StackTraceElement[] TRACE = {
+		new StackTraceElement("org.crashlog.sample.MainActivity", "onClick", "MainActivity.java", 42),
+		new StackTraceElement("android.view.View", "performClick", "View.java", 4438),
+		new StackTraceElement("android.os.Handler", "dispatchMessage", null, -2),
+	};
+	
+	private static CrashRecord decodeOne(CrashLogWriter writer) throws IOException {
+		CrashLogDecoder decoder = new CrashLogDecoder(ByteBuffer.wrap(writer.toByteArray()));
+		assertEquals(1, decoder.readHeader().getRecordCount());
+		return decoder.readRecord();
+	}
+	
+	private static void assertMalformed(CrashLogWriter writer) {
+		try {
+			decodeOne(writer);
+			fail("Malformed input decoded.");
+		} catch (IOException e) {
+			//Expected
+		}
+	}
+	
+	private static void assertCommon(CrashRecord record, int version) {
+		assertEquals(version, record.getVersion());
+		assertEquals("id" + version, record.getCrashId());
+		assertEquals(CRASH_TIME, record.getCrashTime());
+		assertEquals("main", record.getThreadName());
+		assertEquals("java.lang.IllegalStateException", record.getCause());
+		assertEquals("v" + version, record.getMessage());
+		assertArrayEquals(TRACE, record.getStackTrace());
+	}
+	
+	private static CrashLogWriter v4Record() throws IOException {
+		return new CrashLogWriter().header(1)
+				.record(4, "id4", 7, CRASH_TIME, "java.lang.IllegalStateException", "v4")
+				.stackTrace(TRACE);
+	}
+	
+	@Test
+	public void testVersion1() throws Exception {
+		CrashRecord record = decodeOne(new CrashLogWriter().header(1)
+				.record(1, "id1", 1, CRASH_TIME, "java.lang.IllegalStateException", "v1")
+				.stackTraceV1(TRACE));
+		assertCommon(record, 1);
+		assertEquals(1, record.getCount());
+		assertEquals(CRASH_TIME, record.getLastCrashTime());
+	}
+	
+	@Test
+	public void testVersion2() throws Exception {
+		CrashRecord record = decodeOne(new CrashLogWriter().header(1)
+				.record(2, "id2", 1, CRASH_TIME, "java.lang.IllegalStateException", "v2")
+				.stackTrace(TRACE));
+		assertCommon(record, 2);
+		assertEquals(1, record.getCount());
+	}
+	
+	@Test
+	public void testVersion3() throws Exception {
+		CrashRecord record = decodeOne(new CrashLogWriter().header(1)
+				.record(3, "id3", 5, CRASH_TIME, "java.lang.IllegalStateException", "v3")
+				.stackTrace(TRACE));
+		assertCommon(record, 3);
+		assertEquals(5, record.getCount());
+		assertEquals(CRASH_TIME + 1000, record.getLastCrashTime());
+	}
+	
+	@Test
+	public void testVersion4Sections() throws Exception {
+		StackTraceElement[] causeFrames = { new StackTraceElement("java.io.File", "open", "File.java", 10) };
+		CrashRecord record = decodeOne(v4Record()
+				.beginSection()
+				.thread("worker", Thread.State.WAITING, TRACE)
+				.endSection(1)
+				.beginSection()
+				.cause(0, 0, "java.io.IOException", "caused", causeFrames, 2)
+				.cause(1, 1, "java.lang.RuntimeException", "suppressed", causeFrames, 0)
+				.endSection(2)
+				.beginSection()
+				.writeInt(123456)
+				.endSection(TAG_UNKNOWN)
+				.beginSection()
+				.breadcrumbs(3, new long[] {10, 500}, new String[] {"latest", "oldest"})
+				.endSection(3)
+				.endSections());
+		assertCommon(record, 4);
+		assertEquals(7, record.getCount());
+		
+		List<CrashThread> threads = record.getThreads();
+		assertEquals(1, threads.size());
+		assertEquals("worker", threads.get(0).getName());
+		assertEquals(Thread.State.WAITING, threads.get(0).getState());
+		assertArrayEquals(TRACE, threads.get(0).getStackTrace());
+		
+		CrashCause causedBy = record.getCausedBy();
+		assertEquals("java.io.IOException", causedBy.getClassName());
+		assertEquals("caused", causedBy.getMessage());
+		assertEquals(2, causedBy.getFramesInCommon());
+		assertArrayEquals(new StackTraceElement[] {causeFrames[0], TRACE[1], TRACE[2]}, causedBy.getStackTrace());
+		assertEquals(1, causedBy.getSuppressed().size());
+		assertEquals("suppressed", causedBy.getSuppressed().get(0).getMessage());
+		assertArrayEquals(causeFrames, causedBy.getSuppressed().get(0).getStackTrace());
+		assertEquals(0, record.getSuppressed().size());
+		
+		List<CrashBreadcrumb> breadcrumbs = record.getBreadcrumbs();
+		assertEquals(3, record.getBreadcrumbsDropped());
+		assertEquals(2, breadcrumbs.size());
+		assertEquals("oldest", breadcrumbs.get(0).getMessage());
+		assertEquals(CRASH_TIME - 500, breadcrumbs.get(0).getTime());
+		assertEquals("latest", breadcrumbs.get(1).getMessage());
+	}
+	
+	@Test
+	public void testSignaturesBlockIsOptional() throws Exception {
+		CrashLogDecoder decoder = new CrashLogDecoder(ByteBuffer.wrap(v4Record().endSections().toByteArray()));
+		decoder.readHeader();
+		decoder.readRecord();
+		assertNull(decoder.readSignatures());
+	}
+	
+	@Test
+	public void testHugeStackTraceCount() throws Exception {
+		assertMalformed(new CrashLogWriter().header(1)
+				.record(4, "id4", 1, CRASH_TIME, "java.lang.Error", "")
+				.varInt(Integer.MAX_VALUE));
+	}
+	
+	@Test
+	public void testNegativeCount() throws Exception {
+		assertMalformed(new CrashLogWriter().header(1)
+				.record(4, "id4", 1, CRASH_TIME, "java.lang.Error", "")
+				.varInt(-1));
+	}
+	
+	@Test
+	public void testHugeUnknownSection() throws Exception {
+		assertMalformed(v4Record().writeByte(TAG_UNKNOWN).writeInt(Integer.MAX_VALUE).writeInt(0));
+	}
+	
+	@Test
+	public void testUnknownSectionBeyondLimit() throws Exception {
+		byte[] bytes = v4Record().writeByte(TAG_UNKNOWN).writeInt(1 << 30).writeInt(0).toByteArray();
+		CrashLogDecoder decoder = new CrashLogDecoder(new ByteArrayInputStream(bytes), 4096);
+		decoder.readHeader();
+		try {
+			decoder.readRecord();
+			fail("Section beyond the limit decoded.");
+		} catch (IOException e) {
+			//Expected
+		}
+	}
+	
+	@Test
+	public void testHugeThreadFrameCount() throws Exception {
+		assertMalformed(v4Record()
+				.beginSection()
+				.stringRef("worker").writeByte(0).varInt(1).varInt(Integer.MAX_VALUE)
+				.endSection(1)
+				.endSections());
+	}
+	
+	@Test
+	public void testNegativeCauseParent() throws Exception {
+		assertMalformed(v4Record()
+				.beginSection()
+				.varInt(-1).writeByte(0).stringRef("java.lang.Error").utf("").varInt(0).varInt(0)
+				.endSection(2)
+				.endSections());
+	}
+	
+	@Test
+	public void testNegativeFramesInCommon() throws Exception {
+		assertMalformed(v4Record()
+				.beginSection()
+				.varInt(0).writeByte(0).stringRef("java.lang.Error").utf("").varInt(-1).varInt(0)
+				.endSection(2)
+				.endSections());
+	}
+	
+	@Test
+	public void testNegativeStringReference() throws Exception {
+		assertMalformed(new CrashLogWriter().header(1)
+				.record(4, "id4", 1, CRASH_TIME, "java.lang.Error", "")
+				.varInt(1).varInt(-1));
+	}
+	
+	@Test
+	public void testInputBeyondLimit() throws Exception {
+		byte[] bytes = v4Record().endSections().toByteArray();
+		CrashLogDecoder decoder = new CrashLogDecoder(new ByteArrayInputStream(bytes), bytes.length - 1);
+		decoder.readHeader();
+		try {
+			decoder.readRecord();
+			fail("Input beyond the limit decoded.");
+		} catch (IOException e) {
+			//Expected
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 
+ * Writes crash reports for the decoder tests, including record versions 
+ * the SDK does not write any more, and malformed input.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+final class CrashLogWriter {
+	private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+	private final DataOutputStream mOut = new DataOutputStream(mBytes);
+	private final Map<String, Integer> mStrings = new HashMap<String, Integer>();
+	private final Map<StackTraceElement, Integer> mFrames = new HashMap<StackTraceElement, Integer>();
+	private ByteArrayOutputStream mSection;
+	private DataOutputStream mRecordOut;
+	
+	byte[] toByteArray() {
+		return mBytes.toByteArray();
+	}
+	
+	private DataOutputStream out() {
+		return mSection != null ? mRecordOut : mOut;
+	}
+	
+	CrashLogWriter header(int recordCount) throws IOException {
+		mOut.writeInt(CrashLogDecoder.MAGIC_NUM);
+		mOut.writeInt(4);
+		utf("1.0");
+		mOut.writeByte(1);
+		utf("JVM");
+		mOut.writeInt(8);
+		utf("2.2");
+		utf("org.crashlog.sample");
+		mOut.writeByte(recordCount);
+		return this;
+	}
+	
+	/**
+	 * Write the record fields up to the stack trace.
+	 * 
+	 * @param version 1 to 4.
+	 */
+	CrashLogWriter record(int version, String crashId, int count, long crashTime, String cause, String message) throws IOException {
+		mStrings.clear();
+		mFrames.clear();
+		if(version >= 2) {
+			mOut.writeByte(version);
+		}
+		if(version >= 3) {
+			mOut.writeInt(count);
+			mOut.writeLong(crashTime + 1000);
+		}
+		utf(crashId);
+		mOut.writeLong(crashTime);
+		for(int i = 0; i < 6; i++) {
+			mOut.writeLong(i + 1);
+		}
+		utf("main");
+		utf("org.crashlog.sample");
+		utf(cause);
+		utf(message);
+		return this;
+	}
+	
+	CrashLogWriter stackTraceV1(StackTraceElement[] elements) throws IOException {
+		mOut.writeShort(elements.length);
+		for(StackTraceElement element : elements) {
+			utf(element.getClassName());
+			utf(element.getFileName() != null ? element.getFileName() : "");
+			utf(element.getMethodName());
+			mOut.writeInt(element.getLineNumber());
+			mOut.writeBoolean(element.isNativeMethod());
+		}
+		return this;
+	}
+	
+	CrashLogWriter stackTrace(StackTraceElement[] elements) throws IOException {
+		varInt(elements.length);
+		for(StackTraceElement element : elements) {
+			stringRef(element.getClassName());
+			stringRef(element.getFileName());
+			stringRef(element.getMethodName());
+			int line = element.getLineNumber();
+			varInt((line << 1) ^ (line >> 31));
+		}
+		return this;
+	}
+	
+	/**
+	 * Start a tagged section of a version 4 record.
+	 */
+	CrashLogWriter beginSection() {
+		mSection = new ByteArrayOutputStream();
+		mRecordOut = new DataOutputStream(mSection);
+		return this;
+	}
+	
+	CrashLogWriter endSection(int tag) throws IOException {
+		mRecordOut.flush();
+		byte[] payload = mSection.toByteArray();
+		mSection = null;
+		mOut.writeByte(tag);
+		mOut.writeInt(payload.length);
+		mOut.write(payload);
+		return this;
+	}
+	
+	CrashLogWriter endSections() throws IOException {
+		mOut.writeByte(0);
+		return this;
+	}
+	
+	CrashLogWriter thread(String name, Thread.State state, StackTraceElement[] elements) throws IOException {
+		stringRef(name);
+		out().writeByte(state.ordinal());
+		varInt(elements.length);
+		varInt(elements.length);
+		for(StackTraceElement element : elements) {
+			frame(element);
+		}
+		return this;
+	}
+	
+	/**
+	 * @param parent Index of the parent cause plus one, 0 for the record itself.
+	 * @param kind 0 for caused by, 1 for suppressed.
+	 */
+	CrashLogWriter cause(int parent, int kind, String className, String message, 
+			StackTraceElement[] unique, int framesInCommon) throws IOException {
+		varInt(parent);
+		out().writeByte(kind);
+		stringRef(className);
+		utf(message);
+		varInt(framesInCommon);
+		varInt(unique.length);
+		for(StackTraceElement element : unique) {
+			frame(element);
+		}
+		return this;
+	}
+	
+	/**
+	 * @param ago Msec before the crash, latest first.
+	 */
+	CrashLogWriter breadcrumbs(int dropped, long[] ago, String[] messages) throws IOException {
+		varInt(dropped);
+		for(int i = 0; i < ago.length; i++) {
+			varInt((int) ago[i]);
+			utf(messages[i]);
+		}
+		return this;
+	}
+	
+	CrashLogWriter frame(StackTraceElement element) throws IOException {
+		Integer ref = mFrames.get(element);
+		if(ref != null) {
+			varInt(ref);
+			return this;
+		}
+		varInt(0);
+		stringRef(element.getClassName());
+		stringRef(element.getFileName());
+		stringRef(element.getMethodName());
+		int line = element.getLineNumber();
+		varInt((line << 1) ^ (line >> 31));
+		mFrames.put(element, mFrames.size() + 1);
+		return this;
+	}
+	
+	CrashLogWriter stringRef(String s) throws IOException {
+		if(s == null) {
+			varInt(0);
+			return this;
+		}
+		Integer ref = mStrings.get(s);
+		if(ref != null) {
+			varInt(ref);
+			return this;
+		}
+		varInt(1);
+		utf(s);
+		mStrings.put(s, mStrings.size() + 2);
+		return this;
+	}
+	
+	CrashLogWriter utf(String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out().writeShort(bytes.length);
+		out().write(bytes);
+		return this;
+	}
+	
+	CrashLogWriter varInt(int val) throws IOException {
+		while((val & ~0x7f) != 0) {
+			out().writeByte((val & 0x7f) | 0x80);
+			val >>>= 7;
+		}
+		out().writeByte(val);
+		return this;
+	}
+	
+	CrashLogWriter writeByte(int val) throws IOException {
+		out().writeByte(val);
+		return this;
+	}
+	
+	CrashLogWriter writeInt(int val) throws IOException {
+		out().writeInt(val);
+		return this;
+	}
+}
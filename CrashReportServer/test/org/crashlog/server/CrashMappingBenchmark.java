@@ -0,0 +1,269 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+package org.crashlog.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Cost of {@link CrashMapping} for a generated mapping file of about {@link #MAPPING_BYTES}: 
+ * classes of fields and methods with line ranges, some inlined, some overloaded under one name. 
+ * It compiles the mapping into an index, opens it, then retraces traces of {@link #TRACE_DEPTH} 
+ * obfuscated frames with {@link CrashRetracer#retrace(CrashMapping, StackTraceElement[])} 
+ * on 1 and 4 threads sharing the mapping for {@link #MEASURE_MILLIS} each.
+ * 
+ * Run as a Java application, prints compile and open milliseconds, the index size, 
+ * the heap retained by the opened mapping and frames per second.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashMappingBenchmark {
+	private static final long MAPPING_BYTES = 50L * 1024 * 1024;
+	private static final int METHODS_PER_CLASS = 20;
+	private static final int FIELDS_PER_CLASS = 4;
+	private static final int LINES_PER_METHOD = 12;
+	private static final int TRACE_DEPTH = 32;
+	private static final int TRACES = 1024;
+	private static final int[] THREAD_COUNTS = {1, 4};
+	private static final long WARM_UP_MILLIS = 2000;
+	private static final long MEASURE_MILLIS = 5000;
+	
+	private static final String[] PACKAGES = {
+		"com.example.shop.ui.cart", "com.example.shop.ui.product", "com.example.shop.data.remote", 
+		"com.example.shop.data.local", "com.example.shop.checkout", "com.google.android.material.internal", 
+		"androidx.recyclerview.widget", "okhttp3.internal.http2", "kotlinx.coroutines.internal", 
+	};
+	
+	private static final String[] TYPES = {"void", "int", "boolean", "java.lang.String", "java.util.List", 
+		"android.view.View", "android.os.Bundle"};
+	
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("crashlog_mapping", "");
+		dir.delete();
+		dir.mkdirs();
+		File mappingFile = new File(dir, CrashMappingCache.MAPPING_FILE_NAME);
+		File indexFile = new File(dir, CrashMappingCache.INDEX_FILE_NAME);
+		try {
+			int classes = writeMapping(mappingFile, new Random(18));
+			System.out.printf("mapping %.1f MB, %d classes of %d methods%n", 
+					mappingFile.length() / 1048576.0, classes, METHODS_PER_CLASS);
+			
+			long start = System.nanoTime();
+			CrashMapping.compile(mappingFile, indexFile);
+			long compileNanos = System.nanoTime() - start;
+			
+			long heap = usedHeap();
+			start = System.nanoTime();
+			CrashMapping mapping = CrashMapping.open(indexFile);
+			long openNanos = System.nanoTime() - start;
+			long retained = usedHeap() - heap;
+			System.out.printf("compile %.0f ms  open %.2f ms  index %.1f MB  heap retained %d KB%n", 
+					compileNanos / 1e6, openNanos / 1e6, indexFile.length() / 1048576.0, 
+					Math.max(0, retained) / 1024);
+			
+			StackTraceElement[][] traces = createTraces(new Random(19), classes);
+			for(StackTraceElement[] trace : traces) {
+				for(StackTraceElement element : CrashRetracer.retrace(mapping, trace)) {
+					if(!element.getMethodName().startsWith("method") && !element.getMethodName().startsWith("check")) {
+						throw new AssertionError("Not retraced: " + element);
+					}
+				}
+			}
+			for(int threads : THREAD_COUNTS) {
+				retrace(mapping, traces, threads, WARM_UP_MILLIS);
+				long frames = retrace(mapping, traces, threads, MEASURE_MILLIS);
+				System.out.printf("%d threads  %9.0f frames/s%n", threads, frames * 1000.0 / MEASURE_MILLIS);
+			}
+		} finally {
+			mappingFile.delete();
+			indexFile.delete();
+			dir.delete();
+		}
+	}
+	
+	/**
+	 * @return Number of frames retraced by all threads in <code>millis</code>.
+	 */
+	private static long retrace(final CrashMapping mapping, final StackTraceElement[][] traces, int threadCount, 
+			final long millis) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong frames = new AtomicLong();
+		Thread[] threads = new Thread[threadCount];
+		for(int i = 0; i < threads.length; i++) {
+			final int first = i * traces.length / threads.length;
+			threads[i] = new Thread() {
+				
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long end = System.nanoTime() + millis * 1000000;
+					long count = 0;
+					for(int t = first; System.nanoTime() < end; t = (t + 1) % traces.length) {
+						if(CrashRetracer.retrace(mapping, traces[t]).length < TRACE_DEPTH) {
+							throw new AssertionError("Frames lost.");
+						}
+						count += TRACE_DEPTH;
+					}
+					frames.addAndGet(count);
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		return frames.get();
+	}
+	
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Frames of random methods at a line in range. Class <code>i</code> is obfuscated as 
+	 * {@link #obfuscatedName(int)}, its method <code>j</code> as {@link #obfuscatedName(int)} of <code>j / 2</code>, 
+	 * so pairs of methods are overloads of one name told apart by their line ranges.
+	 */
+	private static StackTraceElement[][] createTraces(Random random, int classes) {
+		StackTraceElement[][] traces = new StackTraceElement[TRACES][TRACE_DEPTH];
+		for(StackTraceElement[] trace : traces) {
+			for(int i = 0; i < trace.length; i++) {
+				int method = random.nextInt(METHODS_PER_CLASS);
+				trace[i] = new StackTraceElement(obfuscatedName(random.nextInt(classes)), 
+						obfuscatedName(method / 2), "SourceFile", 
+						method * LINES_PER_METHOD + 1 + random.nextInt(LINES_PER_METHOD));
+			}
+		}
+		return traces;
+	}
+	
+	/**
+	 * Write classes until the mapping file reaches {@link #MAPPING_BYTES}.
+	 * 
+	 * @return Number of classes.
+	 */
+	private static int writeMapping(File file, Random random) throws IOException {
+		CountingWriter writer = new CountingWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024));
+		int classes = 0;
+		try {
+			writer.write("# compiler: R8\n# pg_map_id: 1a2b3c4\n");
+			while(writer.mCount < MAPPING_BYTES) {
+				String pkg = PACKAGES[random.nextInt(PACKAGES.length)];
+				String className = pkg + ".Generated" + classes;
+				writer.write(className + " -> " + obfuscatedName(classes) + ":\n");
+				for(int f = 0; f < FIELDS_PER_CLASS; f++) {
+					writer.write("    " + TYPES[1 + random.nextInt(TYPES.length - 1)] + " field" + f 
+							+ " -> " + obfuscatedName(f) + "\n");
+				}
+				for(int m = 0; m < METHODS_PER_CLASS; m++) {
+					int obfStart = m * LINES_PER_METHOD + 1;
+					int obfEnd = obfStart + LINES_PER_METHOD - 1;
+					int origStart = 20 + random.nextInt(2000);
+					String signature = TYPES[random.nextInt(TYPES.length)] + " method" + m 
+							+ "(" + TYPES[1 + random.nextInt(TYPES.length - 1)] + ")";
+					String range = "    " + obfStart + ":" + obfEnd + ":";
+					if(random.nextInt(4) == 0) {
+						//A method inlined into this one, innermost first.
+						writer.write(range + "void " + pkg + ".Util" + random.nextInt(100) + ".check" + m 
+								+ "(int):" + (10 + random.nextInt(90)) + ":" + (10 + random.nextInt(90)) 
+								+ " -> " + obfuscatedName(m / 2) + "\n");
+						writer.write(range + signature + ":" + origStart + " -> " + obfuscatedName(m / 2) + "\n");
+					} else {
+						writer.write(range + signature + ":" + origStart + ":" + (origStart + LINES_PER_METHOD - 1) 
+								+ " -> " + obfuscatedName(m / 2) + "\n");
+					}
+				}
+				classes++;
+			}
+		} finally {
+			writer.close();
+		}
+		return classes;
+	}
+	
+	/**
+	 * a, b, ..., z, aa, ab, ... as R8 names, classes are moved to the default package.
+	 */
+	private static String obfuscatedName(int index) {
+		StringBuilder sb = new StringBuilder();
+		do {
+			sb.append((char) ('a' + index % 26));
+			index = index / 26 - 1;
+		} while(index >= 0);
+		return sb.reverse().toString();
+	}
+	
+	/**
+	 * Counts chars written, the mapping is ASCII so they are the file bytes.
+	 */
+	private static class CountingWriter extends Writer {
+		private final Writer mOut;
+		private long mCount;
+		
+		CountingWriter(Writer out) {
+			mOut = out;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			mOut.write(cbuf, off, len);
+			mCount += len;
+		}
+		
+		@Override
+		public void write(String str) throws IOException {
+			mOut.write(str);
+			mCount += str.length();
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			mOut.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			mOut.close();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 
+ * Compares record version 1, every frame as three UTF strings, an int line number and a native flag, 
+ * with version 2, frames of the record string table and varint line numbers, 
+ * on a corpus of Android crash traces: app frames over framework frames of the main looper, 
+ * view clicks, RecyclerView layout, Choreographer frames, OkHttp and RxJava workers and AsyncTask, 
+ * and some deep recursions of {@link StackOverflowError}. Records are written by {@link CrashLogWriter} 
+ * in reports of {@link #RECORDS_PER_REPORT}, as batches are uploaded, and read by {@link CrashLogDecoder}.
+ * 
+ * Run as a Java application, prints bytes raw and gzip, and write and decode milliseconds of the corpus 
+ * for each version.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashRecordVersionBenchmark {
+	private static final int TRACES = 1000;
+	private static final int RECORDS_PER_REPORT = 50;
+	private static final int ROUNDS = 20;
+	private static final int STACK_OVERFLOW_DEPTH = 1024;
+	
+	private static final String[][] MAIN_LOOPER = {
+		{"android.os.Handler", "handleCallback", "Handler.java", "873"}, 
+		{"android.os.Handler", "dispatchMessage", "Handler.java", "99"}, 
+		{"android.os.Looper", "loop", "Looper.java", "193"}, 
+		{"android.app.ActivityThread", "main", "ActivityThread.java", "6669"}, 
+		{"java.lang.reflect.Method", "invoke", null, "-2"}, 
+		{"com.android.internal.os.RuntimeInit$MethodAndArgsCaller", "run", "RuntimeInit.java", "493"}, 
+		{"com.android.internal.os.ZygoteInit", "main", "ZygoteInit.java", "858"}, 
+	};
+	
+	private static final String[][] VIEW_CLICK = {
+		{"android.view.View", "performClick", "View.java", "6597"}, 
+		{"android.view.View", "performClickInternal", "View.java", "6574"}, 
+		{"android.view.View", "access$3100", "View.java", "778"}, 
+		{"android.view.View$PerformClick", "run", "View.java", "25885"}, 
+	};
+	
+	private static final String[][] RECYCLER_LAYOUT = {
+		{"androidx.recyclerview.widget.RecyclerView$Adapter", "onBindViewHolder", "RecyclerView.java", "7065"}, 
+		{"androidx.recyclerview.widget.RecyclerView$Adapter", "bindViewHolder", "RecyclerView.java", "7107"}, 
+		{"androidx.recyclerview.widget.RecyclerView$Recycler", "tryBindViewHolderByDeadline", "RecyclerView.java", "6012"}, 
+		{"androidx.recyclerview.widget.RecyclerView$Recycler", "tryGetViewHolderForPositionByDeadline", "RecyclerView.java", "6279"}, 
+		{"androidx.recyclerview.widget.LinearLayoutManager", "fill", "LinearLayoutManager.java", "1587"}, 
+		{"androidx.recyclerview.widget.LinearLayoutManager", "onLayoutChildren", "LinearLayoutManager.java", "665"}, 
+		{"androidx.recyclerview.widget.RecyclerView", "dispatchLayoutStep2", "RecyclerView.java", "4134"}, 
+		{"androidx.recyclerview.widget.RecyclerView", "onLayout", "RecyclerView.java", "4577"}, 
+		{"android.view.View", "layout", "View.java", "21912"}, 
+		{"android.view.ViewGroup", "layout", "ViewGroup.java", "6260"}, 
+		{"android.widget.FrameLayout", "onLayout", "FrameLayout.java", "261"}, 
+		{"android.view.View", "layout", "View.java", "21912"}, 
+		{"android.view.ViewRootImpl", "performLayout", "ViewRootImpl.java", "3080"}, 
+		{"android.view.ViewRootImpl", "performTraversals", "ViewRootImpl.java", "2590"}, 
+		{"android.view.ViewRootImpl$TraversalRunnable", "run", "ViewRootImpl.java", "7542"}, 
+		{"android.view.Choreographer$CallbackRecord", "run", "Choreographer.java", "949"}, 
+		{"android.view.Choreographer", "doCallbacks", "Choreographer.java", "761"}, 
+		{"android.view.Choreographer", "doFrame", "Choreographer.java", "696"}, 
+		{"android.view.Choreographer$FrameDisplayEventReceiver", "run", "Choreographer.java", "935"}, 
+	};
+	
+	private static final String[][] OKHTTP_WORKER = {
+		{"okhttp3.internal.http.RealInterceptorChain", "proceed", "RealInterceptorChain.kt", "109"}, 
+		{"okhttp3.internal.connection.ConnectInterceptor", "intercept", "ConnectInterceptor.kt", "34"}, 
+		{"okhttp3.internal.http.RealInterceptorChain", "proceed", "RealInterceptorChain.kt", "109"}, 
+		{"okhttp3.internal.cache.CacheInterceptor", "intercept", "CacheInterceptor.kt", "95"}, 
+		{"okhttp3.internal.http.RealInterceptorChain", "proceed", "RealInterceptorChain.kt", "109"}, 
+		{"okhttp3.internal.http.BridgeInterceptor", "intercept", "BridgeInterceptor.kt", "83"}, 
+		{"okhttp3.internal.http.RealInterceptorChain", "proceed", "RealInterceptorChain.kt", "109"}, 
+		{"okhttp3.internal.http.RetryAndFollowUpInterceptor", "intercept", "RetryAndFollowUpInterceptor.kt", "76"}, 
+		{"okhttp3.internal.http.RealInterceptorChain", "proceed", "RealInterceptorChain.kt", "109"}, 
+		{"okhttp3.internal.connection.RealCall", "getResponseWithInterceptorChain$okhttp", "RealCall.kt", "201"}, 
+		{"okhttp3.internal.connection.RealCall$AsyncCall", "run", "RealCall.kt", "517"}, 
+		{"java.util.concurrent.ThreadPoolExecutor", "runWorker", "ThreadPoolExecutor.java", "1167"}, 
+		{"java.util.concurrent.ThreadPoolExecutor$Worker", "run", "ThreadPoolExecutor.java", "641"}, 
+		{"java.lang.Thread", "run", "Thread.java", "919"}, 
+	};
+	
+	private static final String[][] RX_WORKER = {
+		{"io.reactivex.internal.operators.observable.ObservableMap$MapObserver", "onNext", "ObservableMap.java", "62"}, 
+		{"io.reactivex.internal.operators.observable.ObservableSubscribeOn$SubscribeOnObserver", "onNext", "ObservableSubscribeOn.java", "58"}, 
+		{"io.reactivex.internal.operators.observable.ObservableFromCallable", "subscribeActual", "ObservableFromCallable.java", "48"}, 
+		{"io.reactivex.Observable", "subscribe", "Observable.java", "12267"}, 
+		{"io.reactivex.internal.operators.observable.ObservableSubscribeOn$SubscribeTask", "run", "ObservableSubscribeOn.java", "96"}, 
+		{"io.reactivex.Scheduler$DisposeTask", "run", "Scheduler.java", "578"}, 
+		{"io.reactivex.internal.schedulers.ScheduledRunnable", "run", "ScheduledRunnable.java", "66"}, 
+		{"io.reactivex.internal.schedulers.ScheduledRunnable", "call", "ScheduledRunnable.java", "57"}, 
+		{"java.util.concurrent.FutureTask", "run", "FutureTask.java", "266"}, 
+		{"java.util.concurrent.ScheduledThreadPoolExecutor$ScheduledFutureTask", "run", "ScheduledThreadPoolExecutor.java", "301"}, 
+		{"java.util.concurrent.ThreadPoolExecutor", "runWorker", "ThreadPoolExecutor.java", "1167"}, 
+		{"java.util.concurrent.ThreadPoolExecutor$Worker", "run", "ThreadPoolExecutor.java", "641"}, 
+		{"java.lang.Thread", "run", "Thread.java", "919"}, 
+	};
+	
+	private static final String[][] ASYNC_TASK = {
+		{"android.os.AsyncTask$3", "call", "AsyncTask.java", "378"}, 
+		{"java.util.concurrent.FutureTask", "run", "FutureTask.java", "266"}, 
+		{"android.os.AsyncTask$SerialExecutor$1", "run", "AsyncTask.java", "289"}, 
+		{"java.util.concurrent.ThreadPoolExecutor", "runWorker", "ThreadPoolExecutor.java", "1167"}, 
+		{"java.util.concurrent.ThreadPoolExecutor$Worker", "run", "ThreadPoolExecutor.java", "641"}, 
+		{"java.lang.Thread", "run", "Thread.java", "919"}, 
+	};
+	
+	private static final String[] APP_CLASSES = {
+		"com.example.shop.ui.cart.CartFragment", "com.example.shop.ui.cart.CartAdapter", 
+		"com.example.shop.ui.product.ProductActivity", "com.example.shop.ui.product.ProductViewModel", 
+		"com.example.shop.data.ProductRepository", "com.example.shop.data.remote.ApiClient", 
+		"com.example.shop.data.local.CartDao_Impl", "com.example.shop.util.PriceFormatter", 
+		"com.example.shop.checkout.CheckoutPresenter", "com.example.shop.checkout.PaymentValidator", 
+	};
+	
+	private static final String[] APP_METHODS = {
+		"onBindViewHolder", "onClick", "onCreate", "load", "parse", "format", "validate", "lambda$load$0", 
+		"apply", "onResponse", "getTotal", "update", 
+	};
+	
+	public static void main(String[] args) throws IOException {
+		List<StackTraceElement[]> corpus = createCorpus(new Random(9));
+		long frames = 0;
+		for(StackTraceElement[] trace : corpus) {
+			frames += trace.length;
+		}
+		System.out.printf("%d traces, %d frames%n", corpus.size(), frames);
+		
+		long[] nanos = new long[4];
+		byte[][][] reports = new byte[2][][];
+		for(int round = -ROUNDS; round < ROUNDS; round++) { //Negative rounds warm up.
+			for(int v = 0; v < 2; v++) {
+				long start = System.nanoTime();
+				reports[v] = write(corpus, v == 0 ? 1 : 2);
+				long written = System.nanoTime();
+				decode(reports[v]);
+				if(round >= 0) {
+					nanos[v * 2] += written - start;
+					nanos[v * 2 + 1] += System.nanoTime() - written;
+				}
+			}
+		}
+		for(int v = 0; v < 2; v++) {
+			long raw = 0;
+			long gzip = 0;
+			for(byte[] report : reports[v]) {
+				raw += report.length;
+				gzip += gzip(report).length;
+			}
+			System.out.printf("v%d  %9d B raw  %8d B gzip  %6.1f B/frame  write %6.2f ms  decode %6.2f ms%n", 
+					v + 1, raw, gzip, (double) raw / frames, 
+					nanos[v * 2] / 1e6 / ROUNDS, nanos[v * 2 + 1] / 1e6 / ROUNDS);
+		}
+	}
+	
+	private static byte[][] write(List<StackTraceElement[]> corpus, int version) throws IOException {
+		int reportCount = (corpus.size() + RECORDS_PER_REPORT - 1) / RECORDS_PER_REPORT;
+		byte[][] reports = new byte[reportCount][];
+		for(int r = 0; r < reportCount; r++) {
+			int end = Math.min(corpus.size(), (r + 1) * RECORDS_PER_REPORT);
+			CrashLogWriter writer = new CrashLogWriter().header(end - r * RECORDS_PER_REPORT);
+			for(int i = r * RECORDS_PER_REPORT; i < end; i++) {
+				StackTraceElement[] trace = corpus.get(i);
+				writer.record(version, "crash" + i, 1, 1400000000000L + i, 
+						trace.length == STACK_OVERFLOW_DEPTH ? "java.lang.StackOverflowError" : "java.lang.IllegalStateException", 
+						"Crash " + i);
+				if(version == 1) {
+					writer.stackTraceV1(trace);
+				} else {
+					writer.stackTrace(trace);
+				}
+			}
+			reports[r] = writer.toByteArray();
+		}
+		return reports;
+	}
+	
+	private static void decode(byte[][] reports) throws IOException {
+		for(byte[] report : reports) {
+			CrashLogDecoder decoder = new CrashLogDecoder(ByteBuffer.wrap(report));
+			int count = decoder.readHeader().getRecordCount();
+			for(int i = 0; i < count; i++) {
+				if(decoder.readRecord().getStackTrace().length == 0) {
+					throw new IOException("No frames decoded.");
+				}
+			}
+		}
+	}
+	
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Traces of app frames over framework frames, 1 in 50 a deep recursion of app frames.
+	 */
+	private static List<StackTraceElement[]> createCorpus(Random random) {
+		String[][][] bottoms = {MAIN_LOOPER, OKHTTP_WORKER, RX_WORKER, ASYNC_TASK};
+		List<StackTraceElement[]> corpus = new ArrayList<StackTraceElement[]>();
+		for(int t = 0; t < TRACES; t++) {
+			List<StackTraceElement> trace = new ArrayList<StackTraceElement>();
+			if(random.nextInt(50) == 0) {
+				StackTraceElement[] cycle = {appFrame(random), appFrame(random), appFrame(random)};
+				while(trace.size() < STACK_OVERFLOW_DEPTH - MAIN_LOOPER.length) {
+					trace.add(cycle[trace.size() % cycle.length]);
+				}
+				add(trace, MAIN_LOOPER);
+				corpus.add(trace.toArray(new StackTraceElement[trace.size()]));
+				continue;
+			}
+			
+			int appFrames = 2 + random.nextInt(12);
+			for(int i = 0; i < appFrames; i++) {
+				trace.add(appFrame(random));
+			}
+			String[][] bottom = bottoms[random.nextInt(bottoms.length)];
+			if(bottom == MAIN_LOOPER) {
+				add(trace, random.nextBoolean() ? VIEW_CLICK : RECYCLER_LAYOUT);
+			}
+			add(trace, bottom);
+			corpus.add(trace.toArray(new StackTraceElement[trace.size()]));
+		}
+		return corpus;
+	}
+	
+	private static StackTraceElement appFrame(Random random) {
+		String className = APP_CLASSES[random.nextInt(APP_CLASSES.length)];
+		String fileName = className.substring(className.lastIndexOf('.') + 1) + ".java";
+		return new StackTraceElement(className, APP_METHODS[random.nextInt(APP_METHODS.length)], 
+				fileName, 20 + random.nextInt(400));
+	}
+	
+	private static void add(List<StackTraceElement> trace, String[][] frames) {
+		for(String[] frame : frames) {
+			trace.add(new StackTraceElement(frame[0], frame[1], frame[2], Integer.parseInt(frame[3])));
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/* The MIT License (MIT)
+
+Copyright (c) 2014 Liu,Yanjun
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE. */
+
+
+package org.crashlog.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * 
+ * Every stack trace of a record is retraced: the crash, its causes and suppressed exceptions, 
+ * and the thread dumps.
+ * 
+ * @see http://www.crashlog.org
+ *
+ */
+public class CrashRetracerTest {
+	private static final String MAPPING = 
+			"org.crashlog.sample.MainActivity -> a.a:\n" 
+			+ "    1:10:void onClick(android.view.View):42:51 -> a\n" 
+			+ "org.crashlog.sample.Worker -> a.b:\n" 
+			+ "    1:5:void run():20:24 -> b\n" 
+			+ "org.crashlog.sample.BadStateException -> a.c:\n";
+	
+	private static final StackTraceElement CLICK = new StackTraceElement("a.a", "a", "SourceFile", 3);
+	private static final StackTraceElement RUN = new StackTraceElement("a.b", "b", "SourceFile", 2);
+	private static final StackTraceElement VIEW = new StackTraceElement("android.view.View", "performClick", "View.java", 4438);
+	
+	private static File sDir;
+	private static CrashMapping sMapping;
+	
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		sDir = File.createTempFile("crashlog_retrace", "");
+		sDir.delete();
+		sDir.mkdirs();
+		File mappingFile = new File(sDir, "mapping.txt");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(mappingFile), "UTF-8");
+		try {
+			writer.write(MAPPING);
+		} finally {
+			writer.close();
+		}
+		File indexFile = new File(sDir, "mapping.idx");
+		CrashMapping.compile(mappingFile, indexFile);
+		sMapping = CrashMapping.open(indexFile);
+	}
+	
+	@AfterClass
+	public static void tearDownClass() {
+		File[] files = sDir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		sDir.delete();
+	}
+	
+	static CrashLogWriter obfuscatedRecord() throws IOException {
+		return new CrashLogWriter().header(1)
+				.record(4, "id", 1, 1400000000000L, "a.c", "crash")
+				.stackTrace(new StackTraceElement[] {CLICK, VIEW});
+	}
+	
+	static CrashRecord retrace(CrashLogWriter writer) throws IOException {
+		CrashLogDecoder decoder = new CrashLogDecoder(ByteBuffer.wrap(writer.toByteArray()));
+		decoder.readHeader();
+		CrashRecord record = decoder.readRecord();
+		CrashRetracer.retrace(sMapping, record);
+		return record;
+	}
+	
+	static void assertFrame(String className, String methodName, String fileName, int line, StackTraceElement element) {
+		assertEquals(className, element.getClassName());
+		assertEquals(methodName, element.getMethodName());
+		assertEquals(fileName, element.getFileName());
+		assertEquals(line, element.getLineNumber());
+	}
+	
+	@Test
+	public void testCrash() throws Exception {
+		CrashRecord record = retrace(obfuscatedRecord().endSections());
+		assertEquals("org.crashlog.sample.BadStateException", record.getCause());
+		assertFrame("org.crashlog.sample.MainActivity", "onClick", "MainActivity.java", 44, record.getStackTrace()[0]);
+		assertEquals(VIEW, record.getStackTrace()[1]);
+	}
+	
+	@Test
+	public void testThreads() throws Exception {
+		CrashRecord record = retrace(obfuscatedRecord()
+				.beginSection()
+				.thread("worker", Thread.State.RUNNABLE, new StackTraceElement[] {RUN, CLICK})
+				.thread("main", Thread.State.WAITING, new StackTraceElement[] {VIEW})
+				.endSection(1)
+				.endSections());
+		
+		StackTraceElement[] worker = record.getThreads().get(0).getStackTrace();
+		assertFrame("org.crashlog.sample.Worker", "run", "Worker.java", 21, worker[0]);
+		assertFrame("org.crashlog.sample.MainActivity", "onClick", "MainActivity.java", 44, worker[1]);
+		assertEquals(VIEW, record.getThreads().get(1).getStackTrace()[0]);
+	}
+	
+	@Test
+	public void testCauses() throws Exception {
+		CrashRecord record = retrace(obfuscatedRecord()
+				.beginSection()
+				.cause(0, 0, "a.c", "caused", new StackTraceElement[] {RUN}, 2)
+				.cause(1, 1, "a.c", "suppressed", new StackTraceElement[] {CLICK}, 0)
+				.cause(0, 1, "java.io.IOException", "closed", new StackTraceElement[] {RUN}, 1)
+				.endSection(2)
+				.endSections());
+		
+		CrashCause causedBy = record.getCausedBy();
+		assertEquals("org.crashlog.sample.BadStateException", causedBy.getClassName());
+		assertEquals(2, causedBy.getFramesInCommon());
+		assertEquals(3, causedBy.getStackTrace().length);
+		assertFrame("org.crashlog.sample.Worker", "run", "Worker.java", 21, causedBy.getStackTrace()[0]);
+		assertFrame("org.crashlog.sample.MainActivity", "onClick", "MainActivity.java", 44, causedBy.getStackTrace()[1]);
+		assertEquals(VIEW, causedBy.getStackTrace()[2]);
+		
+		CrashCause nested = causedBy.getSuppressed().get(0);
+		assertEquals("org.crashlog.sample.BadStateException", nested.getClassName());
+		assertFrame("org.crashlog.sample.MainActivity", "onClick", "MainActivity.java", 44, nested.getStackTrace()[0]);
+		
+		CrashCause suppressed = record.getSuppressed().get(0);
+		assertEquals("java.io.IOException", suppressed.getClassName());
+		assertEquals(1, suppressed.getFramesInCommon());
+		assertFrame("org.crashlog.sample.Worker", "run", "Worker.java", 21, suppressed.getStackTrace()[0]);
+		assertEquals(VIEW, suppressed.getStackTrace()[1]);
+	}
+}